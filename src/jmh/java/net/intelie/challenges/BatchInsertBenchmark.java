@@ -0,0 +1,73 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingesting batches of {@code batchSize} events, one {@link EventStore#insert} at a time versus a single
+ * {@link EventStore#insertAll}. Both variants build the same fresh batch on every call, continuing the
+ * time range of the previous one, so the score difference is only the cost of getting it into the store.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchInsertBenchmark {
+	@Param
+	StoreImplementation store;
+
+	@Param({"1000"})
+	int batchSize;
+
+	@Param({"1", "100"})
+	int types;
+
+	EventStore eventStore;
+	String[] typeNames;
+	Event[] batch;
+	long timestamp;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		eventStore = store.create();
+		typeNames = BenchmarkData.typeNames(types);
+		batch = new Event[batchSize];
+		timestamp = 0;
+	}
+
+	void nextBatch() {
+		for (int i = 0; i < batchSize; i++) {
+			batch[i] = new Event(typeNames[i % types], timestamp++);
+		}
+	}
+
+	@Benchmark
+	public EventStore perEventInsert() {
+		nextBatch();
+		for (Event event : batch) {
+			eventStore.insert(event);
+		}
+		return eventStore;
+	}
+
+	@Benchmark
+	public EventStore batchInsert() {
+		nextBatch();
+		eventStore.insertAll(batch, 0, batchSize);
+		return eventStore;
+	}
+}
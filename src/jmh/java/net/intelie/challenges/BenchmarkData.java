@@ -0,0 +1,58 @@
+package net.intelie.challenges;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Builds the data sets shared by the benchmarks.
+ * <p>
+ * Event {@code i} of a data set has timestamp {@code i} and type {@code "type-" + (i % types)}, so every
+ * type is spread evenly over the whole time range, and a range of width {@code w} holds about
+ * {@code w / types} events of each type.
+ */
+final class BenchmarkData {
+
+	private BenchmarkData() {
+	}
+
+	static String[] typeNames(int types) {
+		String[] names = new String[types];
+		for (int t = 0; t < types; t++) {
+			names[t] = "type-" + t;
+		}
+		return names;
+	}
+
+	static Event[] events(int size, int types) {
+		String[] names = typeNames(types);
+		Event[] events = new Event[size];
+		for (int i = 0; i < size; i++) {
+			events[i] = new Event(names[i % types], i);
+		}
+		return events;
+	}
+
+	static EventStore populate(StoreImplementation implementation, Event[] events) {
+		EventStore store = implementation.create();
+		for (Event event : events) {
+			store.insert(event);
+		}
+		return store;
+	}
+
+	/**
+	 * Walks an iterator to its end, handing every event to the blackhole so that the JIT cannot skip the work
+	 * @param eventIterator
+	 * @param blackhole
+	 * @return the number of events seen
+	 */
+	static long drain(EventIterator eventIterator, Blackhole blackhole) throws Exception {
+		long count = 0;
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				blackhole.consume(it.current());
+				count++;
+			}
+		}
+		return count;
+	}
+}
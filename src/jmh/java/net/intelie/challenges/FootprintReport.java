@@ -0,0 +1,59 @@
+package net.intelie.challenges;
+
+/**
+ * Prints the retained heap per event of every {@link StoreImplementation}.
+ * <p>
+ * For each store, the heap in use is sampled after a full GC before and after inserting the events.
+ * The events are created on the fly and only referenced by the store, so the difference is what the store
+ * keeps per event, including the event objects themselves when the store retains them. Run with
+ * {@code java -cp target/benchmarks.jar net.intelie.challenges.FootprintReport [events] [types] [copies|payloads]},
+ * preferably with a fixed heap ({@code -Xms4g -Xmx4g}) so that the samples are stable. With {@code copies},
+ * every event gets its own copy of its type string, as when events are decoded from the network or a file,
+ * which shows what each store saves by interning types. With {@code payloads}, every event carries a
+ * reading and a host tag; stores that do not keep payloads are skipped.
+ */
+public class FootprintReport {
+	static final PayloadSchema READING = PayloadSchema.empty().withDouble("value").withString("host");
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int types = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		boolean copies = args.length > 2 && args[2].equals("copies");
+		boolean payloads = args.length > 2 && args[2].equals("payloads");
+		String[] typeNames = BenchmarkData.typeNames(types);
+		for (StoreImplementation implementation : StoreImplementation.values()) {
+			try {
+				System.out.printf("%-10s %8.1f bytes/event%n", implementation, bytesPerEvent(implementation, size, typeNames, copies, payloads));
+			} catch (IllegalArgumentException e) {
+				System.out.printf("%-10s %8s%n", implementation, "n/a");
+			}
+		}
+	}
+
+	static double bytesPerEvent(StoreImplementation implementation, int size, String[] typeNames, boolean copies, boolean payloads) {
+		long before = usedHeap();
+		EventStore store = implementation.create();
+		for (int i = 0; i < size; i++) {
+			String type = typeNames[i % typeNames.length];
+			if (payloads) {
+				store.insert(Event.of(type, i, READING.newPayload().setDouble("value", i * 0.25).setString("host", "host-" + i % 16).build()));
+			} else {
+				store.insert(new Event(copies ? new String(type.toCharArray()) : type, i));
+			}
+		}
+		long after = usedHeap();
+		//Keeps the store reachable until after the sample
+		if (store.query(typeNames[0], 0, 1) == null) {
+			throw new IllegalStateException();
+		}
+		return (after - before) / (double) size;
+	}
+
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
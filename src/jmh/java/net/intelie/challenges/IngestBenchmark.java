@@ -0,0 +1,89 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Insert latency of producers racing with wide queries, with and without an {@link IngestPipeline}.
+ * <p>
+ * Two producers insert while two readers keep scanning a wide range of the same type. Without the pipeline
+ * the producers compete with the readers for the store; with it they only put events in the ring buffer.
+ * Latencies are sampled, so the report includes percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class IngestBenchmark {
+	@Param({"HASH_SET", "COLUMNAR"})
+	StoreImplementation store;
+
+	@Param({"false", "true"})
+	boolean pipeline;
+
+	@Param({"100000"})
+	int size;
+
+	EventStore eventStore;
+	IngestPipeline ingestPipeline;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		eventStore = BenchmarkData.populate(store, BenchmarkData.events(size, 1));
+		if (pipeline) {
+			ingestPipeline = new IngestPipeline(eventStore, 1 << 16, BackpressurePolicy.BLOCK);
+			eventStore = ingestPipeline;
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		if (ingestPipeline != null) {
+			ingestPipeline.close();
+			ingestPipeline = null;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Producer {
+		long timestamp;
+
+		@Setup(Level.Iteration)
+		public void setUp(IngestBenchmark benchmark) {
+			timestamp = benchmark.size + ThreadLocalRandom.current().nextInt(benchmark.size);
+		}
+	}
+
+	@Benchmark
+	@Group("ingest")
+	@GroupThreads(2)
+	public void insert(Producer producer) {
+		eventStore.insert(new Event("type-0", producer.timestamp++));
+	}
+
+	@Benchmark
+	@Group("ingest")
+	@GroupThreads(2)
+	public long wideQuery(Blackhole blackhole) throws Exception {
+		return BenchmarkData.drain(eventStore.query("type-0", 0, size), blackhole);
+	}
+}
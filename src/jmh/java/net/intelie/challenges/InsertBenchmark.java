@@ -0,0 +1,101 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insert throughput, on a store pre-filled with {@code size} events.
+ * <p>
+ * The store is rebuilt for every iteration so that its size stays close to {@code size}. Besides the
+ * single- and 4-threaded variants, any thread count can be measured with JMH's {@code -t} option.
+ * <p>
+ * With {@code latePercent} above 0, that share of the events are stragglers, stamped up to
+ * {@link #MAX_LATENESS} before the newest one of their producer, as when racing threads stamp events with
+ * the clock before inserting them. With {@code eventsPerTick} above 1, that many events share each
+ * timestamp, as with a dense feed stamped in milliseconds, so stragglers reach that many times more events
+ * back.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+	static final int MAX_LATENESS = 2000;
+
+	@Param
+	StoreImplementation store;
+
+	@Param({"10000", "1000000"})
+	int size;
+
+	@Param({"1", "100"})
+	int types;
+
+	@Param({"0", "10"})
+	int latePercent;
+
+	@Param({"1", "1000"})
+	int eventsPerTick;
+
+	EventStore eventStore;
+	String[] typeNames;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		eventStore = BenchmarkData.populate(store, BenchmarkData.events(size, types));
+		typeNames = BenchmarkData.typeNames(types);
+	}
+
+	/**
+	 * Per-thread event source, so that producers do not contend on anything but the store itself.
+	 * Timestamps keep growing past the pre-filled range, like a live feed would.
+	 */
+	@State(Scope.Thread)
+	public static class Producer {
+		int next;
+		long start;
+
+		@Setup(Level.Iteration)
+		public void setUp(InsertBenchmark benchmark) {
+			next = 0;
+			start = benchmark.size;
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void insertSingleThread(Producer producer) {
+		insert(producer);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void insertMultiThread(Producer producer) {
+		insert(producer);
+	}
+
+	void insert(Producer producer) {
+		int next = producer.next++;
+		int type = next % types;
+		long timestamp = producer.start + next / eventsPerTick;
+		if (next % 100 < latePercent) {
+			timestamp -= 1 + (next * 7919L) % MAX_LATENESS;
+		}
+		eventStore.insert(new Event(typeNames[type], timestamp));
+	}
+}
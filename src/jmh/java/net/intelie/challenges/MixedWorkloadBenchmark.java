@@ -0,0 +1,102 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Concurrent readers and writers on the same store.
+ * <p>
+ * Each group runs writers inserting at the head of the time range next to readers running narrow queries,
+ * and reports the throughput of both sides. The read-heavy group has 1 writer for 3 readers and the
+ * write-heavy group the opposite. JMH's {@code -tg} option overrides the thread distribution.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MixedWorkloadBenchmark {
+	@Param
+	StoreImplementation store;
+
+	@Param({"10000", "1000000"})
+	int size;
+
+	@Param({"1", "100"})
+	int types;
+
+	EventStore eventStore;
+	String[] typeNames;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		eventStore = BenchmarkData.populate(store, BenchmarkData.events(size, types));
+		typeNames = BenchmarkData.typeNames(types);
+	}
+
+	@State(Scope.Thread)
+	public static class Producer {
+		int next;
+		long timestamp;
+
+		@Setup(Level.Iteration)
+		public void setUp(MixedWorkloadBenchmark benchmark) {
+			timestamp = benchmark.size;
+		}
+	}
+
+	@Benchmark
+	@Group("readHeavy")
+	@GroupThreads(1)
+	public void readHeavyInsert(Producer producer) {
+		insert(producer);
+	}
+
+	@Benchmark
+	@Group("readHeavy")
+	@GroupThreads(3)
+	public long readHeavyQuery(Blackhole blackhole) throws Exception {
+		return query(blackhole);
+	}
+
+	@Benchmark
+	@Group("writeHeavy")
+	@GroupThreads(3)
+	public void writeHeavyInsert(Producer producer) {
+		insert(producer);
+	}
+
+	@Benchmark
+	@Group("writeHeavy")
+	@GroupThreads(1)
+	public long writeHeavyQuery(Blackhole blackhole) throws Exception {
+		return query(blackhole);
+	}
+
+	void insert(Producer producer) {
+		eventStore.insert(new Event(typeNames[producer.next++ % types], producer.timestamp++));
+	}
+
+	long query(Blackhole blackhole) throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long start = random.nextInt(size);
+		return BenchmarkData.drain(eventStore.query(typeNames[random.nextInt(types)], start, start + 10L * types), blackhole);
+	}
+}
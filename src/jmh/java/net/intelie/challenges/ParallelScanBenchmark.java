@@ -0,0 +1,74 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serial versus parallel scans of a single type with {@code size} events, through {@link EventStore#stream}
+ * and {@link ParallelScans}.
+ * <p>
+ * The scans count the events matching a predicate, and build a histogram of them, which no store metadata can
+ * answer. The parallel runs use the common pool, so their speedup is bounded by the number of cores; the
+ * store is not an enum constant here, since the unordered {@code HASH_SET} store copies the whole range
+ * before streaming it. Run with a heap of a few gigabytes, for instance {@code -jvmArgs -Xmx4g}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class ParallelScanBenchmark {
+	static final Predicate<Event> FILTER = event -> Long.hashCode(event.timestamp() * 0x9E3779B97F4A7C15L) % 3 == 0;
+
+	@Param({"INDEXED", "COLUMNAR", "OFF_HEAP"})
+	StoreImplementation store;
+
+	@Param({"10000000"})
+	int size;
+
+	EventStore eventStore;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		eventStore = store.create();
+		Event[] events = BenchmarkData.events(size, 1);
+		eventStore.insertAll(events, 0, events.length);
+	}
+
+	@Benchmark
+	public long serialCount() {
+		return eventStore.stream("type-0", 0, size).filter(FILTER).count();
+	}
+
+	@Benchmark
+	public long parallelCount() {
+		return ParallelScans.count(eventStore, "type-0", 0, size, FILTER);
+	}
+
+	@Benchmark
+	public long[] serialHistogram() {
+		long[] counts = new long[100];
+		long width = size / counts.length;
+		eventStore.stream("type-0", 0, size).filter(FILTER).forEach(event -> counts[(int) (event.timestamp() / width)]++);
+		return counts;
+	}
+
+	@Benchmark
+	public long[] parallelHistogram() {
+		return ParallelScans.histogram(eventStore, "type-0", 0, size, size / 100, FILTER);
+	}
+}
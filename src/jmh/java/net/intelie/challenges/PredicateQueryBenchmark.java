@@ -0,0 +1,64 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Latency of a selective query with a predicate on a payload field, over {@code size} events of one type,
+ * each with a reading and one of 100 hosts: the query asks for the events of one host over the whole range,
+ * about 1% of them.
+ * <p>
+ * With {@code indexed}, stores that support it ({@link ColumnarEventStore}) get an index on the host field;
+ * the others ignore the parameter and filter every event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PredicateQueryBenchmark {
+	static final PayloadSchema READING = PayloadSchema.empty().withDouble("value").withString("host");
+
+	@Param({"COLUMNAR", "INDEXED", "SHARDED"})
+	StoreImplementation store;
+
+	@Param({"1000000"})
+	int size;
+
+	@Param({"false", "true"})
+	boolean indexed;
+
+	EventStore eventStore;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		eventStore = store.create();
+		if (indexed && eventStore instanceof ColumnarEventStore) {
+			((ColumnarEventStore) eventStore).createIndex("type0", "host", PayloadSchema.FieldType.STRING);
+		}
+		for (int i = 0; i < size; i++) {
+			eventStore.insert(Event.of("type0", i, READING.newPayload().setDouble("value", i * 0.25).setString("host", "host-" + i % 100).build()));
+		}
+	}
+
+	@Benchmark
+	public long selectiveQuery(Blackhole blackhole) throws Exception {
+		String host = "host-" + ThreadLocalRandom.current().nextInt(100);
+		return BenchmarkData.drain(eventStore.query("type0", 0, size, FieldPredicate.stringEquals("host", host)), blackhole);
+	}
+}
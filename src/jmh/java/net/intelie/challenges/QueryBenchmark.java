@@ -0,0 +1,73 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Query latency and full iteration over a read-only store of {@code size} events.
+ * <p>
+ * A narrow query spans about 10 events of the queried type at a random position; a wide query spans
+ * the whole time range of one type; a full iteration walks every event of every type.
+ * Use JMH's {@code -t} option to run the readers on several threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+	@Param
+	StoreImplementation store;
+
+	@Param({"10000", "1000000"})
+	int size;
+
+	@Param({"1", "100"})
+	int types;
+
+	EventStore eventStore;
+	String[] typeNames;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		eventStore = BenchmarkData.populate(store, BenchmarkData.events(size, types));
+		typeNames = BenchmarkData.typeNames(types);
+	}
+
+	@Benchmark
+	public long narrowQuery(Blackhole blackhole) throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long start = random.nextInt(size);
+		return BenchmarkData.drain(eventStore.query(typeNames[random.nextInt(types)], start, start + 10L * types), blackhole);
+	}
+
+	@Benchmark
+	public long wideQuery(Blackhole blackhole) throws Exception {
+		String type = typeNames[ThreadLocalRandom.current().nextInt(types)];
+		return BenchmarkData.drain(eventStore.query(type, 0, size), blackhole);
+	}
+
+	@Benchmark
+	public long fullIteration(Blackhole blackhole) throws Exception {
+		long count = 0;
+		for (String type : typeNames) {
+			count += BenchmarkData.drain(eventStore.query(type, Long.MIN_VALUE, Long.MAX_VALUE), blackhole);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,58 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a single {@link EventStore#removeAll} on a store of {@code size} events.
+ * <p>
+ * Every invocation needs a freshly populated store, so this runs in single shot mode with the store
+ * rebuilt before each call, outside of the measured time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RemoveAllBenchmark {
+	@Param
+	StoreImplementation store;
+
+	@Param({"10000", "1000000"})
+	int size;
+
+	@Param({"1", "100"})
+	int types;
+
+	Event[] events;
+	EventStore eventStore;
+
+	@Setup(Level.Trial)
+	public void setUpData() {
+		events = BenchmarkData.events(size, types);
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpStore() {
+		eventStore = BenchmarkData.populate(store, events);
+	}
+
+	@Benchmark
+	public EventStore removeAll() {
+		eventStore.removeAll("type-0");
+		return eventStore;
+	}
+}
@@ -0,0 +1,50 @@
+package net.intelie.challenges;
+
+import java.util.HashSet;
+
+/**
+ * Every {@link EventStore} implementation the benchmarks run against.
+ * <p>
+ * Benchmarks declare an unvalued {@code @Param StoreImplementation store}, which JMH expands to all the
+ * constants of this enum, so a new store engine only has to be added here to be measured everywhere.
+ */
+public enum StoreImplementation {
+	HASH_SET {
+		@Override
+		EventStore create() {
+			return new EventStoreImpl(new HashSet<Event>());
+		}
+	},
+	INDEXED {
+		@Override
+		EventStore create() {
+			return new IndexedEventStore();
+		}
+	},
+	COLUMNAR {
+		@Override
+		EventStore create() {
+			return new ColumnarEventStore();
+		}
+	},
+	COMPRESSED {
+		@Override
+		EventStore create() {
+			return new CompressedEventStore();
+		}
+	},
+	OFF_HEAP {
+		@Override
+		EventStore create() {
+			return new OffHeapEventStore(1L << 30);
+		}
+	},
+	SHARDED {
+		@Override
+		EventStore create() {
+			return new ShardedEventStore(ColumnarEventStore::new);
+		}
+	};
+
+	abstract EventStore create();
+}
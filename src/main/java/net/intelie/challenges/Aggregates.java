@@ -0,0 +1,105 @@
+package net.intelie.challenges;
+
+import java.util.OptionalLong;
+
+/**
+ * Helpers behind the aggregate queries of {@link EventStore}.
+ * <p>
+ * Histograms split a range into buckets of a fixed width, starting at the start of the range; the last
+ * bucket is cut short by the end of the range. The fallbacks used by stores that keep no metadata for
+ * aggregates iterate over the matching events.
+ */
+final class Aggregates {
+	private Aggregates() {
+	}
+
+	/**
+	 * @return the number of buckets of the histogram of a range
+	 * @throws IllegalArgumentException if the width is not positive, or there would be more than Integer.MAX_VALUE - 8 buckets
+	 */
+	static int bucketCount(long startTime, long endTime, long bucketWidth) {
+		if (bucketWidth <= 0) {
+			throw new IllegalArgumentException("Bucket width must be positive");
+		}
+		if (startTime >= endTime) {
+			return 0;
+		}
+		//The span may only fit in an unsigned long
+		long buckets = Long.divideUnsigned(endTime - startTime - 1, bucketWidth) + 1;
+		if (buckets <= 0 || buckets > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many buckets");
+		}
+		return (int) buckets;
+	}
+
+	/**
+	 * @return the start of a bucket, or endTime for the bucket past the last one
+	 */
+	static long bucketStart(long startTime, long endTime, long bucketWidth, int bucket, int bucketCount) {
+		return bucket == bucketCount ? endTime : startTime + bucket * bucketWidth;
+	}
+
+	static long count(EventIterator eventIterator) {
+		try (EventIterator it = eventIterator) {
+			long count = 0;
+			while (it.moveNext()) {
+				//EventIteratorImpl only advances in current()
+				it.current();
+				count++;
+			}
+			return count;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static OptionalLong first(EventIterator eventIterator) {
+		try (EventIterator it = eventIterator) {
+			long first = Long.MAX_VALUE;
+			boolean found = false;
+			while (it.moveNext()) {
+				first = Math.min(first, it.current().timestamp());
+				found = true;
+			}
+			return found ? OptionalLong.of(first) : OptionalLong.empty();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static OptionalLong last(EventIterator eventIterator) {
+		try (EventIterator it = eventIterator) {
+			long last = Long.MIN_VALUE;
+			boolean found = false;
+			while (it.moveNext()) {
+				last = Math.max(last, it.current().timestamp());
+				found = true;
+			}
+			return found ? OptionalLong.of(last) : OptionalLong.empty();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static long[] histogram(EventIterator eventIterator, long startTime, long endTime, long bucketWidth) {
+		long[] counts = new long[bucketCount(startTime, endTime, bucketWidth)];
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				long offset = it.current().timestamp() - startTime;
+				//The offset is non-negative, but may only fit in an unsigned long
+				counts[(int) Long.divideUnsigned(offset, bucketWidth)]++;
+			}
+			return counts;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
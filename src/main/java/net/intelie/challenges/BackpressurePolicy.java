@@ -0,0 +1,20 @@
+package net.intelie.challenges;
+
+/**
+ * What an {@link IngestPipeline} does with an event when its ring buffer is full.
+ */
+public enum BackpressurePolicy {
+	/**
+	 * The producer parks, for a little longer each time, until the writer frees a slot.
+	 */
+	BLOCK,
+	/**
+	 * The producer busy-waits until the writer frees a slot. It reacts faster than {@link #BLOCK}, at the
+	 * price of a core per waiting producer.
+	 */
+	SPIN,
+	/**
+	 * The event is dropped right away and counted in {@link IngestPipeline#droppedEvents}.
+	 */
+	DROP
+}
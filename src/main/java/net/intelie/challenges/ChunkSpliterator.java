@@ -0,0 +1,138 @@
+package net.intelie.challenges;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over a range of a {@link TimestampColumn}, split along its chunks.
+ * <p>
+ * Like {@link ColumnarIterator}, it reads the chunk array once and never locks. The sizes of the chunks are
+ * read once too, when it is created, so the range is fixed and its size is exact, even if a chunk of the
+ * array grows in place later. Parts are split at a chunk boundary, or in the middle of their only chunk,
+ * and can be walked by different threads.
+ */
+class ChunkSpliterator implements Spliterator<Event> {
+	private final String type;
+	private final TimestampColumn.Chunk[] chunks;
+	private final PayloadSchema[] schemas;
+	private final int[] sizes;
+	private int chunk;
+	private int position;
+	private final int endChunk;
+	private final int endPosition;
+	private long size;
+
+	private ChunkSpliterator(String type, TimestampColumn.Chunk[] chunks, PayloadSchema[] schemas, int[] sizes, int chunk, int position, int endChunk, int endPosition, long size) {
+		this.type = type;
+		this.chunks = chunks;
+		this.schemas = schemas;
+		this.sizes = sizes;
+		this.chunk = chunk;
+		this.position = position;
+		this.endChunk = endChunk;
+		this.endPosition = endPosition;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a spliterator over the timestamps of the column between startTime (inclusive) and endTime (exclusive)
+	 * @param column
+	 * @param startTime
+	 * @param endTime
+	 */
+	static ChunkSpliterator of(TimestampColumn column, long startTime, long endTime) {
+		TimestampColumn.Chunk[] chunks = column.chunks();
+		PayloadSchema[] schemas = column.schemas;
+		int[] sizes = new int[chunks.length];
+		for (int i = 0; i < chunks.length; i++) {
+			sizes[i] = chunks[i].size;
+		}
+		if (startTime >= endTime || chunks.length == 0) {
+			return new ChunkSpliterator(column.type, chunks, schemas, sizes, 0, 0, 0, 0, 0);
+		}
+		int chunk = TimestampColumn.firstChunkReaching(chunks, startTime);
+		int position = chunk < chunks.length ? TimestampColumn.lowerBound(chunks[chunk].timestamps, sizes[chunk], startTime) : 0;
+		int endChunk = TimestampColumn.firstChunkReaching(chunks, endTime);
+		int endPosition;
+		if (endChunk < chunks.length) {
+			endPosition = TimestampColumn.lowerBound(chunks[endChunk].timestamps, sizes[endChunk], endTime);
+		} else {
+			endChunk = chunks.length - 1;
+			endPosition = sizes[endChunk];
+		}
+		return new ChunkSpliterator(column.type, chunks, schemas, sizes, chunk, position, endChunk, endPosition, count(sizes, chunk, position, endChunk, endPosition));
+	}
+
+	private static long count(int[] sizes, int chunk, int position, int endChunk, int endPosition) {
+		if (chunk > endChunk) {
+			return 0;
+		}
+		long count = endPosition - position;
+		for (int i = chunk; i < endChunk; i++) {
+			count += sizes[i];
+		}
+		return count;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Event> action) {
+		while (chunk < endChunk && position >= sizes[chunk]) {
+			chunk++;
+			position = 0;
+		}
+		if (chunk > endChunk || (chunk == endChunk && position >= endPosition)) {
+			return false;
+		}
+		size--;
+		action.accept(event(chunks[chunk], position++));
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super Event> action) {
+		for (; chunk <= endChunk && chunk < chunks.length; chunk++, position = 0) {
+			TimestampColumn.Chunk current = chunks[chunk];
+			int end = chunk == endChunk ? endPosition : sizes[chunk];
+			long[] timestamps = current.timestamps;
+			for (; position < end; position++) {
+				action.accept(current.payloads == null ? new Event(type, timestamps[position]) : event(current, position));
+			}
+		}
+		size = 0;
+	}
+
+	private Event event(TimestampColumn.Chunk chunk, int position) {
+		return Event.of(type, chunk.timestamps[position], TimestampColumn.payload(chunk, position, schemas));
+	}
+
+	@Override
+	public Spliterator<Event> trySplit() {
+		if (size < 2) {
+			return null;
+		}
+		ChunkSpliterator prefix;
+		if (endChunk - chunk >= 2 || (endChunk - chunk == 1 && endPosition > 0)) {
+			int middle = chunk + (endChunk - chunk + 1) / 2;
+			prefix = new ChunkSpliterator(type, chunks, schemas, sizes, chunk, position, middle - 1, sizes[middle - 1], count(sizes, chunk, position, middle - 1, sizes[middle - 1]));
+			chunk = middle;
+		} else {
+			int end = chunk == endChunk ? endPosition : sizes[chunk];
+			int middle = position + (end - position) / 2;
+			prefix = new ChunkSpliterator(type, chunks, schemas, sizes, chunk, position, chunk, middle, middle - position);
+			position = middle;
+		}
+		position = prefix.endChunk == chunk ? position : 0;
+		size -= prefix.size;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return size;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+}
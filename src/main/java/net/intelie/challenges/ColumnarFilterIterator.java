@@ -0,0 +1,219 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+
+/**
+ * An {@link EventIterator} over the events of a range of a {@link TimestampColumn} whose payloads match a set
+ * of {@link FieldPredicate}s.
+ * <p>
+ * The predicates are tested on the payload records in the slabs of the chunks, so events that do not match are
+ * skipped without creating an {@link Event} or a {@link Payload} for them, and chunks without payloads are
+ * skipped whole. Given the candidate timestamps found in a {@link FieldIndex}, the iterator only visits the
+ * events with those timestamps, with a binary search for each, and tests them all the same, so that the index
+ * only has to narrow the search down. Candidates are in ascending order, so each search starts at the cursor.
+ * <p>
+ * Like {@link ColumnarIterator}, the iterator walks the chunk array read when it is created, without locking,
+ * and buffers removals until it is closed or has buffered a chunk's worth of them.
+ */
+class ColumnarFilterIterator implements EventIterator {
+	private final TimestampColumn column;
+	private final FieldPredicate[] predicates;
+	private final long endTime;
+	private final long[] candidates;
+	private TimestampColumn.Chunk[] chunks;
+	private final PayloadSchema[] schemas;
+	private int nextCandidate;
+	private long candidate;
+	private boolean inCandidate;
+	private int chunk;
+	private int position;
+	private boolean positioned;
+	private Event current;
+	private long[] removals;
+	private Payload[] removalPayloads;
+	private int removalCount;
+
+	/**
+	 * @param column
+	 * @param startTime
+	 * @param endTime
+	 * @param predicates
+	 * @param candidates the distinct timestamps of the range that may match, in ascending order, or null to
+	 *                   test every event of the range
+	 */
+	ColumnarFilterIterator(TimestampColumn column, long startTime, long endTime, FieldPredicate[] predicates, long[] candidates) {
+		this.column = column;
+		this.predicates = predicates;
+		this.endTime = endTime;
+		this.candidates = candidates;
+		this.chunks = column.chunks();
+		//Read after the chunks, so that it has the schemas of all their records
+		this.schemas = column.schemas;
+		if (candidates == null) {
+			this.chunk = TimestampColumn.firstChunkReaching(chunks, startTime);
+			if (chunk < chunks.length) {
+				this.position = TimestampColumn.lowerBound(chunks[chunk].timestamps, chunks[chunk].size, startTime);
+			}
+		}
+	}
+
+	@Override
+	public boolean moveNext() {
+		positioned = false;
+		current = null;
+		boolean found = chunks != null && (candidates == null ? scan() : lookUp());
+		if (!found) {
+			chunks = null;
+		}
+		return found;
+	}
+
+	/**
+	 * Tests the events of the range in order, from the cursor on
+	 */
+	private boolean scan() {
+		while (chunk < chunks.length) {
+			TimestampColumn.Chunk next = chunks[chunk];
+			int size = next.size;
+			if (position >= size || next.payloads == null) {
+				if (next.timestamps[Math.min(position, size - 1)] >= endTime) {
+					return false;
+				}
+				chunk++;
+				position = 0;
+				continue;
+			}
+			if (next.timestamps[position] >= endTime) {
+				return false;
+			}
+			if (matches(next, position++)) {
+				return positioned = true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tests the events with the candidate timestamps, from the cursor on
+	 */
+	private boolean lookUp() {
+		while (true) {
+			if (!inCandidate) {
+				if (nextCandidate == candidates.length) {
+					return false;
+				}
+				//Candidates ascend, so each search starts where the previous one ended
+				candidate = candidates[nextCandidate++];
+				int from = chunk;
+				chunk = TimestampColumn.firstChunkReaching(chunks, chunk, candidate);
+				if (chunk == chunks.length) {
+					return false;
+				}
+				position = TimestampColumn.lowerBound(chunks[chunk].timestamps, chunk == from ? position : 0, chunks[chunk].size, candidate);
+				inCandidate = true;
+			}
+			if (chunk == chunks.length) {
+				inCandidate = false;
+				continue;
+			}
+			TimestampColumn.Chunk next = chunks[chunk];
+			if (position >= next.size) {
+				//Events with the same timestamp may go on in the next chunk
+				chunk++;
+				position = 0;
+				continue;
+			}
+			if (next.timestamps[position] != candidate) {
+				inCandidate = false;
+				continue;
+			}
+			if (next.payloads != null && matches(next, position++)) {
+				return positioned = true;
+			} else if (next.payloads == null) {
+				position = next.size;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the payload record of an event of a chunk matches every predicate
+	 */
+	private boolean matches(TimestampColumn.Chunk chunk, int position) {
+		int start = chunk.payloadStart(position);
+		int end = chunk.payloadEnds[position];
+		if (start == end) {
+			return false;
+		}
+		PayloadSchema schema = schemas[TimestampColumn.recordSchema(chunk.payloads, start)];
+		int offset = TimestampColumn.recordPayload(chunk.payloads, start);
+		for (FieldPredicate predicate : predicates) {
+			if (!predicate.test(schema, chunk.payloads, offset, end - offset)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the event the iterator is positioned at, creating it on the first call.
+	 *
+	 * @return the event itself
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public Event current() {
+		if (!positioned) {
+			throw new IllegalStateException();
+		}
+		if (current == null) {
+			TimestampColumn.Chunk at = chunks[chunk];
+			current = Event.of(column.type, at.timestamps[position - 1], TimestampColumn.payload(at, position - 1, schemas));
+		}
+		return current;
+	}
+
+	/**
+	 * Removes the current event from the column, once the iterator is closed or has buffered a chunk's worth
+	 * of removals.
+	 *
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public void remove() {
+		Event event = current();
+		if (removals == null) {
+			removals = new long[16];
+			removalPayloads = new Payload[16];
+		} else if (removalCount == removals.length) {
+			if (removalCount == TimestampColumn.CHUNK_CAPACITY) {
+				applyRemovals();
+			} else {
+				removals = Arrays.copyOf(removals, removalCount * 2);
+				removalPayloads = Arrays.copyOf(removalPayloads, removalCount * 2);
+			}
+		}
+		removals[removalCount] = event.timestamp();
+		removalPayloads[removalCount++] = event.payload();
+	}
+
+	/**
+	 * Applies the buffered removals, which are in timestamp order since the iterator walks the column in order
+	 */
+	private void applyRemovals() {
+		if (removalCount > 0) {
+			int count = removalCount;
+			removalCount = 0;
+			column.removeSorted(removals, removalPayloads, count);
+		}
+	}
+
+	@Override
+	public void close() {
+		applyRemovals();
+		chunks = null;
+		positioned = false;
+		current = null;
+	}
+}
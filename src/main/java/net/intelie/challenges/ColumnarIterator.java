@@ -0,0 +1,197 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+
+/**
+ * An {@link EventIterator} over a range of a {@link TimestampColumn}.
+ * <p>
+ * The iterator reads the chunk array of the column once, when it is created, and walks it without locking.
+ * Chunks are never modified below their size, so the iteration is weakly consistent: it never fails,
+ * returns each stored event at most once and in timestamp order, and may or may not see concurrent changes.
+ * {@link Event} instances are only built when {@link #current} is called, from the type of the column and
+ * the timestamp under the cursor, with a {@link Payload} that reads the slab of the chunk in place.
+ * <p>
+ * Removals are buffered, and applied with {@link TimestampColumn#removeSorted} when the iterator leaves a
+ * chunk or is closed, so removing many events of a chunk copies it once rather than once per event. Until
+ * then, other readers still see the removed events.
+ * <p>
+ * The iterators of a store come from an {@link IteratorPool} and go back to it when closed, so a query
+ * allocates nothing but its {@link IteratorLease}.
+ */
+class ColumnarIterator implements EventIterator {
+	private final IteratorPool<ColumnarIterator> pool;
+	TimestampColumn column;
+	long endTime;
+	TimestampColumn.Chunk[] chunks;
+	long[] removals;
+	Payload[] removalPayloads;
+	int removalCount;
+	int nextChunk;
+	int nextPosition;
+	boolean positioned;
+	long currentTimestamp;
+	Event current;
+
+	/**
+	 * Creates an iterator over the timestamps of the column between startTime (inclusive) and endTime (exclusive)
+	 * @param column
+	 * @param startTime
+	 * @param endTime
+	 */
+	ColumnarIterator(TimestampColumn column, long startTime, long endTime) {
+		this(null);
+		open(column, startTime, endTime);
+	}
+
+	/**
+	 * Creates an idle iterator
+	 * @param pool where the iterator goes back when closed, or null
+	 */
+	ColumnarIterator(IteratorPool<ColumnarIterator> pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Positions the iterator before the first timestamp of the column between startTime (inclusive) and endTime (exclusive)
+	 * @param column
+	 * @param startTime
+	 * @param endTime
+	 * @return the iterator
+	 */
+	ColumnarIterator open(TimestampColumn column, long startTime, long endTime) {
+		this.column = column;
+		this.endTime = endTime;
+		this.chunks = column.chunks();
+		this.nextChunk = TimestampColumn.firstChunkReaching(chunks, startTime);
+		this.nextPosition = 0;
+		this.positioned = false;
+		this.current = null;
+		this.removalCount = 0;
+		this.removalPayloads = null;
+		if (nextChunk < chunks.length) {
+			TimestampColumn.Chunk chunk = chunks[nextChunk];
+			this.nextPosition = TimestampColumn.lowerBound(chunk.timestamps, chunk.size, startTime);
+		}
+		return this;
+	}
+
+	/**
+	 * Moves to the next timestamp of the range, if any.
+	 */
+	@Override
+	public boolean moveNext() {
+		positioned = false;
+		current = null;
+		while (chunks != null && nextChunk < chunks.length) {
+			TimestampColumn.Chunk chunk = chunks[nextChunk];
+			if (nextPosition >= chunk.size) {
+				nextChunk++;
+				nextPosition = 0;
+				applyRemovals();
+				continue;
+			}
+			long timestamp = chunk.timestamps[nextPosition++];
+			if (timestamp >= endTime) {
+				chunks = null;
+				break;
+			}
+			currentTimestamp = timestamp;
+			positioned = true;
+			return true;
+		}
+		applyRemovals();
+		return false;
+	}
+
+	/**
+	 * Returns the event the iterator is positioned at, creating it on the first call.
+	 *
+	 * @return the event itself
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public Event current() {
+		if (!positioned) {
+			throw new IllegalStateException();
+		}
+		if (current == null) {
+			current = chunks[nextChunk].payloads == null ? new Event(column.type, currentTimestamp) : Event.of(column.type, currentTimestamp, currentPayload());
+		}
+		return current;
+	}
+
+	/**
+	 * Removes the current event from the column, once the iterator leaves its chunk or is closed.
+	 *
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public void remove() {
+		if (!positioned) {
+			throw new IllegalStateException();
+		}
+		if (removals == null) {
+			removals = new long[16];
+		} else if (removalCount == removals.length) {
+			if (removalCount == TimestampColumn.CHUNK_CAPACITY) {
+				applyRemovals();
+			} else {
+				removals = Arrays.copyOf(removals, removalCount * 2);
+				if (removalPayloads != null) {
+					removalPayloads = Arrays.copyOf(removalPayloads, removalCount * 2);
+				}
+			}
+		}
+		//Payloads are only tracked once a removed event has one, so that plain columns do not pay for them
+		Payload payload = currentPayload();
+		if (payload != Payload.EMPTY && removalPayloads == null) {
+			removalPayloads = new Payload[removals.length];
+			Arrays.fill(removalPayloads, 0, removalCount, Payload.EMPTY);
+		}
+		if (removalPayloads != null) {
+			removalPayloads[removalCount] = payload;
+		}
+		removals[removalCount++] = currentTimestamp;
+	}
+
+	/**
+	 * @return the payload of the current event, which is in the chunk the iterator has not left yet
+	 */
+	private Payload currentPayload() {
+		return TimestampColumn.payload(chunks[nextChunk], nextPosition - 1, column.schemas);
+	}
+
+	/**
+	 * Applies the buffered removals, which are in timestamp order since the iterator walks the column in order
+	 */
+	private void applyRemovals() {
+		if (removalCount > 0) {
+			int count = removalCount;
+			Payload[] payloads = removalPayloads;
+			removalCount = 0;
+			removalPayloads = null;
+			column.removeSorted(removals, payloads, count);
+		}
+	}
+
+	/**
+	 * Applies the pending removals, drops the references to the column and its chunks, and hands the
+	 * iterator back to its pool. A pooled iterator must not be used once closed.
+	 */
+	@Override
+	public void close() {
+		if (column == null) {
+			return;
+		}
+		applyRemovals();
+		column = null;
+		chunks = null;
+		positioned = false;
+		current = null;
+		if (pool != null) {
+			pool.release(this);
+		}
+	}
+}
@@ -0,0 +1,567 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The timestamps of every event of one type, as a list of compressed {@link SealedSegment}s followed by a
+ * mutable head.
+ * <p>
+ * New timestamps go to the head, a sorted {@code long[]} of up to {@link #SEGMENT_CAPACITY} timestamps.
+ * When the head is full, it is sealed: encoded into a new segment at the end of the list, and replaced by
+ * an empty head. Segments never overlap, and every timestamp of a segment is at or before those of the
+ * segments and head after it. A late timestamp, older than the last sealed one, is inserted into the
+ * segment it belongs to, which is decoded and encoded again; a segment that grows past
+ * {@link #MAX_SEGMENT} timestamps that way is split in two. Removals rewrite the segments they touch the
+ * same way, so both are meant to be rare next to in-order inserts and queries.
+ * <p>
+ * Readers never lock. The sealed segments and the head are published together as a {@link Layout}, which
+ * readers read once. As in {@link TimestampColumn}, the only in-place change is appending to the head past
+ * its volatile size; any other change publishes a new layout, and leaves the old one intact for readers
+ * that still hold it. Writers of the same column are serialized by a lock.
+ * <p>
+ * In a {@link TieredEventStore}, sealed segments may be replaced by spilled copies (see {@link #swap}).
+ * Whenever a layout is published, the spilled segments it no longer holds are released to the
+ * {@link SegmentSpill}, so that their files can be deleted.
+ */
+final class CompressedColumn {
+	static final int SEGMENT_CAPACITY = 1024;
+	static final int MAX_SEGMENT = 2 * SEGMENT_CAPACITY;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final SealedSegment[] NO_SEGMENTS = new SealedSegment[0];
+	private static final Layout EMPTY = new Layout(NO_SEGMENTS, new long[0], 0);
+
+	/**
+	 * The sealed segments of a column and its head. Slots of the head below {@link #headSize} are never
+	 * modified once published.
+	 */
+	static final class Layout {
+		final SealedSegment[] sealed;
+		final long[] head;
+		volatile int headSize;
+
+		Layout(SealedSegment[] sealed, long[] head, int headSize) {
+			this.sealed = sealed;
+			this.head = head;
+			this.headSize = headSize;
+		}
+	}
+
+	final String type;
+	final ReentrantLock writeLock = new ReentrantLock();
+	volatile Layout layout = EMPTY;
+	final SegmentSpill spill;
+
+	CompressedColumn(String type) {
+		this(type, null);
+	}
+
+	/**
+	 * @param type
+	 * @param spill where the segments of the column may be spilled, or null
+	 */
+	CompressedColumn(String type, SegmentSpill spill) {
+		this.type = type;
+		this.spill = spill;
+	}
+
+	private void lock() {
+		if (!writeLock.tryLock()) {
+			ContentionCounters.COLUMN_LOCK_WAITS.increment();
+			writeLock.lock();
+		}
+	}
+
+	/**
+	 * Adds a timestamp, after any equal timestamps already in the column
+	 * @param timestamp
+	 */
+	void add(long timestamp) {
+		lock();
+		try {
+			insert(timestamp);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Adds a batch of timestamps with a single lock acquisition
+	 * @param sorted the timestamps to add, in ascending order
+	 */
+	void addAll(long[] sorted) {
+		lock();
+		try {
+			for (long timestamp : sorted) {
+				insert(timestamp);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private void insert(long timestamp) {
+		Layout current = layout;
+		SealedSegment[] sealed = current.sealed;
+		if (sealed.length > 0 && timestamp < sealed[sealed.length - 1].max) {
+			publish(new Layout(insertSealed(sealed, timestamp), current.head, current.headSize));
+			return;
+		}
+		long[] head = current.head;
+		int size = current.headSize;
+		if (size == SEGMENT_CAPACITY) {
+			SealedSegment[] updated = Arrays.copyOf(sealed, sealed.length + 1);
+			updated[sealed.length] = SealedSegment.encode(head, 0, size);
+			publish(new Layout(updated, new long[INITIAL_CAPACITY], 0));
+			//The timestamp may now belong to the segment just sealed
+			insert(timestamp);
+			return;
+		}
+		if (size == 0 || timestamp >= head[size - 1]) {
+			if (size < head.length) {
+				//Fast path: in-order append in the free space of the head
+				head[size] = timestamp;
+				current.headSize = size + 1;
+				return;
+			}
+			long[] grown = Arrays.copyOf(head, grownCapacity(head.length));
+			grown[size] = timestamp;
+			publish(new Layout(sealed, grown, size + 1));
+			return;
+		}
+		int position = TimestampColumn.upperBound(head, size, timestamp);
+		long[] copy = new long[size < head.length ? head.length : grownCapacity(head.length)];
+		System.arraycopy(head, 0, copy, 0, position);
+		copy[position] = timestamp;
+		System.arraycopy(head, position, copy, position + 1, size - position);
+		publish(new Layout(sealed, copy, size + 1));
+	}
+
+	/**
+	 * Publishes a new layout, releasing the spilled segments of the current one that it does not hold.
+	 * Called under the lock.
+	 */
+	private void publish(Layout updated) {
+		Layout current = layout;
+		layout = updated;
+		if (spill != null && updated.sealed != current.sealed) {
+			spill.released(current.sealed, updated.sealed);
+		}
+	}
+
+	/**
+	 * Replaces a sealed segment by a copy of it, such as its spilled copy
+	 * @param segment     the segment to replace
+	 * @param replacement a segment with the same timestamps
+	 * @return false if the column does not hold the segment anymore, because it was rewritten or removed
+	 */
+	boolean swap(SealedSegment segment, SealedSegment replacement) {
+		lock();
+		try {
+			Layout current = layout;
+			SealedSegment[] sealed = current.sealed;
+			//Segments that repeat a timestamp may start with the same one, so the segment is found by identity
+			for (int i = firstSegmentReaching(sealed, segment.min); i < sealed.length && sealed[i].min <= segment.min; i++) {
+				if (sealed[i] == segment) {
+					publish(new Layout(replace(sealed, i, 1, replacement), current.head, current.headSize));
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private static int grownCapacity(int capacity) {
+		return Math.min(SEGMENT_CAPACITY, Math.max(INITIAL_CAPACITY, capacity * 2));
+	}
+
+	/**
+	 * Rewrites the segment a late timestamp belongs to, splitting it in two if it grows too large
+	 * @return the new segment array
+	 */
+	private static SealedSegment[] insertSealed(SealedSegment[] sealed, long timestamp) {
+		int index = segmentFor(sealed, timestamp);
+		SealedSegment segment = sealed[index];
+		long[] timestamps = new long[segment.count + 1];
+		segment.decode(timestamps);
+		int position = TimestampColumn.upperBound(timestamps, segment.count, timestamp);
+		System.arraycopy(timestamps, position, timestamps, position + 1, segment.count - position);
+		timestamps[position] = timestamp;
+		if (timestamps.length <= MAX_SEGMENT) {
+			return replace(sealed, index, 1, SealedSegment.encode(timestamps, 0, timestamps.length));
+		}
+		int half = timestamps.length / 2;
+		return replace(sealed, index, 1, SealedSegment.encode(timestamps, 0, half),
+				SealedSegment.encode(timestamps, half, timestamps.length));
+	}
+
+	/**
+	 * Removes one occurrence of each of a sorted batch of timestamps. Every segment holding some of them is
+	 * decoded and encoded once, and the layout is published once, however many timestamps the batch holds.
+	 * @param sorted
+	 * @param count  how many timestamps of the array to remove
+	 * @return how many timestamps were found and removed
+	 */
+	int removeSorted(long[] sorted, int count) {
+		if (count == 0) {
+			return 0;
+		}
+		lock();
+		try {
+			Layout current = layout;
+			SealedSegment[] sealed = current.sealed;
+			SealedSegment[] updated = null;
+			long[] buffer = null;
+			int removed = 0;
+			int next = 0;
+			int from = 0;
+			while (next < count) {
+				int index = Math.max(from, firstSegmentReaching(sealed, sorted[next]));
+				if (index == sealed.length) {
+					break;
+				}
+				if (buffer == null) {
+					buffer = new long[MAX_SEGMENT];
+				}
+				int size = sealed[index].decode(buffer);
+				int kept = 0;
+				for (int position = 0; position < size; position++) {
+					long timestamp = buffer[position];
+					//Timestamps that are not in the column are skipped
+					while (next < count && sorted[next] < timestamp) {
+						next++;
+					}
+					if (next < count && sorted[next] == timestamp) {
+						next++;
+						continue;
+					}
+					buffer[kept++] = timestamp;
+				}
+				//What is left is past this segment, or repeats its last timestamp, which what follows may also hold
+				if (kept < size) {
+					if (updated == null) {
+						updated = sealed.clone();
+					}
+					updated[index] = kept == 0 ? null : SealedSegment.encode(buffer, 0, kept);
+					removed += size - kept;
+				}
+				from = index + 1;
+			}
+			long[] head = current.head;
+			int headSize = current.headSize;
+			if (next < count && headSize > 0) {
+				long[] copy = new long[head.length];
+				int kept = 0;
+				for (int position = 0; position < headSize; position++) {
+					long timestamp = head[position];
+					while (next < count && sorted[next] < timestamp) {
+						next++;
+					}
+					if (next < count && sorted[next] == timestamp) {
+						next++;
+						continue;
+					}
+					copy[kept++] = timestamp;
+				}
+				if (kept < headSize) {
+					removed += headSize - kept;
+					head = copy;
+					headSize = kept;
+				}
+			}
+			if (removed > 0) {
+				publish(new Layout(updated == null ? sealed : withoutNulls(updated), head, headSize));
+			}
+			return removed;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes every timestamp between startTime (inclusive) and endTime (exclusive). Segments inside the
+	 * range are dropped whole, using their headers, and only the segments at its ends are rewritten.
+	 * @param startTime
+	 * @param endTime
+	 * @return how many timestamps were removed
+	 */
+	long removeRange(long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return 0;
+		}
+		lock();
+		try {
+			Layout current = layout;
+			SealedSegment[] sealed = current.sealed;
+			int first = firstSegmentReaching(sealed, startTime);
+			int last = first;
+			long removed = 0;
+			SealedSegment[] kept = new SealedSegment[2];
+			int keptCount = 0;
+			long[] buffer = null;
+			for (; last < sealed.length && sealed[last].min < endTime; last++) {
+				SealedSegment segment = sealed[last];
+				if (segment.min >= startTime && segment.max < endTime) {
+					removed += segment.count;
+					continue;
+				}
+				if (buffer == null) {
+					buffer = new long[MAX_SEGMENT];
+				}
+				int size = segment.decode(buffer);
+				int remaining = cut(buffer, size, startTime, endTime);
+				removed += size - remaining;
+				if (remaining > 0) {
+					kept[keptCount++] = SealedSegment.encode(buffer, 0, remaining);
+				}
+			}
+			long[] head = current.head;
+			int headSize = current.headSize;
+			if (headSize > 0 && head[0] < endTime && head[headSize - 1] >= startTime) {
+				head = Arrays.copyOf(head, head.length);
+				int remaining = cut(head, headSize, startTime, endTime);
+				removed += headSize - remaining;
+				headSize = remaining;
+			}
+			if (removed > 0) {
+				publish(new Layout(replace(sealed, first, last - first, Arrays.copyOf(kept, keptCount)), head, headSize));
+			}
+			return removed;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes, in place, the timestamps of a sorted array that fall in a range
+	 * @return how many timestamps are left
+	 */
+	private static int cut(long[] timestamps, int size, long startTime, long endTime) {
+		int from = TimestampColumn.lowerBound(timestamps, size, startTime);
+		int to = TimestampColumn.lowerBound(timestamps, size, endTime);
+		System.arraycopy(timestamps, to, timestamps, from, size - to);
+		return size - (to - from);
+	}
+
+	/**
+	 * Drops every timestamp of the column
+	 */
+	void clear() {
+		lock();
+		try {
+			publish(EMPTY);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Drops whole sealed segments from the start of the column: those holding only timestamps before cutoff,
+	 * and then as many more as can go while leaving at least maxSize timestamps. The head is never dropped.
+	 * @param cutoff
+	 * @param maxSize
+	 * @return how many timestamps were dropped
+	 */
+	long truncate(long cutoff, long maxSize) {
+		lock();
+		try {
+			Layout current = layout;
+			SealedSegment[] sealed = current.sealed;
+			int count = firstSegmentReaching(sealed, cutoff);
+			long dropped = 0;
+			long remaining = current.headSize;
+			for (int i = 0; i < sealed.length; i++) {
+				if (i < count) {
+					dropped += sealed[i].count;
+				} else {
+					remaining += sealed[i].count;
+				}
+			}
+			while (count < sealed.length && remaining - sealed[count].count >= maxSize) {
+				dropped += sealed[count].count;
+				remaining -= sealed[count].count;
+				count++;
+			}
+			if (count > 0) {
+				publish(new Layout(replace(sealed, 0, count), current.head, current.headSize));
+			}
+			return dropped;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * @return how many timestamps the column holds
+	 */
+	long size() {
+		Layout current = layout;
+		long size = current.headSize;
+		for (SealedSegment segment : current.sealed) {
+			size += segment.count;
+		}
+		return size;
+	}
+
+	/**
+	 * @return whether the column holds no timestamp
+	 */
+	boolean isEmpty() {
+		Layout current = layout;
+		return current.sealed.length == 0 && current.headSize == 0;
+	}
+
+	/**
+	 * @return an estimate of the heap held by the column: the layout, the segments and the head, including
+	 * its free slots
+	 */
+	long usedBytes() {
+		Layout current = layout;
+		//A layout takes 24 bytes and an array header 16, with compressed oops
+		long bytes = 24 + 16 + 4L * current.sealed.length + 16 + 8L * current.head.length;
+		for (SealedSegment segment : current.sealed) {
+			bytes += segment.usedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Counts the timestamps of a layout between startTime (inclusive) and endTime (exclusive). Segments
+	 * fully inside the range are counted from their headers; only those cut by the range are decoded.
+	 */
+	static long count(Layout layout, long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return 0;
+		}
+		SealedSegment[] sealed = layout.sealed;
+		long count = 0;
+		long[] buffer = null;
+		for (int i = firstSegmentReaching(sealed, startTime); i < sealed.length && sealed[i].min < endTime; i++) {
+			SealedSegment segment = sealed[i];
+			if (segment.min >= startTime && segment.max < endTime) {
+				count += segment.count;
+				continue;
+			}
+			if (buffer == null) {
+				buffer = new long[MAX_SEGMENT];
+			}
+			int size = segment.decode(buffer);
+			count += TimestampColumn.lowerBound(buffer, size, endTime) - TimestampColumn.lowerBound(buffer, size, startTime);
+		}
+		int headSize = layout.headSize;
+		return count + TimestampColumn.lowerBound(layout.head, headSize, endTime)
+				- TimestampColumn.lowerBound(layout.head, headSize, startTime);
+	}
+
+	/**
+	 * @return the first timestamp of a layout between startTime (inclusive) and endTime (exclusive), if any
+	 */
+	static OptionalLong first(Layout layout, long startTime, long endTime) {
+		SealedSegment[] sealed = layout.sealed;
+		int index = firstSegmentReaching(sealed, startTime);
+		long timestamp;
+		if (index < sealed.length) {
+			SealedSegment segment = sealed[index];
+			if (segment.min >= startTime) {
+				timestamp = segment.min;
+			} else {
+				long[] buffer = new long[segment.count];
+				segment.decode(buffer);
+				timestamp = buffer[TimestampColumn.lowerBound(buffer, segment.count, startTime)];
+			}
+		} else {
+			int headSize = layout.headSize;
+			int position = TimestampColumn.lowerBound(layout.head, headSize, startTime);
+			if (position == headSize) {
+				return OptionalLong.empty();
+			}
+			timestamp = layout.head[position];
+		}
+		return timestamp < endTime ? OptionalLong.of(timestamp) : OptionalLong.empty();
+	}
+
+	/**
+	 * @return the last timestamp of a layout between startTime (inclusive) and endTime (exclusive), if any
+	 */
+	static OptionalLong last(Layout layout, long startTime, long endTime) {
+		int headSize = layout.headSize;
+		int position = TimestampColumn.lowerBound(layout.head, headSize, endTime);
+		long timestamp;
+		if (position > 0) {
+			timestamp = layout.head[position - 1];
+		} else {
+			SealedSegment[] sealed = layout.sealed;
+			int index = firstSegmentReaching(sealed, endTime);
+			if (index < sealed.length && sealed[index].min < endTime) {
+				SealedSegment segment = sealed[index];
+				long[] buffer = new long[segment.count];
+				segment.decode(buffer);
+				timestamp = buffer[TimestampColumn.lowerBound(buffer, segment.count, endTime) - 1];
+			} else if (index > 0) {
+				timestamp = sealed[index - 1].max;
+			} else {
+				return OptionalLong.empty();
+			}
+		}
+		return timestamp >= startTime ? OptionalLong.of(timestamp) : OptionalLong.empty();
+	}
+
+	/**
+	 * Finds the segment a timestamp belongs to: the last one starting at or before it, or the first one
+	 */
+	static int segmentFor(SealedSegment[] sealed, long timestamp) {
+		int low = 0;
+		int high = sealed.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (sealed[middle].min <= timestamp) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the first segment whose last timestamp is at or after the given one, from the segment headers
+	 * @return the index of the segment, or sealed.length if there is none
+	 */
+	static int firstSegmentReaching(SealedSegment[] sealed, long timestamp) {
+		int low = 0;
+		int high = sealed.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sealed[middle].max < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static SealedSegment[] withoutNulls(SealedSegment[] sealed) {
+		int count = 0;
+		for (SealedSegment segment : sealed) {
+			if (segment != null) {
+				sealed[count++] = segment;
+			}
+		}
+		return count == sealed.length ? sealed : Arrays.copyOf(sealed, count);
+	}
+
+	/**
+	 * Copies a segment array, replacing the count segments starting at index by the given ones
+	 */
+	private static SealedSegment[] replace(SealedSegment[] sealed, int index, int count, SealedSegment... replacement) {
+		SealedSegment[] result = new SealedSegment[sealed.length - count + replacement.length];
+		System.arraycopy(sealed, 0, result, 0, index);
+		System.arraycopy(replacement, 0, result, index, replacement.length);
+		System.arraycopy(sealed, index + count, result, index + replacement.length, sealed.length - index - count);
+		return result;
+	}
+}
@@ -0,0 +1,294 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * An implementation of an event store for long histories, that keeps older events compressed.
+ * <p>
+ * Like {@link ColumnarEventStore}, the store interns every type into an int id through a
+ * {@link TypeDictionary} and only keeps timestamps, one {@link CompressedColumn} per type. Recent events go
+ * to a mutable head of up to {@link CompressedColumn#SEGMENT_CAPACITY} timestamps per type; older ones are
+ * sealed into immutable {@link SealedSegment}s, delta-of-delta and varint encoded. A query only decodes the
+ * segments whose header overlaps its range, and {@link #count} decodes only the segments at the ends of
+ * the range.
+ * <p>
+ * Measured with {@code FootprintReport} (in the benchmarks profile), for 1,000,000 in-order events over
+ * 100 types, the retained heap is 1.8 bytes per event, the open heads included, against 8.3 for
+ * {@link ColumnarEventStore} and 64.4 for {@link EventStoreImpl}. Scanning decodes about 1 byte per event
+ * instead of reading 8, so a wide query runs at the speed of the columnar store, but a narrow one decodes
+ * a whole segment and takes a few microseconds instead of under one (see {@code QueryBenchmark}).
+ * Events out of order by more than the head, and removals, decode and encode again the segments they
+ * touch, so this store suits feeds that are mostly in order, with bulk removals through
+ * {@link #removeRange} and {@link #evict}.
+ * <p>
+ * As in {@link ColumnarEventStore}, events are values: {@link EventIterator#current} returns a new
+ * instance rather than the one that was inserted. Writers lock only the column of their own type and
+ * readers never lock (see {@link CompressedColumn}).
+ */
+public class CompressedEventStore implements EvictableEventStore, MemoryFootprint {
+	private static final CompressedColumn EMPTY_COLUMN = new CompressedColumn(null);
+
+	final TypeDictionary types = new TypeDictionary();
+	private volatile CompressedColumn[] columns = new CompressedColumn[0];
+	private final IteratorPool<CompressedIterator> iterators = new IteratorPool<CompressedIterator>(this::newIterator);
+	private final SegmentSpill spill;
+
+	public CompressedEventStore() {
+		this(null);
+	}
+
+	/**
+	 * @param spill where the columns may spill their segments, or null
+	 */
+	CompressedEventStore(SegmentSpill spill) {
+		this.spill = spill;
+	}
+
+	/**
+	 * @return the columns, indexed by type id; some slots may be null
+	 */
+	CompressedColumn[] columns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the column of a type
+	 * @param type
+	 * @return the column, or null if the type was never inserted
+	 */
+	CompressedColumn column(String type) {
+		int id = type == null ? -1 : types.lookup(type);
+		CompressedColumn[] current = columns;
+		return id >= 0 && id < current.length ? current[id] : null;
+	}
+
+	private synchronized CompressedColumn createColumn(String type) {
+		int id = types.idOf(type);
+		CompressedColumn[] current = columns;
+		if (id < current.length && current[id] != null) {
+			return current[id];
+		}
+		CompressedColumn[] updated = Arrays.copyOf(current, Math.max(current.length, id + 1));
+		updated[id] = new CompressedColumn(types.name(id), spill);
+		columns = updated;
+		return updated[id];
+	}
+
+	/**
+	 * Stores an event, as a timestamp appended to the head of the column of its type.
+	 *
+	 * @param event
+	 * @throws IllegalArgumentException if the event has a payload, which this store does not keep
+	 */
+	@Override
+	public void insert(Event event) {
+		EventBatch.checkNoPayload(event);
+		CompressedColumn column = column(event.type());
+		if (column == null) {
+			column = createColumn(event.type());
+		}
+		column.add(event.timestamp());
+	}
+
+	/**
+	 * Stores a batch of events, adding the sorted timestamps of each type under a single lock of its column.
+	 *
+	 * @param events
+	 * @param offset
+	 * @param length
+	 * @throws IllegalArgumentException if an event has a payload, which this store does not keep
+	 */
+	@Override
+	public void insertAll(Event[] events, int offset, int length) {
+		EventBatch.checkRange(events, offset, length);
+		EventBatch.checkNoPayloads(events, offset, length);
+		for (EventBatch batch : EventBatch.groupByType(events, offset, length)) {
+			CompressedColumn column = column(batch.type);
+			if (column == null) {
+				column = createColumn(batch.type);
+			}
+			column.addAll(batch.sortedTimestamps());
+		}
+	}
+
+	/**
+	 * Removes all events of specific type, by emptying its column.
+	 *
+	 * @param type
+	 */
+	@Override
+	public void removeAll(String type) {
+		CompressedColumn column = column(type);
+		if (column != null) {
+			column.clear();
+		}
+	}
+
+	/**
+	 * Removes the events of a type in a time range, dropping the segments inside the range whole and
+	 * rewriting only the segments at its ends.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of events removed.
+	 */
+	@Override
+	public long removeRange(String type, long startTime, long endTime) {
+		CompressedColumn column = column(type);
+		return column == null ? 0 : column.removeRange(startTime, endTime);
+	}
+
+	/**
+	 * Drops expired events, one type at a time, by cutting whole sealed segments off the start of each column.
+	 *
+	 * @param policy
+	 * @param now    current time, in milliseconds since the epoch.
+	 * @return the number of events dropped.
+	 */
+	@Override
+	public long evict(RetentionPolicy policy, long now) {
+		long dropped = 0;
+		for (CompressedColumn column : columns) {
+			if (column != null) {
+				dropped += column.truncate(policy.cutoff(column.type, now), policy.maxEventsPerType());
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * Retrieves an iterator for events based on their type and timestamp.
+	 * The first segment of the range is found from the segment headers, and segments are decoded as the
+	 * iterator reaches them. Iterators are pooled per thread, and reused once closed; the query only
+	 * allocates its {@link IteratorLease}.
+	 *
+	 * @param type      The type we are querying for.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator where all its events have same type as
+	 * {@param type} and timestamp between {@param startTime}
+	 * (inclusive) and {@param endTime} (exclusive).
+	 */
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		CompressedColumn column = column(type);
+		return new IteratorLease(iterators.acquire().open(column == null ? EMPTY_COLUMN : column, startTime, endTime));
+	}
+
+	private CompressedIterator newIterator() {
+		return new CompressedIterator(iterators);
+	}
+
+	/**
+	 * @return a copy of the types whose columns are not empty
+	 */
+	@Override
+	public Set<String> types() {
+		Set<String> result = new HashSet<String>();
+		for (CompressedColumn column : columns) {
+			if (column != null && !column.isEmpty()) {
+				result.add(column.type);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return an estimate of the heap held by the columns, without the type names
+	 */
+	@Override
+	public long usedBytes() {
+		long bytes = 0;
+		for (CompressedColumn column : columns) {
+			if (column != null) {
+				bytes += column.usedBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Counts events from the segment headers of the column: only the segments at the ends of the range are decoded.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of matching events.
+	 */
+	@Override
+	public long count(String type, long startTime, long endTime) {
+		CompressedColumn column = column(type);
+		if (column == null) {
+			return 0;
+		}
+		VersionClock.Pin pin = pinSpill();
+		try {
+			return CompressedColumn.count(column.layout, startTime, endTime);
+		} finally {
+			unpinSpill(pin);
+		}
+	}
+
+	/**
+	 * Finds the first timestamp of the range from the segment headers, decoding at most one segment.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the first timestamp, or an empty value if the range holds no event.
+	 */
+	@Override
+	public OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+		CompressedColumn column = column(type);
+		if (column == null) {
+			return OptionalLong.empty();
+		}
+		VersionClock.Pin pin = pinSpill();
+		try {
+			return CompressedColumn.first(column.layout, startTime, endTime);
+		} finally {
+			unpinSpill(pin);
+		}
+	}
+
+	/**
+	 * Finds the last timestamp of the range from the segment headers, decoding at most one segment.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the last timestamp, or an empty value if the range holds no event.
+	 */
+	@Override
+	public OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+		CompressedColumn column = column(type);
+		if (column == null) {
+			return OptionalLong.empty();
+		}
+		VersionClock.Pin pin = pinSpill();
+		try {
+			return CompressedColumn.last(column.layout, startTime, endTime);
+		} finally {
+			unpinSpill(pin);
+		}
+	}
+
+	/**
+	 * Pins the reader clock of the spill, if any, for a read that may decode spilled segments of a layout it
+	 * reads afterwards
+	 * @return the pin to {@link #unpinSpill}, or null without spill
+	 */
+	private VersionClock.Pin pinSpill() {
+		return spill == null ? null : spill.readers.pinNew(this);
+	}
+
+	private void unpinSpill(VersionClock.Pin pin) {
+		if (pin != null) {
+			spill.readers.release(pin);
+		}
+	}
+}
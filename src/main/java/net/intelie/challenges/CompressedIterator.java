@@ -0,0 +1,216 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+
+/**
+ * An {@link EventIterator} over a range of a {@link CompressedColumn}.
+ * <p>
+ * The iterator reads the layout of the column once, when it is opened, and walks it without locking: the
+ * sealed segments that overlap the range, found from their headers, then the head. Each segment is decoded
+ * whole into a buffer of the iterator when the walk reaches it, so segments outside the range are never
+ * decoded. {@link Event} instances are only built when {@link #current} is called.
+ * <p>
+ * Removals are buffered and applied with {@link CompressedColumn#removeSorted} when the iterator is closed,
+ * so that each segment they touch is encoded again only once. Until then, other readers still see the
+ * removed events.
+ * <p>
+ * The iterators of a store come from an {@link IteratorPool} and go back to it when closed, decoding
+ * buffer included, so a query allocates nothing but its {@link IteratorLease}.
+ * <p>
+ * Over a column that may spill its segments, the iterator pins the reader clock of the {@link SegmentSpill}
+ * before it reads the layout, and unpins it once it is used up or closed, so that the files it may still
+ * read are not closed under it. The pin is registered once and kept in the pool with the iterator.
+ */
+class CompressedIterator implements EventIterator {
+	private final IteratorPool<CompressedIterator> pool;
+	CompressedColumn column;
+	CompressedColumn.Layout layout;
+	long startTime;
+	long endTime;
+	int nextSegment;
+	long[] buffer;
+	int bufferSize;
+	int position;
+	boolean inHead;
+	int headSize;
+	long[] removals;
+	int removalCount;
+	boolean positioned;
+	long currentTimestamp;
+	Event current;
+	private VersionClock readers;
+	private VersionClock.Pin pin;
+
+	/**
+	 * Creates an iterator over the timestamps of the column between startTime (inclusive) and endTime (exclusive)
+	 * @param column
+	 * @param startTime
+	 * @param endTime
+	 */
+	CompressedIterator(CompressedColumn column, long startTime, long endTime) {
+		this(null);
+		open(column, startTime, endTime);
+	}
+
+	/**
+	 * Creates an idle iterator
+	 * @param pool where the iterator goes back when closed, or null
+	 */
+	CompressedIterator(IteratorPool<CompressedIterator> pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Positions the iterator before the first timestamp of the column between startTime (inclusive) and endTime (exclusive)
+	 * @param column
+	 * @param startTime
+	 * @param endTime
+	 * @return the iterator
+	 */
+	CompressedIterator open(CompressedColumn column, long startTime, long endTime) {
+		this.column = column;
+		if (startTime < endTime && column.spill != null) {
+			if (pin == null) {
+				readers = column.spill.readers;
+				pin = readers.register(this);
+			}
+			readers.pin(pin);
+		}
+		this.layout = startTime < endTime ? column.layout : null;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.bufferSize = 0;
+		this.position = 0;
+		this.inHead = false;
+		this.positioned = false;
+		this.current = null;
+		this.removalCount = 0;
+		if (layout != null) {
+			this.nextSegment = CompressedColumn.firstSegmentReaching(layout.sealed, startTime);
+			this.headSize = layout.headSize;
+		}
+		return this;
+	}
+
+	/**
+	 * Moves to the next timestamp of the range, decoding the next segment when the current one is used up.
+	 */
+	@Override
+	public boolean moveNext() {
+		positioned = false;
+		current = null;
+		while (layout != null) {
+			long[] timestamps = inHead ? layout.head : buffer;
+			int size = inHead ? headSize : bufferSize;
+			if (position < size) {
+				long timestamp = timestamps[position++];
+				if (timestamp >= endTime) {
+					break;
+				}
+				currentTimestamp = timestamp;
+				positioned = true;
+				return true;
+			}
+			if (inHead) {
+				break;
+			}
+			SealedSegment[] sealed = layout.sealed;
+			if (nextSegment < sealed.length && sealed[nextSegment].min < endTime) {
+				if (buffer == null) {
+					buffer = new long[CompressedColumn.MAX_SEGMENT];
+				}
+				bufferSize = sealed[nextSegment++].decode(buffer);
+				position = TimestampColumn.lowerBound(buffer, bufferSize, startTime);
+			} else {
+				inHead = true;
+				position = TimestampColumn.lowerBound(layout.head, headSize, startTime);
+			}
+		}
+		layout = null;
+		unpin();
+		return false;
+	}
+
+	private void unpin() {
+		if (pin != null) {
+			readers.unpin(pin);
+		}
+	}
+
+	/**
+	 * Returns the event the iterator is positioned at, creating it on the first call.
+	 *
+	 * @return the event itself
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public Event current() {
+		if (!positioned) {
+			throw new IllegalStateException();
+		}
+		if (current == null) {
+			current = new Event(column.type, currentTimestamp);
+		}
+		return current;
+	}
+
+	/**
+	 * Removes the current event from the column, once the iterator is closed.
+	 *
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public void remove() {
+		if (!positioned) {
+			throw new IllegalStateException();
+		}
+		if (removals == null) {
+			removals = new long[16];
+		} else if (removalCount == removals.length) {
+			if (removalCount == CompressedColumn.MAX_SEGMENT) {
+				applyRemovals();
+			} else {
+				removals = Arrays.copyOf(removals, removalCount * 2);
+			}
+		}
+		removals[removalCount++] = currentTimestamp;
+	}
+
+	/**
+	 * Applies the buffered removals, which are in timestamp order since the iterator walks the column in order
+	 */
+	private void applyRemovals() {
+		if (removalCount > 0) {
+			int count = removalCount;
+			removalCount = 0;
+			column.removeSorted(removals, count);
+		}
+	}
+
+	/**
+	 * Applies the pending removals, drops the references to the column and its layout, and hands the
+	 * iterator back to its pool. A pooled iterator must not be used once closed.
+	 */
+	@Override
+	public void close() {
+		if (column == null) {
+			return;
+		}
+		applyRemovals();
+		column = null;
+		layout = null;
+		positioned = false;
+		current = null;
+		unpin();
+		if (pool == null || !pool.release(this)) {
+			buffer = null;
+			removals = null;
+			if (pin != null) {
+				readers.unregister(pin);
+				pin = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counts of the times a thread found a store lock held, or lost a CAS race, and had to wait or retry.
+ * <p>
+ * They are static, so they add up every store of the JVM: {@link StoreMetrics} reports them with a
+ * {@code Jvm} prefix, even on the metrics of a single store.
+ * <p>
+ * Stores only touch these counters on their slow paths, after a failed {@code tryLock} or CAS, so counting
+ * costs nothing when there is no contention. They are read through {@link StoreMetrics}.
+ */
+final class ContentionCounters {
+	/** Writers of a {@link TimestampColumn} that found its lock held */
+	static final LongAdder COLUMN_LOCK_WAITS = new LongAdder();
+	/** Readers and writers of an {@link OffHeapColumn} that found its lock held */
+	static final LongAdder OFF_HEAP_LOCK_WAITS = new LongAdder();
+	/** Producers of a {@link RingBuffer} that lost the race for a position */
+	static final LongAdder RING_CAS_RETRIES = new LongAdder();
+	/** Producers of an {@link IngestPipeline} that found the ring buffer full */
+	static final LongAdder RING_FULL = new LongAdder();
+
+	private ContentionCounters() {
+	}
+}
@@ -0,0 +1,495 @@
+package net.intelie.challenges;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * An event store that survives restarts, by logging every change made to an in-memory store.
+ * <p>
+ * Any {@link EventStore} can be made durable: this class wraps it, and records each insert and removal in a
+ * {@link WriteAheadLog} before applying it. {@link #snapshot} (which can also run periodically, see
+ * {@link #scheduleSnapshots}) writes a compact {@link SnapshotFile} of the whole store and starts a new log
+ * segment, so that older segments and snapshots can be deleted. When the store is created over an existing
+ * directory, the latest snapshot is loaded and the log segments written after it are replayed, both through
+ * memory-mapped reads and batched inserts, so restarting costs about as much as reading the files.
+ * <p>
+ * How often the log is forced to disk is set by a {@link FsyncPolicy}.
+ * <p>
+ * Inserts only share a read lock, so they still run concurrently. Removals take the write lock, so that a
+ * removal and an insert are applied in the order they were logged; a snapshot takes it too, so writes
+ * pause while it is written; under {@link FsyncPolicy#PER_WRITE}, so does a removal while the log is forced.
+ * Queries never take the lock. Removals made through an iterator are buffered
+ * by it, then logged and applied together, under one write lock and one commit.
+ * <p>
+ * Query ends are exclusive, so no query of the delegate returns the events at {@link Long#MAX_VALUE}: this
+ * class counts them per type as they are written and recovered, and snapshots write them from that count.
+ * <p>
+ * Failures to write the log surface as {@link UncheckedIOException}, and the change is then not applied:
+ * under {@link FsyncPolicy#PER_WRITE}, a change is only applied once the log is forced. A record that reached
+ * the file before such a failure may still be replayed after a restart.
+ */
+public class DurableEventStore implements EventStore, AutoCloseable {
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+	public static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+	final EventStore delegate;
+	final Path directory;
+	final FsyncPolicy fsyncPolicy;
+	final WriteAheadLog log;
+	/**
+	 * The number of events of each type at Long.MAX_VALUE
+	 */
+	final ConcurrentMap<String, LongAdder> eventsAtMaxTimestamp = new ConcurrentHashMap<String, LongAdder>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Opens a durable store in a directory, with the default flush interval and buffer size
+	 * @param delegate    an empty store, that holds the events in memory
+	 * @param directory   where the log and snapshots are kept; created if needed
+	 * @param fsyncPolicy
+	 */
+	public DurableEventStore(EventStore delegate, Path directory, FsyncPolicy fsyncPolicy) throws IOException {
+		this(delegate, directory, fsyncPolicy, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_BUFFER_BYTES);
+	}
+
+	/**
+	 * Opens a durable store in a directory, recovering whatever it already holds into the delegate store
+	 * @param delegate            an empty store, that holds the events in memory
+	 * @param directory           where the log and snapshots are kept; created if needed
+	 * @param fsyncPolicy
+	 * @param flushIntervalMillis how often the log is flushed under {@link FsyncPolicy#BATCHED} and {@link FsyncPolicy#NONE}
+	 * @param bufferBytes         size of the log buffer, which is flushed whenever it fills up
+	 */
+	public DurableEventStore(EventStore delegate, Path directory, FsyncPolicy fsyncPolicy, long flushIntervalMillis, int bufferBytes) throws IOException {
+		this.delegate = delegate;
+		this.directory = directory;
+		this.fsyncPolicy = fsyncPolicy;
+		Files.createDirectories(directory);
+		Set<String> types = new LinkedHashSet<String>();
+		long nextSegment = recover(types);
+		this.log = new WriteAheadLog(directory, nextSegment, bufferBytes, fsyncPolicy == FsyncPolicy.BATCHED);
+		//Recovered types must be part of the next snapshot, even if they are not written to again
+		log.defineAll(types);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "event-store-log");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (fsyncPolicy != FsyncPolicy.PER_WRITE) {
+			scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Loads the latest snapshot and replays the log segments after it
+	 * @param types receives every type recovered
+	 * @return the number for the next log segment
+	 */
+	private long recover(Set<String> types) throws IOException {
+		List<Long> snapshots = numberedFiles(directory, "snapshot-", ".dat");
+		long base = 0;
+		if (!snapshots.isEmpty()) {
+			base = snapshots.get(snapshots.size() - 1);
+			SnapshotFile.load(SnapshotFile.path(directory, base), delegate, types, eventsAtMaxTimestamp);
+		}
+		long next = base;
+		for (long segment : WriteAheadLog.segments(directory)) {
+			if (segment >= base) {
+				WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, segment), delegate, types, eventsAtMaxTimestamp);
+			}
+			next = Math.max(next, segment + 1);
+		}
+		return next;
+	}
+
+	/**
+	 * Counts an event in its type if it is at Long.MAX_VALUE
+	 * @param counts
+	 * @param event
+	 */
+	static void countAtMaxTimestamp(Map<String, LongAdder> counts, Event event) {
+		if (event.timestamp() == Long.MAX_VALUE) {
+			counts.computeIfAbsent(event.type(), type -> new LongAdder()).increment();
+		}
+	}
+
+	/**
+	 * Lists, in ascending order, the numbers of the files of a directory named prefix + number + suffix
+	 */
+	static List<Long> numberedFiles(Path directory, String prefix, String suffix) throws IOException {
+		List<Long> numbers = new ArrayList<Long>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+				} catch (NumberFormatException e) {
+					//Not one of ours
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	/**
+	 * Forces the log up to a position under {@link FsyncPolicy#PER_WRITE}, before the change it ends is applied.
+	 * Writers holding the read lock still share a single force.
+	 */
+	private void commit(long position) {
+		if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+			try {
+				log.sync(position);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private void flush() {
+		try {
+			log.flush(fsyncPolicy == FsyncPolicy.BATCHED);
+		} catch (IOException e) {
+			//The next flush, or the next write, will report it to a caller
+		}
+	}
+
+	/**
+	 * Logs and stores an event. Under {@link FsyncPolicy#PER_WRITE}, returns once the event is on disk.
+	 *
+	 * @param event
+	 * @throws IllegalArgumentException if the event has a payload, which the log does not record
+	 */
+	@Override
+	public void insert(Event event) {
+		EventBatch.checkNoPayload(event);
+		lock.readLock().lock();
+		try {
+			commit(log.appendInsert(event.type(), event.timestamp()));
+			delegate.insert(event);
+			countAtMaxTimestamp(eventsAtMaxTimestamp, event);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Logs and stores a batch of events, which share a single commit.
+	 *
+	 * @param events
+	 * @param offset
+	 * @param length
+	 * @throws IllegalArgumentException if an event has a payload, which the log does not record
+	 */
+	@Override
+	public void insertAll(Event[] events, int offset, int length) {
+		EventBatch.checkRange(events, offset, length);
+		EventBatch.checkNoPayloads(events, offset, length);
+		lock.readLock().lock();
+		try {
+			commit(log.appendInserts(events, offset, length));
+			delegate.insertAll(events, offset, length);
+			for (int i = offset; i < offset + length; i++) {
+				countAtMaxTimestamp(eventsAtMaxTimestamp, events[i]);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Logs the removal of all events of a type, and applies it.
+	 *
+	 * @param type
+	 */
+	@Override
+	public void removeAll(String type) {
+		if (type == null) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			commit(log.appendRemoveAll(type));
+			delegate.removeAll(type);
+			eventsAtMaxTimestamp.remove(type);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Logs the removal of the events of a type in a time range, and applies it.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of events removed.
+	 */
+	@Override
+	public long removeRange(String type, long startTime, long endTime) {
+		if (type == null || startTime >= endTime) {
+			return 0;
+		}
+		long removed;
+		lock.writeLock().lock();
+		try {
+			commit(log.appendRemoveRange(type, startTime, endTime));
+			removed = delegate.removeRange(type, startTime, endTime);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return removed;
+	}
+
+	/**
+	 * Retrieves an iterator for events based on their type and timestamp, straight from the delegate store.
+	 * Removals made through the iterator are buffered, then logged and applied every
+	 * {@link LoggedIterator#BATCH_SIZE} removals and when the iterator is closed.
+	 *
+	 * @param type      The type we are querying for.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator where all its events have same type as
+	 * {@param type} and timestamp between {@param startTime}
+	 * (inclusive) and {@param endTime} (exclusive).
+	 */
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		return new LoggedIterator(delegate.query(type, startTime, endTime));
+	}
+
+	/**
+	 * Wraps an iterator of the delegate store, and buffers the removals made through it. The removals are
+	 * not applied through the delegate iterator: the delegate may buffer them itself, and a snapshot taken
+	 * before it applies them would miss removals that the log has already recorded. Instead, each batch is
+	 * logged and applied with one query on the delegate, both under the write lock.
+	 */
+	private final class LoggedIterator implements EventIterator {
+		static final int BATCH_SIZE = 256;
+
+		private final EventIterator eventIterator;
+		private String removalType;
+		private long[] removals;
+		private int removalCount;
+
+		LoggedIterator(EventIterator eventIterator) {
+			this.eventIterator = eventIterator;
+		}
+
+		@Override
+		public boolean moveNext() {
+			return eventIterator.moveNext();
+		}
+
+		@Override
+		public Event current() {
+			return eventIterator.current();
+		}
+
+		@Override
+		public void remove() {
+			Event event = eventIterator.current();
+			if (removals == null) {
+				removals = new long[BATCH_SIZE];
+			} else if (removalCount == removals.length || !event.type().equals(removalType)) {
+				applyRemovals();
+			}
+			removalType = event.type();
+			removals[removalCount++] = event.timestamp();
+		}
+
+		private void applyRemovals() {
+			if (removalCount == 0) {
+				return;
+			}
+			int count = removalCount;
+			removalCount = 0;
+			//EventStoreImpl does not return events in timestamp order
+			Arrays.sort(removals, 0, count);
+			//No query of the delegate could find them again, so they are neither logged nor applied
+			while (count > 0 && removals[count - 1] == Long.MAX_VALUE) {
+				count--;
+			}
+			if (count == 0) {
+				return;
+			}
+			long position = 0;
+			lock.writeLock().lock();
+			try {
+				for (int i = 0; i < count; i++) {
+					position = log.appendRemove(removalType, removals[i]);
+				}
+				commit(position);
+				removeSorted(delegate, removalType, removals, count);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		@Override
+		public void close() throws Exception {
+			try {
+				applyRemovals();
+			} finally {
+				eventIterator.close();
+			}
+		}
+	}
+
+	/**
+	 * Removes one event of a type for each of a sorted batch of timestamps, through a single query over
+	 * the range they span, so that the store can batch the removals. Events at Long.MAX_VALUE are past the
+	 * end of any range, so they cannot be removed this way.
+	 */
+	private static void removeSorted(EventStore store, String type, long[] sorted, int count) throws IOException {
+		long last = sorted[count - 1];
+		try (EventIterator eventIterator = store.query(type, sorted[0], last == Long.MAX_VALUE ? last : last + 1)) {
+			int next = 0;
+			while (next < count && eventIterator.moveNext()) {
+				long timestamp = eventIterator.current().timestamp();
+				while (next < count && sorted[next] < timestamp) {
+					next++;
+				}
+				if (next < count && sorted[next] == timestamp) {
+					eventIterator.remove();
+					next++;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Streams events straight from the delegate store.
+	 *
+	 * @param type      The type we are querying for.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return A sequential stream of the matching events.
+	 */
+	@Override
+	public Stream<Event> stream(String type, long startTime, long endTime) {
+		return delegate.stream(type, startTime, endTime);
+	}
+
+	@Override
+	public Set<String> types() {
+		return delegate.types();
+	}
+
+	/**
+	 * Counts events straight from the delegate store.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of matching events.
+	 */
+	@Override
+	public long count(String type, long startTime, long endTime) {
+		return delegate.count(type, startTime, endTime);
+	}
+
+	@Override
+	public OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+		return delegate.firstTimestamp(type, startTime, endTime);
+	}
+
+	@Override
+	public OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+		return delegate.lastTimestamp(type, startTime, endTime);
+	}
+
+	@Override
+	public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+		return delegate.histogram(type, startTime, endTime, bucketWidth);
+	}
+
+	/**
+	 * Writes a snapshot of the whole store and starts a new log segment, then deletes the snapshots and
+	 * segments it makes obsolete. Writes wait while the snapshot is written.
+	 */
+	public void snapshot() throws IOException {
+		long segment;
+		lock.writeLock().lock();
+		try {
+			segment = log.rotate();
+			SnapshotFile.write(SnapshotFile.path(directory, segment), delegate, log.types(), eventsAtMaxTimestamp);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		for (long old : numberedFiles(directory, "snapshot-", ".dat")) {
+			if (old < segment) {
+				Files.deleteIfExists(SnapshotFile.path(directory, old));
+			}
+		}
+		for (long old : WriteAheadLog.segments(directory)) {
+			if (old < segment) {
+				Files.deleteIfExists(WriteAheadLog.segmentPath(directory, old));
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot in the background at a fixed rate
+	 * @param period
+	 * @param unit
+	 */
+	public void scheduleSnapshots(long period, TimeUnit unit) {
+		scheduler.scheduleAtFixedRate(() -> {
+			try {
+				snapshot();
+			} catch (IOException e) {
+				//The log is still complete, the next snapshot will try again
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops the background tasks and forces the log to disk. The delegate store is left as it is.
+	 */
+	@Override
+	public void close() throws IOException {
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.close();
+	}
+}
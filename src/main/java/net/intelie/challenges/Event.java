@@ -2,6 +2,9 @@ package net.intelie.challenges;
 
 /**
  * This is just an event stub, feel free to expand it if needed.
+ * <p>
+ * An event may carry a {@link Payload}. Events without one are plain {@code Event} instances, so that they
+ * take no more memory than before payloads existed; {@link #of} creates events with one.
  */
 public class Event {
     private final String type;
@@ -12,6 +15,17 @@ public class Event {
         this.timestamp = timestamp;
     }
 
+    /**
+     * Creates an event with a payload
+     * @param type
+     * @param timestamp
+     * @param payload
+     * @return the event, without payload if the given one is {@link Payload#EMPTY}
+     */
+    public static Event of(String type, long timestamp, Payload payload) {
+        return payload == Payload.EMPTY ? new Event(type, timestamp) : new WithPayload(type, timestamp, payload);
+    }
+
     public String type() {
         return type;
     }
@@ -19,4 +33,25 @@ public class Event {
     public long timestamp() {
         return timestamp;
     }
+
+    /**
+     * @return the payload of the event, or {@link Payload#EMPTY}
+     */
+    public Payload payload() {
+        return Payload.EMPTY;
+    }
+
+    private static final class WithPayload extends Event {
+        private final Payload payload;
+
+        WithPayload(String type, long timestamp, Payload payload) {
+            super(type, timestamp);
+            this.payload = payload;
+        }
+
+        @Override
+        public Payload payload() {
+            return payload;
+        }
+    }
 }
@@ -0,0 +1,136 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The events of one type taken from a batch given to {@link EventStore#insertAll}.
+ * <p>
+ * Stores split a batch with {@link #groupByType}, so that each of their per-type structures is looked up
+ * and locked once per batch, and then merge the sorted contents of each group in one pass.
+ */
+final class EventBatch {
+	static final Comparator<Event> BY_TIMESTAMP = Comparator.comparingLong(Event::timestamp);
+
+	final String type;
+	private Event[] events = new Event[8];
+	private int size;
+	private boolean payloads;
+
+	private EventBatch(String type) {
+		this.type = type;
+	}
+
+	static void checkRange(Event[] events, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > events.length - length) {
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + events.length);
+		}
+	}
+
+	/**
+	 * Rejects an event with a payload, for stores that only keep timestamps
+	 * @param event
+	 * @throws IllegalArgumentException if the event has a payload.
+	 */
+	static void checkNoPayload(Event event) {
+		if (event.payload() != Payload.EMPTY) {
+			throw new IllegalArgumentException("Event payloads are not supported by this store");
+		}
+	}
+
+	/**
+	 * Rejects a range of events if any has a payload, for stores that only keep timestamps
+	 * @param events
+	 * @param offset
+	 * @param length
+	 * @throws IllegalArgumentException if an event of the range has a payload.
+	 */
+	static void checkNoPayloads(Event[] events, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			checkNoPayload(events[i]);
+		}
+	}
+
+	/**
+	 * Splits a range of events by type, keeping the order of the events inside each type
+	 * @param events
+	 * @param offset
+	 * @param length
+	 * @return one batch per type found in the range
+	 * @throws IndexOutOfBoundsException if the range is not inside the array.
+	 */
+	static Collection<EventBatch> groupByType(Event[] events, int offset, int length) {
+		checkRange(events, offset, length);
+		Map<String, EventBatch> batches = new HashMap<String, EventBatch>();
+		List<EventBatch> result = new ArrayList<EventBatch>();
+		EventBatch last = null;
+		for (int i = offset; i < offset + length; i++) {
+			Event event = events[i];
+			//Batches usually come in runs of the same type, which skip the map lookup
+			if (last == null || !last.type.equals(event.type())) {
+				last = batches.get(event.type());
+				if (last == null) {
+					last = new EventBatch(event.type());
+					batches.put(event.type(), last);
+					result.add(last);
+				}
+			}
+			last.add(event);
+		}
+		return result;
+	}
+
+	private void add(Event event) {
+		if (size == events.length) {
+			events = Arrays.copyOf(events, size * 2);
+		}
+		events[size++] = event;
+		payloads |= event.payload() != Payload.EMPTY;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the events of the batch, sorted by timestamp; events with equal timestamps keep their batch order
+	 */
+	Event[] sortedEvents() {
+		Event[] sorted = Arrays.copyOf(events, size);
+		Arrays.sort(sorted, BY_TIMESTAMP);
+		return sorted;
+	}
+
+	/**
+	 * @return the payloads of the batch, in the order of {@link #sortedEvents}, which matches
+	 * {@link #sortedTimestamps}, or null if no event of the batch has one
+	 */
+	Payload[] sortedPayloads() {
+		if (!payloads) {
+			return null;
+		}
+		Event[] sorted = sortedEvents();
+		Payload[] result = new Payload[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = sorted[i].payload();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the timestamps of the batch, sorted
+	 */
+	long[] sortedTimestamps() {
+		long[] timestamps = new long[size];
+		for (int i = 0; i < size; i++) {
+			timestamps[i] = events[i].timestamp();
+		}
+		Arrays.sort(timestamps);
+		return timestamps;
+	}
+}
@@ -28,7 +28,7 @@ public class EventIteratorImpl implements EventIterator{
 	 */
 	@Override
 	public boolean moveNext() {
-		this.moveNext = iterator.hasNext();
+		this.moveNext = iterator != null && iterator.hasNext();
 		return moveNext;
 	}
 	
@@ -65,11 +65,14 @@ public class EventIteratorImpl implements EventIterator{
 	}
 	
 	/**
-	 * Implementation of the AutoCloseable method, clears the set of its contents. Is called automatically whenever this iterator is used in a try-with-resources context 
+	 * Implementation of the AutoCloseable method, is called automatically whenever this iterator is used in a try-with-resources context.
+	 * It only drops the references of the iterator, so that its result set can be collected: the set may be the store's own,
+	 * so it must never be cleared here. Once closed, {@link #moveNext} returns false.
 	 */
 	@Override
 	public void close() throws Exception {
-		dataStructure.clear();
-		//System.out.println("Closing resource");
+		this.iterator = null;
+		this.dataStructure = null;
+		this.moveNext = false;
 	}
 }
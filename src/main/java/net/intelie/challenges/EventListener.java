@@ -0,0 +1,20 @@
+package net.intelie.challenges;
+
+import java.util.List;
+
+/**
+ * Receives the events of a {@link Subscription} as they are inserted.
+ */
+@FunctionalInterface
+public interface EventListener {
+    /**
+     * Handles a batch of new events, in the order they were published.
+     * <p>
+     * Calls for a subscription never overlap, and come from a delivery thread,
+     * never from the thread that inserted the events. The list belongs to the
+     * listener, which may keep it.
+     *
+     * @param events
+     */
+    void onEvents(List<Event> events);
+}
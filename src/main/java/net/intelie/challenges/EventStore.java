@@ -1,5 +1,13 @@
 package net.intelie.challenges;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * An abstraction of an event store.
  * <p>
@@ -15,6 +23,34 @@ public interface EventStore {
      */
     void insert(Event event);
 
+    /**
+     * Stores a batch of events.
+     * <p>
+     * The default implementation inserts events one by one; stores override it to
+     * group the batch by type and merge it into their structures in a single pass.
+     *
+     * @param events
+     */
+    default void insertAll(Collection<Event> events) {
+        Event[] array = events.toArray(new Event[0]);
+        insertAll(array, 0, array.length);
+    }
+
+    /**
+     * Stores the {@param length} events of {@param events} starting at {@param offset}.
+     *
+     * @param events
+     * @param offset
+     * @param length
+     * @throws IndexOutOfBoundsException if the range is not inside the array.
+     */
+    default void insertAll(Event[] events, int offset, int length) {
+        EventBatch.checkRange(events, offset, length);
+        for (int i = offset; i < offset + length; i++) {
+            insert(events[i]);
+        }
+    }
+
 
     /**
      * Removes all events of specific type.
@@ -23,6 +59,35 @@ public interface EventStore {
      */
     void removeAll(String type);
 
+    /**
+     * Removes the events of a type with timestamp between {@param startTime}
+     * (inclusive) and {@param endTime} (exclusive).
+     * <p>
+     * The default implementation removes the events one by one through a
+     * query; stores override it to drop whole runs of events at once.
+     *
+     * @param type
+     * @param startTime
+     * @param endTime
+     * @return the number of events removed.
+     */
+    default long removeRange(String type, long startTime, long endTime) {
+        long removed = 0;
+        try (EventIterator eventIterator = query(type, startTime, endTime)) {
+            while (eventIterator.moveNext()) {
+                //Positions iterators that only advance in current(), such as EventIteratorImpl
+                eventIterator.current();
+                eventIterator.remove();
+                removed++;
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return removed;
+    }
+
     /**
      * Retrieves an iterator for events based on their type and timestamp.
      *
@@ -34,4 +99,150 @@ public interface EventStore {
      * (inclusive) and {@param endTime} (exclusive).
      */
     EventIterator query(String type, long startTime, long endTime);
+
+    /**
+     * Retrieves an iterator over the events of a query whose payloads match
+     * every one of {@param predicates}.
+     * <p>
+     * The default implementation tests every event of the query; stores
+     * override it to test payloads where they keep them, or to look the
+     * matching events up in an index, without creating the others.
+     *
+     * @param type       The type we are querying for.
+     * @param startTime  Start timestamp (inclusive).
+     * @param endTime    End timestamp (exclusive).
+     * @param predicates Conditions on the payload fields; none matches every event.
+     * @return An iterator, in timestamp order, over the events {@link #query}
+     * would return whose payloads match every predicate.
+     */
+    default EventIterator query(String type, long startTime, long endTime, FieldPredicate... predicates) {
+        EventIterator eventIterator = query(type, startTime, endTime);
+        return predicates.length == 0 ? eventIterator : new FilteringIterator(eventIterator, predicates);
+    }
+
+    /**
+     * Retrieves the events of a query as a stream, which can be split to run
+     * in parallel.
+     * <p>
+     * The default implementation splits the time range in halves, each part
+     * opening its own query, so it relies on {@link #query} returning events
+     * in timestamp order. Removing events is not possible through a stream.
+     * <p>
+     * As with {@code Files.lines}, the stream must be closed, best in a
+     * try-with-resources statement: a part closes its query once exhausted,
+     * but a short-circuiting operation ({@code findFirst}, {@code anyMatch},
+     * {@code limit}...) or a failing action leaves queries open, which may
+     * hold resources of the store until the stream is closed.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A sequential stream, in timestamp order, of the events of
+     * {@param type} with timestamp between {@param startTime} (inclusive)
+     * and {@param endTime} (exclusive).
+     */
+    default Stream<Event> stream(String type, long startTime, long endTime) {
+        TimeRangeSpliterator spliterator = TimeRangeSpliterator.of(this, type, startTime, endTime);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::closeParts);
+    }
+
+    /**
+     * Retrieves an iterator over the events of several types, in timestamp order.
+     * <p>
+     * The default implementation opens one query per type and merges them lazily,
+     * so it relies on {@link #query} returning events in timestamp order.
+     *
+     * @param types     The types we are querying for; null elements are ignored.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator over the events of any of {@param types} with
+     * timestamp between {@param startTime} (inclusive) and {@param endTime}
+     * (exclusive), ordered by timestamp.
+     */
+    default EventIterator queryTypes(Set<String> types, long startTime, long endTime) {
+        List<EventIterator> iterators = new ArrayList<EventIterator>(types.size());
+        for (String type : types) {
+            if (type != null) {
+                iterators.add(query(type, startTime, endTime));
+            }
+        }
+        return new MergingIterator(iterators);
+    }
+
+    /**
+     * Retrieves an iterator over the events of every type, in timestamp order.
+     *
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator over all events with timestamp between
+     * {@param startTime} (inclusive) and {@param endTime} (exclusive),
+     * ordered by timestamp.
+     */
+    default EventIterator queryAll(long startTime, long endTime) {
+        return queryTypes(types(), startTime, endTime);
+    }
+
+    /**
+     * @return a copy of the types of the events in the store. Types whose
+     * events were removed one by one may still be listed.
+     */
+    Set<String> types();
+
+    /**
+     * Counts the events of a type with timestamp between {@param startTime}
+     * (inclusive) and {@param endTime} (exclusive).
+     * <p>
+     * The default implementation iterates over the query; stores override it
+     * to answer from their own metadata without visiting every event.
+     *
+     * @param type
+     * @param startTime
+     * @param endTime
+     * @return the number of matching events.
+     */
+    default long count(String type, long startTime, long endTime) {
+        return Aggregates.count(query(type, startTime, endTime));
+    }
+
+    /**
+     * @param type
+     * @param startTime
+     * @param endTime
+     * @return the smallest timestamp among the events of the type between
+     * {@param startTime} (inclusive) and {@param endTime} (exclusive), or
+     * an empty value if there is no such event.
+     */
+    default OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+        return Aggregates.first(query(type, startTime, endTime));
+    }
+
+    /**
+     * @param type
+     * @param startTime
+     * @param endTime
+     * @return the largest timestamp among the events of the type between
+     * {@param startTime} (inclusive) and {@param endTime} (exclusive), or
+     * an empty value if there is no such event.
+     */
+    default OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+        return Aggregates.last(query(type, startTime, endTime));
+    }
+
+    /**
+     * Counts the events of a type in consecutive buckets of {@param bucketWidth},
+     * the first one starting at {@param startTime}. The last bucket ends at
+     * {@param endTime} (exclusive), so it may be narrower than the others.
+     *
+     * @param type
+     * @param startTime
+     * @param endTime
+     * @param bucketWidth
+     * @return the count of each bucket, in time order; empty if the range is empty.
+     * @throws IllegalArgumentException if the width is not positive, or the
+     *                                  range holds too many buckets for an array.
+     */
+    default long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+        Aggregates.bucketCount(startTime, endTime, bucketWidth);
+        return Aggregates.histogram(query(type, startTime, endTime), startTime, endTime, bucketWidth);
+    }
 }
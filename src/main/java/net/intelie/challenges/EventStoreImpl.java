@@ -1,96 +1,232 @@
-package net.intelie.challenges;
-
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
-/**
- * An implementation of an event store.
- * <p>
- * In this instance, events are stored in a SynchronizedSet, 
- * this is used because Sets in general are faster than lists, and since the events are unique 
- * and do not require ordering for our purposes, we use the Synchronized version of sets because we need to ensure
- * that our collection is thread safe.
- */
-public class EventStoreImpl implements EventStore{
-	
-	Set<Event> dataStructure;
-	
-	/**
-	 * Constructor receives an {@link Event} set and transforms it into a synchronized set 
-	 * @param dataStructure
-	 */
-	EventStoreImpl(Set<Event> dataStructure){
-		this.dataStructure = Collections.synchronizedSet(dataStructure);		
-	}
-	
-	/**
-     * Stores an event
-     *
-     * @param event
-     */
-	@Override
-	public synchronized void insert(Event event) {
-		this.dataStructure.add(event);
-	}
-	
-	/**
-     * Removes all events of specific type.
-     * The method is synchronized to keep thread safety in mind, since otherwise multiple threads could try
-     * to delete the same events at the same time. 
-     *
-     * @param type
-     */
-	@Override
-	public synchronized void removeAll(String type) {
-		//We initialize the EventIterator using the dataStructure that was used to create this instance  
-		EventIterator eventIterator = new EventIteratorImpl(this.dataStructure);
-		//We iterate over the dataStructure, using the aforementioned eventIterator, 
-		//and remove from it any events that match the type that was passed as parameter 
-		while(eventIterator.moveNext()) {
-			Event event = eventIterator.current();
-			if(event.type().equals(type)){
-				eventIterator.remove();
-			}
-		}
-	}
-	
-	/**
-     * Retrieves an iterator for events based on their type and timestamp.
-     * This method is not synchronized, because it does not make any changes to any of the events,
-     * therefore it is not unsafe for multiple threads to call it in parallel.
-     * 
-     * @param type      The type we are querying for.
-     * @param startTime Start timestamp (inclusive).
-     * @param endTime   End timestamp (exclusive).
-     * @return An iterator where all its events have same type as
-     * {@param type} and timestamp between {@param startTime}
-     * (inclusive) and {@param endTime} (exclusive).
-     */
-	@Override
-	public EventIterator query(String type, long startTime, long endTime) {
-		//This first if is just an aditional case, if the user wants to query all of the events inside the store
-		//it was mostly used to test the removeAll function, so I didn't have to make two queries for the rest 
-		//of the events that weren't removed, basically, if you pass all the default values for the types of params in this method
-		//it will return all the events.
-		if((type==null || type.isEmpty()) && startTime == 0L && endTime == 0L) {
-			return new EventIteratorImpl(this.dataStructure);
-		}
-		
-		//This is the actual query that was asked, first we instantiate a new set, that's gonna be empty
-		//after that, we get an EventIterator that contains all the events, after that, we iterate over it.
-		//Whenever an event fits the conditions (same type, timestamp between the startTime (inclusive) and the endTime(exclusive)
-		//it is added to that set (so that it only contains the events that belong in the query),
-		//when the iteration is done, it returns a new EventIterator thats initialized with that set.
-		Set<Event> resultSet = Collections.synchronizedSet(new HashSet<Event>());
-		EventIterator eventIterator = new EventIteratorImpl(this.dataStructure);
-		while(eventIterator.moveNext()) {
-			Event event = eventIterator.current();
-			if(event.type().equals(type) && event.timestamp() >= startTime && event.timestamp() < endTime) {
-				resultSet.add(event);
-			}
-		}
-		return new EventIteratorImpl(resultSet);
-	}
-
-}
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * An implementation of an event store.
+ * <p>
+ * In this instance, events are stored in a SynchronizedSet, 
+ * this is used because Sets in general are faster than lists, and since the events are unique 
+ * and do not require ordering for our purposes, we use the Synchronized version of sets because we need to ensure
+ * that our collection is thread safe.
+ */
+public class EventStoreImpl implements EventStore{
+	
+	Set<Event> dataStructure;
+	
+	/**
+	 * Constructor receives an {@link Event} set and transforms it into a synchronized set 
+	 * @param dataStructure
+	 */
+	EventStoreImpl(Set<Event> dataStructure){
+		this.dataStructure = Collections.synchronizedSet(dataStructure);		
+	}
+	
+	/**
+     * Stores an event
+     *
+     * @param event
+     */
+	@Override
+	public synchronized void insert(Event event) {
+		this.dataStructure.add(event);
+	}
+	
+	/**
+	 * Stores a batch of events, taking the store lock only once for the whole batch.
+	 * 
+	 * @param events
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public synchronized void insertAll(Event[] events, int offset, int length) {
+		EventBatch.checkRange(events, offset, length);
+		for(int i = offset; i < offset + length; i++) {
+			this.dataStructure.add(events[i]);
+		}
+	}
+	
+	/**
+     * Removes all events of specific type.
+     * The method is synchronized to keep thread safety in mind, since otherwise multiple threads could try
+     * to delete the same events at the same time. 
+     *
+     * @param type
+     */
+	@Override
+	public synchronized void removeAll(String type) {
+		int typeHash = hash(type);
+		//Iterating a synchronized set requires holding its own lock, otherwise a concurrent query
+		//would fail with a ConcurrentModificationException
+		synchronized(this.dataStructure) {
+			//We initialize the EventIterator using the dataStructure that was used to create this instance  
+			EventIterator eventIterator = new EventIteratorImpl(this.dataStructure);
+			//We iterate over the dataStructure, using the aforementioned eventIterator, 
+			//and remove from it any events that match the type that was passed as parameter.
+			while(eventIterator.moveNext()) {
+				Event event = eventIterator.current();
+				if(hasType(event, type, typeHash)){
+					eventIterator.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+     * Removes the events of a type in a time range, in a single pass over the set while holding its lock.
+     *
+     * @param type
+     * @param startTime
+     * @param endTime
+     * @return the number of events removed.
+     */
+	@Override
+	public synchronized long removeRange(String type, long startTime, long endTime) {
+		int typeHash = hash(type);
+		synchronized(this.dataStructure) {
+			int before = this.dataStructure.size();
+			this.dataStructure.removeIf(event -> hasType(event, type, typeHash)
+					&& event.timestamp() >= startTime && event.timestamp() < endTime);
+			return before - this.dataStructure.size();
+		}
+	}
+	
+	/**
+     * Retrieves an iterator for events based on their type and timestamp.
+     * This method is not synchronized on the store, because it does not make any changes to any of the events,
+     * therefore it is not unsafe for multiple threads to call it in parallel. It still has to hold the lock
+     * of the set while scanning it. See {@link IndexedEventStore} for a store where queries never block writers.
+     * 
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator where all its events have same type as
+     * {@param type} and timestamp between {@param startTime}
+     * (inclusive) and {@param endTime} (exclusive).
+     */
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		//This first if is just an aditional case, if the user wants to query all of the events inside the store
+		//it was mostly used to test the removeAll function, so I didn't have to make two queries for the rest 
+		//of the events that weren't removed, basically, if you pass all the default values for the types of params in this method
+		//it will return all the events.
+		if((type==null || type.isEmpty()) && startTime == 0L && endTime == 0L) {
+			return new EventIteratorImpl(this.dataStructure);
+		}
+		
+		//This is the actual query that was asked, first we instantiate a new set, that's gonna be empty
+		//after that, we get an EventIterator that contains all the events, after that, we iterate over it.
+		//Whenever an event fits the conditions (same type, timestamp between the startTime (inclusive) and the endTime(exclusive)
+		//it is added to that set (so that it only contains the events that belong in the query),
+		//when the iteration is done, it returns a new EventIterator thats initialized with that set.
+		Set<Event> resultSet = Collections.synchronizedSet(new HashSet<Event>());
+		int typeHash = hash(type);
+		//The scan holds the lock of the synchronized set, the same one taken by insert and removeAll,
+		//so that it is not invalidated by a concurrent modification halfway through
+		synchronized(this.dataStructure) {
+			EventIterator eventIterator = new EventIteratorImpl(this.dataStructure);
+			while(eventIterator.moveNext()) {
+				Event event = eventIterator.current();
+				if(hasType(event, type, typeHash) && event.timestamp() >= startTime && event.timestamp() < endTime) {
+					resultSet.add(event);
+				}
+			}
+		}
+		return new EventIteratorImpl(resultSet);
+	}
+	
+	/**
+     * Retrieves an iterator over the events of several types, in timestamp order.
+     * The set has no order of its own, so the matching events are collected in one scan and then sorted,
+     * instead of merging one query per type. See {@link IndexedEventStore} for a store that merges lazily.
+     * 
+     * @param types     The types we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator over the matching events, ordered by timestamp.
+     */
+	@Override
+	public EventIterator queryTypes(Set<String> types, long startTime, long endTime) {
+		List<Event> result = new ArrayList<Event>();
+		synchronized(this.dataStructure) {
+			EventIterator eventIterator = new EventIteratorImpl(this.dataStructure);
+			while(eventIterator.moveNext()) {
+				Event event = eventIterator.current();
+				if(types.contains(event.type()) && event.timestamp() >= startTime && event.timestamp() < endTime) {
+					result.add(event);
+				}
+			}
+		}
+		result.sort(EventBatch.BY_TIMESTAMP);
+		//A LinkedHashSet keeps the sorted order for the iterator
+		return new EventIteratorImpl(new LinkedHashSet<Event>(result));
+	}
+	
+	/**
+     * Retrieves the events of a query as a stream.
+     * The matching events are collected in one scan, like in {@link #query}, into a list that splits evenly
+     * for parallel streams, and sorted by timestamp, since the set has no order.
+     * 
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A sequential stream of the matching events, in timestamp order.
+     */
+	@Override
+	public Stream<Event> stream(String type, long startTime, long endTime) {
+		List<Event> result = new ArrayList<Event>();
+		int typeHash = hash(type);
+		synchronized(this.dataStructure) {
+			for(Event event : this.dataStructure) {
+				if(hasType(event, type, typeHash) && event.timestamp() >= startTime && event.timestamp() < endTime) {
+					result.add(event);
+				}
+			}
+		}
+		result.sort(EventBatch.BY_TIMESTAMP);
+		return result.stream();
+	}
+	
+	/**
+	 * Lists the types of the store, with a scan over every event.
+	 * 
+	 * @return a copy of the types of the events in the store
+	 */
+	@Override
+	public Set<String> types() {
+		Set<String> types = new HashSet<String>();
+		synchronized(this.dataStructure) {
+			for(Event event : this.dataStructure) {
+				types.add(event.type());
+			}
+		}
+		return types;
+	}
+	
+	private static int hash(String type) {
+		return type == null ? 0 : type.hashCode();
+	}
+	
+	/**
+	 * Checks the type of an event against the type of a query, whose hash is computed once per query.
+	 * Strings cache their own hash, so an event of another type is usually rejected by comparing two ints,
+	 * without comparing the characters of both strings.
+	 * 
+	 * @param event
+	 * @param type
+	 * @param typeHash the hash of the type, see {@link #hash}
+	 * @return whether the event has that type
+	 */
+	private static boolean hasType(Event event, String type, int typeHash) {
+		String eventType = event.type();
+		return eventType == type || (eventType.hashCode() == typeHash && eventType.equals(type));
+	}
+
+}
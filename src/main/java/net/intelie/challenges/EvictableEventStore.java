@@ -0,0 +1,16 @@
+package net.intelie.challenges;
+
+/**
+ * An event store that can drop its oldest events in bulk, as required by a {@link RetentionPolicy}.
+ */
+public interface EvictableEventStore extends EventStore {
+    /**
+     * Drops the events that the policy no longer retains. Stores evict whole segments at
+     * a time, so some events past their limit may be kept until the rest of their segment expires.
+     *
+     * @param policy
+     * @param now    current time, in milliseconds since the epoch.
+     * @return the number of events dropped.
+     */
+    long evict(RetentionPolicy policy, long now);
+}
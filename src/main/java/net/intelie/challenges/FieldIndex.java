@@ -0,0 +1,166 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A secondary index on a payload field of one {@link TimestampColumn}: for each value of the field, the sorted
+ * timestamps of the events that set it, as a posting list.
+ * <p>
+ * Values are kept in a sorted map, so equality predicates look one posting list up and range predicates walk
+ * a sub-map. Each posting list is itself a {@link TimestampColumn}, so it gets in-order appends, chunked
+ * storage and lock-free reads for free; an index costs roughly 8 bytes per indexed event, plus a few hundred
+ * bytes per distinct value. It suits fields with few distinct values, such as hosts or status codes.
+ * <p>
+ * The index is only written by its column, under the column lock, after the chunks of the column. A query
+ * reads the index before the chunks, so a posting list may hold timestamps the query no longer finds, but
+ * not miss one it finds, except for concurrent inserts: candidates are always checked against the column.
+ */
+final class FieldIndex {
+	final String field;
+	final PayloadSchema.FieldType fieldType;
+	private final String type;
+	private final ConcurrentSkipListMap<Object, TimestampColumn> postings = new ConcurrentSkipListMap<Object, TimestampColumn>();
+
+	FieldIndex(String type, String field, PayloadSchema.FieldType fieldType) {
+		this.type = type;
+		this.field = field;
+		this.fieldType = fieldType;
+	}
+
+	/**
+	 * Reads the value of the field from an encoded payload
+	 * @return the value, as a Long, Double or String, or null if the payload does not set the field
+	 */
+	Object key(PayloadSchema schema, byte[] data, int offset, int length) {
+		int index = schema.indexOf(field);
+		if (index < 0 || schema.fieldType(index) != fieldType) {
+			return null;
+		}
+		long mask = Payload.mask(data, offset, length);
+		if ((mask & (1L << index)) == 0) {
+			return null;
+		}
+		int position = Payload.position(schema, data, offset, mask, index);
+		switch (fieldType) {
+			case LONG:
+				return Payload.readLong(data, position);
+			case DOUBLE:
+				return Payload.readDouble(data, position);
+			default:
+				return Payload.readString(data, position);
+		}
+	}
+
+	/**
+	 * Indexes an event, if its payload sets the field. Called under the lock of the column.
+	 */
+	void add(long timestamp, PayloadSchema schema, byte[] data, int offset, int length) {
+		Object key = key(schema, data, offset, length);
+		if (key != null) {
+			TimestampColumn posting = postings.get(key);
+			if (posting == null) {
+				posting = new TimestampColumn(type);
+				postings.put(key, posting);
+			}
+			posting.add(timestamp);
+		}
+	}
+
+	/**
+	 * Removes one occurrence of an event from the index. Called under the lock of the column.
+	 */
+	void remove(long timestamp, PayloadSchema schema, byte[] data, int offset, int length) {
+		Object key = key(schema, data, offset, length);
+		TimestampColumn posting = key == null ? null : postings.get(key);
+		if (posting != null && posting.remove(timestamp) && posting.chunks.length == 0) {
+			postings.remove(key);
+		}
+	}
+
+	/**
+	 * Removes every event between startTime (inclusive) and endTime (exclusive). Called under the lock of the column.
+	 */
+	void removeRange(long startTime, long endTime) {
+		for (Iterator<TimestampColumn> iterator = postings.values().iterator(); iterator.hasNext(); ) {
+			TimestampColumn posting = iterator.next();
+			if (posting.removeRange(startTime, endTime) > 0 && posting.chunks.length == 0) {
+				iterator.remove();
+			}
+		}
+	}
+
+	void clear() {
+		postings.clear();
+	}
+
+	/**
+	 * Collects the timestamps of the events whose value may match a predicate on the field
+	 * @param predicate   a predicate on the field of the index
+	 * @param startTime
+	 * @param endTime
+	 * @return the distinct timestamps between startTime (inclusive) and endTime (exclusive), in ascending order
+	 */
+	long[] candidates(FieldPredicate predicate, long startTime, long endTime) {
+		Collection<TimestampColumn> lists;
+		if (predicate.isEmpty()) {
+			lists = Collections.emptyList();
+		} else if (predicate.isEquality()) {
+			TimestampColumn posting = postings.get(predicate.lowKey());
+			lists = posting == null ? Collections.<TimestampColumn>emptyList() : Collections.singletonList(posting);
+		} else {
+			ConcurrentNavigableMap<Object, TimestampColumn> range = postings.subMap(predicate.lowKey(), true, predicate.highKey(), predicate.highInclusive());
+			lists = range.values();
+		}
+		long[] result = new long[16];
+		int count = 0;
+		int merged = 0;
+		for (TimestampColumn posting : lists) {
+			merged++;
+			TimestampColumn.Chunk[] chunks = posting.chunks;
+			for (int c = TimestampColumn.firstChunkReaching(chunks, startTime); c < chunks.length; c++) {
+				TimestampColumn.Chunk chunk = chunks[c];
+				int size = chunk.size;
+				int from = TimestampColumn.lowerBound(chunk.timestamps, size, startTime);
+				int to = TimestampColumn.lowerBound(chunk.timestamps, size, endTime);
+				if (count + to - from > result.length) {
+					result = Arrays.copyOf(result, Math.max(2 * result.length, count + to - from));
+				}
+				if (to > from) {
+					System.arraycopy(chunk.timestamps, from, result, count, to - from);
+					count += to - from;
+				}
+				if (to < size) {
+					break;
+				}
+			}
+		}
+		if (merged > 1) {
+			Arrays.sort(result, 0, count);
+		}
+		//Duplicates are dropped, since the iterator visits every event of a candidate timestamp
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || result[i] != result[distinct - 1]) {
+				result[distinct++] = result[i];
+			}
+		}
+		return Arrays.copyOf(result, distinct);
+	}
+
+	/**
+	 * @return an estimate of the heap held by the index: its posting lists, and about 64 bytes per value for
+	 * the map entry and the key
+	 */
+	long usedBytes() {
+		long bytes = 0;
+		for (TimestampColumn posting : postings.values()) {
+			bytes += 64 + 48 + posting.usedBytes();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,219 @@
+package net.intelie.challenges;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A condition on a field of the {@link Payload} of events, for {@link EventStore#query(String, long, long,
+ * FieldPredicate...)}: equality, or a range, on a field of a given name and type.
+ * <p>
+ * A predicate only matches payloads whose schema has the field with the predicate's type, and that set it;
+ * events without a payload never match. Doubles are compared as {@link Double#compare} does, so {@code NaN}
+ * equals itself and {@code -0.0} is below {@code 0.0}. Strings are compared on their UTF-8 bytes, so a store
+ * can test them where it keeps the encoded payloads, without decoding them.
+ * <p>
+ * Predicates are immutable and may be shared between threads and queries.
+ */
+public final class FieldPredicate {
+	final String field;
+	final PayloadSchema.FieldType type;
+	private final boolean equality;
+	//True for a range without values, whose bounds are then meaningless
+	private final boolean empty;
+	//Inclusive bounds of a long predicate
+	private final long low;
+	private final long high;
+	//Bounds of a double predicate: low inclusive, high inclusive for equality and exclusive otherwise
+	private final double lowDouble;
+	private final double highDouble;
+	private final String string;
+	private final byte[] utf8;
+	/**
+	 * The index of the field in the last schema tested. It is replaced as a whole, so threads racing on it
+	 * at worst resolve the field again.
+	 */
+	private Resolved resolved;
+
+	private FieldPredicate(String field, PayloadSchema.FieldType type, boolean equality, boolean empty, long low, long high,
+						   double lowDouble, double highDouble, String string) {
+		if (field == null) {
+			throw new NullPointerException("field");
+		}
+		this.field = field;
+		this.type = type;
+		this.equality = equality;
+		this.empty = empty;
+		this.low = low;
+		this.high = high;
+		this.lowDouble = lowDouble;
+		this.highDouble = highDouble;
+		this.string = string;
+		this.utf8 = string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+		this.resolved = new Resolved(PayloadSchema.empty(), -1);
+	}
+
+	public static FieldPredicate longEquals(String field, long value) {
+		return new FieldPredicate(field, PayloadSchema.FieldType.LONG, true, false, value, value, 0, 0, null);
+	}
+
+	/**
+	 * @return a predicate on long values between from (inclusive) and to (exclusive)
+	 */
+	public static FieldPredicate longBetween(String field, long from, long to) {
+		//Flagged rather than encoded in the bounds, since from - 1 would overflow
+		boolean empty = to <= from;
+		return new FieldPredicate(field, PayloadSchema.FieldType.LONG, false, empty, from, empty ? from : to - 1, 0, 0, null);
+	}
+
+	public static FieldPredicate doubleEquals(String field, double value) {
+		return new FieldPredicate(field, PayloadSchema.FieldType.DOUBLE, true, false, 0, 0, value, value, null);
+	}
+
+	/**
+	 * @return a predicate on double values between from (inclusive) and to (exclusive)
+	 */
+	public static FieldPredicate doubleBetween(String field, double from, double to) {
+		return new FieldPredicate(field, PayloadSchema.FieldType.DOUBLE, false, Double.compare(from, to) >= 0, 0, 0, from, to, null);
+	}
+
+	/**
+	 * @throws NullPointerException if the value is null.
+	 */
+	public static FieldPredicate stringEquals(String field, String value) {
+		if (value == null) {
+			throw new NullPointerException("value");
+		}
+		return new FieldPredicate(field, PayloadSchema.FieldType.STRING, true, false, 0, 0, 0, 0, value);
+	}
+
+	/**
+	 * @param payload
+	 * @return true if the payload sets the field to a matching value
+	 */
+	public boolean test(Payload payload) {
+		return test(payload.schema, payload.data, payload.offset, payload.length);
+	}
+
+	/**
+	 * Tests an encoded payload in place
+	 * @param schema
+	 * @param data
+	 * @param offset where the payload starts
+	 * @param length
+	 * @return true if the payload sets the field to a matching value
+	 */
+	boolean test(PayloadSchema schema, byte[] data, int offset, int length) {
+		if (empty) {
+			return false;
+		}
+		Resolved current = resolved;
+		if (current.schema != schema) {
+			int index = schema.indexOf(field);
+			current = new Resolved(schema, index >= 0 && schema.fieldType(index) == type ? index : -1);
+			resolved = current;
+		}
+		long mask = Payload.mask(data, offset, length);
+		if (current.index < 0 || (mask & (1L << current.index)) == 0) {
+			return false;
+		}
+		int position = Payload.position(schema, data, offset, mask, current.index);
+		switch (type) {
+			case LONG:
+				long value = Payload.readLong(data, position);
+				return value >= low && value <= high;
+			case DOUBLE:
+				return matches(Payload.readDouble(data, position));
+			default:
+				return Payload.hasString(data, position, utf8);
+		}
+	}
+
+	private boolean matches(double value) {
+		return Double.compare(value, lowDouble) >= 0
+				&& (equality ? Double.compare(value, highDouble) <= 0 : Double.compare(value, highDouble) < 0);
+	}
+
+	/**
+	 * @param predicates
+	 * @param payload
+	 * @return true if the payload matches every predicate
+	 */
+	static boolean all(FieldPredicate[] predicates, Payload payload) {
+		for (FieldPredicate predicate : predicates) {
+			if (!predicate.test(payload)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the predicate matches a single value, which {@link #lowKey} holds
+	 */
+	boolean isEquality() {
+		return equality;
+	}
+
+	/**
+	 * The following bound the values the predicate matches, as the keys of a {@link FieldIndex}: Long,
+	 * Double or String, as the type of the field.
+	 * @return the lowest value matched (inclusive)
+	 */
+	Object lowKey() {
+		switch (type) {
+			case LONG:
+				return low;
+			case DOUBLE:
+				return lowDouble;
+			default:
+				return string;
+		}
+	}
+
+	/**
+	 * @return the highest value matched, inclusive if {@link #highInclusive}
+	 */
+	Object highKey() {
+		switch (type) {
+			case LONG:
+				return high;
+			case DOUBLE:
+				return highDouble;
+			default:
+				return string;
+		}
+	}
+
+	boolean highInclusive() {
+		return type != PayloadSchema.FieldType.DOUBLE || equality;
+	}
+
+	/**
+	 * @return true if no value matches the predicate
+	 */
+	boolean isEmpty() {
+		return empty;
+	}
+
+	@Override
+	public String toString() {
+		String name = type.name().toLowerCase();
+		if (type == PayloadSchema.FieldType.STRING) {
+			return field + " == \"" + string + "\"";
+		} else if (equality) {
+			return field + " == " + lowKey() + " (" + name + ")";
+		} else if (empty) {
+			return field + " in [] (" + name + ")";
+		}
+		return field + " in [" + lowKey() + ", " + (type == PayloadSchema.FieldType.LONG ? high + "]" : highDouble + ")") + " (" + name + ")";
+	}
+
+	private static final class Resolved {
+		final PayloadSchema schema;
+		final int index;
+
+		Resolved(PayloadSchema schema, int index) {
+			this.schema = schema;
+			this.index = index;
+		}
+	}
+}
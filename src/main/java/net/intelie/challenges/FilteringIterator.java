@@ -0,0 +1,58 @@
+package net.intelie.challenges;
+
+/**
+ * An {@link EventIterator} that skips the events of another one whose payloads do not match a set of
+ * {@link FieldPredicate}s.
+ * <p>
+ * This is how stores without pushdown answer {@link EventStore#query(String, long, long, FieldPredicate...)}:
+ * every event of the range is still created and tested, so the query costs as much as the unfiltered one.
+ * The wrapped iterator stays positioned on the current event, so {@link #remove} is delegated to it.
+ */
+class FilteringIterator implements EventIterator {
+	private final EventIterator iterator;
+	private final FieldPredicate[] predicates;
+	private Event current;
+
+	/**
+	 * @param iterator   the iterator to filter, which this one takes ownership of
+	 * @param predicates
+	 */
+	FilteringIterator(EventIterator iterator, FieldPredicate[] predicates) {
+		this.iterator = iterator;
+		this.predicates = predicates;
+	}
+
+	@Override
+	public boolean moveNext() {
+		current = null;
+		while (iterator.moveNext()) {
+			Event event = iterator.current();
+			if (FieldPredicate.all(predicates, event.payload())) {
+				current = event;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Event current() {
+		if (current == null) {
+			throw new IllegalStateException();
+		}
+		return current;
+	}
+
+	@Override
+	public void remove() {
+		if (current == null) {
+			throw new IllegalStateException();
+		}
+		iterator.remove();
+	}
+
+	@Override
+	public void close() throws Exception {
+		iterator.close();
+	}
+}
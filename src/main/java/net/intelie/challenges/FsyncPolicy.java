@@ -0,0 +1,22 @@
+package net.intelie.challenges;
+
+/**
+ * When a {@link DurableEventStore} forces its write-ahead log to disk.
+ */
+public enum FsyncPolicy {
+	/**
+	 * Every write returns only after its log record is on disk. Concurrent writers share each fsync
+	 * (group commit), so throughput still grows with the number of writers.
+	 */
+	PER_WRITE,
+	/**
+	 * The log is forced when its buffer fills up or when the flush interval elapses, whichever comes first.
+	 * A crash loses at most the writes of the last interval.
+	 */
+	BATCHED,
+	/**
+	 * The log is handed to the operating system on the same schedule as {@link #BATCHED}, but never forced.
+	 * A crash of the process loses nothing that was handed over; a crash of the machine may lose more.
+	 */
+	NONE
+}
@@ -0,0 +1,102 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A single slot of a {@link TimeIndex}, ordering an {@link Event} by its timestamp.
+ * <p>
+ * Events carry no identity besides their type and timestamp, and two distinct events of the same type
+ * may share a timestamp, so a sequence number (unique inside one index) is used as a tie breaker.
+ * It also keeps equal timestamps in insertion order.
+ * <p>
+ * An entry also records the versions of the {@link VersionClock} at which it was inserted and removed, so
+ * that a snapshot at version {@code s} sees it only if {@code inserted < s <= removed}. Both are stamped in
+ * two steps, see {@link VersionClock}: a removed entry stays in its index, invisible to newer snapshots,
+ * until no open snapshot can see it anymore.
+ */
+final class IndexEntry implements Comparable<IndexEntry> {
+	private static final long PENDING = Long.MAX_VALUE;
+	private static final long LIVE = Long.MAX_VALUE;
+	private static final long REMOVING = -1;
+	private static final AtomicLongFieldUpdater<IndexEntry> INSERTED = AtomicLongFieldUpdater.newUpdater(IndexEntry.class, "inserted");
+	private static final AtomicLongFieldUpdater<IndexEntry> REMOVED = AtomicLongFieldUpdater.newUpdater(IndexEntry.class, "removed");
+
+	final long timestamp;
+	final long sequence;
+	final Event event;
+	private volatile long inserted = PENDING;
+	private volatile long removed = LIVE;
+
+	IndexEntry(long timestamp, long sequence, Event event) {
+		this.timestamp = timestamp;
+		this.sequence = sequence;
+		this.event = event;
+	}
+
+	/**
+	 * Creates a probe that sorts before every entry with the given timestamp, used as a range bound
+	 * @param timestamp
+	 * @return the probe entry, that holds no event
+	 */
+	static IndexEntry lowerBound(long timestamp) {
+		return new IndexEntry(timestamp, Long.MIN_VALUE, null);
+	}
+
+	/**
+	 * Stamps the insertion of an entry that was just added to its index
+	 * @param clock
+	 */
+	void commitInsert(VersionClock clock) {
+		INSERTED.compareAndSet(this, PENDING, clock.stamp());
+	}
+
+	/**
+	 * Claims the removal of the entry and stamps it
+	 * @param clock
+	 * @return false if the entry was already removed
+	 */
+	boolean commitRemove(VersionClock clock) {
+		if (!REMOVED.compareAndSet(this, LIVE, REMOVING)) {
+			return false;
+		}
+		REMOVED.compareAndSet(this, REMOVING, clock.stamp());
+		return true;
+	}
+
+	/**
+	 * @param clock
+	 * @param snapshot
+	 * @return whether the entry belongs to the snapshot, stamping its pending changes if needed
+	 */
+	boolean visibleAt(VersionClock clock, long snapshot) {
+		long inserted = this.inserted;
+		if (inserted == PENDING) {
+			INSERTED.compareAndSet(this, PENDING, clock.stamp());
+			inserted = this.inserted;
+		}
+		if (inserted >= snapshot) {
+			return false;
+		}
+		long removed = this.removed;
+		if (removed == REMOVING) {
+			REMOVED.compareAndSet(this, REMOVING, clock.stamp());
+			removed = this.removed;
+		}
+		return removed >= snapshot;
+	}
+
+	/**
+	 * @param horizon
+	 * @return whether the entry was removed before every snapshot from the horizon on, so it can be unlinked
+	 */
+	boolean removedBefore(long horizon) {
+		long removed = this.removed;
+		return removed != REMOVING && removed < horizon;
+	}
+
+	@Override
+	public int compareTo(IndexEntry other) {
+		int result = Long.compare(timestamp, other.timestamp);
+		return result != 0 ? result : Long.compare(sequence, other.sequence);
+	}
+}
@@ -0,0 +1,148 @@
+package net.intelie.challenges;
+
+import java.util.Iterator;
+
+/**
+ * An {@link EventIterator} that walks a range of a {@link TimeIndex}, as of a snapshot, on demand.
+ * <p>
+ * Nothing is copied when the iterator is created: each call to {@link #moveNext} advances on the skip list,
+ * so the first event is available in constant time and a query holds O(1) memory no matter how wide its
+ * range is. The iterator pins a version of the store when it is created, and skips the entries inserted
+ * after it or removed before it, so it sees exactly the events committed before it was created, whatever
+ * writers do meanwhile. It never locks nor blocks writers; removed entries are only kept in the skip list,
+ * for it to see, until it is closed. {@link #close} releases the version, and must be called.
+ * <p>
+ * Iterators of a store come from an {@link IteratorPool} and go back to it on close, together with their
+ * registered {@link VersionClock.Pin}, so a query only allocates the skip list view and its cursor.
+ */
+class IndexIterator implements EventIterator {
+	private final VersionClock versions;
+	private final VersionClock.Pin pin;
+	private final IteratorPool<IndexIterator> pool;
+	TimeIndex index;
+	long snapshot;
+	Iterator<IndexEntry> iterator;
+	IndexEntry current;
+	private boolean open;
+
+	/**
+	 * Creates an iterator over the events of the index with timestamp between startTime (inclusive) and endTime (exclusive),
+	 * as of a new snapshot. It is not pooled.
+	 * @param index
+	 * @param startTime
+	 * @param endTime
+	 */
+	IndexIterator(TimeIndex index, long startTime, long endTime) {
+		this(index.versions, null);
+		open(index, startTime, endTime);
+	}
+
+	/**
+	 * Creates an idle iterator, to be opened on the indexes of one store
+	 * @param versions the clock of the store
+	 * @param pool     where the iterator goes back when closed, or null
+	 */
+	IndexIterator(VersionClock versions, IteratorPool<IndexIterator> pool) {
+		this.versions = versions;
+		this.pool = pool;
+		this.pin = versions.register(this);
+	}
+
+	/**
+	 * Positions the iterator before the first event of a range of the index, as of a new snapshot
+	 * @param index
+	 * @param startTime
+	 * @param endTime
+	 * @return the iterator
+	 */
+	IndexIterator open(TimeIndex index, long startTime, long endTime) {
+		return open(index, startTime, endTime, versions.pin(pin));
+	}
+
+	/**
+	 * Positions the iterator before the first event of a range of the index, as of a snapshot that is already
+	 * pinned, so that iterators over several indexes see the store at the same version
+	 * @param index
+	 * @param startTime
+	 * @param endTime
+	 * @param snapshot
+	 * @return the iterator
+	 */
+	IndexIterator open(TimeIndex index, long startTime, long endTime, long snapshot) {
+		versions.pinAt(pin, snapshot);
+		this.index = index;
+		this.snapshot = snapshot;
+		this.iterator = index.range(startTime, endTime).iterator();
+		this.current = null;
+		this.open = true;
+		return this;
+	}
+
+	/**
+	 * Moves to the next event of the range that belongs to the snapshot, if any.
+	 */
+	@Override
+	public boolean moveNext() {
+		current = null;
+		while (iterator != null && iterator.hasNext()) {
+			IndexEntry entry = iterator.next();
+			if (entry.visibleAt(versions, snapshot)) {
+				current = entry;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the event the iterator is positioned at. Calling it repeatedly returns the same event.
+	 *
+	 * @return the event itself
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public Event current() {
+		if (current == null) {
+			throw new IllegalStateException();
+		}
+		return current.event;
+	}
+
+	/**
+	 * Removes the current event from the index it was found in, that is, from the store itself.
+	 * The iterator keeps its snapshot, as the other open iterators do.
+	 *
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public void remove() {
+		if (current == null) {
+			throw new IllegalStateException();
+		}
+		index.remove(current);
+	}
+
+	/**
+	 * Releases the snapshot and the underlying skip list iterator, unlinks the removed entries that no
+	 * open iterator can see anymore, and hands the iterator back to its pool. The events of the store are
+	 * left untouched. Closing twice has no further effect, but a pooled iterator must not be used once closed.
+	 */
+	@Override
+	public void close() {
+		iterator = null;
+		current = null;
+		if (!open) {
+			return;
+		}
+		open = false;
+		versions.unpin(pin);
+		TimeIndex closed = index;
+		index = null;
+		closed.reclaim();
+		if (pool == null || !pool.release(this)) {
+			versions.unregister(pin);
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * An implementation of an event store that keeps one time-sorted index per event type.
+ * <p>
+ * Every type gets its own {@link TimeIndex}. Types are interned into int ids by a {@link TypeDictionary},
+ * and partitions live in an array indexed by id, so a query costs one hash of its type. Queries only
+ * ever touch the partition of the requested type and find the start of the range with a skip list descent,
+ * so a query costs O(log n + k), where n is the number of events of that type and k the number of matches,
+ * instead of O(total events) as in {@link EventStoreImpl}. Removing all events of a type is dropping its
+ * partition from the array, which is O(1) regardless of how many events it held.
+ * <p>
+ * The cost is memory: each event needs an {@link IndexEntry} and a skip list node on top of the event itself.
+ * Aggregates such as {@link #count} read per-bucket counters kept by each partition instead of walking
+ * every matching entry.
+ * <p>
+ * There is no global monitor. Inserts are a CAS on the skip list of their own type, so inserts on different
+ * types never touch the same memory, and inserts on the same type only retry on the nodes they race for.
+ * The array of partitions is copied under the store lock, only when a type is first seen or dropped.
+ * Queries and iterators never lock and never throw {@link java.util.ConcurrentModificationException}.
+ * An insert racing with a {@link #removeAll} of its type may land in the partition being dropped; that is
+ * the same outcome as the insert happening just before the removal, which is allowed since they overlap.
+ * <p>
+ * Iterators are snapshots: entries carry the versions, from a {@link VersionClock} shared by every partition,
+ * at which they were inserted and removed, and an iterator only returns the entries that were committed when
+ * it was created, without locking and without copying them. Removed entries stay in their partition until
+ * every iterator that could still see them is closed. {@link #queryTypes} and {@link #queryAll} give all
+ * their partitions the same version. {@link #removeAll} drops a partition at once, as before, so a query
+ * racing with it sees either the whole partition or none of it.
+ */
+public class IndexedEventStore implements EventStore {
+
+	private static final EventIterator EMPTY_ITERATOR = new IndexIterator(new TimeIndex(null), 0L, 0L);
+
+	final TypeDictionary types = new TypeDictionary();
+	private volatile TimeIndex[] indexes = new TimeIndex[0];
+	final VersionClock versions = new VersionClock();
+	private final IteratorPool<IndexIterator> iterators = new IteratorPool<IndexIterator>(this::newIterator);
+
+	public IndexedEventStore() {
+	}
+
+	/**
+	 * Returns the partition of a type
+	 * @param type
+	 * @return the partition, or null if the type has none
+	 */
+	TimeIndex index(String type) {
+		int id = type == null ? -1 : types.lookup(type);
+		TimeIndex[] current = indexes;
+		return id >= 0 && id < current.length ? current[id] : null;
+	}
+
+	private TimeIndex indexOf(String type) {
+		TimeIndex index = index(type);
+		return index != null ? index : createIndex(type);
+	}
+
+	private synchronized TimeIndex createIndex(String type) {
+		int id = types.idOf(type);
+		TimeIndex[] current = indexes;
+		if (id < current.length && current[id] != null) {
+			return current[id];
+		}
+		TimeIndex[] updated = Arrays.copyOf(current, Math.max(current.length, id + 1));
+		updated[id] = new TimeIndex(types.name(id), versions);
+		indexes = updated;
+		return updated[id];
+	}
+
+	/**
+	 * Stores an event in the partition of its type, creating the partition if this is the first event of the type.
+	 *
+	 * @param event
+	 */
+	@Override
+	public void insert(Event event) {
+		indexOf(event.type()).add(event);
+	}
+
+	/**
+	 * Stores a batch of events, looking up the partition of each type once.
+	 * The events of each type are sorted first, so that consecutive skip list inserts land next to each other.
+	 *
+	 * @param events
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void insertAll(Event[] events, int offset, int length) {
+		for (EventBatch batch : EventBatch.groupByType(events, offset, length)) {
+			indexOf(batch.type).addAll(batch.sortedEvents());
+		}
+	}
+
+	private IndexIterator newIterator() {
+		return new IndexIterator(versions, iterators);
+	}
+
+	/**
+	 * Removes all events of specific type, by dropping the whole partition of that type.
+	 *
+	 * @param type
+	 */
+	@Override
+	public synchronized void removeAll(String type) {
+		int id = type == null ? -1 : types.lookup(type);
+		TimeIndex[] current = indexes;
+		if (id >= 0 && id < current.length && current[id] != null) {
+			TimeIndex[] updated = current.clone();
+			updated[id] = null;
+			indexes = updated;
+		}
+	}
+
+	/**
+	 * Removes the events of a type in a time range. A skip list has no segments to drop, so each entry of
+	 * the range is stamped as removed after a single descent, and unlinked once no snapshot can see it.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of events removed.
+	 */
+	@Override
+	public long removeRange(String type, long startTime, long endTime) {
+		TimeIndex index = index(type);
+		return index == null ? 0 : index.removeRange(startTime, endTime);
+	}
+
+	/**
+	 * Retrieves an iterator for events based on their type and timestamp.
+	 * Only the partition of the given type is searched, starting at the first event of the range.
+	 * Nothing is copied: the returned {@link IndexIterator} walks the partition lazily, in timestamp order,
+	 * as of the version of the store at this call. Iterators are pooled per thread, and reused once closed;
+	 * the query only allocates its {@link IteratorLease}.
+	 *
+	 * @param type      The type we are querying for.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator where all its events have same type as
+	 * {@param type} and timestamp between {@param startTime}
+	 * (inclusive) and {@param endTime} (exclusive).
+	 */
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		TimeIndex index = index(type);
+		if (index == null) {
+			return EMPTY_ITERATOR;
+		}
+		return new IteratorLease(iterators.acquire().open(index, startTime, endTime));
+	}
+
+	/**
+	 * Retrieves an iterator over the events of several types, merged in timestamp order. Every partition is
+	 * read at the same version of the store, so the result is a consistent snapshot across types.
+	 *
+	 * @param types     The types we are querying for; null elements are ignored.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator over the matching events, ordered by timestamp.
+	 */
+	@Override
+	public EventIterator queryTypes(Set<String> types, long startTime, long endTime) {
+		List<TimeIndex> found = new ArrayList<TimeIndex>(types.size());
+		for (String type : types) {
+			TimeIndex index = index(type);
+			if (index != null) {
+				found.add(index);
+			}
+		}
+		return snapshotOf(found, startTime, endTime);
+	}
+
+	/**
+	 * Retrieves an iterator over the events of every type, merged in timestamp order, as a consistent
+	 * snapshot across types.
+	 *
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator over all events in the range, ordered by timestamp.
+	 */
+	@Override
+	public EventIterator queryAll(long startTime, long endTime) {
+		List<TimeIndex> found = new ArrayList<TimeIndex>();
+		for (TimeIndex index : indexes) {
+			if (index != null) {
+				found.add(index);
+			}
+		}
+		return snapshotOf(found, startTime, endTime);
+	}
+
+	private EventIterator snapshotOf(List<TimeIndex> found, long startTime, long endTime) {
+		//The version is pinned by the store until each iterator has pinned it on its own
+		VersionClock.Pin pin = versions.pinNew(this);
+		try {
+			List<EventIterator> merged = new ArrayList<EventIterator>(found.size());
+			for (TimeIndex index : found) {
+				merged.add(iterators.acquire().open(index, startTime, endTime, pin.version));
+			}
+			return new MergingIterator(merged);
+		} finally {
+			versions.release(pin);
+		}
+	}
+
+	/**
+	 * @return a copy of the types that have a partition
+	 */
+	@Override
+	public Set<String> types() {
+		Set<String> result = new HashSet<String>();
+		for (TimeIndex index : indexes) {
+			if (index != null) {
+				result.add(index.type);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts events from the per-bucket counters of the partition, walking only the buckets cut by the range.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of matching events.
+	 */
+	@Override
+	public long count(String type, long startTime, long endTime) {
+		TimeIndex index = index(type);
+		return index == null ? 0 : index.count(startTime, endTime);
+	}
+
+	/**
+	 * Finds the first timestamp of the range with a skip list descent.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the first timestamp, or an empty value if the range holds no event.
+	 */
+	@Override
+	public OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+		TimeIndex index = index(type);
+		return index == null ? OptionalLong.empty() : index.first(startTime, endTime);
+	}
+
+	/**
+	 * Finds the last timestamp of the range with a skip list descent.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the last timestamp, or an empty value if the range holds no event.
+	 */
+	@Override
+	public OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+		TimeIndex index = index(type);
+		return index == null ? OptionalLong.empty() : index.last(startTime, endTime);
+	}
+
+	/**
+	 * Counts events per bucket from the per-bucket counters of the partition. Buckets aligned on the
+	 * counters ({@code 1 << TimeIndex.BUCKET_SHIFT} milliseconds) never walk any event.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @param bucketWidth
+	 * @return the count of each bucket, in time order.
+	 */
+	@Override
+	public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+		int bucketCount = Aggregates.bucketCount(startTime, endTime, bucketWidth);
+		long[] counts = new long[bucketCount];
+		TimeIndex index = index(type);
+		if (index != null) {
+			for (int bucket = 0; bucket < bucketCount; bucket++) {
+				counts[bucket] = index.count(Aggregates.bucketStart(startTime, endTime, bucketWidth, bucket, bucketCount),
+						Aggregates.bucketStart(startTime, endTime, bucketWidth, bucket + 1, bucketCount));
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,79 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tracks one event handed to {@link IngestPipeline#insertAsync}.
+ * <p>
+ * The handle only holds the position of the event in the ring buffer: the event is applied once the writer
+ * has applied every position up to it. Checking is a volatile read, and waiting polls it with short parks,
+ * so handles cost nothing to the writer.
+ */
+public final class IngestHandle {
+	static final IngestHandle DROPPED = new IngestHandle(null, -1);
+	private static final long MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private final IngestPipeline pipeline;
+	private final long position;
+
+	IngestHandle(IngestPipeline pipeline, long position) {
+		this.pipeline = pipeline;
+		this.position = position;
+	}
+
+	/**
+	 * @return true if the event was dropped because the ring buffer was full
+	 */
+	public boolean isDropped() {
+		return position < 0;
+	}
+
+	/**
+	 * @return true if the event was handed to the store and the store rejected it. Failures are remembered
+	 * per slot of the ring buffer, so the answer holds until an event at the same slot fails in turn.
+	 */
+	public boolean isFailed() {
+		return position >= 0 && pipeline.failed(position);
+	}
+
+	/**
+	 * @return true if the event was handed to the store, or dropped; see {@link #isFailed} for whether the
+	 * store took it
+	 */
+	public boolean isDone() {
+		return position < 0 || pipeline.applied() > position;
+	}
+
+	/**
+	 * Waits until the event is handed to the store, or dropped
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		await(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Waits until the event is handed to the store, or dropped, for at most a given time
+	 * @param timeout
+	 * @param unit
+	 * @return false if the time ran out first
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long park = 1000;
+		while (!isDone()) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			long remaining = deadline - System.nanoTime();
+			if (timeout != Long.MAX_VALUE && remaining <= 0) {
+				return false;
+			}
+			LockSupport.parkNanos(this, timeout == Long.MAX_VALUE ? park : Math.min(park, remaining));
+			park = Math.min(park * 2, MAX_PARK_NANOS);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,362 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * A front-end that decouples producers from an event store.
+ * <p>
+ * Producers only put events in a bounded {@link RingBuffer}, which costs a CAS and no allocation. A single
+ * writer thread drains it and applies the events to the store with {@link EventStore#insertAll}, in batches
+ * of up to {@code batchSize} events. Producers therefore never wait on the locks of the store, nor on the
+ * queries that share them, but only, when the ring buffer is full, as told by the {@link BackpressurePolicy}.
+ * <p>
+ * Inserts are asynchronous: an event inserted here becomes visible to queries once the writer applies it.
+ * {@link #insertAsync} returns an {@link IngestHandle} to wait for that, and {@link #flush} waits for every
+ * event inserted so far. {@link #removeAll} flushes first, so it also removes the events still in flight.
+ * Every other query is answered by the store right away.
+ * <p>
+ * If the store throws while applying a batch, the writer applies its events again one by one, so that only
+ * the events the store rejects are lost. Those are counted in {@link #failedEvents} and reported by
+ * {@link IngestHandle#isFailed}, the last exception is kept in {@link #lastFailure}, and the writer carries
+ * on with the next batch. Retrying relies on {@link EventStore#insertAll} failing before it applies any event,
+ * as the stores of this package do when an event is invalid; a store that fails part way through a batch may
+ * be handed some of its events twice.
+ */
+public class IngestPipeline implements EventStore, AutoCloseable {
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	private static final int IDLE_SPINS = 100;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long MAX_BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	final EventStore store;
+	private final RingBuffer ring;
+	private final BackpressurePolicy policy;
+	private final int batchSize;
+	private final Thread writer;
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	/**
+	 * The position of the last failed event of each slot of the ring buffer, or -1; written by the writer
+	 * before it publishes {@link #applied}, so readers see it once they see the event applied
+	 */
+	private final long[] failedPositions;
+	private volatile RuntimeException lastFailure;
+	private volatile long applied;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a pipeline in front of a store, and starts its writer thread
+	 * @param store
+	 * @param capacity the number of events the ring buffer holds, rounded up to a power of two
+	 * @param policy   what producers do when the ring buffer is full
+	 */
+	public IngestPipeline(EventStore store, int capacity, BackpressurePolicy policy) {
+		this(store, capacity, policy, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Creates a pipeline in front of a store, and starts its writer thread
+	 * @param store
+	 * @param capacity  the number of events the ring buffer holds, rounded up to a power of two
+	 * @param policy    what producers do when the ring buffer is full
+	 * @param batchSize the largest number of events applied to the store at once
+	 */
+	public IngestPipeline(EventStore store, int capacity, BackpressurePolicy policy, int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.store = store;
+		this.ring = new RingBuffer(capacity);
+		this.failedPositions = new long[ring.capacity()];
+		Arrays.fill(failedPositions, -1);
+		this.policy = policy;
+		this.batchSize = batchSize;
+		this.writer = new Thread(this::write, "event-store-ingest");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Hands an event to the writer, waiting for a free slot or dropping the event as the backpressure policy says.
+	 *
+	 * @param event
+	 * @throws IllegalStateException if the pipeline is closed
+	 */
+	@Override
+	public void insert(Event event) {
+		offer(event);
+	}
+
+	/**
+	 * Hands an event to the writer, like {@link #insert}, and returns a handle to wait until it is applied
+	 * @param event
+	 * @return the handle, which is {@link IngestHandle#isDropped} if the event was dropped
+	 * @throws IllegalStateException if the pipeline is closed
+	 */
+	public IngestHandle insertAsync(Event event) {
+		long position = offer(event);
+		return position < 0 ? IngestHandle.DROPPED : new IngestHandle(this, position);
+	}
+
+	private long offer(Event event) {
+		if (closed) {
+			throw new IllegalStateException("The pipeline is closed");
+		}
+		long position = ring.offer(event);
+		long park = 1000;
+		if (position < 0) {
+			ContentionCounters.RING_FULL.increment();
+		}
+		while (position < 0) {
+			switch (policy) {
+			case DROP:
+				dropped.increment();
+				return -1;
+			case BLOCK:
+				LockSupport.parkNanos(this, park);
+				park = Math.min(park * 2, MAX_BLOCK_PARK_NANOS);
+				break;
+			case SPIN:
+				//Busy-wait: retry right away
+				break;
+			}
+			if (closed && !writer.isAlive()) {
+				throw new IllegalStateException("The pipeline is closed");
+			}
+			position = ring.offer(event);
+		}
+		if (closed) {
+			//The writer may have stopped before this event was published: apply it here if so
+			drainAfterClose();
+		}
+		return position;
+	}
+
+	private void write() {
+		Event[] batch = new Event[batchSize];
+		int idle = 0;
+		while (true) {
+			int count = ring.drainTo(batch, batchSize);
+			if (count > 0) {
+				apply(batch, count);
+				idle = 0;
+			} else if (closed && ring.claimed() == applied) {
+				return;
+			} else if (++idle < IDLE_SPINS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+		}
+	}
+
+	private void apply(Event[] batch, int count) {
+		try {
+			store.insertAll(batch, 0, count);
+		} catch (RuntimeException e) {
+			lastFailure = e;
+			//Isolates the events the store rejects
+			for (int i = 0; i < count; i++) {
+				try {
+					store.insert(batch[i]);
+				} catch (RuntimeException failure) {
+					long position = applied + i;
+					failedPositions[(int) position & (failedPositions.length - 1)] = position;
+					failed.increment();
+					lastFailure = failure;
+				}
+			}
+		}
+		Arrays.fill(batch, 0, count, null);
+		//Only the writer, or a producer after the writer stopped, updates it
+		applied = applied + count;
+	}
+
+	private void drainAfterClose() {
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		synchronized (this) {
+			Event[] batch = new Event[batchSize];
+			int count;
+			while ((count = ring.drainTo(batch, batchSize)) > 0) {
+				apply(batch, count);
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of events applied to the store, or failed, so far
+	 */
+	long applied() {
+		return applied;
+	}
+
+	/**
+	 * Waits until every event inserted before the call is applied to the store
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException {
+		long target = ring.claimed();
+		if (target > 0) {
+			new IngestHandle(this, target - 1).await();
+		}
+	}
+
+	/**
+	 * Removes all events of specific type, including those still in the ring buffer.
+	 *
+	 * @param type
+	 */
+	@Override
+	public void removeAll(String type) {
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while flushing", e);
+		}
+		store.removeAll(type);
+	}
+
+	/**
+	 * Removes the events of a type in a time range, including those still in the ring buffer.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of events removed.
+	 */
+	@Override
+	public long removeRange(String type, long startTime, long endTime) {
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while flushing", e);
+		}
+		return store.removeRange(type, startTime, endTime);
+	}
+
+	/**
+	 * Retrieves an iterator for events based on their type and timestamp, from the store.
+	 * Events still in the ring buffer are not seen.
+	 *
+	 * @param type      The type we are querying for.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator where all its events have same type as
+	 * {@param type} and timestamp between {@param startTime}
+	 * (inclusive) and {@param endTime} (exclusive).
+	 */
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		return store.query(type, startTime, endTime);
+	}
+
+	@Override
+	public EventIterator query(String type, long startTime, long endTime, FieldPredicate... predicates) {
+		return store.query(type, startTime, endTime, predicates);
+	}
+
+	@Override
+	public EventIterator queryTypes(Set<String> types, long startTime, long endTime) {
+		return store.queryTypes(types, startTime, endTime);
+	}
+
+	@Override
+	public EventIterator queryAll(long startTime, long endTime) {
+		return store.queryAll(startTime, endTime);
+	}
+
+	@Override
+	public Set<String> types() {
+		return store.types();
+	}
+
+	@Override
+	public Stream<Event> stream(String type, long startTime, long endTime) {
+		return store.stream(type, startTime, endTime);
+	}
+
+	@Override
+	public long count(String type, long startTime, long endTime) {
+		return store.count(type, startTime, endTime);
+	}
+
+	@Override
+	public OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+		return store.firstTimestamp(type, startTime, endTime);
+	}
+
+	@Override
+	public OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+		return store.lastTimestamp(type, startTime, endTime);
+	}
+
+	@Override
+	public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+		return store.histogram(type, startTime, endTime, bucketWidth);
+	}
+
+	/**
+	 * @return the number of events dropped because the ring buffer was full
+	 */
+	public long droppedEvents() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return whether the event at a position was applied and the store rejected it, as long as no event
+	 * a multiple of the ring buffer capacity later has failed too
+	 */
+	boolean failed(long position) {
+		return applied > position && failedPositions[(int) position & (failedPositions.length - 1)] == position;
+	}
+
+	/**
+	 * @return the number of events the store failed to apply
+	 */
+	public long failedEvents() {
+		return failed.sum();
+	}
+
+	/**
+	 * @return the last exception thrown by the store while applying events, or null
+	 */
+	public RuntimeException lastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 * @return the number of events accepted but not applied yet
+	 */
+	public long pendingEvents() {
+		return ring.claimed() - applied;
+	}
+
+	/**
+	 * Stops accepting events, and waits until the writer applied every event already accepted.
+	 * The store itself is left open.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		drainAfterClose();
+	}
+}
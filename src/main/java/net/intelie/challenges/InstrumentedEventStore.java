@@ -0,0 +1,327 @@
+package net.intelie.challenges;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A decorator that measures the operations of another event store.
+ * <p>
+ * Every operation is counted and timed into the {@link StoreMetrics} of the decorator: inserts, queries
+ * (including aggregates and streams) and removals, and, for each iterator, the events it visited, the events
+ * it removed and how long it stayed open. Metrics are read either as a {@link MetricsSnapshot} from
+ * {@link #metrics()}, or over JMX once {@link #registerMBean} is called.
+ * <p>
+ * Stores that are not wrapped pay nothing. Wrapped stores pay two {@link System#nanoTime} calls and a few
+ * {@link java.util.concurrent.atomic.LongAdder} increments per operation, none of which lock or allocate,
+ * and a single volatile read once metrics are switched off with {@link StoreMetrics#setEnabled}.
+ * Iterators are only wrapped while metrics are on.
+ */
+public class InstrumentedEventStore implements EventStore, AutoCloseable {
+	public static final String DOMAIN = "net.intelie.challenges";
+
+	final EventStore store;
+	private final StoreMetrics metrics;
+	private ObjectName registered;
+
+	public InstrumentedEventStore(EventStore store) {
+		this.store = store;
+		this.metrics = new StoreMetrics(store);
+	}
+
+	/**
+	 * @return the live metrics of the store
+	 */
+	public StoreMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * Registers the metrics on the platform MBean server, as {@code net.intelie.challenges:type=EventStore,name=<name>}
+	 * @param name
+	 * @return the name it was registered under
+	 * @throws IllegalStateException if it is already registered, or the name is taken or invalid
+	 */
+	public synchronized ObjectName registerMBean(String name) {
+		if (registered != null) {
+			throw new IllegalStateException("Metrics are already registered as " + registered);
+		}
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN, "type", "EventStore");
+			objectName = ObjectName.getInstance(objectName + ",name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+			registered = objectName;
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not register the metrics as " + name, e);
+		}
+	}
+
+	/**
+	 * Stores an event, counting and timing the insert.
+	 *
+	 * @param event
+	 */
+	@Override
+	public void insert(Event event) {
+		if (!metrics.enabled) {
+			store.insert(event);
+			return;
+		}
+		long start = System.nanoTime();
+		store.insert(event);
+		metrics.insertLatency.record(System.nanoTime() - start);
+		metrics.inserts.increment();
+	}
+
+	@Override
+	public void insertAll(Collection<Event> events) {
+		if (!metrics.enabled) {
+			store.insertAll(events);
+			return;
+		}
+		long start = System.nanoTime();
+		store.insertAll(events);
+		metrics.insertLatency.record(System.nanoTime() - start);
+		metrics.inserts.add(events.size());
+	}
+
+	/**
+	 * Stores a batch of events. The whole batch is timed as one insert, but each event is counted.
+	 *
+	 * @param events
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void insertAll(Event[] events, int offset, int length) {
+		if (!metrics.enabled) {
+			store.insertAll(events, offset, length);
+			return;
+		}
+		long start = System.nanoTime();
+		store.insertAll(events, offset, length);
+		metrics.insertLatency.record(System.nanoTime() - start);
+		metrics.inserts.add(length);
+	}
+
+	@Override
+	public void removeAll(String type) {
+		if (!metrics.enabled) {
+			store.removeAll(type);
+			return;
+		}
+		long start = System.nanoTime();
+		store.removeAll(type);
+		metrics.removeAllLatency.record(System.nanoTime() - start);
+		metrics.removeAlls.increment();
+	}
+
+	@Override
+	public long removeRange(String type, long startTime, long endTime) {
+		if (!metrics.enabled) {
+			return store.removeRange(type, startTime, endTime);
+		}
+		long start = System.nanoTime();
+		long removed = store.removeRange(type, startTime, endTime);
+		metrics.removeRangeLatency.record(System.nanoTime() - start);
+		metrics.removeRanges.increment();
+		return removed;
+	}
+
+	/**
+	 * Retrieves an iterator for events based on their type and timestamp. The time to open the query is
+	 * recorded as its latency, and the iterator itself records the events it visits until it is closed.
+	 *
+	 * @param type      The type we are querying for.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator where all its events have same type as
+	 * {@param type} and timestamp between {@param startTime}
+	 * (inclusive) and {@param endTime} (exclusive).
+	 */
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		if (!metrics.enabled) {
+			return store.query(type, startTime, endTime);
+		}
+		long start = System.nanoTime();
+		EventIterator iterator = store.query(type, startTime, endTime);
+		return opened(iterator, start);
+	}
+
+	@Override
+	public EventIterator query(String type, long startTime, long endTime, FieldPredicate... predicates) {
+		if (!metrics.enabled) {
+			return store.query(type, startTime, endTime, predicates);
+		}
+		long start = System.nanoTime();
+		EventIterator iterator = store.query(type, startTime, endTime, predicates);
+		return opened(iterator, start);
+	}
+
+	@Override
+	public EventIterator queryTypes(Set<String> types, long startTime, long endTime) {
+		if (!metrics.enabled) {
+			return store.queryTypes(types, startTime, endTime);
+		}
+		long start = System.nanoTime();
+		EventIterator iterator = store.queryTypes(types, startTime, endTime);
+		return opened(iterator, start);
+	}
+
+	@Override
+	public EventIterator queryAll(long startTime, long endTime) {
+		if (!metrics.enabled) {
+			return store.queryAll(startTime, endTime);
+		}
+		long start = System.nanoTime();
+		EventIterator iterator = store.queryAll(startTime, endTime);
+		return opened(iterator, start);
+	}
+
+	private EventIterator opened(EventIterator iterator, long start) {
+		long now = System.nanoTime();
+		metrics.queryLatency.record(now - start);
+		metrics.queries.increment();
+		metrics.openIterators.increment();
+		return new InstrumentedIterator(iterator, now);
+	}
+
+	private void queried(long start) {
+		metrics.queryLatency.record(System.nanoTime() - start);
+		metrics.queries.increment();
+	}
+
+	@Override
+	public Stream<Event> stream(String type, long startTime, long endTime) {
+		if (!metrics.enabled) {
+			return store.stream(type, startTime, endTime);
+		}
+		long start = System.nanoTime();
+		Stream<Event> stream = store.stream(type, startTime, endTime);
+		queried(start);
+		return stream;
+	}
+
+	@Override
+	public Set<String> types() {
+		return store.types();
+	}
+
+	@Override
+	public long count(String type, long startTime, long endTime) {
+		if (!metrics.enabled) {
+			return store.count(type, startTime, endTime);
+		}
+		long start = System.nanoTime();
+		long count = store.count(type, startTime, endTime);
+		queried(start);
+		return count;
+	}
+
+	@Override
+	public OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+		if (!metrics.enabled) {
+			return store.firstTimestamp(type, startTime, endTime);
+		}
+		long start = System.nanoTime();
+		OptionalLong first = store.firstTimestamp(type, startTime, endTime);
+		queried(start);
+		return first;
+	}
+
+	@Override
+	public OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+		if (!metrics.enabled) {
+			return store.lastTimestamp(type, startTime, endTime);
+		}
+		long start = System.nanoTime();
+		OptionalLong last = store.lastTimestamp(type, startTime, endTime);
+		queried(start);
+		return last;
+	}
+
+	@Override
+	public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+		if (!metrics.enabled) {
+			return store.histogram(type, startTime, endTime, bucketWidth);
+		}
+		long start = System.nanoTime();
+		long[] histogram = store.histogram(type, startTime, endTime, bucketWidth);
+		queried(start);
+		return histogram;
+	}
+
+	/**
+	 * Unregisters the metrics from JMX, if they were registered. The decorated store is left open.
+	 */
+	@Override
+	public synchronized void close() throws JMException {
+		if (registered != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(registered)) {
+				server.unregisterMBean(registered);
+			}
+			registered = null;
+		}
+	}
+
+	/**
+	 * Counts the events visited and removed through an iterator, and records how long it stayed open.
+	 * It is meant to be used by a single thread, as any iterator, so it keeps its counts in plain fields
+	 * and adds them to the shared metrics once, when closed.
+	 */
+	private final class InstrumentedIterator implements EventIterator {
+		private final EventIterator iterator;
+		private final long openedAt;
+		private long visited;
+		private long removed;
+		private boolean closed;
+
+		InstrumentedIterator(EventIterator iterator, long openedAt) {
+			this.iterator = iterator;
+			this.openedAt = openedAt;
+		}
+
+		@Override
+		public boolean moveNext() {
+			if (iterator.moveNext()) {
+				visited++;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public Event current() {
+			return iterator.current();
+		}
+
+		@Override
+		public void remove() {
+			iterator.remove();
+			removed++;
+		}
+
+		@Override
+		public void close() throws Exception {
+			try {
+				iterator.close();
+			} finally {
+				if (!closed) {
+					closed = true;
+					metrics.iteratorLifetime.record(System.nanoTime() - openedAt);
+					metrics.eventsVisited.add(visited);
+					metrics.iteratorRemoves.add(removed);
+					metrics.openIterators.decrement();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package net.intelie.challenges;
+
+/**
+ * The handle a query returns over a pooled iterator, valid for that query only.
+ * <p>
+ * A pooled iterator goes back to its {@link IteratorPool} when closed, and the next query of the thread
+ * gets the same object back. Handing it out directly would let a stale second {@code close} (an explicit
+ * close inside a try-with-resources block, for instance) close the query that reused it. Each query gets its
+ * own lease instead, which forgets the iterator when it is closed: closing it again, or moving it, then has
+ * no effect on the iterator, whoever holds it by then. The lease is the only allocation of such a query.
+ */
+final class IteratorLease implements EventIterator {
+	private EventIterator iterator;
+
+	/**
+	 * @param iterator an open iterator, taken from a pool for this lease only
+	 */
+	IteratorLease(EventIterator iterator) {
+		this.iterator = iterator;
+	}
+
+	/**
+	 * @return false once the lease is closed
+	 */
+	@Override
+	public boolean moveNext() {
+		EventIterator current = iterator;
+		return current != null && current.moveNext();
+	}
+
+	/**
+	 * @throws IllegalStateException if the lease is closed, or as {@link EventIterator#current}
+	 */
+	@Override
+	public Event current() {
+		return open().current();
+	}
+
+	/**
+	 * @throws IllegalStateException if the lease is closed, or as {@link EventIterator#remove}
+	 */
+	@Override
+	public void remove() {
+		open().remove();
+	}
+
+	private EventIterator open() {
+		EventIterator current = iterator;
+		if (current == null) {
+			throw new IllegalStateException("The iterator is closed");
+		}
+		return current;
+	}
+
+	/**
+	 * Closes the iterator, which goes back to its pool, on the first call only
+	 */
+	@Override
+	public void close() throws Exception {
+		EventIterator current = iterator;
+		if (current != null) {
+			iterator = null;
+			current.close();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package net.intelie.challenges;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the closed iterators of a store for reuse, one small stack per thread.
+ * <p>
+ * A thread that runs many small queries takes its iterator back from its own stack on each query and puts
+ * it back on close, so the query allocates no buffers and no two threads ever share a stack. An iterator closed
+ * by another thread than the one that opened it simply lands on the stack of the closing thread. At most
+ * {@link #MAX_IDLE} iterators are kept per thread; beyond that, closed iterators are left to the GC.
+ * <p>
+ * A pooled iterator is reused as soon as it is closed, so it must not be touched after {@link EventIterator#close}:
+ * stores hand each query an {@link IteratorLease} over it, rather than the iterator itself.
+ */
+final class IteratorPool<T> {
+	static final int MAX_IDLE = 16;
+
+	private final ThreadLocal<ArrayDeque<T>> idle = ThreadLocal.withInitial(() -> new ArrayDeque<T>(MAX_IDLE));
+	private final Supplier<T> factory;
+
+	/**
+	 * @param factory creates an iterator when the stack of the thread is empty
+	 */
+	IteratorPool(Supplier<T> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * @return an idle iterator of the current thread, or a new one
+	 */
+	T acquire() {
+		T iterator = idle.get().pollLast();
+		return iterator != null ? iterator : factory.get();
+	}
+
+	/**
+	 * Keeps a closed iterator for the next query of the current thread
+	 * @param iterator
+	 * @return false if the stack is full and the iterator was not kept
+	 */
+	boolean release(T iterator) {
+		ArrayDeque<T> stack = idle.get();
+		if (stack.size() >= MAX_IDLE) {
+			return false;
+		}
+		stack.addLast(iterator);
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of durations in nanoseconds, with log-linear buckets as in HdrHistogram.
+ * <p>
+ * Values below {@code 2^SUB_BUCKET_BITS} get a bucket each; above that, every power of two is split into
+ * {@code 2^(SUB_BUCKET_BITS - 1)} buckets of equal width, so any recorded value is known within about 3%
+ * and the whole long range fits in less than a thousand counters. Recording finds the bucket with a few
+ * shifts and increments it, without locking and without allocating.
+ */
+public final class LatencyHistogram {
+	static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS / 2;
+	static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a duration; negative durations count as 0
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(indexOf(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	/**
+	 * @return the largest value that falls in a bucket
+	 */
+	static long highestValueOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long sub = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return a copy of the current state; concurrent recordings may be partly included
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, sum.sum(), max.get());
+	}
+
+	/**
+	 * An immutable copy of a histogram.
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of recorded values
+		 */
+		public long count() {
+			return count;
+		}
+
+		/**
+		 * @return the mean of the recorded values, or 0 if there is none
+		 */
+		public double mean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * @return the largest recorded value
+		 */
+		public long max() {
+			return max;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return an upper bound, within the precision of the buckets, of the value below which the given
+		 * percentage of the recorded values fall; 0 if nothing was recorded
+		 */
+		public long percentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highestValueOf(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package net.intelie.challenges;
+
+/**
+ * A few percentiles of a {@link LatencyHistogram}, in nanoseconds, as shown by {@link StoreMetricsMXBean}.
+ * <p>
+ * JMX turns it into a composite value with one item per getter.
+ */
+public final class LatencySummary {
+	private final long count;
+	private final double mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long p999;
+	private final long max;
+
+	LatencySummary(LatencyHistogram.Snapshot snapshot) {
+		this.count = snapshot.count();
+		this.mean = snapshot.mean();
+		this.p50 = snapshot.percentile(50);
+		this.p90 = snapshot.percentile(90);
+		this.p99 = snapshot.percentile(99);
+		this.p999 = snapshot.percentile(99.9);
+		this.max = snapshot.max();
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getP999() {
+		return p999;
+	}
+
+	public long getMax() {
+		return max;
+	}
+}
@@ -1,9 +1,6 @@
 package net.intelie.challenges;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -38,8 +35,7 @@ public class Main {
 	 * @throws InterruptedException
 	 */
 	public static EventStore populateStore() throws InterruptedException {
-		Set<Event> dataStructure = new HashSet<Event>();
-		EventStore eventStore = new EventStoreImpl(dataStructure);
+		EventStore eventStore = new IndexedEventStore();
 		String eventTypes[] = new String[] {"Event-1", "Event-2", "Event-3"};
 		ExecutorService pool = Executors.newFixedThreadPool(5);
         for(int i = 0; i <= 1000; i++){
@@ -0,0 +1,147 @@
+package net.intelie.challenges;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The read-only mappings of the {@link SegmentSpill.SpillFile}s being read, bounded by the bytes they map.
+ * <p>
+ * Each file is mapped whole, from its start to the bytes written so far, and remapped if a segment appended
+ * later is read. When a new mapping takes the cache over its bound, mappings are evicted with the CLOCK
+ * algorithm: a hand sweeps the entries, clearing the referenced bit of those read since it last passed and
+ * evicting the first one found cleared, so files read often stay mapped at the cost of a flag per read.
+ * The mapping just made is never evicted, so a single file larger than the bound is still read.
+ * <p>
+ * An evicted mapping is only unmapped once no reader holds it anymore, by the garbage collector, as with
+ * any {@link MappedByteBuffer}; readers that hold one keep reading it safely. Lookups take the lock of the
+ * cache, once per segment decoded.
+ */
+final class MappedFileCache {
+	private static final class Entry {
+		final SegmentSpill.SpillFile file;
+		final MappedByteBuffer buffer;
+		boolean referenced;
+
+		Entry(SegmentSpill.SpillFile file, MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	private final long maxBytes;
+	private final Map<SegmentSpill.SpillFile, Entry> entries = new HashMap<SegmentSpill.SpillFile, Entry>();
+	private final List<Entry> clock = new ArrayList<Entry>();
+	private int hand;
+	private long mappedBytes;
+	private long hits;
+	private long misses;
+
+	MappedFileCache(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("The cache must map at least one byte");
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns a mapping of a file that reaches a position, mapping the file if it is not cached or its
+	 * mapping is too short
+	 * @param file
+	 * @param end
+	 * @return the mapping, shared by every reader: only absolute reads may be used on it
+	 * @throws IOException if the file could not be mapped
+	 */
+	synchronized ByteBuffer map(SegmentSpill.SpillFile file, long end) throws IOException {
+		Entry entry = entries.get(file);
+		if (entry != null && entry.buffer.capacity() >= end) {
+			hits++;
+			entry.referenced = true;
+			return entry.buffer;
+		}
+		misses++;
+		if (entry != null) {
+			remove(entry);
+		}
+		entry = new Entry(file, file.channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(end, file.size)));
+		entries.put(file, entry);
+		clock.add(entry);
+		mappedBytes += entry.buffer.capacity();
+		evict(entry);
+		return entry.buffer;
+	}
+
+	/**
+	 * Evicts mappings other than the one given until the cache is back within its bound
+	 */
+	private void evict(Entry keep) {
+		while (mappedBytes > maxBytes && clock.size() > 1) {
+			if (hand >= clock.size()) {
+				hand = 0;
+			}
+			Entry entry = clock.get(hand);
+			if (entry == keep) {
+				hand++;
+			} else if (entry.referenced) {
+				entry.referenced = false;
+				hand++;
+			} else {
+				remove(entry);
+			}
+		}
+	}
+
+	private void remove(Entry entry) {
+		int index = clock.indexOf(entry);
+		clock.remove(index);
+		if (index < hand) {
+			hand--;
+		}
+		entries.remove(entry.file);
+		mappedBytes -= entry.buffer.capacity();
+	}
+
+	/**
+	 * Drops the mapping of a file, if it is cached
+	 * @param file
+	 */
+	synchronized void remove(SegmentSpill.SpillFile file) {
+		Entry entry = entries.get(file);
+		if (entry != null) {
+			remove(entry);
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		clock.clear();
+		hand = 0;
+		mappedBytes = 0;
+	}
+
+	/**
+	 * @return the bytes of files the cache holds mappings of
+	 */
+	synchronized long mappedBytes() {
+		return mappedBytes;
+	}
+
+	/**
+	 * @return the number of reads served by a cached mapping
+	 */
+	synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of reads that had to map a file
+	 */
+	synchronized long misses() {
+		return misses;
+	}
+}
@@ -0,0 +1,88 @@
+package net.intelie.challenges;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential reads over a memory-mapped file of any size.
+ * <p>
+ * A single mapping is limited to 2GB, so the file is mapped through a sliding window, moved forward
+ * whenever the next value would cross its end. Reading a mapped file avoids copying it through read
+ * buffers, which makes loading a snapshot or replaying a log bound by disk bandwidth.
+ */
+final class MappedReader implements Closeable {
+	private static final long WINDOW_BYTES = 64L << 20;
+
+	private final FileChannel channel;
+	private final long size;
+	private long windowStart;
+	private MappedByteBuffer window;
+
+	MappedReader(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.size = channel.size();
+		map(0);
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_BYTES, size - start));
+		window.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (window.remaining() < bytes) {
+			map(position());
+		}
+	}
+
+	long position() {
+		return windowStart + window.position();
+	}
+
+	/**
+	 * @param bytes
+	 * @return true if at least that many bytes are left before the end of the file
+	 */
+	boolean has(long bytes) {
+		return size - position() >= bytes;
+	}
+
+	byte readByte() throws IOException {
+		ensure(1);
+		return window.get();
+	}
+
+	int readInt() throws IOException {
+		ensure(4);
+		return window.getInt();
+	}
+
+	long readLong() throws IOException {
+		ensure(8);
+		return window.getLong();
+	}
+
+	/**
+	 * Reads a string written as an unsigned short length followed by its UTF-8 bytes
+	 */
+	String readString() throws IOException {
+		ensure(2);
+		byte[] bytes = new byte[window.getShort() & 0xFFFF];
+		ensure(bytes.length);
+		window.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
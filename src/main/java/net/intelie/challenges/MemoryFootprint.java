@@ -0,0 +1,12 @@
+package net.intelie.challenges;
+
+/**
+ * A store that can tell how much memory its events take.
+ */
+public interface MemoryFootprint {
+    /**
+     * @return an estimate, in bytes, of the memory held for the events of
+     * the store, including free space kept for future events.
+     */
+    long usedBytes();
+}
@@ -0,0 +1,134 @@
+package net.intelie.challenges;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An {@link EventIterator} that merges several timestamp-ordered iterators into one, lazily.
+ * <p>
+ * The iterators are kept in a heap ordered by the timestamp of their current event, so each step costs
+ * O(log k) for k iterators and nothing is collected up front. Events with equal timestamps come out in
+ * the order of the iterators in the list. The iterator that produced the current event stays positioned
+ * on it until the next call to {@link #moveNext}, so {@link #remove} is delegated to it.
+ */
+class MergingIterator implements EventIterator {
+
+	private static final class Source implements Comparable<Source> {
+		final EventIterator iterator;
+		final int order;
+		Event head;
+
+		Source(EventIterator iterator, int order) {
+			this.iterator = iterator;
+			this.order = order;
+		}
+
+		boolean advance() {
+			if (!iterator.moveNext()) {
+				return false;
+			}
+			head = iterator.current();
+			return true;
+		}
+
+		@Override
+		public int compareTo(Source other) {
+			int result = Long.compare(head.timestamp(), other.head.timestamp());
+			return result != 0 ? result : Integer.compare(order, other.order);
+		}
+	}
+
+	final List<EventIterator> iterators;
+	private PriorityQueue<Source> heap;
+	private Source current;
+	private boolean closed;
+
+	/**
+	 * Creates an iterator over the union of the given ones, which it takes ownership of
+	 * @param iterators each one returning events in timestamp order
+	 */
+	MergingIterator(List<EventIterator> iterators) {
+		this.iterators = iterators;
+	}
+
+	/**
+	 * Moves to the event with the smallest timestamp among the heads of the merged iterators.
+	 */
+	@Override
+	public boolean moveNext() {
+		if (closed) {
+			return false;
+		}
+		if (heap == null) {
+			heap = new PriorityQueue<Source>(Math.max(1, iterators.size()));
+			for (int i = 0; i < iterators.size(); i++) {
+				Source source = new Source(iterators.get(i), i);
+				if (source.advance()) {
+					heap.add(source);
+				}
+			}
+		} else if (current != null && current.advance()) {
+			heap.add(current);
+		}
+		current = heap.poll();
+		return current != null;
+	}
+
+	/**
+	 * Returns the event the iterator is positioned at.
+	 *
+	 * @return the event itself
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public Event current() {
+		if (current == null) {
+			throw new IllegalStateException();
+		}
+		return current.head;
+	}
+
+	/**
+	 * Removes the current event, through the iterator it came from.
+	 *
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public void remove() {
+		if (current == null) {
+			throw new IllegalStateException();
+		}
+		current.iterator.remove();
+	}
+
+	/**
+	 * Closes every merged iterator, even if some of them fail to close. The merged iterators may be pooled
+	 * and reused as soon as they are closed, so they are never touched again, even by a second close.
+	 */
+	@Override
+	public void close() throws Exception {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		current = null;
+		heap = null;
+		Exception failure = null;
+		for (EventIterator iterator : iterators) {
+			try {
+				iterator.close();
+			} catch (Exception e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
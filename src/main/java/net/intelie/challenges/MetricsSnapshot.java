@@ -0,0 +1,158 @@
+package net.intelie.challenges;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable copy of the {@link StoreMetrics} of a store, for pull-style monitoring.
+ * <p>
+ * Counters are totals since the store was created. Rates are derived from two snapshots, for instance
+ * {@code current.insertRate(previous)} for the inserts per second between them. The {@code jvm} contention
+ * counts are shared by every store of the JVM, see {@link StoreMetricsMXBean}.
+ */
+public final class MetricsSnapshot {
+	private final long takenAtNanos;
+	private final long inserts;
+	private final long queries;
+	private final long removeAlls;
+	private final long removeRanges;
+	private final long iteratorRemoves;
+	private final long eventsVisited;
+	private final long openIterators;
+	private final LatencyHistogram.Snapshot insertLatency;
+	private final LatencyHistogram.Snapshot queryLatency;
+	private final LatencyHistogram.Snapshot removeAllLatency;
+	private final LatencyHistogram.Snapshot removeRangeLatency;
+	private final LatencyHistogram.Snapshot iteratorLifetime;
+	private final Map<String, Long> eventsPerType;
+	private final long usedBytes;
+	private final long jvmColumnLockWaits;
+	private final long jvmOffHeapLockWaits;
+	private final long jvmRingCasRetries;
+	private final long jvmRingFullWaits;
+
+	MetricsSnapshot(StoreMetrics metrics) {
+		this.takenAtNanos = System.nanoTime();
+		this.inserts = metrics.inserts.sum();
+		this.queries = metrics.queries.sum();
+		this.removeAlls = metrics.removeAlls.sum();
+		this.removeRanges = metrics.removeRanges.sum();
+		this.iteratorRemoves = metrics.iteratorRemoves.sum();
+		this.eventsVisited = metrics.eventsVisited.sum();
+		this.openIterators = metrics.openIterators.sum();
+		this.insertLatency = metrics.insertLatency.snapshot();
+		this.queryLatency = metrics.queryLatency.snapshot();
+		this.removeAllLatency = metrics.removeAllLatency.snapshot();
+		this.removeRangeLatency = metrics.removeRangeLatency.snapshot();
+		this.iteratorLifetime = metrics.iteratorLifetime.snapshot();
+		this.eventsPerType = Collections.unmodifiableMap(metrics.getEventsPerType());
+		this.usedBytes = metrics.getUsedBytes();
+		this.jvmColumnLockWaits = metrics.getJvmColumnLockWaits();
+		this.jvmOffHeapLockWaits = metrics.getJvmOffHeapLockWaits();
+		this.jvmRingCasRetries = metrics.getJvmRingCasRetries();
+		this.jvmRingFullWaits = metrics.getJvmRingFullWaits();
+	}
+
+	private double rate(long count, long earlierCount, MetricsSnapshot earlier) {
+		long elapsed = takenAtNanos - earlier.takenAtNanos;
+		return elapsed <= 0 ? 0 : (count - earlierCount) * 1e9 / elapsed;
+	}
+
+	/**
+	 * @return the events inserted per second since an earlier snapshot
+	 */
+	public double insertRate(MetricsSnapshot earlier) {
+		return rate(inserts, earlier.inserts, earlier);
+	}
+
+	/**
+	 * @return the queries per second since an earlier snapshot
+	 */
+	public double queryRate(MetricsSnapshot earlier) {
+		return rate(queries, earlier.queries, earlier);
+	}
+
+	/**
+	 * @return the removals, by {@link EventStore#removeAll}, {@link EventStore#removeRange} or through iterators,
+	 * per second since an earlier snapshot
+	 */
+	public double removeRate(MetricsSnapshot earlier) {
+		return rate(removeAlls + removeRanges + iteratorRemoves, earlier.removeAlls + earlier.removeRanges + earlier.iteratorRemoves, earlier);
+	}
+
+	public long takenAtNanos() {
+		return takenAtNanos;
+	}
+
+	public long inserts() {
+		return inserts;
+	}
+
+	public long queries() {
+		return queries;
+	}
+
+	public long removeAlls() {
+		return removeAlls;
+	}
+
+	public long removeRanges() {
+		return removeRanges;
+	}
+
+	public long iteratorRemoves() {
+		return iteratorRemoves;
+	}
+
+	public long eventsVisited() {
+		return eventsVisited;
+	}
+
+	public long openIterators() {
+		return openIterators;
+	}
+
+	public LatencyHistogram.Snapshot insertLatency() {
+		return insertLatency;
+	}
+
+	public LatencyHistogram.Snapshot queryLatency() {
+		return queryLatency;
+	}
+
+	public LatencyHistogram.Snapshot removeAllLatency() {
+		return removeAllLatency;
+	}
+
+	public LatencyHistogram.Snapshot removeRangeLatency() {
+		return removeRangeLatency;
+	}
+
+	public LatencyHistogram.Snapshot iteratorLifetime() {
+		return iteratorLifetime;
+	}
+
+	public Map<String, Long> eventsPerType() {
+		return eventsPerType;
+	}
+
+	public long usedBytes() {
+		return usedBytes;
+	}
+
+	public long jvmColumnLockWaits() {
+		return jvmColumnLockWaits;
+	}
+
+	public long jvmOffHeapLockWaits() {
+		return jvmOffHeapLockWaits;
+	}
+
+	public long jvmRingCasRetries() {
+		return jvmRingCasRetries;
+	}
+
+	public long jvmRingFullWaits() {
+		return jvmRingFullWaits;
+	}
+}
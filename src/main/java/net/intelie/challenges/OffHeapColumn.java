@@ -0,0 +1,633 @@
+package net.intelie.challenges;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The timestamps of every event of one type, kept sorted in off-heap segments.
+ * <p>
+ * Each segment is a direct buffer from a {@link SegmentPool}, laid out as a header (the type id and the
+ * number of timestamps, both ints) followed by the timestamps as longs. Segments are listed in time order,
+ * so the heap only holds one small list entry per segment, whatever the number of events.
+ * <p>
+ * Off-heap memory is modified in place, so, unlike {@link TimestampColumn}, readers can not walk it while
+ * it changes: a read-write lock per column protects it. Readers copy timestamps out in small batches
+ * (see {@link #read}) and release the lock in between, so a long iteration never holds the lock for long.
+ * Columns of different types never share a lock.
+ */
+final class OffHeapColumn {
+	private static final int TYPE_OFFSET = 0;
+	private static final int SIZE_OFFSET = 4;
+	private static final int HEADER_BYTES = 8;
+
+	final String type;
+	final int typeId;
+	private final SegmentPool pool;
+	private final int segmentCapacity;
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	OffHeapColumn(String type, int typeId, SegmentPool pool) {
+		this.type = type;
+		this.typeId = typeId;
+		this.pool = pool;
+		this.segmentCapacity = (pool.segmentBytes - HEADER_BYTES) / 8;
+	}
+
+	static int segmentBytes(int segmentCapacity) {
+		return HEADER_BYTES + 8 * segmentCapacity;
+	}
+
+	private static int size(ByteBuffer segment) {
+		return segment.getInt(SIZE_OFFSET);
+	}
+
+	private static long timestamp(ByteBuffer segment, int index) {
+		return segment.getLong(HEADER_BYTES + 8 * index);
+	}
+
+	private static void setTimestamp(ByteBuffer segment, int index, long timestamp) {
+		segment.putLong(HEADER_BYTES + 8 * index, timestamp);
+	}
+
+	private ByteBuffer newSegment() {
+		ByteBuffer segment = pool.acquire();
+		segment.putInt(TYPE_OFFSET, typeId);
+		segment.putInt(SIZE_OFFSET, 0);
+		return segment;
+	}
+
+	private void lockForWrite() {
+		if (!lock.writeLock().tryLock()) {
+			ContentionCounters.OFF_HEAP_LOCK_WAITS.increment();
+			lock.writeLock().lock();
+		}
+	}
+
+	private void lockForRead() {
+		if (!lock.readLock().tryLock()) {
+			ContentionCounters.OFF_HEAP_LOCK_WAITS.increment();
+			lock.readLock().lock();
+		}
+	}
+
+	/**
+	 * Adds a timestamp, after any equal timestamps already in the column
+	 * @param timestamp
+	 * @throws IllegalStateException if a new segment is needed and the pool is exhausted
+	 */
+	void add(long timestamp) {
+		lockForWrite();
+		try {
+			if (segments.isEmpty()) {
+				segments.add(newSegment());
+			}
+			int index = segmentFor(timestamp);
+			ByteBuffer segment = segments.get(index);
+			int size = size(segment);
+			int position = upperBound(segment, size, timestamp);
+			if (size == segmentCapacity) {
+				ByteBuffer next = newSegment();
+				if (position == size && index == segments.size() - 1) {
+					//In-order append to a full tail: start a new segment instead of splitting
+					segments.add(next);
+					segment = next;
+					size = 0;
+					position = 0;
+				} else {
+					int half = size / 2;
+					for (int i = half; i < size; i++) {
+						setTimestamp(next, i - half, timestamp(segment, i));
+					}
+					next.putInt(SIZE_OFFSET, size - half);
+					segment.putInt(SIZE_OFFSET, half);
+					segments.add(index + 1, next);
+					if (position > half) {
+						segment = next;
+						position -= half;
+					}
+					size = size(segment);
+				}
+			}
+			for (int i = size; i > position; i--) {
+				setTimestamp(segment, i, timestamp(segment, i - 1));
+			}
+			setTimestamp(segment, position, timestamp);
+			segment.putInt(SIZE_OFFSET, size + 1);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a batch of timestamps with a single lock acquisition.
+	 * <p>
+	 * Timestamps before the end of the column are split into runs by the segment they fall in, and each run
+	 * is merged into its segment in one pass (see {@link #merge}). The timestamps past the end are then
+	 * copied straight into the free space of the last segment and into new segments.
+	 * @param sorted the timestamps to add, in ascending order
+	 * @throws IllegalStateException if a new segment is needed and the pool is exhausted
+	 */
+	void addAll(long[] sorted) {
+		lockForWrite();
+		try {
+			int next = 0;
+			if (!segments.isEmpty()) {
+				ByteBuffer tail = segments.get(segments.size() - 1);
+				long last = timestamp(tail, size(tail) - 1);
+				int late = 0;
+				while (late < sorted.length && sorted[late] < last) {
+					late++;
+				}
+				while (next < late) {
+					int index = segmentFor(sorted[next]);
+					int end = late;
+					if (index + 1 < segments.size()) {
+						//Timestamps equal to the first one of the next segment go after it, as with add
+						long bound = timestamp(segments.get(index + 1), 0);
+						end = next + 1;
+						while (end < late && sorted[end] < bound) {
+							end++;
+						}
+					}
+					merge(index, sorted, next, end);
+					next = end;
+				}
+			}
+			while (next < sorted.length) {
+				ByteBuffer tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+				if (tail == null || size(tail) == segmentCapacity) {
+					tail = newSegment();
+					segments.add(tail);
+				}
+				int size = size(tail);
+				int count = Math.min(segmentCapacity - size, sorted.length - next);
+				for (int i = 0; i < count; i++) {
+					setTimestamp(tail, size + i, sorted[next++]);
+				}
+				tail.putInt(SIZE_OFFSET, size + count);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Merges a sorted run of timestamps into a segment, each after the equal timestamps of the segment. A run
+	 * that fits in the free space is merged in place from the back; otherwise the merged timestamps are spread
+	 * evenly over the segment and as many new segments as they need. Called under the write lock.
+	 * @throws IllegalStateException if the pool is exhausted, in which case the segment is left unchanged
+	 */
+	private void merge(int index, long[] sorted, int from, int to) {
+		ByteBuffer segment = segments.get(index);
+		int size = size(segment);
+		int total = size + to - from;
+		if (total <= segmentCapacity) {
+			//Backwards, so that each timestamp of the segment moves before its slot is written
+			int i = size - 1;
+			int j = to - 1;
+			for (int k = total - 1; j >= from; k--) {
+				if (i >= 0 && timestamp(segment, i) > sorted[j]) {
+					setTimestamp(segment, k, timestamp(segment, i--));
+				} else {
+					setTimestamp(segment, k, sorted[j--]);
+				}
+			}
+			segment.putInt(SIZE_OFFSET, total);
+			return;
+		}
+		int parts = (total + segmentCapacity - 1) / segmentCapacity;
+		ByteBuffer[] targets = new ByteBuffer[parts];
+		targets[0] = segment;
+		try {
+			for (int p = 1; p < parts; p++) {
+				targets[p] = newSegment();
+			}
+		} catch (IllegalStateException e) {
+			for (int p = 1; p < parts && targets[p] != null; p++) {
+				pool.release(targets[p]);
+			}
+			throw e;
+		}
+		long[] merged = new long[total];
+		int i = 0;
+		int j = from;
+		for (int k = 0; k < total; k++) {
+			if (j == to || i < size && timestamp(segment, i) <= sorted[j]) {
+				merged[k] = timestamp(segment, i++);
+			} else {
+				merged[k] = sorted[j++];
+			}
+		}
+		int offset = 0;
+		for (int p = 0; p < parts; p++) {
+			int count = (total - offset) / (parts - p);
+			for (int k = 0; k < count; k++) {
+				setTimestamp(targets[p], k, merged[offset + k]);
+			}
+			targets[p].putInt(SIZE_OFFSET, count);
+			offset += count;
+			if (p > 0) {
+				segments.add(index + p, targets[p]);
+			}
+		}
+	}
+
+	/**
+	 * Removes one occurrence of a timestamp, giving its segment back to the pool if it becomes empty
+	 * @param timestamp
+	 * @return false if there was no such timestamp
+	 */
+	boolean remove(long timestamp) {
+		lockForWrite();
+		try {
+			if (segments.isEmpty()) {
+				return false;
+			}
+			int index = segmentFor(timestamp);
+			ByteBuffer segment = segments.get(index);
+			int size = size(segment);
+			int position = lowerBound(segment, size, timestamp);
+			if (position == size || timestamp(segment, position) != timestamp) {
+				return false;
+			}
+			if (size == 1) {
+				pool.release(segments.remove(index));
+				return true;
+			}
+			for (int i = position; i < size - 1; i++) {
+				setTimestamp(segment, i, timestamp(segment, i + 1));
+			}
+			segment.putInt(SIZE_OFFSET, size - 1);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes one occurrence of each of a sorted batch of timestamps, compacting each segment that holds some
+	 * of them in a single pass, under a single write lock
+	 * @param sorted
+	 * @param count  how many timestamps of the array to remove
+	 * @return how many timestamps were found and removed
+	 */
+	int removeSorted(long[] sorted, int count) {
+		if (count == 0) {
+			return 0;
+		}
+		lockForWrite();
+		try {
+			int removed = 0;
+			int next = 0;
+			int from = 0;
+			while (next < count) {
+				int index = Math.max(from, firstSegmentReaching(sorted[next]));
+				if (index == segments.size()) {
+					break;
+				}
+				ByteBuffer segment = segments.get(index);
+				int size = size(segment);
+				int kept = 0;
+				for (int position = 0; position < size; position++) {
+					long timestamp = timestamp(segment, position);
+					//Timestamps that are not in the column are skipped
+					while (next < count && sorted[next] < timestamp) {
+						next++;
+					}
+					if (next < count && sorted[next] == timestamp) {
+						next++;
+						continue;
+					}
+					setTimestamp(segment, kept++, timestamp);
+				}
+				//What is left is past this segment, or repeats its last timestamp, which the next segment may also hold
+				removed += size - kept;
+				if (kept == 0) {
+					pool.release(segments.remove(index));
+					from = index;
+				} else {
+					segment.putInt(SIZE_OFFSET, kept);
+					from = index + 1;
+				}
+			}
+			return removed;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes every timestamp between startTime (inclusive) and endTime (exclusive). Segments inside the
+	 * range go back to the pool whole and only the segments at its ends are compacted, so this costs
+	 * O(log n) plus one step per segment of the range, however many timestamps are removed.
+	 * @param startTime
+	 * @param endTime
+	 * @return how many timestamps were removed
+	 */
+	long removeRange(long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return 0;
+		}
+		lockForWrite();
+		try {
+			int first = firstSegmentReaching(startTime);
+			if (first == segments.size() || timestamp(segments.get(first), 0) >= endTime) {
+				return 0;
+			}
+			//The last segment starting inside the range
+			int last = segmentFor(endTime - 1);
+			ByteBuffer head = segments.get(first);
+			ByteBuffer tail = segments.get(last);
+			int from = lowerBound(head, size(head), startTime);
+			int tailSize = size(tail);
+			int to = lowerBound(tail, tailSize, endTime);
+			long removed = 0;
+			for (int i = first; i <= last; i++) {
+				removed += size(segments.get(i));
+			}
+			removed -= from + (tailSize - to);
+			if (first == last) {
+				for (int i = to; i < tailSize; i++) {
+					setTimestamp(head, from + i - to, timestamp(head, i));
+				}
+				head.putInt(SIZE_OFFSET, from + tailSize - to);
+			} else {
+				head.putInt(SIZE_OFFSET, from);
+				for (int i = to; i < tailSize; i++) {
+					setTimestamp(tail, i - to, timestamp(tail, i));
+				}
+				tail.putInt(SIZE_OFFSET, tailSize - to);
+			}
+			//Every segment of the range that was left empty goes back to the pool
+			List<ByteBuffer> range = segments.subList(first, last + 1);
+			for (Iterator<ByteBuffer> it = range.iterator(); it.hasNext(); ) {
+				ByteBuffer segment = it.next();
+				if (segment != head && segment != tail || size(segment) == 0) {
+					pool.release(segment);
+					it.remove();
+				}
+			}
+			return removed;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Drops every timestamp, giving all segments back to the pool
+	 */
+	void clear() {
+		lockForWrite();
+		try {
+			for (ByteBuffer segment : segments) {
+				pool.release(segment);
+			}
+			segments.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Drops whole segments from the start of the column, giving them back to the pool: those holding only
+	 * timestamps before cutoff, and then as many more as can go while leaving at least maxSize timestamps.
+	 * @param cutoff
+	 * @param maxSize
+	 * @return how many timestamps were dropped
+	 */
+	long truncate(long cutoff, long maxSize) {
+		lockForWrite();
+		try {
+			int count = firstSegmentReaching(cutoff);
+			long dropped = 0;
+			long remaining = 0;
+			for (int i = 0; i < segments.size(); i++) {
+				if (i < count) {
+					dropped += size(segments.get(i));
+				} else {
+					remaining += size(segments.get(i));
+				}
+			}
+			while (count < segments.size() && remaining - size(segments.get(count)) >= maxSize) {
+				dropped += size(segments.get(count));
+				remaining -= size(segments.get(count));
+				count++;
+			}
+			List<ByteBuffer> expired = segments.subList(0, count);
+			for (ByteBuffer segment : expired) {
+				pool.release(segment);
+			}
+			expired.clear();
+			return dropped;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Copies up to out.length timestamps, in order, starting at the first timestamp not less than from and
+	 * skipping the first skip occurrences of from itself, and stopping before endTime.
+	 * <p>
+	 * Iterators resume with the last timestamp they returned as from, and the number of times they returned
+	 * it as skip, so that they neither repeat nor miss events between two batches.
+	 * @return the number of timestamps copied
+	 */
+	int read(long from, int skip, long endTime, long[] out) {
+		lockForRead();
+		try {
+			int count = 0;
+			if (segments.isEmpty()) {
+				return 0;
+			}
+			int index = firstSegmentReaching(from);
+			int position = index < segments.size() ? lowerBound(segments.get(index), size(segments.get(index)), from) : 0;
+			for (; index < segments.size(); index++, position = 0) {
+				ByteBuffer segment = segments.get(index);
+				int size = size(segment);
+				for (; position < size; position++) {
+					long timestamp = timestamp(segment, position);
+					if (timestamp >= endTime || count == out.length) {
+						return count;
+					}
+					if (skip > 0 && timestamp == from) {
+						skip--;
+						continue;
+					}
+					out[count++] = timestamp;
+				}
+			}
+			return count;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Counts the timestamps between each pair of consecutive bounds, from the segment sizes: only the
+	 * segments holding a bound are searched, so this costs one step per segment of the whole range plus a
+	 * binary search per bound.
+	 * @param bounds non-decreasing timestamps
+	 * @return bounds.length - 1 counts, the i-th one being of the timestamps from bounds[i] (inclusive) to bounds[i + 1] (exclusive)
+	 */
+	long[] countBetween(long[] bounds) {
+		long[] counts = new long[bounds.length - 1];
+		lockForRead();
+		try {
+			int index = firstSegmentReaching(bounds[0]);
+			long skipped = 0;
+			long before = 0;
+			for (int i = 0; i < bounds.length; i++) {
+				long below = skipped;
+				for (; index < segments.size(); index++) {
+					ByteBuffer segment = segments.get(index);
+					int size = size(segment);
+					if (timestamp(segment, size - 1) >= bounds[i]) {
+						below += lowerBound(segment, size, bounds[i]);
+						break;
+					}
+					skipped += size;
+					below = skipped;
+				}
+				if (i > 0) {
+					counts[i - 1] = below - before;
+				}
+				before = below;
+			}
+			return counts;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the first timestamp between startTime (inclusive) and endTime (exclusive), if any
+	 */
+	OptionalLong first(long startTime, long endTime) {
+		lockForRead();
+		try {
+			int index = firstSegmentReaching(startTime);
+			if (index == segments.size()) {
+				return OptionalLong.empty();
+			}
+			ByteBuffer segment = segments.get(index);
+			long timestamp = timestamp(segment, lowerBound(segment, size(segment), startTime));
+			return timestamp < endTime ? OptionalLong.of(timestamp) : OptionalLong.empty();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the last timestamp between startTime (inclusive) and endTime (exclusive), if any
+	 */
+	OptionalLong last(long startTime, long endTime) {
+		lockForRead();
+		try {
+			int index = firstSegmentReaching(endTime);
+			int position = index < segments.size() ? lowerBound(segments.get(index), size(segments.get(index)), endTime) : 0;
+			long timestamp;
+			if (position > 0) {
+				timestamp = timestamp(segments.get(index), position - 1);
+			} else if (index > 0) {
+				ByteBuffer previous = segments.get(index - 1);
+				timestamp = timestamp(previous, size(previous) - 1);
+			} else {
+				return OptionalLong.empty();
+			}
+			return timestamp >= startTime ? OptionalLong.of(timestamp) : OptionalLong.empty();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return how many timestamps the column holds
+	 */
+	long size() {
+		lockForRead();
+		try {
+			long size = 0;
+			for (ByteBuffer segment : segments) {
+				size += size(segment);
+			}
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of segments in use
+	 */
+	int segmentCount() {
+		lockForRead();
+		try {
+			return segments.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private int segmentFor(long timestamp) {
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			ByteBuffer segment = segments.get(middle);
+			if (size(segment) > 0 && timestamp(segment, 0) <= timestamp) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	private int firstSegmentReaching(long timestamp) {
+		int low = 0;
+		int high = segments.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			ByteBuffer segment = segments.get(middle);
+			if (timestamp(segment, size(segment) - 1) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static int lowerBound(ByteBuffer segment, int size, long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamp(segment, middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static int upperBound(ByteBuffer segment, int size, long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamp(segment, middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,287 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * An implementation of an event store that keeps events outside of the Java heap.
+ * <p>
+ * Types are interned into int ids by a {@link TypeDictionary}, and the timestamps of each type live in an
+ * {@link OffHeapColumn}: sorted, fixed-size segments of direct memory. The heap only holds a handful of
+ * objects per type and one buffer object per segment (4096 events by default), so hundreds of millions of
+ * events can stay resident with a small heap and short GC pauses.
+ * <p>
+ * Off-heap memory is managed explicitly by a {@link SegmentPool}: the store is created with a capacity in
+ * bytes, inserts fail with an {@link IllegalStateException} once it is used up, and {@link #removeAll}
+ * returns the segments of the type to the pool, where new inserts reuse them. {@link #trim} and
+ * {@link #close} give pooled memory back to the JVM. {@link #evict} returns the oldest segments of each type
+ * to the pool according to a {@link RetentionPolicy}.
+ * <p>
+ * As in {@link ColumnarEventStore}, events are values: {@link EventIterator#current} builds a new instance
+ * from the type of the column and the stored timestamp.
+ */
+public class OffHeapEventStore implements EvictableEventStore, MemoryFootprint, AutoCloseable {
+	public static final int DEFAULT_SEGMENT_CAPACITY = 4096;
+
+	final TypeDictionary types = new TypeDictionary();
+	final SegmentPool pool;
+	private volatile OffHeapColumn[] columns = new OffHeapColumn[0];
+	private final IteratorPool<OffHeapIterator> iterators = new IteratorPool<OffHeapIterator>(this::newIterator);
+
+	/**
+	 * Creates a store that reserves at most capacityBytes of off-heap memory
+	 * @param capacityBytes
+	 */
+	public OffHeapEventStore(long capacityBytes) {
+		this(capacityBytes, DEFAULT_SEGMENT_CAPACITY);
+	}
+
+	/**
+	 * Creates a store that reserves at most capacityBytes of off-heap memory, in segments of segmentCapacity events
+	 * @param capacityBytes
+	 * @param segmentCapacity
+	 */
+	public OffHeapEventStore(long capacityBytes, int segmentCapacity) {
+		this.pool = new SegmentPool(capacityBytes, OffHeapColumn.segmentBytes(segmentCapacity));
+	}
+
+	OffHeapColumn column(String type) {
+		int id = type == null ? -1 : types.lookup(type);
+		OffHeapColumn[] current = columns;
+		return id >= 0 && id < current.length ? current[id] : null;
+	}
+
+	private synchronized OffHeapColumn createColumn(String type) {
+		int id = types.idOf(type);
+		OffHeapColumn[] current = columns;
+		if (id < current.length && current[id] != null) {
+			return current[id];
+		}
+		OffHeapColumn[] updated = Arrays.copyOf(current, Math.max(current.length, id + 1));
+		updated[id] = new OffHeapColumn(types.name(id), id, pool);
+		columns = updated;
+		return updated[id];
+	}
+
+	/**
+	 * Stores an event in the off-heap column of its type.
+	 *
+	 * @param event
+	 * @throws IllegalStateException    if the off-heap capacity is exhausted
+	 * @throws IllegalArgumentException if the event has a payload, which this store does not keep
+	 */
+	@Override
+	public void insert(Event event) {
+		EventBatch.checkNoPayload(event);
+		OffHeapColumn column = column(event.type());
+		if (column == null) {
+			column = createColumn(event.type());
+		}
+		column.add(event.timestamp());
+	}
+
+	/**
+	 * Stores a batch of events, adding the sorted timestamps of each type to its column under one lock.
+	 *
+	 * @param events
+	 * @param offset
+	 * @param length
+	 * @throws IllegalStateException    if the off-heap capacity is exhausted
+	 * @throws IllegalArgumentException if an event has a payload, which this store does not keep
+	 */
+	@Override
+	public void insertAll(Event[] events, int offset, int length) {
+		EventBatch.checkRange(events, offset, length);
+		EventBatch.checkNoPayloads(events, offset, length);
+		for (EventBatch batch : EventBatch.groupByType(events, offset, length)) {
+			OffHeapColumn column = column(batch.type);
+			if (column == null) {
+				column = createColumn(batch.type);
+			}
+			column.addAll(batch.sortedTimestamps());
+		}
+	}
+
+	/**
+	 * Removes all events of specific type, giving the segments of its column back to the pool.
+	 *
+	 * @param type
+	 */
+	@Override
+	public void removeAll(String type) {
+		OffHeapColumn column = column(type);
+		if (column != null) {
+			column.clear();
+		}
+	}
+
+	/**
+	 * Removes the events of a type in a time range, giving the segments inside the range back to the pool
+	 * and compacting only the segments at its ends.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of events removed.
+	 */
+	@Override
+	public long removeRange(String type, long startTime, long endTime) {
+		OffHeapColumn column = column(type);
+		return column == null ? 0 : column.removeRange(startTime, endTime);
+	}
+
+	/**
+	 * Drops expired events, one type at a time, by giving whole segments at the start of each column back to the pool.
+	 *
+	 * @param policy
+	 * @param now    current time, in milliseconds since the epoch.
+	 * @return the number of events dropped.
+	 */
+	@Override
+	public long evict(RetentionPolicy policy, long now) {
+		long dropped = 0;
+		for (OffHeapColumn column : columns) {
+			if (column != null) {
+				dropped += column.truncate(policy.cutoff(column.type, now), policy.maxEventsPerType());
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * Retrieves an iterator for events based on their type and timestamp.
+	 * Iterators are pooled per thread with their batch buffer, and reused once closed; the query only
+	 * allocates its {@link IteratorLease}.
+	 *
+	 * @param type      The type we are querying for.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator where all its events have same type as
+	 * {@param type} and timestamp between {@param startTime}
+	 * (inclusive) and {@param endTime} (exclusive).
+	 */
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		return new IteratorLease(iterators.acquire().open(column(type), startTime, endTime));
+	}
+
+	private OffHeapIterator newIterator() {
+		return new OffHeapIterator(iterators);
+	}
+
+	/**
+	 * @return a copy of the types whose columns are not empty
+	 */
+	@Override
+	public Set<String> types() {
+		Set<String> result = new HashSet<String>();
+		for (OffHeapColumn column : columns) {
+			if (column != null && column.segmentCount() > 0) {
+				result.add(column.type);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts events from the segment sizes of the column: only the segments at the ends of the range are searched.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of matching events.
+	 */
+	@Override
+	public long count(String type, long startTime, long endTime) {
+		OffHeapColumn column = column(type);
+		return column == null || startTime >= endTime ? 0 : column.countBetween(new long[] {startTime, endTime})[0];
+	}
+
+	/**
+	 * Finds the first timestamp of the range with a binary search over the column.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the first timestamp, or an empty value if the range holds no event.
+	 */
+	@Override
+	public OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+		OffHeapColumn column = column(type);
+		return column == null ? OptionalLong.empty() : column.first(startTime, endTime);
+	}
+
+	/**
+	 * Finds the last timestamp of the range with a binary search over the column.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the last timestamp, or an empty value if the range holds no event.
+	 */
+	@Override
+	public OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+		OffHeapColumn column = column(type);
+		return column == null ? OptionalLong.empty() : column.last(startTime, endTime);
+	}
+
+	/**
+	 * Counts events per bucket from the segment sizes of the column, with one binary search per bucket boundary.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @param bucketWidth
+	 * @return the count of each bucket, in time order.
+	 */
+	@Override
+	public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+		int bucketCount = Aggregates.bucketCount(startTime, endTime, bucketWidth);
+		OffHeapColumn column = column(type);
+		if (column == null || bucketCount == 0) {
+			return new long[bucketCount];
+		}
+		long[] bounds = new long[bucketCount + 1];
+		for (int bucket = 0; bucket <= bucketCount; bucket++) {
+			bounds[bucket] = Aggregates.bucketStart(startTime, endTime, bucketWidth, bucket, bucketCount);
+		}
+		return column.countBetween(bounds);
+	}
+
+	/**
+	 * @return the off-heap bytes currently reserved, including free segments kept for reuse
+	 */
+	public long reservedBytes() {
+		return pool.reservedBytes();
+	}
+
+	/**
+	 * @return the off-heap bytes currently reserved, as {@link #reservedBytes}
+	 */
+	@Override
+	public long usedBytes() {
+		return pool.reservedBytes();
+	}
+
+	/**
+	 * Gives the memory of every free segment back to the JVM
+	 */
+	public void trim() {
+		pool.trim();
+	}
+
+	/**
+	 * Removes every event and gives all off-heap memory back to the JVM. The store can still be used afterwards.
+	 */
+	@Override
+	public void close() {
+		for (OffHeapColumn column : columns) {
+			if (column != null) {
+				column.clear();
+			}
+		}
+		pool.trim();
+	}
+}
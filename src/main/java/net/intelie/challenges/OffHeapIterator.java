@@ -0,0 +1,184 @@
+package net.intelie.challenges;
+
+/**
+ * An {@link EventIterator} over a range of an {@link OffHeapColumn}.
+ * <p>
+ * Timestamps are copied out of off-heap memory in batches of {@link #BATCH_SIZE}, each under a short read
+ * lock, into a buffer that the iterator then walks without locking. Between batches the iterator only
+ * remembers the last timestamp it returned and how many times in a row, which is enough to resume after
+ * any concurrent change. {@link Event} instances are only built when {@link #current} is called.
+ * <p>
+ * Removals are buffered, and applied with {@link OffHeapColumn#removeSorted} before the next batch is fetched
+ * or when the iterator is closed, so each segment is compacted once per batch rather than once per event.
+ * <p>
+ * The iterators of a store come from an {@link IteratorPool} and go back to it when closed, batch buffer
+ * included, so a query allocates nothing but its {@link IteratorLease}.
+ */
+class OffHeapIterator implements EventIterator {
+	static final int BATCH_SIZE = 256;
+
+	private final IteratorPool<OffHeapIterator> pool;
+	OffHeapColumn column;
+	long endTime;
+	long[] batch = new long[BATCH_SIZE];
+	long[] removals;
+	int removalCount;
+	int batchSize;
+	int batchPosition;
+	boolean exhausted;
+	long resumeFrom;
+	int resumeSkip;
+	boolean positioned;
+	Event current;
+	private boolean open;
+
+	/**
+	 * Creates an iterator over the timestamps of the column between startTime (inclusive) and endTime (exclusive)
+	 * @param column
+	 * @param startTime
+	 * @param endTime
+	 */
+	OffHeapIterator(OffHeapColumn column, long startTime, long endTime) {
+		this(null);
+		open(column, startTime, endTime);
+	}
+
+	/**
+	 * Creates an idle iterator
+	 * @param pool where the iterator goes back when closed, or null
+	 */
+	OffHeapIterator(IteratorPool<OffHeapIterator> pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Positions the iterator before the first timestamp of the column between startTime (inclusive) and endTime (exclusive)
+	 * @param column   the column, or null for an empty range
+	 * @param startTime
+	 * @param endTime
+	 * @return the iterator
+	 */
+	OffHeapIterator open(OffHeapColumn column, long startTime, long endTime) {
+		this.column = column;
+		this.endTime = endTime;
+		this.resumeFrom = startTime;
+		this.resumeSkip = 0;
+		this.exhausted = column == null || startTime >= endTime;
+		this.batchSize = 0;
+		this.batchPosition = 0;
+		this.positioned = false;
+		this.current = null;
+		this.removalCount = 0;
+		if (batch == null) {
+			batch = new long[BATCH_SIZE];
+		}
+		this.open = true;
+		return this;
+	}
+
+	/**
+	 * Moves to the next timestamp of the range, fetching a new batch when the current one is used up.
+	 */
+	@Override
+	public boolean moveNext() {
+		positioned = false;
+		current = null;
+		if (batchPosition == batchSize) {
+			if (batch == null) {
+				return false;
+			}
+			applyRemovals();
+			if (exhausted) {
+				return false;
+			}
+			batchSize = column.read(resumeFrom, resumeSkip, endTime, batch);
+			batchPosition = 0;
+			exhausted = batchSize < batch.length;
+			if (batchSize == 0) {
+				return false;
+			}
+		}
+		long timestamp = batch[batchPosition++];
+		resumeSkip = timestamp == resumeFrom ? resumeSkip + 1 : 1;
+		resumeFrom = timestamp;
+		positioned = true;
+		return true;
+	}
+
+	/**
+	 * Returns the event the iterator is positioned at, creating it on the first call.
+	 *
+	 * @return the event itself
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public Event current() {
+		if (!positioned) {
+			throw new IllegalStateException();
+		}
+		if (current == null) {
+			current = new Event(column.type, resumeFrom);
+		}
+		return current;
+	}
+
+	/**
+	 * Removes the current event from the column, once the batch is used up or the iterator is closed.
+	 *
+	 * @throws IllegalStateException if {@link #moveNext} was never called
+	 *                               or its last result was {@code false}.
+	 */
+	@Override
+	public void remove() {
+		if (!positioned) {
+			throw new IllegalStateException();
+		}
+		if (removals == null) {
+			removals = new long[BATCH_SIZE];
+		} else if (removalCount == removals.length) {
+			applyRemovals();
+		}
+		removals[removalCount++] = resumeFrom;
+	}
+
+	/**
+	 * Applies the buffered removals, which are in timestamp order since the iterator walks the column in order
+	 */
+	private void applyRemovals() {
+		if (removalCount == 0) {
+			return;
+		}
+		int count = removalCount;
+		removalCount = 0;
+		column.removeSorted(removals, count);
+		//Fewer occurrences of the last timestamp are left before the resume point
+		for (int i = count - 1; i >= 0 && removals[i] == resumeFrom; i--) {
+			resumeSkip--;
+		}
+		resumeSkip = Math.max(resumeSkip, 0);
+	}
+
+	/**
+	 * Applies the pending removals and hands the iterator back to its pool, keeping the batch and removal
+	 * buffers for the next query; an iterator that is not pooled drops them. A pooled iterator must not be used once closed.
+	 */
+	@Override
+	public void close() {
+		if (!open) {
+			return;
+		}
+		open = false;
+		applyRemovals();
+		column = null;
+		batchSize = 0;
+		batchPosition = 0;
+		exhausted = true;
+		positioned = false;
+		current = null;
+		if (pool == null || !pool.release(this)) {
+			batch = null;
+			removals = null;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Aggregations that visit every matching event, run in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * They are meant for aggregates that store metadata can not answer, such as counting the events that match
+ * a predicate. The query is taken as a parallel {@link EventStore#stream}, so it is split the way the store
+ * splits its sequences, and the stream runs inside the given pool, or the common pool by default.
+ */
+public final class ParallelScans {
+	private ParallelScans() {
+	}
+
+	/**
+	 * Counts, on the common pool, the events of a type in a range that match a filter
+	 * @return the number of matching events
+	 */
+	public static long count(EventStore store, String type, long startTime, long endTime, Predicate<? super Event> filter) {
+		return count(ForkJoinPool.commonPool(), store, type, startTime, endTime, filter);
+	}
+
+	/**
+	 * Counts, on a given pool, the events of a type in a range that match a filter
+	 * @return the number of matching events
+	 */
+	public static long count(ForkJoinPool pool, EventStore store, String type, long startTime, long endTime, Predicate<? super Event> filter) {
+		return pool.submit(() -> {
+			try (Stream<Event> stream = store.stream(type, startTime, endTime)) {
+				return stream.parallel().filter(filter).count();
+			}
+		}).join();
+	}
+
+	/**
+	 * Counts per bucket, on the common pool, the events of a type in a range that match a filter
+	 * @return the count of each bucket, in time order, as for {@link EventStore#histogram}
+	 */
+	public static long[] histogram(EventStore store, String type, long startTime, long endTime, long bucketWidth, Predicate<? super Event> filter) {
+		return histogram(ForkJoinPool.commonPool(), store, type, startTime, endTime, bucketWidth, filter);
+	}
+
+	/**
+	 * Counts per bucket, on a given pool, the events of a type in a range that match a filter.
+	 * Each part of the stream fills its own array of counts, and the arrays are summed when parts are joined.
+	 * @return the count of each bucket, in time order, as for {@link EventStore#histogram}
+	 * @throws IllegalArgumentException if the width is not positive, or the range holds too many buckets for an array.
+	 */
+	public static long[] histogram(ForkJoinPool pool, EventStore store, String type, long startTime, long endTime, long bucketWidth,
+			Predicate<? super Event> filter) {
+		int bucketCount = Aggregates.bucketCount(startTime, endTime, bucketWidth);
+		return pool.submit(() -> {
+			try (Stream<Event> stream = store.stream(type, startTime, endTime)) {
+				return stream.parallel().filter(filter).collect(
+						() -> new long[bucketCount],
+						(counts, event) -> counts[(int) Long.divideUnsigned(event.timestamp() - startTime, bucketWidth)]++,
+						(counts, other) -> {
+							for (int i = 0; i < counts.length; i++) {
+								counts[i] += other[i];
+							}
+						});
+			}
+		}).join();
+	}
+}
@@ -0,0 +1,311 @@
+package net.intelie.challenges;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * The attributes of an {@link Event}, such as numeric readings and tags, in a compact binary layout.
+ * <p>
+ * A payload is a view over bytes encoded as its {@link PayloadSchema} describes. The bytes are only decoded
+ * when a field is read, and only up to that field, so reading a payload builds no object graph, and a store
+ * can keep the payloads of many events back to back in one buffer (see {@link TimestampColumn}). Payloads
+ * are built with {@link PayloadSchema#newPayload} and are immutable. Two payloads are equal if they have
+ * equal schemas and the same bytes, that is, the same fields set to the same values.
+ */
+public final class Payload {
+	public static final Payload EMPTY = new Payload(PayloadSchema.empty(), new byte[0], 0, 0);
+
+	final PayloadSchema schema;
+	final byte[] data;
+	final int offset;
+	final int length;
+
+	Payload(PayloadSchema schema, byte[] data, int offset, int length) {
+		this.schema = schema;
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public PayloadSchema schema() {
+		return schema;
+	}
+
+	/**
+	 * @param field
+	 * @return true if the schema has the field and the payload sets it
+	 */
+	public boolean has(String field) {
+		int index = schema.indexOf(field);
+		return index >= 0 && (mask(data, offset, length) & (1L << index)) != 0;
+	}
+
+	/**
+	 * @param field
+	 * @return the value of a long field
+	 * @throws IllegalArgumentException if the schema has no long field of that name.
+	 * @throws NoSuchElementException   if the payload does not set the field.
+	 */
+	public long getLong(String field) {
+		return readLong(data, position(schema.indexOf(field, PayloadSchema.FieldType.LONG), field));
+	}
+
+	/**
+	 * @param field
+	 * @return the value of a double field
+	 * @throws IllegalArgumentException if the schema has no double field of that name.
+	 * @throws NoSuchElementException   if the payload does not set the field.
+	 */
+	public double getDouble(String field) {
+		return readDouble(data, position(schema.indexOf(field, PayloadSchema.FieldType.DOUBLE), field));
+	}
+
+	/**
+	 * @param field
+	 * @return the value of a string field
+	 * @throws IllegalArgumentException if the schema has no string field of that name.
+	 * @throws NoSuchElementException   if the payload does not set the field.
+	 */
+	public String getString(String field) {
+		return readString(data, position(schema.indexOf(field, PayloadSchema.FieldType.STRING), field));
+	}
+
+	private int position(int index, String field) {
+		long mask = mask(data, offset, length);
+		if ((mask & (1L << index)) == 0) {
+			throw new NoSuchElementException("Field " + field + " is not set");
+		}
+		return position(schema, data, offset, mask, index);
+	}
+
+	/**
+	 * The following read encoded payloads in place, for scans that test payloads without creating them.
+	 * @return the bitmask of the fields set by an encoded payload
+	 */
+	static long mask(byte[] data, int offset, int length) {
+		return length == 0 ? 0 : varint(data, offset);
+	}
+
+	/**
+	 * Skips the fields set before a field of an encoded payload
+	 * @param schema
+	 * @param data
+	 * @param offset where the payload starts
+	 * @param mask   the bitmask of the payload
+	 * @param index  the index of a field the payload sets
+	 * @return the position of the value of the field
+	 */
+	static int position(PayloadSchema schema, byte[] data, int offset, long mask, int index) {
+		int position = skipVarint(data, offset);
+		for (int i = 0; i < index; i++) {
+			if ((mask & (1L << i)) == 0) {
+				continue;
+			}
+			switch (schema.fieldType(i)) {
+				case LONG:
+					position = skipVarint(data, position);
+					break;
+				case DOUBLE:
+					position += 8;
+					break;
+				default:
+					position = skipVarint(data, position) + (int) varint(data, position);
+			}
+		}
+		return position;
+	}
+
+	static long readLong(byte[] data, int position) {
+		long value = varint(data, position);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static double readDouble(byte[] data, int position) {
+		long bits = 0;
+		for (int i = 0; i < 8; i++) {
+			bits = (bits << 8) | (data[position + i] & 0xFF);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * @return true if the string field at a position holds the given UTF-8 bytes
+	 */
+	static boolean hasString(byte[] data, int position, byte[] utf8) {
+		if (varint(data, position) != utf8.length) {
+			return false;
+		}
+		int start = skipVarint(data, position);
+		for (int i = 0; i < utf8.length; i++) {
+			if (data[start + i] != utf8[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static String readString(byte[] data, int position) {
+		return new String(data, skipVarint(data, position), (int) varint(data, position), StandardCharsets.UTF_8);
+	}
+
+	private static long varint(byte[] data, int position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[position++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	private static int skipVarint(byte[] data, int position) {
+		while (data[position] < 0) {
+			position++;
+		}
+		return position + 1;
+	}
+
+	static int writeVarint(byte[] target, int position, long value) {
+		while ((value & ~0x7FL) != 0) {
+			target[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		target[position++] = (byte) value;
+		return position;
+	}
+
+	/**
+	 * @return true if the encoded bytes of the payload are the given ones
+	 */
+	boolean hasBytes(byte[] other, int otherOffset, int otherLength) {
+		if (length != otherLength) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (data[offset + i] != other[otherOffset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Payload
+				&& schema.equals(((Payload) other).schema)
+				&& hasBytes(((Payload) other).data, ((Payload) other).offset, ((Payload) other).length);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = schema.hashCode();
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + data[offset + i];
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < schema.fieldCount(); i++) {
+			String field = schema.fieldName(i);
+			if (!has(field)) {
+				continue;
+			}
+			builder.append(builder.length() == 1 ? "" : ", ").append(field).append('=');
+			switch (schema.fieldType(i)) {
+				case LONG:
+					builder.append(getLong(field));
+					break;
+				case DOUBLE:
+					builder.append(getDouble(field));
+					break;
+				default:
+					builder.append(getString(field));
+			}
+		}
+		return builder.append('}').toString();
+	}
+
+	/**
+	 * Collects the fields of a payload, and encodes them once built. Builders are not thread-safe.
+	 */
+	public static final class Builder {
+		private final PayloadSchema schema;
+		private final long[] numbers;
+		private final byte[][] strings;
+		private long mask;
+
+		Builder(PayloadSchema schema) {
+			this.schema = schema;
+			this.numbers = new long[schema.fieldCount()];
+			this.strings = new byte[schema.fieldCount()][];
+		}
+
+		/**
+		 * @throws IllegalArgumentException if the schema has no long field of that name.
+		 */
+		public Builder setLong(String field, long value) {
+			int index = schema.indexOf(field, PayloadSchema.FieldType.LONG);
+			numbers[index] = (value << 1) ^ (value >> 63);
+			mask |= 1L << index;
+			return this;
+		}
+
+		/**
+		 * @throws IllegalArgumentException if the schema has no double field of that name.
+		 */
+		public Builder setDouble(String field, double value) {
+			int index = schema.indexOf(field, PayloadSchema.FieldType.DOUBLE);
+			numbers[index] = Double.doubleToRawLongBits(value);
+			mask |= 1L << index;
+			return this;
+		}
+
+		/**
+		 * @throws IllegalArgumentException if the schema has no string field of that name.
+		 */
+		public Builder setString(String field, String value) {
+			int index = schema.indexOf(field, PayloadSchema.FieldType.STRING);
+			strings[index] = value.getBytes(StandardCharsets.UTF_8);
+			mask |= 1L << index;
+			return this;
+		}
+
+		/**
+		 * @return the payload, with the fields set so far
+		 */
+		public Payload build() {
+			int bound = 10;
+			for (int i = 0; i < numbers.length; i++) {
+				bound += strings[i] == null ? 10 : 5 + strings[i].length;
+			}
+			byte[] buffer = new byte[bound];
+			int position = writeVarint(buffer, 0, mask);
+			for (int i = 0; i < numbers.length; i++) {
+				if ((mask & (1L << i)) == 0) {
+					continue;
+				}
+				switch (schema.fieldType(i)) {
+					case LONG:
+						position = writeVarint(buffer, position, numbers[i]);
+						break;
+					case DOUBLE:
+						for (int shift = 56; shift >= 0; shift -= 8) {
+							buffer[position++] = (byte) (numbers[i] >>> shift);
+						}
+						break;
+					default:
+						position = writeVarint(buffer, position, strings[i].length);
+						System.arraycopy(strings[i], 0, buffer, position, strings[i].length);
+						position += strings[i].length;
+				}
+			}
+			return new Payload(schema, Arrays.copyOf(buffer, position), 0, position);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+
+/**
+ * The fields an event {@link Payload} may carry: a name and a type for each, in a fixed order.
+ * <p>
+ * Payloads are encoded against their schema, so field names are kept once per schema rather than once per
+ * event. An encoded payload starts with a varint bitmask of the fields it sets, followed by each of them in
+ * schema order: {@link FieldType#LONG} as a zigzag varint, {@link FieldType#DOUBLE} as 8 fixed bytes, and
+ * {@link FieldType#STRING} as a varint length followed by its UTF-8 bytes. A schema has at most
+ * {@link #MAX_FIELDS} fields.
+ * <p>
+ * Schemas are immutable: the {@code with} methods return a new schema. Schemas with the same fields, in the
+ * same order, are equal.
+ */
+public final class PayloadSchema {
+	public static final int MAX_FIELDS = 64;
+	private static final PayloadSchema EMPTY = new PayloadSchema(new String[0], new FieldType[0]);
+
+	public enum FieldType {
+		LONG, DOUBLE, STRING
+	}
+
+	private final String[] names;
+	private final FieldType[] types;
+
+	private PayloadSchema(String[] names, FieldType[] types) {
+		this.names = names;
+		this.types = types;
+	}
+
+	/**
+	 * @return a schema without fields
+	 */
+	public static PayloadSchema empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @return a copy of this schema, with a long field added at the end
+	 */
+	public PayloadSchema withLong(String name) {
+		return with(name, FieldType.LONG);
+	}
+
+	/**
+	 * @return a copy of this schema, with a double field added at the end
+	 */
+	public PayloadSchema withDouble(String name) {
+		return with(name, FieldType.DOUBLE);
+	}
+
+	/**
+	 * @return a copy of this schema, with a string field added at the end
+	 */
+	public PayloadSchema withString(String name) {
+		return with(name, FieldType.STRING);
+	}
+
+	private PayloadSchema with(String name, FieldType type) {
+		if (indexOf(name) >= 0) {
+			throw new IllegalArgumentException("Field " + name + " is already defined");
+		}
+		if (names.length == MAX_FIELDS) {
+			throw new IllegalArgumentException("A schema has at most " + MAX_FIELDS + " fields");
+		}
+		String[] updatedNames = Arrays.copyOf(names, names.length + 1);
+		FieldType[] updatedTypes = Arrays.copyOf(types, types.length + 1);
+		updatedNames[names.length] = name;
+		updatedTypes[types.length] = type;
+		return new PayloadSchema(updatedNames, updatedTypes);
+	}
+
+	/**
+	 * @return a builder of payloads of this schema
+	 */
+	public Payload.Builder newPayload() {
+		return new Payload.Builder(this);
+	}
+
+	public int fieldCount() {
+		return names.length;
+	}
+
+	public String fieldName(int index) {
+		return names[index];
+	}
+
+	public FieldType fieldType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * @param name
+	 * @return the index of the field, or -1 if the schema has no such field
+	 */
+	public int indexOf(String name) {
+		//Schemas are small, and a linear scan over them beats hashing the name
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds a field of a given type
+	 * @return the index of the field
+	 * @throws IllegalArgumentException if the schema has no such field, or it has another type
+	 */
+	int indexOf(String name, FieldType type) {
+		int index = indexOf(name);
+		if (index < 0 || types[index] != type) {
+			throw new IllegalArgumentException("No " + type.name().toLowerCase() + " field " + name);
+		}
+		return index;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof PayloadSchema
+				&& Arrays.equals(names, ((PayloadSchema) other).names)
+				&& Arrays.equals(types, ((PayloadSchema) other).types);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(names) + Arrays.hashCode(types);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < names.length; i++) {
+			builder.append(i == 0 ? "" : ", ").append(names[i]).append(": ").append(types[i]);
+		}
+		return builder.append('}').toString();
+	}
+}
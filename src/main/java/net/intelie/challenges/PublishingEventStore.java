@@ -0,0 +1,375 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * An event store that pushes inserted events to {@link Subscription}s, so that consumers of new events need not
+ * poll the store with repeated queries.
+ * <p>
+ * Events are inserted in the wrapped store first, and then, if their type has a subscription, published in a
+ * bounded {@link RingBuffer}: a CAS, whatever the number of subscriptions, and nothing at all for types nobody
+ * subscribed to. A single dispatcher thread drains the ring buffer in batches and hands each event to the
+ * buffers of the matching subscriptions, from which listeners get them in batches on an {@link Executor}, or
+ * consumers {@link Subscription#poll} them. A subscriber receives every matching event whose insert began after
+ * {@link #subscribe} returned, and is already visible to queries by then.
+ * <p>
+ * A slow subscriber only loses events of its own with {@link BackpressurePolicy#DROP}. With the other policies
+ * the dispatcher waits for it, and once the ring buffer is full producers park until the dispatcher catches up.
+ * A subscription that fails to take an event, such as one whose executor rejects its delivery, is closed with
+ * the exception in its {@link Subscription#lastFailure}, and the dispatcher carries on with the others.
+ * <p>
+ * Every query is answered by the wrapped store.
+ */
+public class PublishingEventStore implements EventStore, AutoCloseable {
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final int DEFAULT_SUBSCRIBER_CAPACITY = 1 << 14;
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	private static final int IDLE_SPINS = 100;
+	private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long MAX_BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+	final EventStore store;
+	private final RingBuffer ring;
+	private final int subscriberCapacity;
+	private final BackpressurePolicy policy;
+	private final int batchSize;
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final Thread dispatcher;
+	/**
+	 * The subscriptions of each type, replaced as a whole when one is added or closed
+	 */
+	private volatile Map<String, Subscription[]> subscriptions = Collections.emptyMap();
+	//Only the dispatcher updates it
+	private volatile long dispatched;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a publishing store in front of a store, dropping events for subscribers that fall behind
+	 * @param store
+	 */
+	public PublishingEventStore(EventStore store) {
+		this(store, DEFAULT_SUBSCRIBER_CAPACITY, BackpressurePolicy.DROP, null);
+	}
+
+	/**
+	 * Creates a publishing store in front of a store, and starts its dispatcher thread
+	 * @param store
+	 * @param subscriberCapacity the number of events each subscription buffers
+	 * @param policy             what happens to an event for a subscription whose buffer is full
+	 * @param executor           where listeners are called, or null for a pool of daemon threads of the store
+	 */
+	public PublishingEventStore(EventStore store, int subscriberCapacity, BackpressurePolicy policy, Executor executor) {
+		if (subscriberCapacity <= 0) {
+			throw new IllegalArgumentException("Subscriber capacity must be positive");
+		}
+		this.store = store;
+		this.ring = new RingBuffer(DEFAULT_CAPACITY);
+		this.subscriberCapacity = subscriberCapacity;
+		this.policy = policy;
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		this.ownExecutor = executor == null ? Executors.newCachedThreadPool(this::newDeliveryThread) : null;
+		this.executor = executor == null ? ownExecutor : executor;
+		this.dispatcher = new Thread(this::dispatch, "event-store-dispatch");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	private Thread newDeliveryThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "event-store-delivery");
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Subscribes a listener to the events of a type inserted from now on
+	 * @param type
+	 * @param listener
+	 * @param predicates conditions on the payload fields; none matches every event
+	 * @return the subscription, active until closed
+	 * @throws IllegalStateException if the store is closed
+	 */
+	public Subscription subscribe(String type, EventListener listener, FieldPredicate... predicates) {
+		return subscribe(type, Long.MIN_VALUE, Long.MAX_VALUE, listener, predicates);
+	}
+
+	/**
+	 * Subscribes a listener to the events of a type inserted from now on, with timestamp between
+	 * {@param startTime} (inclusive) and {@param endTime} (exclusive)
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @param listener
+	 * @param predicates conditions on the payload fields; none matches every event
+	 * @return the subscription, active until closed
+	 * @throws IllegalStateException if the store is closed
+	 */
+	public Subscription subscribe(String type, long startTime, long endTime, EventListener listener, FieldPredicate... predicates) {
+		if (listener == null) {
+			throw new NullPointerException("listener");
+		}
+		return register(type, startTime, endTime, listener, predicates);
+	}
+
+	/**
+	 * Subscribes to the events of a type inserted from now on, with timestamp between {@param startTime}
+	 * (inclusive) and {@param endTime} (exclusive), to be read with {@link Subscription#poll}
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @param predicates conditions on the payload fields; none matches every event
+	 * @return the subscription, active until closed
+	 * @throws IllegalStateException if the store is closed
+	 */
+	public Subscription subscribe(String type, long startTime, long endTime, FieldPredicate... predicates) {
+		return register(type, startTime, endTime, null, predicates);
+	}
+
+	private synchronized Subscription register(String type, long startTime, long endTime, EventListener listener, FieldPredicate[] predicates) {
+		if (closed) {
+			throw new IllegalStateException("The store is closed");
+		}
+		//Events published before this point were inserted before the call, and are skipped
+		Subscription subscription = new Subscription(this, ring.claimed(), type, startTime, endTime, predicates,
+				listener, executor, subscriberCapacity, policy, batchSize);
+		Subscription[] current = subscriptions.getOrDefault(type, NO_SUBSCRIPTIONS);
+		Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = subscription;
+		Map<String, Subscription[]> copy = new HashMap<String, Subscription[]>(subscriptions);
+		copy.put(type, updated);
+		subscriptions = copy;
+		return subscription;
+	}
+
+	synchronized void unsubscribe(Subscription subscription) {
+		Subscription[] current = subscriptions.get(subscription.type);
+		if (current == null) {
+			return;
+		}
+		Map<String, Subscription[]> copy = new HashMap<String, Subscription[]>(subscriptions);
+		Subscription[] updated = new Subscription[current.length - 1];
+		int count = 0;
+		for (Subscription other : current) {
+			if (other != subscription && count < updated.length) {
+				updated[count++] = other;
+			}
+		}
+		if (count == 0) {
+			copy.remove(subscription.type);
+		} else {
+			copy.put(subscription.type, Arrays.copyOf(updated, count));
+		}
+		subscriptions = copy;
+	}
+
+	/**
+	 * Stores an event in the wrapped store, and publishes it if its type has subscriptions.
+	 *
+	 * @param event
+	 * @throws IllegalStateException if the store is closed
+	 */
+	@Override
+	public void insert(Event event) {
+		if (closed) {
+			throw new IllegalStateException("The store is closed");
+		}
+		store.insert(event);
+		Map<String, Subscription[]> current = subscriptions;
+		if (!current.isEmpty() && current.containsKey(event.type())) {
+			publish(event);
+		}
+	}
+
+	/**
+	 * Stores a batch of events in the wrapped store, and then publishes those of subscribed types, in order.
+	 *
+	 * @param events
+	 * @param offset
+	 * @param length
+	 * @throws IllegalStateException if the store is closed
+	 */
+	@Override
+	public void insertAll(Event[] events, int offset, int length) {
+		if (closed) {
+			throw new IllegalStateException("The store is closed");
+		}
+		store.insertAll(events, offset, length);
+		Map<String, Subscription[]> current = subscriptions;
+		if (current.isEmpty()) {
+			return;
+		}
+		for (int i = offset; i < offset + length; i++) {
+			if (current.containsKey(events[i].type())) {
+				publish(events[i]);
+			}
+		}
+	}
+
+	private void publish(Event event) {
+		long park = 1000;
+		while (ring.offer(event) < 0) {
+			ContentionCounters.RING_FULL.increment();
+			if (closed) {
+				return;
+			}
+			LockSupport.parkNanos(this, park);
+			park = Math.min(park * 2, MAX_BLOCK_PARK_NANOS);
+		}
+	}
+
+	private void dispatch() {
+		Event[] batch = new Event[batchSize];
+		int idle = 0;
+		try {
+			while (true) {
+				int count = ring.drainTo(batch, batchSize);
+				if (count > 0) {
+					dispatch(batch, count);
+					idle = 0;
+				} else if (closed && ring.claimed() == dispatched) {
+					return;
+				} else if (++idle < IDLE_SPINS) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void dispatch(Event[] batch, int count) throws InterruptedException {
+		Map<String, Subscription[]> current = subscriptions;
+		long position = dispatched;
+		for (int i = 0; i < count; i++, position++) {
+			Event event = batch[i];
+			batch[i] = null;
+			for (Subscription subscription : current.getOrDefault(event.type(), NO_SUBSCRIPTIONS)) {
+				try {
+					if (position >= subscription.from && subscription.matches(event)) {
+						subscription.offer(event);
+					}
+				} catch (RuntimeException e) {
+					//Only this subscription stops; the dispatcher carries on with the others
+					subscription.fail(e);
+				}
+			}
+		}
+		for (Subscription[] subscribed : current.values()) {
+			for (Subscription subscription : subscribed) {
+				try {
+					subscription.schedule();
+				} catch (RuntimeException e) {
+					subscription.fail(e);
+				}
+			}
+		}
+		dispatched = position;
+	}
+
+	/**
+	 * @return the number of events published but not dispatched to subscriptions yet
+	 */
+	public long pendingEvents() {
+		return ring.claimed() - dispatched;
+	}
+
+	@Override
+	public void removeAll(String type) {
+		store.removeAll(type);
+	}
+
+	@Override
+	public long removeRange(String type, long startTime, long endTime) {
+		return store.removeRange(type, startTime, endTime);
+	}
+
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		return store.query(type, startTime, endTime);
+	}
+
+	@Override
+	public EventIterator query(String type, long startTime, long endTime, FieldPredicate... predicates) {
+		return store.query(type, startTime, endTime, predicates);
+	}
+
+	@Override
+	public EventIterator queryTypes(Set<String> types, long startTime, long endTime) {
+		return store.queryTypes(types, startTime, endTime);
+	}
+
+	@Override
+	public EventIterator queryAll(long startTime, long endTime) {
+		return store.queryAll(startTime, endTime);
+	}
+
+	@Override
+	public Set<String> types() {
+		return store.types();
+	}
+
+	@Override
+	public Stream<Event> stream(String type, long startTime, long endTime) {
+		return store.stream(type, startTime, endTime);
+	}
+
+	@Override
+	public long count(String type, long startTime, long endTime) {
+		return store.count(type, startTime, endTime);
+	}
+
+	@Override
+	public OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+		return store.firstTimestamp(type, startTime, endTime);
+	}
+
+	@Override
+	public OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+		return store.lastTimestamp(type, startTime, endTime);
+	}
+
+	@Override
+	public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+		return store.histogram(type, startTime, endTime, bucketWidth);
+	}
+
+	/**
+	 * Stops accepting events, and waits until the dispatcher handed every published event to the subscriptions.
+	 * Listeners still get the events already buffered for them, and subscriptions without listener can still
+	 * be polled. The wrapped store is left open. With a policy other than {@link BackpressurePolicy#DROP}, this
+	 * also waits for subscribers to make room for the last events.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(dispatcher);
+		boolean interrupted = false;
+		while (dispatcher.isAlive()) {
+			try {
+				dispatcher.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (ownExecutor != null) {
+			ownExecutor.shutdown();
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
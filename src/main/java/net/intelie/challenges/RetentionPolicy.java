@@ -0,0 +1,83 @@
+package net.intelie.challenges;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long, and how many, events of each type a store keeps.
+ * <p>
+ * A policy combines a maximum age for all types, maximum ages for specific types (which take precedence)
+ * and a maximum number of events per type. Any of them may be left unset. Ages are measured against the
+ * event timestamps, taken as milliseconds since the epoch. Policies are immutable: the {@code with}
+ * methods return a new policy.
+ */
+public final class RetentionPolicy {
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	private final long maxAgeMillis;
+	private final Map<String, Long> typeMaxAgeMillis;
+	private final long maxEventsPerType;
+
+	private RetentionPolicy(long maxAgeMillis, Map<String, Long> typeMaxAgeMillis, long maxEventsPerType) {
+		this.maxAgeMillis = maxAgeMillis;
+		this.typeMaxAgeMillis = typeMaxAgeMillis;
+		this.maxEventsPerType = maxEventsPerType;
+	}
+
+	/**
+	 * @return a policy that keeps everything
+	 */
+	public static RetentionPolicy unlimited() {
+		return new RetentionPolicy(UNLIMITED, Collections.<String, Long>emptyMap(), UNLIMITED);
+	}
+
+	/**
+	 * @return a copy of this policy, with a maximum age for every type without one of its own
+	 */
+	public RetentionPolicy withMaxAge(long maxAge, TimeUnit unit) {
+		return new RetentionPolicy(checkPositive(unit.toMillis(maxAge)), typeMaxAgeMillis, maxEventsPerType);
+	}
+
+	/**
+	 * @return a copy of this policy, with a maximum age for one type
+	 */
+	public RetentionPolicy withMaxAge(String type, long maxAge, TimeUnit unit) {
+		Map<String, Long> ages = new HashMap<String, Long>(typeMaxAgeMillis);
+		ages.put(type, checkPositive(unit.toMillis(maxAge)));
+		return new RetentionPolicy(maxAgeMillis, Collections.unmodifiableMap(ages), maxEventsPerType);
+	}
+
+	/**
+	 * @return a copy of this policy, with a maximum number of events kept for each type
+	 */
+	public RetentionPolicy withMaxEventsPerType(long maxEvents) {
+		return new RetentionPolicy(maxAgeMillis, typeMaxAgeMillis, checkPositive(maxEvents));
+	}
+
+	private static long checkPositive(long value) {
+		if (value <= 0) {
+			throw new IllegalArgumentException("Retention limits must be positive");
+		}
+		return value;
+	}
+
+	/**
+	 * @param type
+	 * @param now current time, in milliseconds since the epoch
+	 * @return the timestamp before which events of the type are expired, or Long.MIN_VALUE if they never expire
+	 */
+	public long cutoff(String type, long now) {
+		Long age = typeMaxAgeMillis.get(type);
+		long maxAge = age != null ? age : maxAgeMillis;
+		return maxAge == UNLIMITED || now - maxAge > now ? Long.MIN_VALUE : now - maxAge;
+	}
+
+	/**
+	 * @return the maximum number of events kept for each type, or {@link #UNLIMITED}
+	 */
+	public long maxEventsPerType() {
+		return maxEventsPerType;
+	}
+}
@@ -0,0 +1,85 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Applies a {@link RetentionPolicy} to a store in the background, at a fixed interval.
+ * <p>
+ * The sweeper runs on its own daemon thread. Each pass calls {@link EvictableEventStore#evict}, which only
+ * holds the write lock of one type at a time, and only long enough to unlink the expired segments, so
+ * inserts and queries keep running while it works. A pass that fails does not stop the next ones; its
+ * exception is kept for {@link #lastFailure}. Closing the sweeper stops it.
+ */
+public class RetentionSweeper implements AutoCloseable {
+	private final EvictableEventStore store;
+	private final RetentionPolicy policy;
+	private final LongSupplier clock;
+	private final ScheduledExecutorService scheduler;
+	private final AtomicLong evicted = new AtomicLong();
+	private volatile RuntimeException lastFailure;
+
+	/**
+	 * Starts sweeping a store, using the system clock
+	 * @param store
+	 * @param policy
+	 * @param period time between two passes
+	 * @param unit
+	 */
+	public RetentionSweeper(EvictableEventStore store, RetentionPolicy policy, long period, TimeUnit unit) {
+		this(store, policy, period, unit, System::currentTimeMillis);
+	}
+
+	RetentionSweeper(EvictableEventStore store, RetentionPolicy policy, long period, TimeUnit unit, LongSupplier clock) {
+		this.store = store;
+		this.policy = policy;
+		this.clock = clock;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "event-store-retention");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::sweepInBackground, period, period, unit);
+	}
+
+	private void sweepInBackground() {
+		try {
+			sweep();
+		} catch (RuntimeException e) {
+			//Kept for monitoring; the next pass tries again
+			lastFailure = e;
+		}
+	}
+
+	/**
+	 * Runs one pass right away, on the calling thread
+	 * @return the number of events dropped
+	 */
+	public long sweep() {
+		long count = store.evict(policy, clock.getAsLong());
+		evicted.addAndGet(count);
+		return count;
+	}
+
+	/**
+	 * @return the number of events dropped since the sweeper started
+	 */
+	public long evicted() {
+		return evicted.get();
+	}
+
+	/**
+	 * @return the last exception of the background thread, or null
+	 */
+	public RuntimeException lastFailure() {
+		return lastFailure;
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+}
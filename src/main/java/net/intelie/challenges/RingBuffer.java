@@ -0,0 +1,96 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of events for many producers and a single consumer.
+ * <p>
+ * Slots are allocated once. Each one has a sequence number telling whose turn it is: a producer claims
+ * the next position with a CAS on the tail, but only if the slot of that position was freed by the
+ * consumer, then stores the event and publishes it by advancing the sequence of the slot. The consumer
+ * takes published events in order, and frees their slots for the producers of the next lap. This is the
+ * bounded queue design of Dmitry Vyukov, with the consumer side simplified since there is only one.
+ */
+final class RingBuffer {
+	private final Event[] slots;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	//Only touched by the consumer
+	private long head;
+
+	/**
+	 * @param capacity the number of slots, rounded up to a power of two, and to at least 2 so that a
+	 *                 published slot and a freed one never have the same sequence
+	 */
+	RingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+		}
+		int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		this.slots = new Event[size];
+		this.sequences = new AtomicLongArray(size);
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	int capacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Adds an event, if there is a free slot
+	 * @param event
+	 * @return the position of the event in the stream of all offered events, or -1 if the buffer is full
+	 */
+	long offer(Event event) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots[index] = event;
+					sequences.lazySet(index, position + 1);
+					return position;
+				}
+			} else if (difference < 0) {
+				//The slot still holds the event of the previous lap
+				return -1;
+			}
+			//Otherwise another producer claimed this position first: retry with the next one
+			ContentionCounters.RING_CAS_RETRIES.increment();
+		}
+	}
+
+	/**
+	 * Moves up to max published events, in order, into an array. Must only be called by the consumer.
+	 * @param out
+	 * @param max
+	 * @return the number of events moved
+	 */
+	int drainTo(Event[] out, int max) {
+		int count = 0;
+		while (count < max) {
+			int index = (int) head & mask;
+			if (sequences.get(index) != head + 1) {
+				break;
+			}
+			out[count++] = slots[index];
+			slots[index] = null;
+			sequences.lazySet(index, head + slots.length);
+			head++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of positions claimed by producers so far
+	 */
+	long claimed() {
+		return tail.get();
+	}
+}
@@ -0,0 +1,147 @@
+package net.intelie.challenges;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed run of sorted timestamps of one type.
+ * <p>
+ * The header keeps the first and last timestamps and the count as plain fields, so that a query can tell
+ * whether the segment overlaps its range, or count it whole, without decoding it. The timestamps after the
+ * first are stored delta-of-delta: each one as the difference between its delta to the previous timestamp
+ * and the previous delta, zigzag-encoded into an unsigned varint. Regularly spaced timestamps take 1 byte
+ * each, and timestamps a few milliseconds apart with some jitter take 1 or 2 bytes, against 8 for a
+ * {@code long}. Arithmetic wraps, so any sequence of longs round-trips, at up to 10 bytes per timestamp.
+ * <p>
+ * Decoding is sequential, so a segment is always decoded whole, into a buffer of the reader.
+ * <p>
+ * A {@link TieredEventStore} may spill a segment: the encoded bytes are written to a file of a
+ * {@link SegmentSpill}, and the segment is replaced by a copy that keeps only the header and where the bytes
+ * are. That copy decodes them from a mapping of the file.
+ */
+final class SealedSegment {
+	final long min;
+	final long max;
+	final int count;
+	/**
+	 * The encoded timestamps after the first, or null if they were spilled
+	 */
+	final byte[] data;
+	final int length;
+	final SegmentSpill.SpillFile file;
+	final long offset;
+
+	private SealedSegment(long min, long max, int count, byte[] data, int length, SegmentSpill.SpillFile file, long offset) {
+		this.min = min;
+		this.max = max;
+		this.count = count;
+		this.data = data;
+		this.length = length;
+		this.file = file;
+		this.offset = offset;
+	}
+
+	/**
+	 * Encodes a sorted run of timestamps
+	 * @param sorted
+	 * @param from   index of the first timestamp (inclusive)
+	 * @param to     index of the last timestamp (exclusive), greater than from
+	 * @return the segment
+	 */
+	static SealedSegment encode(long[] sorted, int from, int to) {
+		byte[] buffer = new byte[10 * (to - from - 1)];
+		int position = 0;
+		long previous = sorted[from];
+		long previousDelta = 0;
+		for (int i = from + 1; i < to; i++) {
+			long delta = sorted[i] - previous;
+			long value = delta - previousDelta;
+			//Zigzag, so that small negative changes of the delta also take few bytes
+			value = (value << 1) ^ (value >> 63);
+			while ((value & ~0x7FL) != 0) {
+				buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+			previous = sorted[i];
+			previousDelta = delta;
+		}
+		return new SealedSegment(sorted[from], sorted[to - 1], to - from, Arrays.copyOf(buffer, position), position, null, 0);
+	}
+
+	/**
+	 * @param file   where the encoded bytes of the segment were written
+	 * @param offset the position of the bytes in the file
+	 * @return a copy of the segment that reads its bytes from the file
+	 */
+	SealedSegment spilledTo(SegmentSpill.SpillFile file, long offset) {
+		return new SealedSegment(min, max, count, null, length, file, offset);
+	}
+
+	boolean isSpilled() {
+		return data == null;
+	}
+
+	/**
+	 * Decodes every timestamp of the segment
+	 * @param target where the timestamps are written, from index 0; at least {@link #count} long
+	 * @return the number of timestamps written
+	 */
+	int decode(long[] target) {
+		if (data == null) {
+			return decode(file.map(offset + length), (int) offset, target);
+		}
+		long previous = min;
+		long previousDelta = 0;
+		target[0] = min;
+		int position = 0;
+		for (int i = 1; i < count; i++) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[position++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			long delta = previousDelta + ((value >>> 1) ^ -(value & 1));
+			previous += delta;
+			previousDelta = delta;
+			target[i] = previous;
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes a spilled segment, with absolute reads only, since the buffer is shared by every reader of the file
+	 */
+	private int decode(ByteBuffer bytes, int position, long[] target) {
+		long previous = min;
+		long previousDelta = 0;
+		target[0] = min;
+		for (int i = 1; i < count; i++) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes.get(position++);
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			long delta = previousDelta + ((value >>> 1) ^ -(value & 1));
+			previous += delta;
+			previousDelta = delta;
+			target[i] = previous;
+		}
+		return count;
+	}
+
+	/**
+	 * @return an estimate of the heap held by the segment: the object and its encoded bytes, unless they were
+	 * spilled
+	 */
+	long usedBytes() {
+		//An object with five fields and two references takes 56 bytes, an array header 16, with compressed oops
+		return data == null ? 56 : 56 + 16 + data.length;
+	}
+}
@@ -0,0 +1,80 @@
+package net.intelie.challenges;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out fixed-size off-heap segments, within a hard limit of reserved bytes.
+ * <p>
+ * Direct buffers are expensive to allocate and can not be freed explicitly (their memory is only returned
+ * when the buffer object is collected), so released segments are kept in a free list and handed out again
+ * before any new memory is reserved. {@link #trim} drops the free list, giving its memory back to the JVM
+ * and its bytes back to the capacity.
+ */
+final class SegmentPool {
+	final long capacityBytes;
+	final int segmentBytes;
+	private final AtomicLong reservedBytes = new AtomicLong();
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	SegmentPool(long capacityBytes, int segmentBytes) {
+		if (segmentBytes <= 0 || capacityBytes < segmentBytes) {
+			throw new IllegalArgumentException("Capacity must hold at least one segment of " + segmentBytes + " bytes");
+		}
+		this.capacityBytes = capacityBytes;
+		this.segmentBytes = segmentBytes;
+	}
+
+	/**
+	 * Takes a segment from the free list, or reserves a new one
+	 * @return a segment, whose contents are undefined
+	 * @throws IllegalStateException if the capacity is exhausted
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer segment = free.poll();
+		if (segment != null) {
+			return segment;
+		}
+		long reserved;
+		do {
+			reserved = reservedBytes.get();
+			if (reserved + segmentBytes > capacityBytes) {
+				throw new IllegalStateException("Off-heap capacity of " + capacityBytes + " bytes exhausted");
+			}
+		} while (!reservedBytes.compareAndSet(reserved, reserved + segmentBytes));
+		return ByteBuffer.allocateDirect(segmentBytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Gives a segment back to the pool. The caller must not touch it afterwards.
+	 * @param segment
+	 */
+	void release(ByteBuffer segment) {
+		free.offer(segment);
+	}
+
+	/**
+	 * Drops every free segment, so that its memory can be reclaimed and reserved again
+	 */
+	void trim() {
+		while (free.poll() != null) {
+			reservedBytes.addAndGet(-segmentBytes);
+		}
+	}
+
+	/**
+	 * @return the bytes currently reserved, by segments in use and in the free list
+	 */
+	long reservedBytes() {
+		return reservedBytes.get();
+	}
+
+	/**
+	 * @return the number of segments waiting in the free list
+	 */
+	int freeSegments() {
+		return free.size();
+	}
+}
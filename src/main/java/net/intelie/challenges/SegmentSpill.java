@@ -0,0 +1,275 @@
+package net.intelie.challenges;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The files of a directory where a {@link TieredEventStore} spills {@link SealedSegment}s.
+ * <p>
+ * Segments are appended to the current file until it reaches its size, and then a new one is started, so
+ * each file holds the segments spilled one after the other, often of many types. The bytes each file still
+ * holds for the segments of the columns are counted: when a spilled segment leaves its column, because it
+ * was rewritten or removed, its bytes are released, and a full file with nothing left is deleted. Readers
+ * may still hold a layout with segments of a deleted file, so its channel stays open, and the file can still
+ * be mapped, until they are done: readers pin the {@link #readers} clock before they read a layout and
+ * unpin it when they drop it, and a deleted file is only closed once every reader pinned before it was
+ * deleted is gone.
+ * <p>
+ * Spilled bytes are read through the mappings of a {@link MappedFileCache}. Nothing is synced: the files
+ * only move the events of an in-memory store off the heap, and are deleted when it closes.
+ */
+final class SegmentSpill implements Closeable {
+	static final long DEFAULT_FILE_BYTES = 8 << 20;
+	static final String PREFIX = "spill-";
+	static final String SUFFIX = ".seg";
+
+	/**
+	 * A file of spilled segments
+	 */
+	static final class SpillFile {
+		final SegmentSpill spill;
+		final Path path;
+		final FileChannel channel;
+		/**
+		 * The bytes written to the file, which mappings may cover
+		 */
+		volatile long size;
+		//Guarded by the spill
+		long liveBytes;
+		/**
+		 * The version of {@link #readers} when the file was deleted
+		 */
+		long deletedAt;
+
+		SpillFile(SegmentSpill spill, Path path, FileChannel channel) {
+			this.spill = spill;
+			this.path = path;
+			this.channel = channel;
+		}
+
+		/**
+		 * @param end the position up to which the mapping must reach
+		 * @return a read-only mapping of the file from its start
+		 * @throws UncheckedIOException if the file could not be mapped
+		 */
+		ByteBuffer map(long end) {
+			try {
+				return spill.cache.map(this, end);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	final Path directory;
+	final MappedFileCache cache;
+	/**
+	 * Pinned by the readers of the layouts of the columns, for as long as they may decode spilled segments
+	 */
+	final VersionClock readers = new VersionClock();
+	private final long fileBytes;
+	private final List<SpillFile> files = new ArrayList<SpillFile>();
+	private final List<SpillFile> deleted = new ArrayList<SpillFile>();
+	private SpillFile current;
+	private long nextFile;
+	private long liveBytes;
+	private boolean closed;
+
+	/**
+	 * Opens a directory for spilling, deleting the spill files a previous store left in it
+	 * @param directory
+	 * @param fileBytes      the size from which a file is not appended to anymore
+	 * @param maxMappedBytes the bytes of files the cache keeps mapped
+	 * @throws IOException
+	 */
+	SegmentSpill(Path directory, long fileBytes, long maxMappedBytes) throws IOException {
+		Files.createDirectories(directory);
+		for (long number : DurableEventStore.numberedFiles(directory, PREFIX, SUFFIX)) {
+			Files.deleteIfExists(path(directory, number));
+		}
+		this.directory = directory;
+		this.fileBytes = fileBytes;
+		this.cache = new MappedFileCache(maxMappedBytes);
+	}
+
+	static Path path(Path directory, long number) {
+		return directory.resolve(String.format(PREFIX + "%016d" + SUFFIX, number));
+	}
+
+	/**
+	 * Appends the bytes of a segment on the heap to the current file
+	 * @param segment
+	 * @return the spilled copy of the segment
+	 * @throws IOException
+	 * @throws IllegalStateException if the spill is closed
+	 */
+	synchronized SealedSegment write(SealedSegment segment) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("The spill is closed");
+		}
+		if (current == null || current.size + segment.length > fileBytes) {
+			roll();
+		}
+		long offset = current.size;
+		ByteBuffer bytes = ByteBuffer.wrap(segment.data);
+		while (bytes.hasRemaining()) {
+			current.channel.write(bytes, offset + bytes.position());
+		}
+		current.size = offset + segment.length;
+		current.liveBytes += segment.length;
+		liveBytes += segment.length;
+		return segment.spilledTo(current, offset);
+	}
+
+	private void roll() throws IOException {
+		Path path = path(directory, nextFile++);
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		SpillFile previous = current;
+		current = new SpillFile(this, path, channel);
+		files.add(current);
+		if (previous != null && previous.liveBytes == 0) {
+			delete(previous);
+		}
+	}
+
+	/**
+	 * Releases the spilled segments that a column dropped from its layout
+	 * @param before the segments of the column before the change
+	 * @param after  the segments of the column after it
+	 */
+	void released(SealedSegment[] before, SealedSegment[] after) {
+		Set<SealedSegment> kept = null;
+		for (SealedSegment segment : before) {
+			if (!segment.isSpilled()) {
+				continue;
+			}
+			if (kept == null) {
+				kept = Collections.newSetFromMap(new IdentityHashMap<SealedSegment, Boolean>());
+				for (SealedSegment other : after) {
+					if (other.isSpilled()) {
+						kept.add(other);
+					}
+				}
+			}
+			if (!kept.contains(segment)) {
+				release(segment);
+			}
+		}
+	}
+
+	/**
+	 * Releases the bytes of a spilled segment that no column holds anymore
+	 * @param segment
+	 */
+	synchronized void release(SealedSegment segment) {
+		SpillFile file = segment.file;
+		file.liveBytes -= segment.length;
+		liveBytes -= segment.length;
+		if (file.liveBytes == 0 && file != current && !closed) {
+			delete(file);
+			closeDeletedFiles();
+		}
+	}
+
+	private void delete(SpillFile file) {
+		try {
+			Files.deleteIfExists(file.path);
+		} catch (IOException e) {
+			//Deleted with the others on close
+			return;
+		}
+		files.remove(file);
+		//Read after the layout without the file was published: readers that pin a later version never see it
+		file.deletedAt = readers.stamp();
+		deleted.add(file);
+	}
+
+	/**
+	 * Closes the channels of the deleted files that no reader may still read, and drops their mappings
+	 */
+	synchronized void closeDeletedFiles() {
+		if (deleted.isEmpty()) {
+			return;
+		}
+		long horizon = readers.horizon();
+		for (Iterator<SpillFile> iterator = deleted.iterator(); iterator.hasNext(); ) {
+			SpillFile file = iterator.next();
+			if (file.deletedAt < horizon) {
+				iterator.remove();
+				cache.remove(file);
+				closeQuietly(file);
+			}
+		}
+	}
+
+	private static void closeQuietly(SpillFile file) {
+		try {
+			file.channel.close();
+		} catch (IOException e) {
+			//Nothing is lost: the file only held copies
+		}
+	}
+
+	/**
+	 * @return the bytes the files hold for segments still in a column
+	 */
+	synchronized long liveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * @return the number of deleted files whose channel is still open
+	 */
+	synchronized int deletedFileCount() {
+		return deleted.size();
+	}
+
+	/**
+	 * @return the number of files not deleted yet
+	 */
+	synchronized int fileCount() {
+		return files.size();
+	}
+
+	/**
+	 * Closes and deletes every file. Spilled segments cannot be read anymore.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		IOException failure = null;
+		for (SpillFile file : files) {
+			closeQuietly(file);
+			try {
+				Files.deleteIfExists(file.path);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		for (SpillFile file : deleted) {
+			closeQuietly(file);
+		}
+		files.clear();
+		deleted.clear();
+		cache.clear();
+		current = null;
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * An event store that spreads types over several independent stores, its shards.
+ * <p>
+ * Each type lives in exactly one shard, picked by hashing the type, so every operation on a single type is
+ * routed to one shard and never touches the others: producers of different types meet on different locks,
+ * counters and cache lines, and insert throughput grows with the number of shards up to the number of
+ * cores. Queries over several types ({@link #queryTypes}, {@link #queryAll}) are fanned out to the shards
+ * involved and their results merged lazily in timestamp order by a {@link MergingIterator}.
+ * <p>
+ * Shards can be any store, created by a factory; the facade adds no locking of its own, so it is as
+ * thread-safe as its shards.
+ */
+public class ShardedEventStore implements EventStore, MemoryFootprint, AutoCloseable {
+	final EventStore[] shards;
+
+	/**
+	 * Creates a store with one shard per available processor
+	 * @param factory creates each shard
+	 */
+	public ShardedEventStore(Supplier<? extends EventStore> factory) {
+		this(Runtime.getRuntime().availableProcessors(), factory);
+	}
+
+	/**
+	 * Creates a store with a given number of shards
+	 * @param shardCount
+	 * @param factory creates each shard
+	 */
+	public ShardedEventStore(int shardCount, Supplier<? extends EventStore> factory) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("There must be at least one shard");
+		}
+		this.shards = new EventStore[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = factory.get();
+		}
+	}
+
+	/**
+	 * @param type
+	 * @return the index of the shard that holds a type
+	 */
+	int shardOf(String type) {
+		if (type == null) {
+			return 0;
+		}
+		//Spread the high bits, as HashMap does, since string hashes of similar names differ mostly in low bits
+		int hash = type.hashCode();
+		hash ^= hash >>> 16;
+		return (hash & Integer.MAX_VALUE) % shards.length;
+	}
+
+	private EventStore shard(String type) {
+		return shards[shardOf(type)];
+	}
+
+	/**
+	 * Stores an event in the shard of its type.
+	 *
+	 * @param event
+	 */
+	@Override
+	public void insert(Event event) {
+		shard(event.type()).insert(event);
+	}
+
+	/**
+	 * Stores a batch of events, split into one batch per shard.
+	 *
+	 * @param events
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void insertAll(Event[] events, int offset, int length) {
+		EventBatch.checkRange(events, offset, length);
+		int[] counts = new int[shards.length];
+		int[] routes = new int[length];
+		for (int i = 0; i < length; i++) {
+			routes[i] = shardOf(events[offset + i].type());
+			counts[routes[i]]++;
+		}
+		Event[][] batches = new Event[shards.length][];
+		for (int s = 0; s < shards.length; s++) {
+			batches[s] = new Event[counts[s]];
+			counts[s] = 0;
+		}
+		for (int i = 0; i < length; i++) {
+			batches[routes[i]][counts[routes[i]]++] = events[offset + i];
+		}
+		for (int s = 0; s < shards.length; s++) {
+			if (batches[s].length > 0) {
+				shards[s].insertAll(batches[s], 0, batches[s].length);
+			}
+		}
+	}
+
+	/**
+	 * Removes all events of specific type from its shard.
+	 *
+	 * @param type
+	 */
+	@Override
+	public void removeAll(String type) {
+		shard(type).removeAll(type);
+	}
+
+	/**
+	 * Removes the events of a type in a time range from its shard.
+	 *
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of events removed.
+	 */
+	@Override
+	public long removeRange(String type, long startTime, long endTime) {
+		return shard(type).removeRange(type, startTime, endTime);
+	}
+
+	/**
+	 * Retrieves an iterator for events based on their type and timestamp, from the shard of the type.
+	 *
+	 * @param type      The type we are querying for.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator where all its events have same type as
+	 * {@param type} and timestamp between {@param startTime}
+	 * (inclusive) and {@param endTime} (exclusive).
+	 */
+	@Override
+	public EventIterator query(String type, long startTime, long endTime) {
+		return shard(type).query(type, startTime, endTime);
+	}
+
+	@Override
+	public EventIterator query(String type, long startTime, long endTime, FieldPredicate... predicates) {
+		return shard(type).query(type, startTime, endTime, predicates);
+	}
+
+	/**
+	 * Queries each shard for the types it holds, and merges the results in timestamp order.
+	 *
+	 * @param types     The types we are querying for; null elements are ignored.
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator over the matching events, ordered by timestamp.
+	 */
+	@Override
+	public EventIterator queryTypes(Set<String> types, long startTime, long endTime) {
+		List<Set<String>> byShard = new ArrayList<Set<String>>(shards.length);
+		for (int s = 0; s < shards.length; s++) {
+			byShard.add(new HashSet<String>());
+		}
+		for (String type : types) {
+			if (type != null) {
+				byShard.get(shardOf(type)).add(type);
+			}
+		}
+		List<EventIterator> iterators = new ArrayList<EventIterator>();
+		for (int s = 0; s < shards.length; s++) {
+			if (!byShard.get(s).isEmpty()) {
+				iterators.add(shards[s].queryTypes(byShard.get(s), startTime, endTime));
+			}
+		}
+		return new MergingIterator(iterators);
+	}
+
+	/**
+	 * Queries every shard for all of its types, and merges the results in timestamp order.
+	 *
+	 * @param startTime Start timestamp (inclusive).
+	 * @param endTime   End timestamp (exclusive).
+	 * @return An iterator over all events in the range, ordered by timestamp.
+	 */
+	@Override
+	public EventIterator queryAll(long startTime, long endTime) {
+		List<EventIterator> iterators = new ArrayList<EventIterator>(shards.length);
+		for (EventStore shard : shards) {
+			iterators.add(shard.queryAll(startTime, endTime));
+		}
+		return new MergingIterator(iterators);
+	}
+
+	/**
+	 * @return the union of the types of every shard
+	 */
+	@Override
+	public Set<String> types() {
+		Set<String> types = new HashSet<String>();
+		for (EventStore shard : shards) {
+			types.addAll(shard.types());
+		}
+		return types;
+	}
+
+	@Override
+	public Stream<Event> stream(String type, long startTime, long endTime) {
+		return shard(type).stream(type, startTime, endTime);
+	}
+
+	@Override
+	public long count(String type, long startTime, long endTime) {
+		return shard(type).count(type, startTime, endTime);
+	}
+
+	@Override
+	public OptionalLong firstTimestamp(String type, long startTime, long endTime) {
+		return shard(type).firstTimestamp(type, startTime, endTime);
+	}
+
+	@Override
+	public OptionalLong lastTimestamp(String type, long startTime, long endTime) {
+		return shard(type).lastTimestamp(type, startTime, endTime);
+	}
+
+	@Override
+	public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+		return shard(type).histogram(type, startTime, endTime, bucketWidth);
+	}
+
+	/**
+	 * @return the memory used by all shards, or -1 if some shard can not tell
+	 */
+	@Override
+	public long usedBytes() {
+		long bytes = 0;
+		for (EventStore shard : shards) {
+			long used = shard instanceof MemoryFootprint ? ((MemoryFootprint) shard).usedBytes() : -1;
+			if (used < 0) {
+				return -1;
+			}
+			bytes += used;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Closes every shard that is {@link AutoCloseable}, even if some of them fail to close.
+	 */
+	@Override
+	public void close() throws Exception {
+		Exception failure = null;
+		for (EventStore shard : shards) {
+			if (shard instanceof AutoCloseable) {
+				try {
+					((AutoCloseable) shard).close();
+				} catch (Exception e) {
+					if (failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
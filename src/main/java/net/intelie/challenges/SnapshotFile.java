@@ -0,0 +1,125 @@
+package net.intelie.challenges;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A compact, binary image of the contents of a store.
+ * <p>
+ * The file starts with a magic number and a version, followed by blocks of up to {@link #BLOCK_EVENTS}
+ * events of one type: a marker byte, the type name, the number of timestamps and the timestamps
+ * themselves, in the order the store returned them, then those at Long.MAX_VALUE, which no query returns. A zero marker byte ends the file. That is 8 bytes per event plus a few
+ * bytes per block. Snapshots are written to a temporary file, forced, and then renamed into place, so a
+ * crash never leaves a partial snapshot behind.
+ */
+final class SnapshotFile {
+	private static final int MAGIC = 0x45565354;
+	private static final int VERSION = 1;
+	static final int BLOCK_EVENTS = 8192;
+
+	private SnapshotFile() {
+	}
+
+	static Path path(Path directory, long number) {
+		return directory.resolve(String.format("snapshot-%016d.dat", number));
+	}
+
+	/**
+	 * Writes every event of the given types
+	 * @param file
+	 * @param store
+	 * @param types
+	 * @param eventsAtMaxTimestamp the number of events of each type at Long.MAX_VALUE, which no query returns
+	 */
+	static void write(Path file, EventStore store, List<String> types, Map<String, LongAdder> eventsAtMaxTimestamp) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		long[] block = new long[BLOCK_EVENTS];
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (String type : types) {
+				byte[] name = type.getBytes(StandardCharsets.UTF_8);
+				int count = 0;
+				try (EventIterator eventIterator = store.query(type, Long.MIN_VALUE, Long.MAX_VALUE)) {
+					while (eventIterator.moveNext()) {
+						block[count++] = eventIterator.current().timestamp();
+						if (count == BLOCK_EVENTS) {
+							writeBlock(out, name, block, count);
+							count = 0;
+						}
+					}
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+				LongAdder atMaxTimestamp = eventsAtMaxTimestamp.get(type);
+				for (long i = atMaxTimestamp == null ? 0 : atMaxTimestamp.sum(); i > 0; i--) {
+					block[count++] = Long.MAX_VALUE;
+					if (count == BLOCK_EVENTS) {
+						writeBlock(out, name, block, count);
+						count = 0;
+					}
+				}
+				if (count > 0) {
+					writeBlock(out, name, block, count);
+				}
+			}
+			out.writeByte(0);
+		}
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeBlock(DataOutputStream out, byte[] name, long[] block, int count) throws IOException {
+		out.writeByte(1);
+		out.writeShort(name.length);
+		out.write(name);
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			out.writeLong(block[i]);
+		}
+	}
+
+	/**
+	 * Inserts every event of a snapshot into a store, one {@link EventStore#insertAll} per block
+	 * @param file
+	 * @param store
+	 * @param types                receives every type found in the snapshot
+	 * @param eventsAtMaxTimestamp counts the events loaded at Long.MAX_VALUE
+	 */
+	static void load(Path file, EventStore store, Collection<String> types, Map<String, LongAdder> eventsAtMaxTimestamp) throws IOException {
+		try (MappedReader reader = new MappedReader(file)) {
+			if (reader.readInt() != MAGIC || reader.readInt() != VERSION) {
+				throw new IOException("Not a snapshot file: " + file);
+			}
+			Event[] events = new Event[BLOCK_EVENTS];
+			while (reader.readByte() != 0) {
+				String type = reader.readString();
+				types.add(type);
+				int count = reader.readInt();
+				for (int i = 0; i < count; i++) {
+					events[i] = new Event(type, reader.readLong());
+					DurableEventStore.countAtMaxTimestamp(eventsAtMaxTimestamp, events[i]);
+				}
+				store.insertAll(events, 0, count);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated snapshot file: " + file, e);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package net.intelie.challenges;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histograms of an {@link InstrumentedEventStore}.
+ * <p>
+ * Recording is a {@link LongAdder} increment or a {@link LatencyHistogram#record}, neither of which locks or
+ * allocates. Figures that the store already knows, such as the number of events per type or the memory
+ * it uses, are not counted on the hot path but asked from the store when read. Recording can be switched
+ * off at runtime, leaving a single volatile read per operation. The contention counts are read from
+ * {@link ContentionCounters}, which every store of the JVM shares.
+ */
+public final class StoreMetrics implements StoreMetricsMXBean {
+	final LongAdder inserts = new LongAdder();
+	final LongAdder queries = new LongAdder();
+	final LongAdder removeAlls = new LongAdder();
+	final LongAdder removeRanges = new LongAdder();
+	final LongAdder iteratorRemoves = new LongAdder();
+	final LongAdder eventsVisited = new LongAdder();
+	final LongAdder openIterators = new LongAdder();
+	final LatencyHistogram insertLatency = new LatencyHistogram();
+	final LatencyHistogram queryLatency = new LatencyHistogram();
+	final LatencyHistogram removeAllLatency = new LatencyHistogram();
+	final LatencyHistogram removeRangeLatency = new LatencyHistogram();
+	final LatencyHistogram iteratorLifetime = new LatencyHistogram();
+	private final EventStore store;
+	volatile boolean enabled = true;
+
+	StoreMetrics(EventStore store) {
+		this.store = store;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getInsertCount() {
+		return inserts.sum();
+	}
+
+	@Override
+	public long getQueryCount() {
+		return queries.sum();
+	}
+
+	@Override
+	public long getRemoveAllCount() {
+		return removeAlls.sum();
+	}
+
+	@Override
+	public long getRemoveRangeCount() {
+		return removeRanges.sum();
+	}
+
+	@Override
+	public long getIteratorRemoveCount() {
+		return iteratorRemoves.sum();
+	}
+
+	@Override
+	public long getEventsVisited() {
+		return eventsVisited.sum();
+	}
+
+	@Override
+	public long getOpenIterators() {
+		return openIterators.sum();
+	}
+
+	@Override
+	public LatencySummary getInsertLatency() {
+		return new LatencySummary(insertLatency.snapshot());
+	}
+
+	@Override
+	public LatencySummary getQueryLatency() {
+		return new LatencySummary(queryLatency.snapshot());
+	}
+
+	@Override
+	public LatencySummary getRemoveAllLatency() {
+		return new LatencySummary(removeAllLatency.snapshot());
+	}
+
+	@Override
+	public LatencySummary getRemoveRangeLatency() {
+		return new LatencySummary(removeRangeLatency.snapshot());
+	}
+
+	@Override
+	public LatencySummary getIteratorLifetime() {
+		return new LatencySummary(iteratorLifetime.snapshot());
+	}
+
+	@Override
+	public Map<String, Long> getEventsPerType() {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (String type : store.types()) {
+			counts.put(type, store.count(type, Long.MIN_VALUE, Long.MAX_VALUE));
+		}
+		return counts;
+	}
+
+	@Override
+	public long getUsedBytes() {
+		return store instanceof MemoryFootprint ? ((MemoryFootprint) store).usedBytes() : -1;
+	}
+
+	@Override
+	public long getJvmColumnLockWaits() {
+		return ContentionCounters.COLUMN_LOCK_WAITS.sum();
+	}
+
+	@Override
+	public long getJvmOffHeapLockWaits() {
+		return ContentionCounters.OFF_HEAP_LOCK_WAITS.sum();
+	}
+
+	@Override
+	public long getJvmRingCasRetries() {
+		return ContentionCounters.RING_CAS_RETRIES.sum();
+	}
+
+	@Override
+	public long getJvmRingFullWaits() {
+		return ContentionCounters.RING_FULL.sum();
+	}
+
+	/**
+	 * @return a copy of every figure, taken now
+	 */
+	public MetricsSnapshot snapshot() {
+		return new MetricsSnapshot(this);
+	}
+}
@@ -0,0 +1,71 @@
+package net.intelie.challenges;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the {@link StoreMetrics} of an {@link InstrumentedEventStore}.
+ * <p>
+ * Counts are totals since the store was created; rates come from the difference between two reads.
+ * Latencies are in nanoseconds. The {@code Jvm} contention counts are the exception: they are shared by
+ * every store of the JVM, instrumented or not, so they only point at contention in this store when it is
+ * the only one under load.
+ */
+public interface StoreMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getInsertCount();
+
+    long getQueryCount();
+
+    long getRemoveAllCount();
+
+    long getRemoveRangeCount();
+
+    long getIteratorRemoveCount();
+
+    long getEventsVisited();
+
+    long getOpenIterators();
+
+    LatencySummary getInsertLatency();
+
+    LatencySummary getQueryLatency();
+
+    LatencySummary getRemoveAllLatency();
+
+    LatencySummary getRemoveRangeLatency();
+
+    LatencySummary getIteratorLifetime();
+
+    /**
+     * @return the number of events of each type currently in the store.
+     */
+    Map<String, Long> getEventsPerType();
+
+    /**
+     * @return the memory used by the store, or -1 if it can not tell.
+     */
+    long getUsedBytes();
+
+    /**
+     * @return the writers of any column of any store of the JVM that found its lock held.
+     */
+    long getJvmColumnLockWaits();
+
+    /**
+     * @return the readers and writers of any off-heap column of the JVM that found its lock held.
+     */
+    long getJvmOffHeapLockWaits();
+
+    /**
+     * @return the producers of any ring buffer of the JVM that lost the race for a position.
+     */
+    long getJvmRingCasRetries();
+
+    /**
+     * @return the producers of any ring buffer of the JVM that found it full.
+     */
+    long getJvmRingFullWaits();
+}
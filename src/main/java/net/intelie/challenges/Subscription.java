@@ -0,0 +1,197 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A continuous query on a {@link PublishingEventStore}: the events of a type, in a time range and matching a set
+ * of {@link FieldPredicate}s, inserted after the subscription was created.
+ * <p>
+ * Matching events are put in a bounded buffer of the subscription by the dispatcher thread of the store. A
+ * subscription created with an {@link EventListener} hands them to it in batches, from an {@link Executor};
+ * one created without is read with {@link #poll}. When the buffer is full, the {@link BackpressurePolicy} of the
+ * store decides: with {@link BackpressurePolicy#DROP} the event is counted in {@link #droppedEvents} and lost for
+ * this subscription only, otherwise the dispatcher waits for room, which eventually holds up producers.
+ * <p>
+ * Subscriptions stay active until {@link #close}d, or until the store fails to hand them an event, for
+ * instance because their executor rejects a delivery; {@link #lastFailure} then tells why.
+ */
+public final class Subscription implements AutoCloseable {
+	private static final long BLOCK_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	final String type;
+	/**
+	 * The position in the stream of published events from which the subscription receives them
+	 */
+	final long from;
+	private final long startTime;
+	private final long endTime;
+	private final FieldPredicate[] predicates;
+	private final EventListener listener;
+	private final PublishingEventStore store;
+	private final Executor executor;
+	private final BackpressurePolicy policy;
+	private final int batchSize;
+	private final ArrayBlockingQueue<Event> buffer;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder delivered = new LongAdder();
+	private volatile RuntimeException lastFailure;
+	private volatile boolean closed;
+
+	Subscription(PublishingEventStore store, long from, String type, long startTime, long endTime, FieldPredicate[] predicates,
+				 EventListener listener, Executor executor, int capacity, BackpressurePolicy policy, int batchSize) {
+		this.store = store;
+		this.from = from;
+		this.type = type;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.predicates = predicates.clone();
+		this.listener = listener;
+		this.executor = executor;
+		this.policy = policy;
+		this.batchSize = batchSize;
+		this.buffer = new ArrayBlockingQueue<Event>(capacity);
+	}
+
+	/**
+	 * @return true if the event, of the type of the subscription, is in its range and matches its predicates
+	 */
+	boolean matches(Event event) {
+		return !closed && event.timestamp() >= startTime && event.timestamp() < endTime && FieldPredicate.all(predicates, event.payload());
+	}
+
+	/**
+	 * Puts a matching event in the buffer, or drops it or waits for room as the backpressure policy says.
+	 * Called by the dispatcher.
+	 */
+	void offer(Event event) throws InterruptedException {
+		if (policy == BackpressurePolicy.DROP) {
+			if (!buffer.offer(event)) {
+				dropped.increment();
+			}
+			return;
+		}
+		while (!buffer.offer(event, policy == BackpressurePolicy.SPIN ? 0 : BLOCK_WAIT_NANOS, TimeUnit.NANOSECONDS)) {
+			if (closed) {
+				return;
+			}
+			//The buffer only empties if its listener runs
+			schedule();
+		}
+	}
+
+	/**
+	 * Hands the buffered events to the listener on the executor, unless a delivery is already under way.
+	 * Called by the dispatcher after each batch.
+	 */
+	void schedule() {
+		if (listener != null && !closed && !buffer.isEmpty() && scheduled.compareAndSet(false, true)) {
+			executor.execute(this::deliver);
+		}
+	}
+
+	private void deliver() {
+		while (true) {
+			List<Event> batch = new ArrayList<Event>(Math.min(batchSize, buffer.size()));
+			while (!closed && buffer.drainTo(batch, batchSize) > 0) {
+				try {
+					listener.onEvents(batch);
+				} catch (RuntimeException e) {
+					lastFailure = e;
+				}
+				delivered.add(batch.size());
+				batch = new ArrayList<Event>(Math.min(batchSize, buffer.size()));
+			}
+			scheduled.set(false);
+			//Events buffered after the last drain, but before the flag was cleared, are delivered here
+			if (closed || buffer.isEmpty() || !scheduled.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes the buffered events of a subscription without listener, waiting for the first one for at most a
+	 * given time
+	 * @param max     the largest number of events to take
+	 * @param timeout
+	 * @param unit
+	 * @return the events, oldest first; empty if none arrived in time or the subscription is closed
+	 * @throws InterruptedException
+	 * @throws IllegalStateException if the subscription has a listener
+	 */
+	public List<Event> poll(int max, long timeout, TimeUnit unit) throws InterruptedException {
+		if (listener != null) {
+			throw new IllegalStateException("Events of the subscription go to its listener");
+		}
+		Event first = closed ? null : buffer.poll(timeout, unit);
+		if (first == null) {
+			return Collections.emptyList();
+		}
+		List<Event> events = new ArrayList<Event>(Math.min(max, buffer.size() + 1));
+		events.add(first);
+		buffer.drainTo(events, max - 1);
+		delivered.add(events.size());
+		return events;
+	}
+
+	/**
+	 * @return the number of events lost because the buffer was full
+	 */
+	public long droppedEvents() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return the number of events handed to the listener, or polled
+	 */
+	public long deliveredEvents() {
+		return delivered.sum();
+	}
+
+	/**
+	 * @return the number of events buffered and not delivered yet
+	 */
+	public int pendingEvents() {
+		return buffer.size();
+	}
+
+	/**
+	 * Closes the subscription after the dispatcher failed to hand it an event. Called by the dispatcher.
+	 */
+	void fail(RuntimeException e) {
+		lastFailure = e;
+		close();
+	}
+
+	/**
+	 * @return the last exception thrown by the listener, or the one that closed the subscription, or null
+	 */
+	public RuntimeException lastFailure() {
+		return lastFailure;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stops the subscription: it receives no more events, and those still buffered are discarded. A delivery
+	 * under way finishes its current batch.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			store.unsubscribe(this);
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package net.intelie.challenges;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CompressedEventStore} whose heap usage is capped: once its columns take more than a given number
+ * of bytes, their oldest sealed segments are spilled to files of a local directory, and read back through
+ * memory mappings when a query reaches them.
+ * <p>
+ * Recent events stay on the heap, in the heads of the columns and their newest segments. A background thread
+ * checks {@link #usedBytes} at a fixed interval and, when it is over the limit, spills segments on the heap,
+ * oldest timestamps first whatever their type, until it is a tenth under the limit. Each segment keeps its
+ * header on the heap, so queries still skip the segments outside their range without any I/O, and
+ * {@link #count} still counts whole segments from their headers. Inserts never wait for the disk, and never
+ * fail because of the limit: between two passes the heap may go over it, and the heads and segment headers
+ * always stay on the heap.
+ * <p>
+ * Spilled segments are decoded from read-only mappings of their files, which a {@link MappedFileCache}
+ * bounds with the CLOCK algorithm: once its file is mapped, a spilled segment is decoded like one on the
+ * heap, without copying its bytes. A late event or a removal that touches a spilled segment rewrites it on the
+ * heap, and the space it held in its file is released; files whose segments were all released are deleted,
+ * and closed once the iterators and reads that were open when they were deleted are done (see
+ * {@link SegmentSpill}). An iterator left open thus keeps the files it may read open, until it is closed,
+ * used up or garbage collected.
+ * <p>
+ * The files only hold events of this store, which is not durable: they are deleted when it is closed, and
+ * those a store left behind are deleted when a new one opens the directory.
+ */
+public class TieredEventStore extends CompressedEventStore implements AutoCloseable {
+	public static final long DEFAULT_MAPPED_BYTES = 256 << 20;
+	public static final long DEFAULT_PERIOD_MILLIS = 100;
+
+	private static final class Candidate {
+		final CompressedColumn column;
+		final SealedSegment segment;
+
+		Candidate(CompressedColumn column, SealedSegment segment) {
+			this.column = column;
+			this.segment = segment;
+		}
+	}
+
+	final SegmentSpill spill;
+	private final long maxHeapBytes;
+	private final ScheduledExecutorService scheduler;
+	private final Object spilling = new Object();
+	private final AtomicLong spilledSegments = new AtomicLong();
+	private volatile RuntimeException lastFailure;
+
+	/**
+	 * Creates a store spilling to a directory, with the default cache size and interval
+	 * @param directory    where segments are spilled; created if needed
+	 * @param maxHeapBytes the {@link #usedBytes} above which segments are spilled
+	 * @throws IOException if the directory could not be prepared
+	 */
+	public TieredEventStore(Path directory, long maxHeapBytes) throws IOException {
+		this(directory, maxHeapBytes, DEFAULT_MAPPED_BYTES, DEFAULT_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a store spilling to a directory, and starts its background thread
+	 * @param directory      where segments are spilled; created if needed
+	 * @param maxHeapBytes   the {@link #usedBytes} above which segments are spilled
+	 * @param maxMappedBytes the bytes of spill files kept mapped
+	 * @param period         time between two checks of the heap usage
+	 * @param unit
+	 * @throws IOException if the directory could not be prepared
+	 */
+	public TieredEventStore(Path directory, long maxHeapBytes, long maxMappedBytes, long period, TimeUnit unit) throws IOException {
+		this(directory, maxHeapBytes, maxMappedBytes, SegmentSpill.DEFAULT_FILE_BYTES, period, unit);
+	}
+
+	TieredEventStore(Path directory, long maxHeapBytes, long maxMappedBytes, long fileBytes, long period, TimeUnit unit) throws IOException {
+		this(new SegmentSpill(directory, fileBytes, maxMappedBytes), maxHeapBytes, period, unit);
+	}
+
+	private TieredEventStore(SegmentSpill spill, long maxHeapBytes, long period, TimeUnit unit) {
+		super(spill);
+		if (maxHeapBytes < 0) {
+			throw new IllegalArgumentException("The heap limit must not be negative");
+		}
+		this.spill = spill;
+		this.maxHeapBytes = maxHeapBytes;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "event-store-tiering");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::spillInBackground, period, period, unit);
+	}
+
+	private void spillInBackground() {
+		try {
+			spill();
+		} catch (RuntimeException e) {
+			//Kept for monitoring; the next pass tries again
+			lastFailure = e;
+		}
+	}
+
+	/**
+	 * Runs one pass right away, on the calling thread: if the heap usage is over the limit, spills the oldest
+	 * segments on the heap until it is a tenth under it, or nothing is left to spill.
+	 * @return the heap bytes freed
+	 * @throws UncheckedIOException if a segment could not be written
+	 * @throws IllegalStateException if the store is closed
+	 */
+	public long spill() {
+		synchronized (spilling) {
+			spill.closeDeletedFiles();
+			long used = usedBytes();
+			if (used <= maxHeapBytes) {
+				return 0;
+			}
+			long target = maxHeapBytes - maxHeapBytes / 10;
+			List<Candidate> candidates = new ArrayList<Candidate>();
+			for (CompressedColumn column : columns()) {
+				if (column != null) {
+					for (SealedSegment segment : column.layout.sealed) {
+						if (!segment.isSpilled()) {
+							candidates.add(new Candidate(column, segment));
+						}
+					}
+				}
+			}
+			candidates.sort(Comparator.comparingLong(candidate -> candidate.segment.max));
+			long freed = 0;
+			for (Candidate candidate : candidates) {
+				if (used - freed <= target) {
+					break;
+				}
+				SealedSegment spilled;
+				try {
+					spilled = spill.write(candidate.segment);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				//The segment may have been rewritten since it was listed; its copy is then useless
+				if (candidate.column.swap(candidate.segment, spilled)) {
+					freed += candidate.segment.usedBytes() - spilled.usedBytes();
+					spilledSegments.incrementAndGet();
+				} else {
+					spill.release(spilled);
+				}
+			}
+			return freed;
+		}
+	}
+
+	/**
+	 * @return the bytes the spill files hold for segments of the store
+	 */
+	public long spilledBytes() {
+		return spill.liveBytes();
+	}
+
+	/**
+	 * @return the bytes of spill files currently mapped
+	 */
+	public long mappedBytes() {
+		return spill.cache.mappedBytes();
+	}
+
+	/**
+	 * @return the number of segments spilled since the store was created
+	 */
+	public long spilledSegments() {
+		return spilledSegments.get();
+	}
+
+	/**
+	 * @return the last exception of the background thread, or null
+	 */
+	public RuntimeException lastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 * Stops the background thread, waiting for a pass under way, and deletes the spill files. Events that
+	 * were spilled cannot be read anymore.
+	 * @throws IOException if a file could not be deleted
+	 */
+	@Override
+	public void close() throws IOException {
+		//Not interrupted: an interrupt during a write would close the file channel under the other readers
+		scheduler.shutdown();
+		boolean interrupted = false;
+		while (!scheduler.isTerminated()) {
+			try {
+				scheduler.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		try {
+			synchronized (spilling) {
+				spill.close();
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
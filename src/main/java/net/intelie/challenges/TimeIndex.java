@@ -0,0 +1,298 @@
+package net.intelie.challenges;
+
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The time-sorted partition that holds every event of a single type.
+ * <p>
+ * Entries are kept in a {@link ConcurrentSkipListSet}, ordered by timestamp, so that a range lookup is a
+ * O(log n) descent followed by a walk over the k matching entries, instead of a scan over the whole store.
+ * The skip list is lock-free, so it can be read and written concurrently without any external locking.
+ * <p>
+ * Next to the entries, the partition keeps a counter per bucket of {@code 1 << BUCKET_SHIFT} milliseconds,
+ * so that counting a range only walks the entries of the partial buckets at its ends. Counters are updated
+ * right after the entries, so a count racing with writes may be off by the writes in flight. A counter that
+ * drops to zero is dropped by {@link #reclaim}, so that the buckets of removed time ranges do not pile up.
+ * <p>
+ * Entries are versioned by the {@link VersionClock} of the store (see {@link IndexEntry}), so that an
+ * {@link IndexIterator} sees the partition exactly as it was when the iterator was created. Removing an
+ * entry only stamps it as removed; it is unlinked from the skip list by {@link #reclaim}, once no open
+ * snapshot can see it anymore.
+ */
+final class TimeIndex {
+	static final int BUCKET_SHIFT = 10;
+	private static final long BUCKET_MASK = (1L << BUCKET_SHIFT) - 1;
+
+	final String type;
+	final VersionClock versions;
+	final NavigableSet<IndexEntry> entries = new ConcurrentSkipListSet<IndexEntry>();
+	private final ConcurrentNavigableMap<Long, Bucket> buckets = new ConcurrentSkipListMap<Long, Bucket>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final ConcurrentLinkedQueue<IndexEntry> garbage = new ConcurrentLinkedQueue<IndexEntry>();
+	private final AtomicBoolean reclaiming = new AtomicBoolean();
+
+	/**
+	 * Creates a partition with a version clock of its own
+	 * @param type
+	 */
+	TimeIndex(String type) {
+		this(type, new VersionClock());
+	}
+
+	/**
+	 * Creates a partition versioned by the clock of its store
+	 * @param type
+	 * @param versions
+	 */
+	TimeIndex(String type, VersionClock versions) {
+		this.type = type;
+		this.versions = versions;
+	}
+
+	/**
+	 * Adds an event to this partition
+	 * @param event
+	 */
+	void add(Event event) {
+		IndexEntry entry = new IndexEntry(event.timestamp(), sequence.getAndIncrement(), event);
+		entries.add(entry);
+		entry.commitInsert(versions);
+		addToBucket(event.timestamp() >> BUCKET_SHIFT, 1);
+	}
+
+	/**
+	 * Adds a batch of events of this type, reserving their sequence numbers at once
+	 * @param sorted the events, in timestamp order
+	 */
+	void addAll(Event[] sorted) {
+		long sequence = this.sequence.getAndAdd(sorted.length);
+		for (Event event : sorted) {
+			IndexEntry entry = new IndexEntry(event.timestamp(), sequence++, event);
+			entries.add(entry);
+			entry.commitInsert(versions);
+		}
+		//The events are sorted, so each bucket is a run that is counted at once
+		for (int i = 0; i < sorted.length; ) {
+			long bucket = sorted[i].timestamp() >> BUCKET_SHIFT;
+			int run = i;
+			while (i < sorted.length && sorted[i].timestamp() >> BUCKET_SHIFT == bucket) {
+				i++;
+			}
+			addToBucket(bucket, i - run);
+		}
+	}
+
+	/**
+	 * Removes an entry from this partition, for every snapshot taken from now on. The entry is unlinked later,
+	 * by {@link #reclaim}.
+	 * @param entry
+	 * @return false if the entry was already removed
+	 */
+	boolean remove(IndexEntry entry) {
+		if (!entry.commitRemove(versions)) {
+			return false;
+		}
+		garbage.add(entry);
+		addToBucket(entry.timestamp >> BUCKET_SHIFT, -1);
+		return true;
+	}
+
+	/**
+	 * Removes, for every snapshot taken from now on, the entries with timestamp between startTime (inclusive)
+	 * and endTime (exclusive) that are visible to the latest version, then unlinks what no snapshot can see
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of entries removed
+	 */
+	long removeRange(long startTime, long endTime) {
+		long snapshot = versions.latest();
+		long removed = 0;
+		for (IndexEntry entry : range(startTime, endTime)) {
+			if (entry.visibleAt(versions, snapshot) && remove(entry)) {
+				removed++;
+			}
+		}
+		reclaim();
+		return removed;
+	}
+
+	/**
+	 * Unlinks the removed entries that no open snapshot can see, in the order they were removed, and drops
+	 * the counters of their buckets that reached zero. Only one thread reclaims at a time; the others return
+	 * right away, leaving the work to it.
+	 */
+	void reclaim() {
+		if (garbage.isEmpty() || !reclaiming.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			long horizon = versions.horizon();
+			IndexEntry entry;
+			boolean first = true;
+			long previous = 0;
+			while ((entry = garbage.peek()) != null && entry.removedBefore(horizon)) {
+				garbage.poll();
+				entries.remove(entry);
+				long bucket = entry.timestamp >> BUCKET_SHIFT;
+				if (first || bucket != previous) {
+					dropIfEmpty(bucket);
+					first = false;
+					previous = bucket;
+				}
+			}
+		} finally {
+			reclaiming.set(false);
+		}
+	}
+
+	/**
+	 * The counter of a bucket. {@link #dropIfEmpty} retires a counter before it drops it, and an update that
+	 * finds its counter retired takes itself back and waits for the outcome, so none is lost with the counter.
+	 */
+	private static final class Bucket {
+		final LongAdder count = new LongAdder();
+		volatile boolean retired;
+	}
+
+	private void addToBucket(long bucket, long delta) {
+		while (true) {
+			Bucket counter = buckets.get(bucket);
+			if (counter == null) {
+				counter = buckets.computeIfAbsent(bucket, b -> new Bucket());
+			}
+			counter.count.add(delta);
+			if (!counter.retired) {
+				return;
+			}
+			counter.count.add(-delta);
+			while (counter.retired && buckets.get(bucket) == counter) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Drops the counter of a bucket if it is zero. Called by the reclaiming thread only.
+	 */
+	private void dropIfEmpty(long bucket) {
+		Bucket counter = buckets.get(bucket);
+		if (counter == null || counter.count.sum() != 0) {
+			return;
+		}
+		counter.retired = true;
+		//An update between the two reads either shows here or sees the counter retired
+		if (counter.count.sum() == 0) {
+			buckets.remove(bucket, counter);
+		} else {
+			counter.retired = false;
+		}
+	}
+
+	/**
+	 * @return the number of bucket counters the partition keeps
+	 */
+	int bucketCount() {
+		return buckets.size();
+	}
+
+	/**
+	 * Returns a live view of the entries with timestamp between startTime (inclusive) and endTime (exclusive),
+	 * including those that are not visible to every snapshot
+	 * @param startTime
+	 * @param endTime
+	 * @return the view, which is empty if the range is empty or inverted
+	 */
+	NavigableSet<IndexEntry> range(long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return entries.subSet(IndexEntry.lowerBound(startTime), true, IndexEntry.lowerBound(startTime), false);
+		}
+		return entries.subSet(IndexEntry.lowerBound(startTime), true, IndexEntry.lowerBound(endTime), false);
+	}
+
+	/**
+	 * Counts the entries with timestamp between startTime (inclusive) and endTime (exclusive): whole buckets
+	 * are read from their counters, and only the entries of the buckets cut by the range are walked.
+	 * @param startTime
+	 * @param endTime
+	 * @return the number of entries
+	 */
+	long count(long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return 0;
+		}
+		long first = startTime >> BUCKET_SHIFT;
+		long last = (endTime - 1) >> BUCKET_SHIFT;
+		long snapshot = versions.latest();
+		if (first == last) {
+			return walk(startTime, endTime, snapshot);
+		}
+		long count = 0;
+		long firstWhole = first;
+		if ((startTime & BUCKET_MASK) != 0) {
+			firstWhole++;
+			count += walk(startTime, firstWhole << BUCKET_SHIFT, snapshot);
+		}
+		long lastWhole = last;
+		if ((endTime & BUCKET_MASK) != 0) {
+			lastWhole--;
+			count += walk(last << BUCKET_SHIFT, endTime, snapshot);
+		}
+		if (firstWhole <= lastWhole) {
+			for (Map.Entry<Long, Bucket> bucket : buckets.subMap(firstWhole, true, lastWhole, true).entrySet()) {
+				count += bucket.getValue().count.sum();
+			}
+		}
+		return count;
+	}
+
+	private long walk(long startTime, long endTime, long snapshot) {
+		long count = 0;
+		for (IndexEntry entry : range(startTime, endTime)) {
+			if (entry.visibleAt(versions, snapshot)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the smallest timestamp between startTime (inclusive) and endTime (exclusive), if any
+	 */
+	OptionalLong first(long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return OptionalLong.empty();
+		}
+		long snapshot = versions.latest();
+		for (IndexEntry entry : range(startTime, endTime)) {
+			if (entry.visibleAt(versions, snapshot)) {
+				return OptionalLong.of(entry.timestamp);
+			}
+		}
+		return OptionalLong.empty();
+	}
+
+	/**
+	 * @return the largest timestamp between startTime (inclusive) and endTime (exclusive), if any
+	 */
+	OptionalLong last(long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return OptionalLong.empty();
+		}
+		long snapshot = versions.latest();
+		for (IndexEntry entry : range(startTime, endTime).descendingSet()) {
+			if (entry.visibleAt(versions, snapshot)) {
+				return OptionalLong.of(entry.timestamp);
+			}
+		}
+		return OptionalLong.empty();
+	}
+}
@@ -0,0 +1,170 @@
+package net.intelie.challenges;
+
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over a query, split by halving its time range.
+ * <p>
+ * Each part opens its own query on the store the first time it is advanced, so the parts can be walked by
+ * different threads, and closes it once exhausted. The parts of a spliterator keep track of the queries they
+ * opened, so that {@link #closeParts} closes those a short-circuiting or failed stream left open.
+ * A part can only be split before it starts. Splitting by
+ * time rather than by position needs nothing from the store but ordered range queries; the size estimate
+ * is halved at each split, which is exact for evenly spread events.
+ */
+class TimeRangeSpliterator implements Spliterator<Event> {
+	private final EventStore store;
+	private final String type;
+	private long startTime;
+	private final long endTime;
+	private long estimate;
+	//The parts, this one and those split off from it, that opened a query
+	private final Queue<TimeRangeSpliterator> opened;
+	private EventIterator iterator;
+	private volatile boolean exhausted;
+
+	/**
+	 * Creates a spliterator over the events of a type between startTime (inclusive) and endTime (exclusive)
+	 * @param store
+	 * @param type
+	 * @param startTime
+	 * @param endTime
+	 * @param estimate the number of events in the range, or Long.MAX_VALUE if unknown
+	 */
+	TimeRangeSpliterator(EventStore store, String type, long startTime, long endTime, long estimate) {
+		this(store, type, startTime, endTime, estimate, new ConcurrentLinkedQueue<TimeRangeSpliterator>());
+	}
+
+	private TimeRangeSpliterator(EventStore store, String type, long startTime, long endTime, long estimate, Queue<TimeRangeSpliterator> opened) {
+		this.store = store;
+		this.type = type;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.estimate = estimate;
+		this.opened = opened;
+		this.exhausted = startTime >= endTime;
+	}
+
+	/**
+	 * Creates a spliterator whose range is narrowed down to the events actually stored, so that splits fall among them
+	 */
+	static TimeRangeSpliterator of(EventStore store, String type, long startTime, long endTime) {
+		OptionalLong first = store.firstTimestamp(type, startTime, endTime);
+		if (!first.isPresent()) {
+			return new TimeRangeSpliterator(store, type, startTime, startTime, 0);
+		}
+		long last = store.lastTimestamp(type, startTime, endTime).orElse(first.getAsLong());
+		return new TimeRangeSpliterator(store, type, first.getAsLong(), last + 1, store.count(type, startTime, endTime));
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Event> action) {
+		if (exhausted) {
+			return false;
+		}
+		if (iterator == null) {
+			open();
+		}
+		if (iterator.moveNext()) {
+			action.accept(iterator.current());
+			return true;
+		}
+		finish();
+		return false;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super Event> action) {
+		if (exhausted) {
+			return;
+		}
+		if (iterator == null) {
+			open();
+		}
+		try {
+			while (iterator.moveNext()) {
+				action.accept(iterator.current());
+			}
+		} finally {
+			finish();
+		}
+	}
+
+	private void open() {
+		iterator = store.query(type, startTime, endTime);
+		opened.add(this);
+	}
+
+	/**
+	 * Closes the query of the part, once
+	 */
+	private synchronized void finish() {
+		exhausted = true;
+		EventIterator current = iterator;
+		if (current == null || !opened.remove(this)) {
+			return;
+		}
+		try {
+			current.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Closes the queries that the parts of the spliterator opened and did not exhaust, as the close handler
+	 * of its stream. A part closed this way ends.
+	 */
+	void closeParts() {
+		RuntimeException failure = null;
+		TimeRangeSpliterator part;
+		while ((part = opened.peek()) != null) {
+			try {
+				part.finish();
+			} catch (RuntimeException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Splits off the first half of the remaining time range, unless the part already started or is a single timestamp wide
+	 */
+	@Override
+	public Spliterator<Event> trySplit() {
+		if (exhausted || iterator != null || endTime - startTime < 2 || estimate < 2) {
+			return null;
+		}
+		//The width may only fit in an unsigned long
+		long middle = startTime + ((endTime - startTime) >>> 1);
+		TimeRangeSpliterator prefix = new TimeRangeSpliterator(store, type, startTime, middle, estimate == Long.MAX_VALUE ? estimate : estimate / 2, opened);
+		if (estimate != Long.MAX_VALUE) {
+			estimate -= estimate / 2;
+		}
+		startTime = middle;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return exhausted ? 0 : estimate;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+}
@@ -0,0 +1,1280 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The timestamps of every event of one type, kept sorted in primitive {@code long[]} chunks.
+ * <p>
+ * Only timestamps are stored: the type is implied by the column, so an event costs 8 bytes plus the free
+ * space of its chunk. Chunks hold up to {@link #CHUNK_CAPACITY} timestamps and are listed, in time order,
+ * in the {@link #chunks} array.
+ * <p>
+ * Events with a {@link Payload} also keep its encoded bytes in an arena of their chunk: a {@code byte[]}
+ * slab holding the payloads of the chunk back to back, each prefixed by the index of its schema in
+ * {@link #schemas}, with an {@code int[]} of the end of each record beside the timestamps. Chunks without
+ * payloads have neither, so they cost the same as before payloads existed, and scans that only read
+ * timestamps never touch the slabs. Payloads leave with their chunk, so evicting or removing events frees
+ * their payloads without any bookkeeping.
+ * <p>
+ * A column may also keep {@link FieldIndex}es on payload fields, listed in {@link #indexes}. Writers update
+ * them under the column lock along with the chunks, so that queries can look up the events with a given
+ * value instead of testing every payload.
+ * <p>
+ * Readers never lock, except to merge a reorder buffer (see below). They read the {@link #chunks} array
+ * once and walk it, relying on two rules:
+ * <ul>
+ * <li>A published chunk never changes the slots below its {@link Chunk#size}. The only in-place change is
+ * appending past the end of the last chunk, which becomes visible through the volatile size.</li>
+ * <li>Any other change (an out-of-order insert, a removal) builds a new chunk and publishes a new
+ * {@link #chunks} array, leaving the old chunk untouched for readers that still hold it.</li>
+ * </ul>
+ * Writers of the same column are serialized by a lock, so that they do not overwrite each other's copies.
+ * Columns of different types never share a lock. In-order inserts, the common case for live feeds, are
+ * O(1) appends; out-of-order inserts and removals copy one chunk and the chunk array.
+ * <p>
+ * A column may have a reorder buffer, so that stragglers do not each pay for those copies. An event older
+ * than the last one of the column is then kept, sorted, in a small buffer that only writers see, and the
+ * whole buffer is merged into the chunks at once, copying each chunk it reaches once: when it is full, when
+ * its first event has waited for the merge interval, before any other change, and before a reader reads
+ * {@link #chunks()}. Readers that find events buffered take the lock to merge them, so that they see every
+ * event inserted before they started.
+ */
+final class TimestampColumn {
+	static final int CHUNK_CAPACITY = 1024;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int INITIAL_SLAB = 256;
+	private static final Chunk[] EMPTY = new Chunk[0];
+	private static final PayloadSchema[] NO_SCHEMAS = new PayloadSchema[0];
+	private static final FieldIndex[] NO_INDEXES = new FieldIndex[0];
+	static final int DEFAULT_REORDER_CAPACITY = 256;
+	static final long DEFAULT_MERGE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * A sorted run of timestamps, with the payloads of its events if any has one. Slots below
+	 * {@link #size} are never modified once published, nor are the bytes of their payloads. Slots above it
+	 * only take the appends of the last chunk of the column, which must have been the last chunk of every
+	 * published array holding it.
+	 */
+	static final class Chunk {
+		final long[] timestamps;
+		final byte[] payloads;
+		final int[] payloadEnds;
+		volatile int size;
+
+		Chunk(long[] timestamps, int size) {
+			this(timestamps, null, null, size);
+		}
+
+		/**
+		 * @param timestamps
+		 * @param payloads    the payload records of the events, back to back, or null if none has one
+		 * @param payloadEnds where the record of each event ends in payloads, or null with it
+		 * @param size
+		 */
+		Chunk(long[] timestamps, byte[] payloads, int[] payloadEnds, int size) {
+			this.timestamps = timestamps;
+			this.payloads = payloads;
+			this.payloadEnds = payloadEnds;
+			this.size = size;
+		}
+
+		long first() {
+			return timestamps[0];
+		}
+
+		long last() {
+			return timestamps[size - 1];
+		}
+
+		/**
+		 * @return where the payload record of an event starts; it ends at the start of the next one
+		 */
+		int payloadStart(int position) {
+			return position == 0 ? 0 : payloadEnds[position - 1];
+		}
+	}
+
+	final String type;
+	final ReentrantLock writeLock = new ReentrantLock();
+	volatile Chunk[] chunks = EMPTY;
+	/**
+	 * The schemas of the payloads of the column, which only grows. Records point to it by index, and it is
+	 * published before the chunks holding them, so a reader that reads it after a chunk finds them all.
+	 */
+	volatile PayloadSchema[] schemas = NO_SCHEMAS;
+	/**
+	 * The indexes on payload fields of the column, which only grows
+	 */
+	volatile FieldIndex[] indexes = NO_INDEXES;
+	private final int reorderCapacity;
+	private final long mergeIntervalNanos;
+	//The reorder buffer, guarded by the lock; the count is read by readers
+	private long[] lateTimestamps;
+	private Payload[] latePayloads;
+	private volatile int lateCount;
+	private long lateSince;
+
+	/**
+	 * Creates a column without reorder buffer
+	 * @param type
+	 */
+	TimestampColumn(String type) {
+		this(type, 0, 0);
+	}
+
+	/**
+	 * @param type
+	 * @param reorderCapacity    how many late events are buffered before they are merged, or 0 to insert
+	 *                           them right away
+	 * @param mergeIntervalNanos how long the first buffered event waits for a merge, at most, if the column
+	 *                           keeps being written to
+	 */
+	TimestampColumn(String type, int reorderCapacity, long mergeIntervalNanos) {
+		this.type = type;
+		this.reorderCapacity = reorderCapacity;
+		this.mergeIntervalNanos = mergeIntervalNanos;
+	}
+
+	/**
+	 * Returns the chunks of the column, merging the late events buffered so far first, so that they hold
+	 * every event inserted before the call
+	 * @return the chunks, which readers walk without locking
+	 */
+	Chunk[] chunks() {
+		if (lateCount > 0) {
+			lock();
+			try {
+				mergeLate();
+			} finally {
+				writeLock.unlock();
+			}
+		}
+		return chunks;
+	}
+
+	private void lock() {
+		if (!writeLock.tryLock()) {
+			ContentionCounters.COLUMN_LOCK_WAITS.increment();
+			writeLock.lock();
+		}
+	}
+
+	/**
+	 * Adds a timestamp, after any equal timestamps already in the column
+	 * @param timestamp
+	 */
+	void add(long timestamp) {
+		add(timestamp, Payload.EMPTY);
+	}
+
+	/**
+	 * Adds an event, after any events with an equal timestamp already in the column
+	 * @param timestamp
+	 * @param payload   the payload of the event, or {@link Payload#EMPTY}
+	 */
+	void add(long timestamp, Payload payload) {
+		lock();
+		try {
+			Chunk[] current = chunks;
+			if (reorderCapacity > 0 && current.length > 0 && timestamp < current[current.length - 1].last()) {
+				buffer(timestamp, payload);
+				return;
+			}
+			int schema = schemaIndex(payload);
+			indexAdd(timestamp, payload);
+			if (current.length == 0) {
+				ChunkBuilder builder = new ChunkBuilder(INITIAL_CAPACITY);
+				builder.add(timestamp, schema, payload);
+				chunks = new Chunk[] {builder.build()};
+				return;
+			}
+			Chunk tail = current[current.length - 1];
+			int size = tail.size;
+			if (timestamp >= tail.timestamps[size - 1] && size < tail.timestamps.length && appendInPlace(tail, timestamp, schema, payload)) {
+				//Fast path: in-order append in the free space of the last chunk
+				return;
+			} else if (timestamp >= tail.timestamps[size - 1] && size == CHUNK_CAPACITY) {
+				ChunkBuilder builder = new ChunkBuilder(CHUNK_CAPACITY);
+				builder.add(timestamp, schema, payload);
+				chunks = replace(current, current.length, 0, builder.build());
+			} else {
+				int index = chunkFor(current, timestamp);
+				Chunk chunk = current[index];
+				int position = upperBound(chunk.timestamps, chunk.size, timestamp);
+				chunks = replace(current, index, 1, inserted(chunk, position, timestamp, schema, payload));
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Puts a late event in the reorder buffer, after the buffered events with an equal timestamp, and merges
+	 * the buffer if it is full or has waited long enough. Called under the write lock.
+	 */
+	private void buffer(long timestamp, Payload payload) {
+		if (lateTimestamps == null) {
+			lateTimestamps = new long[reorderCapacity];
+			latePayloads = new Payload[reorderCapacity];
+		}
+		int count = lateCount;
+		if (count == 0) {
+			lateSince = System.nanoTime();
+		}
+		int position = upperBound(lateTimestamps, count, timestamp);
+		System.arraycopy(lateTimestamps, position, lateTimestamps, position + 1, count - position);
+		System.arraycopy(latePayloads, position, latePayloads, position + 1, count - position);
+		lateTimestamps[position] = timestamp;
+		latePayloads[position] = payload;
+		lateCount = count + 1;
+		if (count + 1 == reorderCapacity || System.nanoTime() - lateSince >= mergeIntervalNanos) {
+			mergeLate();
+		}
+	}
+
+	/**
+	 * Merges the reorder buffer into the chunks, if it holds any event. Called under the write lock.
+	 */
+	private void mergeLate() {
+		int count = lateCount;
+		if (count == 0) {
+			return;
+		}
+		long[] sorted = Arrays.copyOf(lateTimestamps, count);
+		Payload[] payloads = null;
+		int[] schemaIndexes = null;
+		for (int i = 0; i < count; i++) {
+			if (latePayloads[i] != Payload.EMPTY) {
+				payloads = Arrays.copyOf(latePayloads, count);
+				schemaIndexes = schemaIndexes(sorted, payloads);
+				break;
+			}
+		}
+		Arrays.fill(latePayloads, 0, count, null);
+		lateCount = 0;
+		chunks = mergeInto(chunks, sorted, payloads, schemaIndexes);
+	}
+
+	/**
+	 * Merges a sorted batch into the chunks it falls in, each event going to the last chunk starting at or
+	 * before it. Each chunk receiving events is copied once, and split if it overflows; the others are
+	 * shared with the array given.
+	 * @return the new chunk array
+	 */
+	private static Chunk[] mergeInto(Chunk[] current, long[] sorted, Payload[] payloads, int[] schemaIndexes) {
+		//Each event adds at most one chunk
+		Chunk[] result = new Chunk[current.length + sorted.length];
+		int size = 0;
+		int copied = 0;
+		int next = 0;
+		while (next < sorted.length) {
+			int index = chunkFor(current, sorted[next]);
+			int end = next + 1;
+			while (end < sorted.length && (index + 1 == current.length || sorted[end] < current[index + 1].first())) {
+				end++;
+			}
+			System.arraycopy(current, copied, result, size, index - copied);
+			size += index - copied;
+			for (Chunk chunk : merged(current[index], sorted, payloads, schemaIndexes, next, end)) {
+				result[size++] = chunk;
+			}
+			copied = index + 1;
+			next = end;
+		}
+		System.arraycopy(current, copied, result, size, current.length - copied);
+		size += current.length - copied;
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Copies a chunk with the events of a sorted batch from one index (inclusive) to another (exclusive)
+	 * merged in, after the events of the chunk on ties, splitting it evenly if they do not fit
+	 * @return the chunks replacing the original
+	 */
+	private static Chunk[] merged(Chunk chunk, long[] sorted, Payload[] payloads, int[] schemaIndexes, int from, int to) {
+		int size = chunk.size;
+		int total = size + to - from;
+		Chunk[] pieces = new Chunk[(total + CHUNK_CAPACITY - 1) / CHUNK_CAPACITY];
+		int position = 0;
+		int next = from;
+		int done = 0;
+		for (int i = 0; i < pieces.length; i++) {
+			int count = (int) ((long) total * (i + 1) / pieces.length) - done;
+			ChunkBuilder builder = new ChunkBuilder(pieces.length > 1 ? CHUNK_CAPACITY
+					: total <= chunk.timestamps.length ? chunk.timestamps.length : Math.min(CHUNK_CAPACITY, Math.max(total, size * 2)));
+			while (builder.size < count) {
+				if (next < to && (position == size || sorted[next] < chunk.timestamps[position])) {
+					builder.add(sorted[next], payloads == null ? -1 : schemaIndexes[next], payloads == null ? Payload.EMPTY : payloads[next]);
+					next++;
+				} else {
+					//The events of the chunk up to the next one of the batch, which goes after those equal to it
+					int run = next == to ? size : upperBound(chunk.timestamps, position, size, sorted[next]);
+					run = Math.min(run, position + count - builder.size);
+					builder.copy(chunk, position, run);
+					position = run;
+				}
+			}
+			done += count;
+			pieces[i] = builder.build();
+		}
+		return pieces;
+	}
+
+	/**
+	 * Appends an event at the end of the last chunk, which has a free timestamp slot, if its slab also has
+	 * room for the payload. The slots are written before the size, which publishes them.
+	 * @return false if the slab is missing or full, so the chunk has to be copied
+	 */
+	private static boolean appendInPlace(Chunk tail, long timestamp, int schema, Payload payload) {
+		int size = tail.size;
+		if (tail.payloads != null) {
+			int start = tail.payloadStart(size);
+			if (schema >= 0 && start + recordLength(schema, payload) > tail.payloads.length) {
+				return false;
+			}
+			tail.payloadEnds[size] = schema < 0 ? start : writeRecord(tail.payloads, start, schema, payload);
+		} else if (schema >= 0) {
+			return false;
+		}
+		tail.timestamps[size] = timestamp;
+		tail.size = size + 1;
+		return true;
+	}
+
+	/**
+	 * Finds the index of the schema of a payload, adding the schema to the column on its first use.
+	 * Called under the write lock.
+	 * @return the index, or -1 for {@link Payload#EMPTY}
+	 */
+	private int schemaIndex(Payload payload) {
+		if (payload == Payload.EMPTY) {
+			return -1;
+		}
+		PayloadSchema[] current = schemas;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == payload.schema || current[i].equals(payload.schema)) {
+				return i;
+			}
+		}
+		PayloadSchema[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = payload.schema;
+		schemas = updated;
+		return current.length;
+	}
+
+	/**
+	 * Creates an index on a field of the payloads of the column, indexing the events already stored, or
+	 * finds the one already created
+	 * @param field
+	 * @param fieldType
+	 * @return the index
+	 */
+	FieldIndex index(String field, PayloadSchema.FieldType fieldType) {
+		lock();
+		try {
+			FieldIndex index = indexFor(field, fieldType);
+			if (index != null) {
+				return index;
+			}
+			mergeLate();
+			index = new FieldIndex(type, field, fieldType);
+			PayloadSchema[] currentSchemas = schemas;
+			for (Chunk chunk : chunks) {
+				for (int position = 0; chunk.payloads != null && position < chunk.size; position++) {
+					int start = chunk.payloadStart(position);
+					int end = chunk.payloadEnds[position];
+					if (start < end) {
+						int offset = recordPayload(chunk.payloads, start);
+						index.add(chunk.timestamps[position], currentSchemas[recordSchema(chunk.payloads, start)], chunk.payloads, offset, end - offset);
+					}
+				}
+			}
+			FieldIndex[] current = indexes;
+			FieldIndex[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = index;
+			indexes = updated;
+			return index;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the index on a field of the given type, or null if there is none
+	 */
+	FieldIndex indexFor(String field, PayloadSchema.FieldType fieldType) {
+		for (FieldIndex index : indexes) {
+			if (index.field.equals(field) && index.fieldType == fieldType) {
+				return index;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds an event to the indexes of the column. Called under the write lock.
+	 */
+	private void indexAdd(long timestamp, Payload payload) {
+		if (payload != Payload.EMPTY) {
+			for (FieldIndex index : indexes) {
+				index.add(timestamp, payload.schema, payload.data, payload.offset, payload.length);
+			}
+		}
+	}
+
+	/**
+	 * Removes an event of a chunk from the indexes of the column. Called under the write lock.
+	 */
+	private void indexRemove(Chunk chunk, int position) {
+		FieldIndex[] current = indexes;
+		if (current.length == 0 || chunk.payloads == null) {
+			return;
+		}
+		int start = chunk.payloadStart(position);
+		int end = chunk.payloadEnds[position];
+		if (start == end) {
+			return;
+		}
+		PayloadSchema schema = schemas[recordSchema(chunk.payloads, start)];
+		int offset = recordPayload(chunk.payloads, start);
+		for (FieldIndex index : current) {
+			index.remove(chunk.timestamps[position], schema, chunk.payloads, offset, end - offset);
+		}
+	}
+
+	private static int recordLength(int schema, Payload payload) {
+		return (schema < 0x80 ? 1 : schema < 0x4000 ? 2 : 5) + payload.length;
+	}
+
+	private static int writeRecord(byte[] target, int position, int schema, Payload payload) {
+		position = Payload.writeVarint(target, position, schema);
+		System.arraycopy(payload.data, payload.offset, target, position, payload.length);
+		return position + payload.length;
+	}
+
+	/**
+	 * Reads the payload of an event of a chunk, as a view over the slab of the chunk
+	 * @param chunk
+	 * @param position
+	 * @param schemas  the schemas of the column, read after the chunk
+	 * @return the payload, or {@link Payload#EMPTY}
+	 */
+	static Payload payload(Chunk chunk, int position, PayloadSchema[] schemas) {
+		if (chunk.payloads == null) {
+			return Payload.EMPTY;
+		}
+		int start = chunk.payloadStart(position);
+		int end = chunk.payloadEnds[position];
+		if (start == end) {
+			return Payload.EMPTY;
+		}
+		int offset = recordPayload(chunk.payloads, start);
+		return new Payload(schemas[recordSchema(chunk.payloads, start)], chunk.payloads, offset, end - offset);
+	}
+
+	/**
+	 * @return the index of the schema of the non-empty payload record starting at a position of a slab
+	 */
+	static int recordSchema(byte[] slab, int start) {
+		int schema = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = slab[start++];
+			schema |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return schema;
+	}
+
+	/**
+	 * @return where the payload of the non-empty record starting at a position of a slab starts
+	 */
+	static int recordPayload(byte[] slab, int start) {
+		while (slab[start] < 0) {
+			start++;
+		}
+		return start + 1;
+	}
+
+	/**
+	 * @return true if an event of a chunk has the given payload
+	 */
+	private boolean hasPayload(Chunk chunk, int position, Payload payload) {
+		Payload stored = payload(chunk, position, schemas);
+		return stored == payload || (stored != Payload.EMPTY && payload != Payload.EMPTY && stored.equals(payload));
+	}
+
+	/**
+	 * Adds a batch of timestamps with a single lock acquisition.
+	 * <p>
+	 * A batch that starts at or after the end of the column is appended: in place into the free space of
+	 * the last chunk, like {@link #add}, and then into new chunks, published at once. Otherwise the chunks
+	 * from the first one the batch reaches to the end of the column are merged with the batch into new, full
+	 * chunks, so a batch reaching far into the past costs as much as rewriting everything after it.
+	 * @param sorted the timestamps to add, in ascending order
+	 */
+	void addAll(long[] sorted) {
+		addAll(sorted, null);
+	}
+
+	/**
+	 * Adds a batch of events with a single lock acquisition, as {@link #addAll(long[])} does.
+	 * @param sorted   the timestamps to add, in ascending order
+	 * @param payloads the payloads of the events, in the same order, or null if none has one
+	 */
+	void addAll(long[] sorted, Payload[] payloads) {
+		if (sorted.length == 0) {
+			return;
+		}
+		lock();
+		try {
+			int[] schemaIndexes = payloads == null ? null : schemaIndexes(sorted, payloads);
+			Chunk[] current = chunks;
+			if (current.length > 0 && sorted[0] >= current[current.length - 1].last()) {
+				append(current, sorted, payloads, schemaIndexes);
+				return;
+			}
+			//Buffered events go first, since they were inserted before the batch
+			mergeLate();
+			merge(chunks, sorted, payloads, schemaIndexes);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Finds the schema index of each payload of a batch, and adds its events to the indexes. Called under
+	 * the write lock.
+	 */
+	private int[] schemaIndexes(long[] sorted, Payload[] payloads) {
+		int[] schemaIndexes = new int[payloads.length];
+		for (int i = 0; i < payloads.length; i++) {
+			schemaIndexes[i] = schemaIndex(payloads[i]);
+			indexAdd(sorted[i], payloads[i]);
+		}
+		return schemaIndexes;
+	}
+
+	/**
+	 * Merges a sorted batch with the chunks from the first one it reaches to the end of the column, into new,
+	 * full chunks. Called under the write lock.
+	 */
+	private void merge(Chunk[] current, long[] sorted, Payload[] payloads, int[] schemaIndexes) {
+		int index = current.length == 0 ? 0 : chunkFor(current, sorted[0]);
+		long total = sorted.length;
+		for (int i = index; i < current.length; i++) {
+			total += current[i].size;
+		}
+		Chunk[] merged = new Chunk[(int) ((total + CHUNK_CAPACITY - 1) / CHUNK_CAPACITY)];
+		int chunk = index;
+		int position = 0;
+		int next = 0;
+		for (int m = 0; m < merged.length; m++) {
+			ChunkBuilder builder = new ChunkBuilder(CHUNK_CAPACITY);
+			while (builder.size < CHUNK_CAPACITY) {
+				while (chunk < current.length && position == current[chunk].size) {
+					chunk++;
+					position = 0;
+				}
+				boolean existing = chunk < current.length;
+				if (!existing && next == sorted.length) {
+					break;
+				}
+				//Existing timestamps go first on ties, as if the batch had been inserted one by one
+				if (existing && (next == sorted.length || current[chunk].timestamps[position] <= sorted[next])) {
+					builder.copy(current[chunk], position, ++position);
+				} else if (payloads == null) {
+					builder.add(sorted[next++], -1, Payload.EMPTY);
+				} else {
+					builder.add(sorted[next], schemaIndexes[next], payloads[next++]);
+				}
+			}
+			merged[m] = builder.build();
+		}
+		chunks = replace(current, index, current.length - index, merged);
+	}
+
+	private void append(Chunk[] current, long[] sorted, Payload[] payloads, int[] schemaIndexes) {
+		Chunk tail = current[current.length - 1];
+		int size = tail.size;
+		int next = Math.min(sorted.length, tail.timestamps.length - size);
+		if (payloads == null && tail.payloads == null) {
+			System.arraycopy(sorted, 0, tail.timestamps, size, next);
+			tail.size = size + next;
+		} else {
+			//One at a time, until the slab of the chunk is full
+			int inPlace = 0;
+			while (inPlace < next && appendInPlace(tail, sorted[inPlace], payloads == null ? -1 : schemaIndexes[inPlace],
+					payloads == null ? Payload.EMPTY : payloads[inPlace])) {
+				inPlace++;
+			}
+			next = inPlace;
+		}
+		if (next == sorted.length) {
+			return;
+		}
+		Chunk[] appended = new Chunk[(sorted.length - next + CHUNK_CAPACITY - 1) / CHUNK_CAPACITY];
+		for (int i = 0; i < appended.length; i++) {
+			int count = Math.min(CHUNK_CAPACITY, sorted.length - next);
+			ChunkBuilder builder = new ChunkBuilder(CHUNK_CAPACITY);
+			if (payloads == null) {
+				System.arraycopy(sorted, next, builder.timestamps, 0, count);
+				builder.size = count;
+				next += count;
+			} else {
+				for (int end = next + count; next < end; next++) {
+					builder.add(sorted[next], schemaIndexes[next], payloads[next]);
+				}
+			}
+			appended[i] = builder.build();
+		}
+		chunks = replace(current, current.length, 0, appended);
+	}
+
+	/**
+	 * Removes one occurrence of a timestamp, whatever the payload of its event.
+	 * @param timestamp
+	 * @return false if there was no such timestamp
+	 */
+	boolean remove(long timestamp) {
+		lock();
+		try {
+			mergeLate();
+			Chunk[] current = chunks;
+			if (current.length == 0) {
+				return false;
+			}
+			int index = chunkFor(current, timestamp);
+			Chunk chunk = current[index];
+			int size = chunk.size;
+			int position = lowerBound(chunk.timestamps, size, timestamp);
+			if (position == size || chunk.timestamps[position] != timestamp) {
+				return false;
+			}
+			indexRemove(chunk, position);
+			if (size == 1 && index > 0 && index == current.length - 1) {
+				chunks = replace(current, index - 1, 2, copied(current[index - 1]));
+			} else if (size == 1) {
+				chunks = replace(current, index, 1);
+			} else {
+				ChunkBuilder builder = new ChunkBuilder(chunk.timestamps.length);
+				builder.copy(chunk, 0, position);
+				builder.copy(chunk, position + 1, size);
+				chunks = replace(current, index, 1, builder.build());
+			}
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes one occurrence of each of a sorted batch of timestamps. Every chunk holding some of them is
+	 * copied once, and the chunk array is published once, however many timestamps the batch holds.
+	 * @param sorted
+	 * @param count  how many timestamps of the array to remove
+	 * @return how many timestamps were found and removed
+	 */
+	int removeSorted(long[] sorted, int count) {
+		return removeSorted(sorted, null, count);
+	}
+
+	/**
+	 * Removes one occurrence of each of a sorted batch of events, as {@link #removeSorted(long[], int)} does.
+	 * An event is only removed by an entry of the batch with the same timestamp and an equal payload.
+	 * @param sorted   the timestamps of the events
+	 * @param payloads the payloads of the events, in the same order, or null if none has one
+	 * @param count    how many events of the arrays to remove
+	 * @return how many events were found and removed
+	 */
+	int removeSorted(long[] sorted, Payload[] payloads, int count) {
+		if (count == 0) {
+			return 0;
+		}
+		lock();
+		try {
+			mergeLate();
+			Chunk[] current = chunks;
+			Chunk[] updated = null;
+			//With payloads, any entry with the right timestamp may match, so the ones used are flagged
+			boolean[] matched = payloads == null ? null : new boolean[count];
+			int removed = 0;
+			int next = 0;
+			int from = 0;
+			while (next < count) {
+				int index = Math.max(from, firstChunkReaching(current, sorted[next]));
+				if (index == current.length) {
+					break;
+				}
+				Chunk chunk = current[index];
+				int size = chunk.size;
+				ChunkBuilder builder = new ChunkBuilder(chunk.timestamps.length);
+				for (int position = 0; position < size; position++) {
+					long timestamp = chunk.timestamps[position];
+					//Timestamps that are not in the column are skipped
+					while (next < count && (sorted[next] < timestamp || (matched != null && matched[next]))) {
+						next++;
+					}
+					int match = match(chunk, position, sorted, payloads, matched, next, count);
+					if (match < 0) {
+						builder.copy(chunk, position, position + 1);
+					} else {
+						indexRemove(chunk, position);
+						if (matched == null) {
+							next++;
+						} else {
+							matched[match] = true;
+						}
+					}
+				}
+				//What is left is past this chunk, or repeats its last timestamp, which the next chunk may also hold
+				if (builder.size < size) {
+					if (updated == null) {
+						updated = current.clone();
+					}
+					updated[index] = builder.size == 0 ? null : builder.build();
+					removed += size - builder.size;
+				}
+				from = index + 1;
+			}
+			if (updated != null) {
+				int tail = updated.length - 1;
+				while (tail >= 0 && updated[tail] == null) {
+					tail--;
+				}
+				if (tail >= 0 && tail < updated.length - 1 && updated[tail] == current[tail]) {
+					updated[tail] = copied(current[tail]);
+				}
+				chunks = withoutNulls(updated);
+			}
+			return removed;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Finds the first entry of a batch of removals, from next on, that matches an event of a chunk
+	 * @return the index of the entry, or -1 if there is none
+	 */
+	private int match(Chunk chunk, int position, long[] sorted, Payload[] payloads, boolean[] matched, int next, int count) {
+		long timestamp = chunk.timestamps[position];
+		for (int i = next; i < count && sorted[i] == timestamp; i++) {
+			if (matched != null && matched[i]) {
+				continue;
+			}
+			Payload payload = payloads == null ? Payload.EMPTY : payloads[i];
+			if (chunk.payloads == null ? payload == Payload.EMPTY : hasPayload(chunk, position, payload)) {
+				return i;
+			}
+			if (payloads == null) {
+				//Every entry has the same empty payload
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Copies a chunk that becomes the tail of the column by the removal of the chunks after it. Older chunk
+	 * arrays, which readers may still walk, hold it before their tail, so the free slots it may have (as the
+	 * lower half of a split, for instance) must not take the in-place appends of the tail.
+	 */
+	private static Chunk copied(Chunk chunk) {
+		ChunkBuilder builder = new ChunkBuilder(chunk.timestamps.length);
+		builder.copy(chunk, 0, chunk.size);
+		return builder.build();
+	}
+
+	private static Chunk[] withoutNulls(Chunk[] chunks) {
+		int count = 0;
+		for (Chunk chunk : chunks) {
+			if (chunk != null) {
+				chunks[count++] = chunk;
+			}
+		}
+		return count == chunks.length ? chunks : Arrays.copyOf(chunks, count);
+	}
+
+	/**
+	 * Removes every timestamp between startTime (inclusive) and endTime (exclusive). Chunks inside the range
+	 * are unlinked whole and only the chunks at its ends are copied, so this costs O(log n) plus one step
+	 * per chunk of the range, however many timestamps are removed.
+	 * @param startTime
+	 * @param endTime
+	 * @return how many timestamps were removed
+	 */
+	long removeRange(long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return 0;
+		}
+		lock();
+		try {
+			mergeLate();
+			Chunk[] current = chunks;
+			int first = firstChunkReaching(current, startTime);
+			if (first == current.length || current[first].first() >= endTime) {
+				return 0;
+			}
+			//The last chunk starting inside the range
+			int last = chunkFor(current, endTime - 1);
+			Chunk head = current[first];
+			Chunk tail = current[last];
+			int from = lowerBound(head.timestamps, head.size, startTime);
+			int to = lowerBound(tail.timestamps, tail.size, endTime);
+			long removed = 0;
+			for (int i = first; i <= last; i++) {
+				removed += current[i].size;
+			}
+			removed -= from + (tail.size - to);
+			Chunk[] kept = new Chunk[2];
+			int count = 0;
+			if (first == last) {
+				if (from + tail.size - to > 0) {
+					ChunkBuilder builder = new ChunkBuilder(head.timestamps.length);
+					builder.copy(head, 0, from);
+					builder.copy(head, to, head.size);
+					kept[count++] = builder.build();
+				}
+			} else {
+				if (from > 0) {
+					ChunkBuilder builder = new ChunkBuilder(head.timestamps.length);
+					builder.copy(head, 0, from);
+					kept[count++] = builder.build();
+				}
+				if (to < tail.size) {
+					ChunkBuilder builder = new ChunkBuilder(tail.timestamps.length);
+					builder.copy(tail, to, tail.size);
+					kept[count++] = builder.build();
+				}
+			}
+			if (count == 0 && first > 0 && last == current.length - 1) {
+				chunks = replace(current, first - 1, last - first + 2, copied(current[first - 1]));
+			} else {
+				chunks = replace(current, first, last - first + 1, Arrays.copyOf(kept, count));
+			}
+			for (FieldIndex index : indexes) {
+				index.removeRange(startTime, endTime);
+			}
+			return removed;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Drops every timestamp of the column
+	 */
+	void clear() {
+		lock();
+		try {
+			lateTimestamps = null;
+			latePayloads = null;
+			lateCount = 0;
+			chunks = EMPTY;
+			for (FieldIndex index : indexes) {
+				index.clear();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Drops whole chunks from the start of the column: those holding only timestamps before cutoff, and then
+	 * as many more as can go while leaving at least maxSize timestamps. The chunk array is copied once, so
+	 * this costs O(log n) plus the number of chunks, however many timestamps are dropped.
+	 * @param cutoff
+	 * @param maxSize
+	 * @return how many timestamps were dropped
+	 */
+	long truncate(long cutoff, long maxSize) {
+		lock();
+		try {
+			mergeLate();
+			Chunk[] current = chunks;
+			int count = firstChunkReaching(current, cutoff);
+			long dropped = 0;
+			long remaining = 0;
+			for (int i = 0; i < current.length; i++) {
+				if (i < count) {
+					dropped += current[i].size;
+				} else {
+					remaining += current[i].size;
+				}
+			}
+			while (count < current.length && remaining - current[count].size >= maxSize) {
+				dropped += current[count].size;
+				remaining -= current[count].size;
+				count++;
+			}
+			if (count > 0) {
+				chunks = replace(current, 0, count);
+				truncateIndexes(current, count);
+			}
+			return dropped;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Drops the first count chunks of a chunk array from the indexes. Called under the write lock.
+	 */
+	private void truncateIndexes(Chunk[] dropped, int count) {
+		if (indexes.length == 0) {
+			return;
+		} else if (count == dropped.length) {
+			for (FieldIndex index : indexes) {
+				index.clear();
+			}
+			return;
+		}
+		long first = dropped[count].first();
+		for (FieldIndex index : indexes) {
+			index.removeRange(Long.MIN_VALUE, first);
+		}
+		//Dropped events with the first timestamp left are told apart from the remaining ones by their payloads
+		for (int c = count - 1; c >= 0 && dropped[c].last() == first; c--) {
+			for (int position = dropped[c].size - 1; position >= 0 && dropped[c].timestamps[position] == first; position--) {
+				indexRemove(dropped[c], position);
+			}
+		}
+	}
+
+	/**
+	 * @return how many timestamps the column holds
+	 */
+	long size() {
+		long size = 0;
+		for (Chunk chunk : chunks()) {
+			size += chunk.size;
+		}
+		return size;
+	}
+
+	/**
+	 * @return an estimate of the heap held by the column: the chunk array, and each chunk with its
+	 * timestamps and payloads, including the free space at their ends, its reorder buffer and its indexes
+	 */
+	long usedBytes() {
+		Chunk[] current = chunks;
+		//Array headers take 16 bytes, a chunk object 32 and a reference 4, with compressed oops
+		long bytes = 16 + 4L * current.length;
+		for (Chunk chunk : current) {
+			bytes += 32 + 16 + 8L * chunk.timestamps.length;
+			if (chunk.payloads != null) {
+				bytes += 16 + chunk.payloads.length + 16 + 4L * chunk.payloadEnds.length;
+			}
+		}
+		long[] late = lateTimestamps;
+		if (late != null) {
+			//The timestamps and the payload references of the reorder buffer
+			bytes += 16 + 8L * late.length + 16 + 4L * late.length;
+		}
+		for (FieldIndex index : indexes) {
+			bytes += index.usedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Counts the timestamps of a chunk array between startTime (inclusive) and endTime (exclusive).
+	 * Chunks fully inside the range are counted by their size, so this costs O(log n) plus one step per chunk.
+	 */
+	static long count(Chunk[] chunks, long startTime, long endTime) {
+		if (startTime >= endTime) {
+			return 0;
+		}
+		Ranks ranks = new Ranks(chunks, startTime);
+		long before = ranks.below(startTime);
+		return ranks.below(endTime) - before;
+	}
+
+	/**
+	 * Counts the timestamps of a chunk array in consecutive buckets, as {@link EventStore#histogram} does.
+	 * Each bucket costs a binary search inside one chunk, on top of one step per chunk of the range.
+	 */
+	static long[] histogram(Chunk[] chunks, long startTime, long endTime, long bucketWidth) {
+		int bucketCount = Aggregates.bucketCount(startTime, endTime, bucketWidth);
+		long[] counts = new long[bucketCount];
+		if (bucketCount == 0) {
+			return counts;
+		}
+		Ranks ranks = new Ranks(chunks, startTime);
+		long before = ranks.below(startTime);
+		for (int bucket = 0; bucket < bucketCount; bucket++) {
+			long after = ranks.below(Aggregates.bucketStart(startTime, endTime, bucketWidth, bucket + 1, bucketCount));
+			counts[bucket] = after - before;
+			before = after;
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the first timestamp of a chunk array between startTime (inclusive) and endTime (exclusive), if any
+	 */
+	static OptionalLong first(Chunk[] chunks, long startTime, long endTime) {
+		int index = firstChunkReaching(chunks, startTime);
+		if (index == chunks.length) {
+			return OptionalLong.empty();
+		}
+		Chunk chunk = chunks[index];
+		long timestamp = chunk.timestamps[lowerBound(chunk.timestamps, chunk.size, startTime)];
+		return timestamp < endTime ? OptionalLong.of(timestamp) : OptionalLong.empty();
+	}
+
+	/**
+	 * @return the last timestamp of a chunk array between startTime (inclusive) and endTime (exclusive), if any
+	 */
+	static OptionalLong last(Chunk[] chunks, long startTime, long endTime) {
+		int index = firstChunkReaching(chunks, endTime);
+		int position = index < chunks.length ? lowerBound(chunks[index].timestamps, chunks[index].size, endTime) : 0;
+		long timestamp;
+		if (position > 0) {
+			timestamp = chunks[index].timestamps[position - 1];
+		} else if (index > 0) {
+			timestamp = chunks[index - 1].last();
+		} else {
+			return OptionalLong.empty();
+		}
+		return timestamp >= startTime ? OptionalLong.of(timestamp) : OptionalLong.empty();
+	}
+
+	/**
+	 * Counts the timestamps below a series of non-decreasing bounds, walking the chunks forward only once.
+	 * Counts start at the chunk holding the first bound, so only their differences are meaningful.
+	 */
+	private static final class Ranks {
+		private final Chunk[] chunks;
+		private int chunk;
+		private long skipped;
+
+		Ranks(Chunk[] chunks, long firstBound) {
+			this.chunks = chunks;
+			this.chunk = firstChunkReaching(chunks, firstBound);
+		}
+
+		long below(long bound) {
+			for (; chunk < chunks.length; chunk++) {
+				//The size is read once, since the last chunk may be growing
+				Chunk current = chunks[chunk];
+				int size = current.size;
+				if (current.timestamps[size - 1] >= bound) {
+					return skipped + lowerBound(current.timestamps, size, bound);
+				}
+				skipped += size;
+			}
+			return skipped;
+		}
+	}
+
+	/**
+	 * Finds the chunk a timestamp belongs to: the last one starting at or before it, or the first one.
+	 */
+	static int chunkFor(Chunk[] chunks, long timestamp) {
+		int low = 0;
+		int high = chunks.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (chunks[middle].first() <= timestamp) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the first chunk whose last timestamp is at or after the given one
+	 * @return the index of the chunk, or chunks.length if there is none
+	 */
+	static int firstChunkReaching(Chunk[] chunks, long timestamp) {
+		return firstChunkReaching(chunks, 0, timestamp);
+	}
+
+	/**
+	 * Finds the first chunk from an index on whose last timestamp is at or after the given one
+	 * @return the index of the chunk, or chunks.length if there is none
+	 */
+	static int firstChunkReaching(Chunk[] chunks, int from, long timestamp) {
+		int low = from;
+		int high = chunks.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (chunks[middle].last() < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the index of the first of the size timestamps that is not less than the given one
+	 */
+	static int lowerBound(long[] timestamps, int size, long timestamp) {
+		return lowerBound(timestamps, 0, size, timestamp);
+	}
+
+	/**
+	 * @return the index of the first timestamp from an index on, below size, that is not less than the given one
+	 */
+	static int lowerBound(long[] timestamps, int from, int size, long timestamp) {
+		int low = from;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the index of the first of the size timestamps that is greater than the given one
+	 */
+	static int upperBound(long[] timestamps, int size, long timestamp) {
+		return upperBound(timestamps, 0, size, timestamp);
+	}
+
+	/**
+	 * @return the index of the first timestamp from an index on, below size, that is greater than the given one
+	 */
+	static int upperBound(long[] timestamps, int from, int size, long timestamp) {
+		int low = from;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Copies a chunk with an event inserted at a position, splitting it in two if it is full
+	 * @return the one or two chunks replacing the original
+	 */
+	private static Chunk[] inserted(Chunk chunk, int position, long timestamp, int schema, Payload payload) {
+		int size = chunk.size;
+		if (size < CHUNK_CAPACITY) {
+			ChunkBuilder builder = new ChunkBuilder(size < chunk.timestamps.length ? chunk.timestamps.length : Math.min(CHUNK_CAPACITY, size * 2));
+			builder.copy(chunk, 0, position);
+			builder.add(timestamp, schema, payload);
+			builder.copy(chunk, position, size);
+			return new Chunk[] {builder.build()};
+		}
+		int half = size / 2;
+		ChunkBuilder left = new ChunkBuilder(CHUNK_CAPACITY);
+		ChunkBuilder right = new ChunkBuilder(CHUNK_CAPACITY);
+		if (position <= half) {
+			left.copy(chunk, 0, position);
+			left.add(timestamp, schema, payload);
+			left.copy(chunk, position, half);
+			right.copy(chunk, half, size);
+		} else {
+			left.copy(chunk, 0, half);
+			right.copy(chunk, half, position);
+			right.add(timestamp, schema, payload);
+			right.copy(chunk, position, size);
+		}
+		return new Chunk[] {left.build(), right.build()};
+	}
+
+	/**
+	 * Fills a new chunk with events copied from other chunks or added one by one. The slab of the chunk is
+	 * only allocated once an event with a payload shows up, and grows by doubling.
+	 */
+	private static final class ChunkBuilder {
+		final long[] timestamps;
+		byte[] payloads;
+		int[] payloadEnds;
+		int payloadSize;
+		int size;
+
+		ChunkBuilder(int capacity) {
+			this.timestamps = new long[capacity];
+		}
+
+		/**
+		 * Appends the events of a chunk from one position (inclusive) to another (exclusive)
+		 */
+		void copy(Chunk chunk, int from, int to) {
+			int count = to - from;
+			if (count == 1) {
+				timestamps[size] = chunk.timestamps[from];
+			} else {
+				System.arraycopy(chunk.timestamps, from, timestamps, size, count);
+			}
+			int start = chunk.payloads == null ? 0 : chunk.payloadStart(from);
+			int end = chunk.payloads == null || count == 0 ? start : chunk.payloadEnds[to - 1];
+			if (end > start) {
+				reserve(end - start);
+				System.arraycopy(chunk.payloads, start, payloads, payloadSize, end - start);
+				for (int i = 0; i < count; i++) {
+					payloadEnds[size + i] = chunk.payloadEnds[from + i] - start + payloadSize;
+				}
+				payloadSize += end - start;
+			} else if (payloads != null) {
+				Arrays.fill(payloadEnds, size, size + count, payloadSize);
+			}
+			size += count;
+		}
+
+		/**
+		 * Appends an event
+		 * @param timestamp
+		 * @param schema    the index of the schema of the payload in the column, or -1 for no payload
+		 * @param payload
+		 */
+		void add(long timestamp, int schema, Payload payload) {
+			timestamps[size] = timestamp;
+			if (schema >= 0) {
+				reserve(recordLength(schema, payload));
+				payloadSize = writeRecord(payloads, payloadSize, schema, payload);
+			}
+			if (payloads != null) {
+				payloadEnds[size] = payloadSize;
+			}
+			size++;
+		}
+
+		private void reserve(int bytes) {
+			if (payloads == null) {
+				//Events before the first payload have empty records, which all end at 0
+				payloads = new byte[Math.max(INITIAL_SLAB, bytes)];
+				payloadEnds = new int[timestamps.length];
+			} else if (payloadSize + bytes > payloads.length) {
+				payloads = Arrays.copyOf(payloads, Math.max(2 * payloads.length, payloadSize + bytes));
+			}
+		}
+
+		Chunk build() {
+			return new Chunk(timestamps, payloads, payloadEnds, size);
+		}
+	}
+
+	/**
+	 * Copies a chunk array, replacing the count chunks starting at index by the given ones
+	 */
+	private static Chunk[] replace(Chunk[] chunks, int index, int count, Chunk... replacement) {
+		Chunk[] result = new Chunk[chunks.length - count + replacement.length];
+		System.arraycopy(chunks, 0, result, 0, index);
+		System.arraycopy(replacement, 0, result, index, replacement.length);
+		System.arraycopy(chunks, index + count, result, index + replacement.length, chunks.length - index - count);
+		return result;
+	}
+}
@@ -0,0 +1,68 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns event types into compact int ids.
+ * <p>
+ * Ids are assigned in order, starting at 0, and are never reused, so they can index plain arrays.
+ * Looking an id up is a single {@link ConcurrentHashMap} get. Registering a new type copies the array of
+ * names under a lock, which is fine since the set of types is small and rarely grows.
+ * The name kept for each id is the canonical instance of that type string, shared by every event
+ * rebuilt from the store.
+ */
+final class TypeDictionary {
+	private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] names = new String[0];
+
+	/**
+	 * Returns the id of a type, without registering it
+	 * @param type
+	 * @return the id, or -1 if the type was never registered
+	 */
+	int lookup(String type) {
+		Integer id = ids.get(type);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the id of a type, registering it if needed
+	 * @param type
+	 * @return the id
+	 */
+	int idOf(String type) {
+		Integer id = ids.get(type);
+		return id != null ? id : register(type);
+	}
+
+	private synchronized int register(String type) {
+		Integer id = ids.get(type);
+		if (id != null) {
+			return id;
+		}
+		String[] current = names;
+		String[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = type;
+		//The name is published before the id, so that anyone who sees the id can also resolve it
+		names = updated;
+		ids.put(type, current.length);
+		return current.length;
+	}
+
+	/**
+	 * @param id
+	 * @return the canonical name of the type with that id
+	 */
+	String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return how many types were registered so far
+	 */
+	int size() {
+		return names.length;
+	}
+}
@@ -0,0 +1,151 @@
+package net.intelie.challenges;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The version counter of a store, and the registry of the snapshots pinned by its open iterators.
+ * <p>
+ * Only readers move the clock: taking a snapshot increments it, and the snapshot sees every change whose
+ * version is strictly below its own. Writers stamp a change with the current value of the clock, without
+ * incrementing it, so that writers of different types never write to the same memory. A change is stamped
+ * in two steps (published as pending, then decided with a CAS), and a reader that finds a pending change
+ * decides it itself with the clock it reads, which is never below its own snapshot. Either way a change
+ * gets exactly one version, so every reader agrees on whether it is visible at a given snapshot.
+ * <p>
+ * Each snapshot is held by a {@link Pin}, released when its iterator is closed. A pin is registered once
+ * and can then be pinned and unpinned any number of times without allocating, which lets pooled iterators
+ * keep theirs. The {@link #horizon} is the oldest version still pinned: a removed entry whose version is
+ * below it is invisible to every open and future snapshot, so it can be unlinked. Pins only hold their
+ * iterator weakly, so an iterator that is never closed stops holding old versions back once it is
+ * garbage collected.
+ */
+final class VersionClock {
+	/**
+	 * The snapshot of one iterator. Until the snapshot is taken, {@link #version} holds a lower bound of it;
+	 * it is {@link #IDLE} while nothing is pinned.
+	 */
+	static final class Pin extends WeakReference<Object> {
+		static final long IDLE = Long.MAX_VALUE;
+
+		volatile long version = IDLE;
+
+		Pin(Object owner) {
+			super(owner);
+		}
+	}
+
+	private final AtomicLong clock = new AtomicLong();
+	private final Set<Pin> pins = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @return the version to stamp a change with
+	 */
+	long stamp() {
+		return clock.get();
+	}
+
+	/**
+	 * Registers an idle pin, that is dropped when {@link #unregister} is called or the owner is collected
+	 * @param owner the iterator that holds the pin
+	 * @return the pin
+	 */
+	Pin register(Object owner) {
+		Pin pin = new Pin(owner);
+		pins.add(pin);
+		return pin;
+	}
+
+	void unregister(Pin pin) {
+		pins.remove(pin);
+	}
+
+	/**
+	 * Takes a new snapshot in a registered pin, held until {@link #unpin} is called
+	 * @param pin
+	 * @return the version of the snapshot
+	 */
+	long pin(Pin pin) {
+		//A lower bound is published first, so that the horizon never passes a snapshot in the making
+		pin.version = clock.get() + 1;
+		long version = clock.incrementAndGet();
+		pin.version = version;
+		return version;
+	}
+
+	/**
+	 * Pins, in a registered pin, a snapshot that is already pinned by someone else, so that several
+	 * iterators can share it
+	 * @param pin
+	 * @param version a version that is pinned for as long as this call lasts
+	 */
+	void pinAt(Pin pin, long version) {
+		pin.version = version;
+	}
+
+	void unpin(Pin pin) {
+		pin.version = Pin.IDLE;
+	}
+
+	/**
+	 * Registers a pin and takes a new snapshot in it
+	 * @param owner the iterator that holds the snapshot
+	 * @return the pin, to {@link #release}
+	 */
+	Pin pinNew(Object owner) {
+		Pin pin = register(owner);
+		pin(pin);
+		return pin;
+	}
+
+	/**
+	 * Unpins and unregisters a pin
+	 * @param pin
+	 */
+	void release(Pin pin) {
+		unpin(pin);
+		unregister(pin);
+	}
+
+	/**
+	 * @return a snapshot of the latest versions, that is not pinned: only fit for a read that does not
+	 * outlive the entries it looks at, such as a count
+	 */
+	long latest() {
+		return clock.incrementAndGet();
+	}
+
+	/**
+	 * @return the oldest version any open or future snapshot can have; changes stamped below it are
+	 * seen by all of them
+	 */
+	long horizon() {
+		long horizon = clock.get() + 1;
+		for (Iterator<Pin> it = pins.iterator(); it.hasNext(); ) {
+			Pin pin = it.next();
+			if (pin.get() == null) {
+				//The iterator was collected without being closed
+				it.remove();
+			} else {
+				horizon = Math.min(horizon, pin.version);
+			}
+		}
+		return horizon;
+	}
+
+	/**
+	 * @return how many snapshots are pinned
+	 */
+	int pinned() {
+		int pinned = 0;
+		for (Pin pin : pins) {
+			if (pin.version != Pin.IDLE) {
+				pinned++;
+			}
+		}
+		return pinned;
+	}
+}
@@ -0,0 +1,351 @@
+package net.intelie.challenges;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An append-only, binary log of the changes made to a {@link DurableEventStore}.
+ * <p>
+ * The log is split in numbered segment files ({@code wal-<n>.log}); a new segment starts whenever a
+ * snapshot is taken, so that a snapshot plus the segments after it describe the whole store. Records are:
+ * <ul>
+ * <li>{@code DEFINE_TYPE id name}: assigns an int id to a type; repeated at the start of every segment</li>
+ * <li>{@code INSERT id timestamp}</li>
+ * <li>{@code REMOVE id timestamp}: one event removed through an iterator</li>
+ * <li>{@code REMOVE_ALL id}</li>
+ * <li>{@code REMOVE_RANGE id startTime endTime}</li>
+ * </ul>
+ * so an insert costs 13 bytes on disk. Records are encoded into an in-memory buffer under a lock, and the
+ * buffer is written out when it fills up or when {@link #flush} or {@link #sync} is called. {@link #sync}
+ * implements group commit: the first writer to get there writes and forces everything appended so far,
+ * and every writer that was waiting behind it finds its own record already durable.
+ */
+final class WriteAheadLog implements Closeable {
+	static final byte DEFINE_TYPE = 1;
+	static final byte INSERT = 2;
+	static final byte REMOVE = 3;
+	static final byte REMOVE_ALL = 4;
+	static final byte REMOVE_RANGE = 5;
+	private static final int MAX_TYPE_BYTES = 0xFFFF;
+
+	private final Path directory;
+	private final boolean forceWhenFull;
+	private final TypeDictionary types = new TypeDictionary();
+	private final ByteBuffer buffer;
+	private final Object syncLock = new Object();
+	private FileChannel channel;
+	private long segment;
+	private long appended;
+	private volatile long durable;
+
+	/**
+	 * Opens a new segment of the log
+	 * @param directory     where segments are kept
+	 * @param segment       the number of the new segment, greater than any existing one
+	 * @param bufferBytes   size of the write buffer
+	 * @param forceWhenFull whether a write caused by a full buffer is also forced to disk
+	 */
+	WriteAheadLog(Path directory, long segment, int bufferBytes, boolean forceWhenFull) throws IOException {
+		this.directory = directory;
+		this.forceWhenFull = forceWhenFull;
+		this.buffer = ByteBuffer.allocate(bufferBytes);
+		this.segment = segment;
+		this.channel = open(segment);
+	}
+
+	static Path segmentPath(Path directory, long segment) {
+		return directory.resolve(String.format("wal-%016d.log", segment));
+	}
+
+	private FileChannel open(long segment) throws IOException {
+		return FileChannel.open(segmentPath(directory, segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * @return the number of the segment being written
+	 */
+	synchronized long segment() {
+		return segment;
+	}
+
+	/**
+	 * @return the types seen by the log so far, indexed by id
+	 */
+	synchronized List<String> types() {
+		List<String> names = new ArrayList<String>();
+		for (int id = 0; id < types.size(); id++) {
+			names.add(types.name(id));
+		}
+		return names;
+	}
+
+	/**
+	 * Appends the insertion of an event
+	 * @return the position the log must reach for the record to be durable, see {@link #sync}
+	 */
+	synchronized long appendInsert(String type, long timestamp) throws IOException {
+		int id = define(type);
+		reserve(13);
+		buffer.put(INSERT).putInt(id).putLong(timestamp);
+		return appended += 13;
+	}
+
+	/**
+	 * Appends the insertion of a range of events, as one unit of group commit
+	 * @return the position the log must reach for the records to be durable, see {@link #sync}
+	 */
+	synchronized long appendInserts(Event[] events, int offset, int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			appendInsert(events[i].type(), events[i].timestamp());
+		}
+		return appended;
+	}
+
+	/**
+	 * Appends the removal of one event
+	 * @return the position the log must reach for the record to be durable, see {@link #sync}
+	 */
+	synchronized long appendRemove(String type, long timestamp) throws IOException {
+		int id = define(type);
+		reserve(13);
+		buffer.put(REMOVE).putInt(id).putLong(timestamp);
+		return appended += 13;
+	}
+
+	/**
+	 * Appends the removal of every event of a type
+	 * @return the position the log must reach for the record to be durable, see {@link #sync}
+	 */
+	synchronized long appendRemoveAll(String type) throws IOException {
+		int id = define(type);
+		reserve(5);
+		buffer.put(REMOVE_ALL).putInt(id);
+		return appended += 5;
+	}
+
+	/**
+	 * Appends the removal of the events of a type in a time range
+	 * @return the position the log must reach for the record to be durable, see {@link #sync}
+	 */
+	synchronized long appendRemoveRange(String type, long startTime, long endTime) throws IOException {
+		int id = define(type);
+		reserve(21);
+		buffer.put(REMOVE_RANGE).putInt(id).putLong(startTime).putLong(endTime);
+		return appended += 21;
+	}
+
+	/**
+	 * Registers types, so that they show up in {@link #types} even if they are never written again
+	 * @param names
+	 */
+	synchronized void defineAll(Collection<String> names) throws IOException {
+		for (String name : names) {
+			define(name);
+		}
+	}
+
+	private int define(String type) throws IOException {
+		int id = types.lookup(type);
+		if (id < 0) {
+			id = types.idOf(type);
+			writeDefinition(id, type);
+		}
+		return id;
+	}
+
+	private void writeDefinition(int id, String type) throws IOException {
+		byte[] name = type.getBytes(StandardCharsets.UTF_8);
+		if (name.length > MAX_TYPE_BYTES) {
+			throw new IllegalArgumentException("Event type longer than " + MAX_TYPE_BYTES + " bytes");
+		}
+		reserve(7 + name.length);
+		buffer.put(DEFINE_TYPE).putInt(id).putShort((short) name.length).put(name);
+		appended += 7 + name.length;
+	}
+
+	private void reserve(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			writeBuffer();
+			if (forceWhenFull) {
+				channel.force(false);
+			}
+			if (buffer.capacity() < bytes) {
+				throw new IllegalArgumentException("Log record of " + bytes + " bytes does not fit the log buffer");
+			}
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes out the buffer, and forces it to disk if asked to
+	 * @param force
+	 */
+	void flush(boolean force) throws IOException {
+		if (force) {
+			sync(Long.MAX_VALUE);
+		} else {
+			synchronized (this) {
+				writeBuffer();
+			}
+		}
+	}
+
+	/**
+	 * Waits until everything appended up to a position is on disk, forcing the log if needed.
+	 * Writers calling this concurrently are all served by a single force.
+	 * @param position as returned by one of the append methods
+	 */
+	void sync(long position) throws IOException {
+		if (durable >= position) {
+			return;
+		}
+		synchronized (syncLock) {
+			if (durable >= position) {
+				return;
+			}
+			FileChannel target;
+			long reached;
+			synchronized (this) {
+				writeBuffer();
+				target = channel;
+				reached = appended;
+			}
+			//Forcing outside of the log lock lets writers keep appending to the next group meanwhile
+			target.force(false);
+			durable = reached;
+		}
+	}
+
+	/**
+	 * Closes the current segment, durably, and starts the next one. The new segment repeats every type
+	 * definition, so that it can be replayed without the ones before it.
+	 * @return the number of the new segment
+	 */
+	long rotate() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				writeBuffer();
+				channel.force(false);
+				channel.close();
+				channel = open(++segment);
+				durable = appended;
+				for (int id = 0; id < types.size(); id++) {
+					writeDefinition(id, types.name(id));
+				}
+				return segment;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				writeBuffer();
+				channel.force(false);
+				channel.close();
+				durable = appended;
+			}
+		}
+	}
+
+	/**
+	 * Lists the numbers of the log segments found in a directory
+	 */
+	static List<Long> segments(Path directory) throws IOException {
+		return DurableEventStore.numberedFiles(directory, "wal-", ".log");
+	}
+
+	/**
+	 * Applies every record of a segment to a store. A record cut short by a crash ends the replay.
+	 * Consecutive inserts are applied with {@link EventStore#insertAll}, in batches.
+	 * @param file
+	 * @param store
+	 * @param types                receives every type defined in the segment
+	 * @param eventsAtMaxTimestamp counts the events at Long.MAX_VALUE, as they are inserted and removed
+	 */
+	static void replay(Path file, EventStore store, Collection<String> types, Map<String, LongAdder> eventsAtMaxTimestamp) throws IOException {
+		List<String> names = new ArrayList<String>();
+		Event[] pending = new Event[4096];
+		int count = 0;
+		try (MappedReader reader = new MappedReader(file)) {
+			while (reader.has(1)) {
+				byte op = reader.readByte();
+				if (op == INSERT) {
+					String type = names.get(reader.readInt());
+					long timestamp = reader.readLong();
+					pending[count] = new Event(type, timestamp);
+					DurableEventStore.countAtMaxTimestamp(eventsAtMaxTimestamp, pending[count++]);
+					if (count == pending.length) {
+						store.insertAll(pending, 0, count);
+						count = 0;
+					}
+					continue;
+				}
+				store.insertAll(pending, 0, count);
+				count = 0;
+				switch (op) {
+				case DEFINE_TYPE:
+					int id = reader.readInt();
+					String name = reader.readString();
+					while (names.size() <= id) {
+						names.add(null);
+					}
+					names.set(id, name);
+					types.add(name);
+					break;
+				case REMOVE:
+					remove(store, names.get(reader.readInt()), reader.readLong());
+					break;
+				case REMOVE_ALL:
+					String removed = names.get(reader.readInt());
+					store.removeAll(removed);
+					eventsAtMaxTimestamp.remove(removed);
+					break;
+				case REMOVE_RANGE:
+					store.removeRange(names.get(reader.readInt()), reader.readLong(), reader.readLong());
+					break;
+				default:
+					throw new IOException("Corrupted log record " + op + " at " + (reader.position() - 1) + " in " + file);
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			//The last record was only partially written
+		}
+		store.insertAll(pending, 0, count);
+	}
+
+	private static void remove(EventStore store, String type, long timestamp) throws IOException {
+		if (timestamp == Long.MAX_VALUE) {
+			//No query returns an event at Long.MAX_VALUE, so none can have been removed through an iterator
+			return;
+		}
+		try (EventIterator eventIterator = store.query(type, timestamp, timestamp + 1)) {
+			if (eventIterator.moveNext()) {
+				eventIterator.remove();
+			}
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package net.intelie.challenges;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Random;
+
+/**
+ * Checks the aggregate queries of every store against a brute force scan of the inserted events.
+ */
+public class AggregateQueryTest {
+	OffHeapEventStore offHeapStore = new OffHeapEventStore(1000 * OffHeapColumn.segmentBytes(64), 64);
+
+	@After
+	public void tearDown() {
+		offHeapStore.close();
+	}
+
+	List<EventStore> stores() {
+		List<EventStore> stores = new ArrayList<EventStore>();
+		stores.add(new EventStoreImpl(new HashSet<Event>()));
+		stores.add(new IndexedEventStore());
+		stores.add(new ColumnarEventStore());
+		stores.add(offHeapStore);
+		return stores;
+	}
+
+	List<Long> getTestData() {
+		List<Long> timestamps = new ArrayList<Long>();
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			timestamps.add((long) random.nextInt(100000) - 20000);
+		}
+		return timestamps;
+	}
+
+	long expectedCount(List<Long> timestamps, long startTime, long endTime) {
+		long count = 0;
+		for (long timestamp : timestamps) {
+			if (timestamp >= startTime && timestamp < endTime) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testAggregatesMatchScan() {
+		List<Long> timestamps = getTestData();
+		long[][] ranges = {{0, 1}, {-20000, 80000}, {-5000, 3000}, {1024, 4096}, {1000, 1000}, {500, 100}, {Long.MIN_VALUE, Long.MAX_VALUE}};
+		for (EventStore eventStore : stores()) {
+			for (long timestamp : timestamps) {
+				eventStore.insert(new Event("Event-1", timestamp));
+				eventStore.insert(new Event("Event-2", timestamp / 2));
+			}
+			for (long[] range : ranges) {
+				long first = Long.MAX_VALUE;
+				long last = Long.MIN_VALUE;
+				for (long timestamp : timestamps) {
+					if (timestamp >= range[0] && timestamp < range[1]) {
+						first = Math.min(first, timestamp);
+						last = Math.max(last, timestamp);
+					}
+				}
+				String name = eventStore.getClass().getSimpleName();
+				assertEquals(name, expectedCount(timestamps, range[0], range[1]), eventStore.count("Event-1", range[0], range[1]));
+				assertEquals(name, first == Long.MAX_VALUE ? OptionalLong.empty() : OptionalLong.of(first), eventStore.firstTimestamp("Event-1", range[0], range[1]));
+				assertEquals(name, last == Long.MIN_VALUE ? OptionalLong.empty() : OptionalLong.of(last), eventStore.lastTimestamp("Event-1", range[0], range[1]));
+			}
+			assertEquals(0, eventStore.count("Event-3", 0, Long.MAX_VALUE));
+			assertEquals(OptionalLong.empty(), eventStore.firstTimestamp("Event-3", 0, Long.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void testHistogramMatchesScan() {
+		List<Long> timestamps = getTestData();
+		long[][] histograms = {{-20000, 80000, 60000}, {-3000, 7001, 1000}, {0, 4096, 1024}, {5, 6, 7}, {100, 100, 5}};
+		for (EventStore eventStore : stores()) {
+			for (long timestamp : timestamps) {
+				eventStore.insert(new Event("Event-1", timestamp));
+			}
+			for (long[] histogram : histograms) {
+				long startTime = histogram[0];
+				long endTime = histogram[1];
+				long width = histogram[2];
+				long[] expected = new long[(int) ((endTime - startTime + width - 1) / width)];
+				for (int bucket = 0; bucket < expected.length; bucket++) {
+					expected[bucket] = expectedCount(timestamps, startTime + bucket * width, Math.min(endTime, startTime + (bucket + 1) * width));
+				}
+				assertArrayEquals(eventStore.getClass().getSimpleName(), expected, eventStore.histogram("Event-1", startTime, endTime, width));
+			}
+			assertArrayEquals(new long[3], eventStore.histogram("Event-3", 0, 30, 10));
+			assertThrows(IllegalArgumentException.class, () -> eventStore.histogram("Event-1", 0, 10, 0));
+			assertThrows(IllegalArgumentException.class, () -> eventStore.histogram("Event-1", Long.MIN_VALUE, Long.MAX_VALUE, 1));
+		}
+	}
+
+	@Test
+	public void testIndexedCountFollowsRemovals() throws Exception {
+		IndexedEventStore eventStore = new IndexedEventStore();
+		for (int i = 0; i < 10000; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, 5000)) {
+			while (eventIterator.moveNext()) {
+				eventIterator.remove();
+				//A second removal of the same event must not be counted twice
+				eventIterator.remove();
+			}
+		}
+
+		assertEquals(5000, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(0, eventStore.count("Event-1", 0, 5000));
+		assertEquals(1024, eventStore.count("Event-1", 6144, 7168));
+	}
+}
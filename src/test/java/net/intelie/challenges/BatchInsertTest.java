@@ -0,0 +1,93 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that {@link EventStore#insertAll} leaves every store in the same state as inserting the events one by one.
+ */
+public class BatchInsertTest {
+
+	public List<EventStore> getStores() {
+		return Arrays.asList(new EventStoreImpl(new HashSet<Event>()), new IndexedEventStore(),
+				new ColumnarEventStore(), new OffHeapEventStore(1L << 24, 64));
+	}
+
+	public List<Long> timestamps(EventStore eventStore, String type) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator eventIterator = eventStore.query(type, 0, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				result.add(eventIterator.current().timestamp());
+			}
+		}
+		result.sort(null);
+		return result;
+	}
+
+	@Test
+	public void testBatchesMatchSingleInserts() throws Exception {
+		Random random = new Random(42);
+		for (EventStore eventStore : getStores()) {
+			EventStore reference = new IndexedEventStore();
+			//Batches mostly in time order, with stragglers reaching back into earlier batches
+			for (int b = 0; b < 20; b++) {
+				Event[] batch = new Event[500];
+				for (int i = 0; i < batch.length; i++) {
+					long timestamp = b * 500 + i - (random.nextInt(10) == 0 ? random.nextInt(2000) : 0);
+					batch[i] = new Event("Event-" + random.nextInt(3), Math.max(0, timestamp));
+					reference.insert(batch[i]);
+				}
+				eventStore.insertAll(batch, 100, 400);
+				eventStore.insertAll(Arrays.asList(batch).subList(0, 100));
+			}
+			for (int t = 0; t < 3; t++) {
+				assertEquals(eventStore.getClass().getSimpleName(), timestamps(reference, "Event-" + t), timestamps(eventStore, "Event-" + t));
+			}
+		}
+	}
+
+	@Test
+	public void testOffHeapMergesLateRunsInOrder() throws Exception {
+		try (OffHeapEventStore eventStore = new OffHeapEventStore(1L << 24, 64)) {
+			List<Long> expected = new ArrayList<Long>();
+			for (int i = 0; i < 6400; i++) {
+				eventStore.insert(new Event("Event-1", 2 * i));
+				expected.add(2L * i);
+			}
+			//Runs into every full segment, with repeated timestamps, and events past the end
+			Event[] batch = new Event[8000];
+			for (int i = 0; i < batch.length; i++) {
+				long timestamp = i < 6400 ? 2 * i + 1 - 2 * (i % 3 == 0 ? 1 : 0) : 2 * i;
+				batch[i] = new Event("Event-1", timestamp);
+				expected.add(timestamp);
+			}
+			eventStore.insertAll(batch, 0, batch.length);
+			expected.sort(null);
+			List<Long> actual = new ArrayList<Long>();
+			try (EventIterator eventIterator = eventStore.query("Event-1", Long.MIN_VALUE, Long.MAX_VALUE)) {
+				while (eventIterator.moveNext()) {
+					actual.add(eventIterator.current().timestamp());
+				}
+			}
+			assertEquals(expected, actual);
+			assertEquals(expected.size(), eventStore.count("Event-1", Long.MIN_VALUE, Long.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void testBatchRangeOutOfBounds() {
+		Event[] batch = new Event[] {new Event("Event-1", 1L)};
+		for (EventStore eventStore : getStores()) {
+			assertThrows(IndexOutOfBoundsException.class, () -> {eventStore.insertAll(batch, 1, 1);});
+			assertThrows(IndexOutOfBoundsException.class, () -> {eventStore.insertAll(batch, -1, 1);});
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class ColumnarEventStoreTest {
+	ColumnarEventStore eventStore = new ColumnarEventStore();
+
+	public List<Long> drain(EventIterator eventIterator, String type) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				assertEquals(type, it.current().type());
+				result.add(it.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testQueryUnknownType() throws Exception {
+		eventStore.insert(new Event("Event-1", 123L));
+
+		assertTrue(drain(eventStore.query("Event-2", 0, Long.MAX_VALUE), "Event-2").isEmpty());
+		assertTrue(drain(eventStore.query(null, 0, Long.MAX_VALUE), null).isEmpty());
+	}
+
+	@Test
+	public void testQueryRandomOrderInserts() throws Exception {
+		//Enough events to fill and split many chunks, inserted out of order and with duplicates
+		Random random = new Random(42);
+		List<Long> expected = new ArrayList<Long>();
+		for (int i = 0; i < 20 * TimestampColumn.CHUNK_CAPACITY; i++) {
+			long timestamp = random.nextInt(5000);
+			eventStore.insert(new Event("Event-1", timestamp));
+			eventStore.insert(new Event("Event-2", timestamp));
+			if (timestamp >= 1000 && timestamp < 3000) {
+				expected.add(timestamp);
+			}
+		}
+		Collections.sort(expected);
+
+		assertEquals(expected, drain(eventStore.query("Event-1", 1000, 3000), "Event-1"));
+		assertEquals(2 * 20 * TimestampColumn.CHUNK_CAPACITY, eventStore.column("Event-1").size() + eventStore.column("Event-2").size());
+	}
+
+	@Test
+	public void testQueryBoundaries() throws Exception {
+		eventStore.insert(new Event("Event-1", 10L));
+		eventStore.insert(new Event("Event-1", 10L));
+		eventStore.insert(new Event("Event-1", 20L));
+
+		assertEquals(2, drain(eventStore.query("Event-1", 10L, 20L), "Event-1").size());
+		assertTrue(drain(eventStore.query("Event-1", 11L, 20L), "Event-1").isEmpty());
+		assertTrue(drain(eventStore.query("Event-1", 20L, 10L), "Event-1").isEmpty());
+	}
+
+	@Test
+	public void testCurrentIsCreatedOncePerPosition() throws Exception {
+		eventStore.insert(new Event("Event-1", 10L));
+		EventIterator eventIterator = eventStore.query("Event-1", 0, 100);
+		assertThrows(IllegalStateException.class, () -> {eventIterator.current();});
+		assertTrue(eventIterator.moveNext());
+		assertSame(eventIterator.current(), eventIterator.current());
+		assertFalse(eventIterator.moveNext());
+		assertThrows(IllegalStateException.class, () -> {eventIterator.remove();});
+	}
+
+	@Test
+	public void testRemoveThroughIterator() throws Exception {
+		for (int i = 0; i < 3 * TimestampColumn.CHUNK_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				if (eventIterator.current().timestamp() % 2 == 0) {
+					eventIterator.remove();
+				}
+			}
+		}
+
+		List<Long> remaining = drain(eventStore.query("Event-1", 0, Long.MAX_VALUE), "Event-1");
+		assertEquals(3 * TimestampColumn.CHUNK_CAPACITY / 2, remaining.size());
+		for (long timestamp : remaining) {
+			assertEquals(1, timestamp % 2);
+		}
+	}
+
+	@Test
+	public void testRemoveAll() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			eventStore.insert(new Event("Event-" + (i % 2), i));
+		}
+		eventStore.removeAll("Event-1");
+
+		assertTrue(drain(eventStore.query("Event-1", 0, Long.MAX_VALUE), "Event-1").isEmpty());
+		assertEquals(50, drain(eventStore.query("Event-0", 0, Long.MAX_VALUE), "Event-0").size());
+		eventStore.insert(new Event("Event-1", 5L));
+		assertEquals(1, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE), "Event-1").size());
+	}
+
+	@Test
+	public void testIteratorKeepsItsChunksDuringWrites() throws Exception {
+		for (int i = 0; i < TimestampColumn.CHUNK_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", 2 * i));
+		}
+		EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE);
+		//Out-of-order inserts and removals replace chunks, but the open iterator still walks a sorted sequence
+		for (int i = 0; i < TimestampColumn.CHUNK_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", 2 * i + 1));
+			eventStore.column("Event-1").remove(2 * i);
+		}
+		long last = Long.MIN_VALUE;
+		int count = 0;
+		while (eventIterator.moveNext()) {
+			assertTrue(eventIterator.current().timestamp() >= last);
+			last = eventIterator.current().timestamp();
+			count++;
+		}
+		assertEquals(TimestampColumn.CHUNK_CAPACITY, count);
+	}
+}
@@ -0,0 +1,157 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class CompressedEventStoreTest {
+	CompressedEventStore eventStore = new CompressedEventStore();
+
+	public List<Long> drain(EventIterator eventIterator, String type) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				assertEquals(type, it.current().type());
+				result.add(it.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testSegmentRoundTrip() {
+		long[] timestamps = {Long.MIN_VALUE, -5, 0, 0, 0, 1, 1000, 1001, 1 << 40, Long.MAX_VALUE - 1, Long.MAX_VALUE};
+		SealedSegment segment = SealedSegment.encode(timestamps, 0, timestamps.length);
+		long[] decoded = new long[timestamps.length];
+
+		assertEquals(timestamps.length, segment.decode(decoded));
+		assertArrayEquals(timestamps, decoded);
+		assertEquals(Long.MIN_VALUE, segment.min);
+		assertEquals(Long.MAX_VALUE, segment.max);
+	}
+
+	@Test
+	public void testRegularTimestampsTakeOneByteEach() {
+		long[] timestamps = new long[1000];
+		for (int i = 0; i < timestamps.length; i++) {
+			timestamps[i] = 1_600_000_000_000L + 100L * i;
+		}
+		//The first delta, 100, takes 2 bytes; every following delta-of-delta is 0 and takes 1
+		assertEquals(timestamps.length, SealedSegment.encode(timestamps, 0, timestamps.length).data.length);
+	}
+
+	@Test
+	public void testQueryAcrossSegmentsAndHead() throws Exception {
+		int size = 10 * CompressedColumn.SEGMENT_CAPACITY + 100;
+		for (int i = 0; i < size; i++) {
+			eventStore.insert(new Event("Event-1", 3L * i));
+		}
+		CompressedColumn.Layout layout = eventStore.column("Event-1").layout;
+		assertEquals(10, layout.sealed.length);
+		assertEquals(100, layout.headSize);
+
+		List<Long> expected = new ArrayList<Long>();
+		for (long timestamp = 3000; timestamp < 30900; timestamp += 3) {
+			expected.add(timestamp);
+		}
+		assertEquals(expected, drain(eventStore.query("Event-1", 2999, 30900), "Event-1"));
+		assertEquals(expected.size(), eventStore.count("Event-1", 2999, 30900));
+		assertEquals(size, eventStore.count("Event-1", Long.MIN_VALUE, Long.MAX_VALUE));
+		assertEquals(OptionalLong.of(3000), eventStore.firstTimestamp("Event-1", 2999, 30900));
+		assertEquals(OptionalLong.of(30897), eventStore.lastTimestamp("Event-1", 2999, 30900));
+		assertEquals(OptionalLong.empty(), eventStore.lastTimestamp("Event-1", 1, 3));
+		assertTrue(drain(eventStore.query("Event-1", 10, 10), "Event-1").isEmpty());
+	}
+
+	@Test
+	public void testQueryRandomOrderInserts() throws Exception {
+		//Late events land in sealed segments, which grow and split
+		Random random = new Random(42);
+		List<Long> expected = new ArrayList<Long>();
+		for (int i = 0; i < 20 * CompressedColumn.SEGMENT_CAPACITY; i++) {
+			long timestamp = random.nextInt(5000);
+			eventStore.insert(new Event("Event-1", timestamp));
+			if (timestamp >= 1000 && timestamp < 3000) {
+				expected.add(timestamp);
+			}
+		}
+		Collections.sort(expected);
+
+		assertEquals(expected, drain(eventStore.query("Event-1", 1000, 3000), "Event-1"));
+		assertEquals(expected.size(), eventStore.count("Event-1", 1000, 3000));
+		assertEquals(20 * CompressedColumn.SEGMENT_CAPACITY, eventStore.column("Event-1").size());
+		for (SealedSegment segment : eventStore.column("Event-1").layout.sealed) {
+			assertTrue(segment.count <= CompressedColumn.MAX_SEGMENT);
+		}
+	}
+
+	@Test
+	public void testRemoveThroughIterator() throws Exception {
+		for (int i = 0; i < 5000; i++) {
+			eventStore.insert(new Event("Event-1", i / 2));
+		}
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				if (eventIterator.current().timestamp() % 3 == 0) {
+					eventIterator.remove();
+				}
+			}
+		}
+		List<Long> expected = new ArrayList<Long>();
+		for (int i = 0; i < 5000; i++) {
+			if ((i / 2) % 3 != 0) {
+				expected.add((long) (i / 2));
+			}
+		}
+		assertEquals(expected, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE), "Event-1"));
+	}
+
+	@Test
+	public void testRemoveRangeAndEvict() throws Exception {
+		for (int i = 0; i < 5000; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		assertEquals(2500, eventStore.removeRange("Event-1", 1000, 3500));
+		assertEquals(2500, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(OptionalLong.of(3500), eventStore.firstTimestamp("Event-1", 1000, Long.MAX_VALUE));
+
+		//Only whole sealed segments are dropped: the one left with [0, 1000), but not [3500, 4096)
+		assertEquals(1000, eventStore.evict(RetentionPolicy.unlimited().withMaxAge(1, TimeUnit.MILLISECONDS), 4001));
+		assertEquals(1500, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(OptionalLong.of(3500), eventStore.firstTimestamp("Event-1", 0, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testIteratorKeepsItsLayoutDuringWrites() throws Exception {
+		for (int i = 0; i < 3000; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE);
+		eventStore.insert(new Event("Event-1", 5));
+		eventStore.removeRange("Event-1", 100, 2000);
+		eventStore.removeAll("Event-1");
+
+		assertEquals(3000, drain(eventIterator, "Event-1").size());
+		assertEquals(0, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		assertTrue(eventStore.types().isEmpty());
+	}
+
+	@Test
+	public void testCompressesSealedHistory() {
+		ColumnarEventStore columnar = new ColumnarEventStore();
+		for (int i = 0; i < 100 * CompressedColumn.SEGMENT_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", 1_600_000_000_000L + 250L * i));
+			columnar.insert(new Event("Event-1", 1_600_000_000_000L + 250L * i));
+		}
+		assertTrue(eventStore.usedBytes() * 5 < columnar.usedBytes());
+	}
+}
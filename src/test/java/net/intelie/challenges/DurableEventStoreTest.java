@@ -0,0 +1,204 @@
+package net.intelie.challenges;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class DurableEventStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	public List<Long> timestamps(EventStore eventStore, String type) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator eventIterator = eventStore.query(type, Long.MIN_VALUE, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				result.add(eventIterator.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	public DurableEventStore open(Path directory, FsyncPolicy fsyncPolicy) throws Exception {
+		return new DurableEventStore(new ColumnarEventStore(), directory, fsyncPolicy);
+	}
+
+	public void write(DurableEventStore eventStore) throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			eventStore.insert(new Event("Event-" + (i % 3), i));
+		}
+		eventStore.insertAll(Arrays.asList(new Event("Event-3", 5L), new Event("Event-3", 6L)));
+		eventStore.removeAll("Event-2");
+		try (EventIterator eventIterator = eventStore.query("Event-0", 0, 100)) {
+			while (eventIterator.moveNext()) {
+				eventIterator.remove();
+			}
+		}
+	}
+
+	public void assertRecovered(EventStore eventStore) throws Exception {
+		List<Long> expected = new ArrayList<Long>();
+		for (int i = 102; i < 1000; i += 3) {
+			expected.add((long) i);
+		}
+		assertEquals(expected, timestamps(eventStore, "Event-0"));
+		assertEquals(333, timestamps(eventStore, "Event-1").size());
+		assertTrue(timestamps(eventStore, "Event-2").isEmpty());
+		assertEquals(Arrays.asList(5L, 6L), timestamps(eventStore, "Event-3"));
+	}
+
+	@Test
+	public void testRecoverFromLog() throws Exception {
+		for (FsyncPolicy fsyncPolicy : FsyncPolicy.values()) {
+			Path directory = folder.newFolder().toPath();
+			try (DurableEventStore eventStore = open(directory, fsyncPolicy)) {
+				write(eventStore);
+			}
+			try (DurableEventStore eventStore = open(directory, fsyncPolicy)) {
+				assertRecovered(eventStore);
+			}
+		}
+	}
+
+	@Test
+	public void testRecoverFromSnapshotAndLogTail() throws Exception {
+		Path directory = folder.newFolder().toPath();
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.BATCHED)) {
+			for (int i = 0; i < 500; i++) {
+				eventStore.insert(new Event("Event-" + (i % 3), i));
+			}
+			eventStore.snapshot();
+			for (int i = 500; i < 1000; i++) {
+				eventStore.insert(new Event("Event-" + (i % 3), i));
+			}
+			eventStore.insertAll(Arrays.asList(new Event("Event-3", 5L), new Event("Event-3", 6L)));
+			eventStore.removeAll("Event-2");
+			try (EventIterator eventIterator = eventStore.query("Event-0", 0, 100)) {
+				while (eventIterator.moveNext()) {
+					eventIterator.remove();
+				}
+			}
+		}
+		assertEquals(1, DurableEventStore.numberedFiles(directory, "snapshot-", ".dat").size());
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.BATCHED)) {
+			assertRecovered(eventStore);
+			//Types recovered but not written since must still make it into the next snapshot
+			eventStore.snapshot();
+		}
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.BATCHED)) {
+			assertRecovered(eventStore);
+		}
+		assertEquals(1, DurableEventStore.numberedFiles(directory, "snapshot-", ".dat").size());
+		assertEquals(2, WriteAheadLog.segments(directory).size());
+	}
+
+	@Test
+	public void testRecoverEventsAtLastTimestamp() throws Exception {
+		Path directory = folder.newFolder().toPath();
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			eventStore.insert(new Event("Event-1", Long.MAX_VALUE));
+			eventStore.insert(new Event("Event-1", Long.MAX_VALUE - 1));
+			eventStore.snapshot();
+			eventStore.insertAll(Arrays.asList(new Event("Event-1", Long.MAX_VALUE), new Event("Event-2", Long.MAX_VALUE)));
+		}
+		//Once from the snapshot, then from the log tail
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			assertEquals(2, eventStore.eventsAtMaxTimestamp.get("Event-1").sum());
+			assertEquals(3, stored(eventStore, "Event-1"));
+			assertEquals(Arrays.asList(Long.MAX_VALUE - 1), timestamps(eventStore, "Event-1"));
+			eventStore.removeAll("Event-2");
+			eventStore.snapshot();
+		}
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			assertEquals(3, stored(eventStore, "Event-1"));
+			assertEquals(0, stored(eventStore, "Event-2"));
+			assertEquals(1, eventStore.eventsAtMaxTimestamp.size());
+		}
+	}
+
+	@Test
+	public void testIteratorRemovalsNextToLastTimestamp() throws Exception {
+		Path directory = folder.newFolder().toPath();
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			eventStore.insertAll(Arrays.asList(new Event("Event-1", Long.MAX_VALUE - 1), new Event("Event-1", Long.MAX_VALUE),
+					new Event("Event-1", Long.MAX_VALUE - 1), new Event("Event-1", 7L)));
+			try (EventIterator eventIterator = eventStore.query("Event-1", Long.MAX_VALUE - 1, Long.MAX_VALUE)) {
+				while (eventIterator.moveNext()) {
+					eventIterator.remove();
+				}
+			}
+			assertEquals(2, stored(eventStore, "Event-1"));
+		}
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			assertEquals(Arrays.asList(7L), timestamps(eventStore, "Event-1"));
+			assertEquals(2, stored(eventStore, "Event-1"));
+			assertEquals(1, eventStore.eventsAtMaxTimestamp.get("Event-1").sum());
+		}
+	}
+
+	/**
+	 * @return how many events of a type the columns of the delegate hold, including those no query returns
+	 */
+	static long stored(DurableEventStore eventStore, String type) {
+		TimestampColumn column = ((ColumnarEventStore) eventStore.delegate).column(type);
+		long size = 0;
+		if (column != null) {
+			for (TimestampColumn.Chunk chunk : column.chunks()) {
+				size += chunk.size;
+			}
+		}
+		return size;
+	}
+
+	@Test
+	public void testTornLogTailIsIgnored() throws Exception {
+		Path directory = folder.newFolder().toPath();
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			eventStore.insert(new Event("Event-1", 1L));
+			eventStore.insert(new Event("Event-1", 2L));
+		}
+		List<Long> segments = WriteAheadLog.segments(directory);
+		Path last = WriteAheadLog.segmentPath(directory, segments.get(segments.size() - 1));
+		//An insert record cut in the middle of its timestamp
+		Files.write(last, new byte[] {WriteAheadLog.INSERT, 0, 0, 0, 0, 1, 2}, StandardOpenOption.APPEND);
+
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			assertEquals(Arrays.asList(1L, 2L), timestamps(eventStore, "Event-1"));
+		}
+	}
+
+	@Test
+	public void testConcurrentWritersGroupCommit() throws Exception {
+		Path directory = folder.newFolder().toPath();
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			for (int t = 0; t < 8; t++) {
+				String type = "Event-" + t;
+				pool.execute(() -> {
+					for (int i = 0; i < 200; i++) {
+						eventStore.insert(new Event(type, i));
+					}
+				});
+			}
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+		}
+		try (DurableEventStore eventStore = open(directory, FsyncPolicy.PER_WRITE)) {
+			for (int t = 0; t < 8; t++) {
+				assertEquals(200, timestamps(eventStore, "Event-" + t).size());
+			}
+		}
+	}
+}
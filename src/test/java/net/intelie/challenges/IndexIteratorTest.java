@@ -0,0 +1,118 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class IndexIteratorTest {
+	TimeIndex index = new TimeIndex("Event-1");
+
+	@Test
+	public void testMoveNextEmptyIndex() {
+		IndexIterator eventIterator = new IndexIterator(index, 0, Long.MAX_VALUE);
+		assertFalse(eventIterator.moveNext());
+		assertThrows(IllegalStateException.class, () -> {eventIterator.current();});
+		assertThrows(IllegalStateException.class, () -> {eventIterator.remove();});
+	}
+
+	@Test
+	public void testCurrentNoMoveNext() {
+		index.add(new Event("Event-1", 123L));
+		IndexIterator eventIterator = new IndexIterator(index, 0, Long.MAX_VALUE);
+		assertThrows(IllegalStateException.class, () -> {eventIterator.current();});
+	}
+
+	@Test
+	public void testCurrentDoesNotAdvance() {
+		Event event = new Event("Event-1", 123L);
+		index.add(event);
+		IndexIterator eventIterator = new IndexIterator(index, 0, Long.MAX_VALUE);
+		assertTrue(eventIterator.moveNext());
+		assertSame(event, eventIterator.current());
+		assertSame(event, eventIterator.current());
+		assertFalse(eventIterator.moveNext());
+	}
+
+	@Test
+	public void testIteratesInTimestampOrder() {
+		for (int i = 499; i >= 0; i--) {
+			index.add(new Event("Event-1", i));
+		}
+		IndexIterator eventIterator = new IndexIterator(index, 100, 200);
+		long expected = 100;
+		while (eventIterator.moveNext()) {
+			assertEquals(expected++, eventIterator.current().timestamp());
+		}
+		assertEquals(200, expected);
+	}
+
+	@Test
+	public void testRemoveDeletesFromIndex() {
+		for (int i = 0; i < 10; i++) {
+			index.add(new Event("Event-1", i));
+		}
+		IndexIterator eventIterator = new IndexIterator(index, 0, 5);
+		while (eventIterator.moveNext()) {
+			eventIterator.remove();
+		}
+		assertEquals(5, index.count(0, Long.MAX_VALUE));
+		assertEquals(5L, index.first(0, Long.MAX_VALUE).getAsLong());
+		//The removed entries are unlinked once no open iterator can see them
+		eventIterator.close();
+		assertEquals(5, index.entries.size());
+		assertEquals(5L, index.entries.first().timestamp);
+	}
+
+	@Test
+	public void testInsertWhileIterating() {
+		for (int i = 0; i < 100; i++) {
+			index.add(new Event("Event-1", i));
+		}
+		IndexIterator eventIterator = new IndexIterator(index, 0, Long.MAX_VALUE);
+		int count = 0;
+		while (eventIterator.moveNext()) {
+			index.add(new Event("Event-1", 1000 + count++));
+			if (count > 1000) {
+				break;
+			}
+		}
+		//The iterator only sees the events committed before it was created
+		assertEquals(100, count);
+		assertEquals(200, index.count(0, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testCloseLeavesIndexUntouched() {
+		index.add(new Event("Event-1", 123L));
+		IndexIterator eventIterator = new IndexIterator(index, 0, Long.MAX_VALUE);
+		eventIterator.close();
+		assertFalse(eventIterator.moveNext());
+		assertEquals(1, index.entries.size());
+	}
+
+	@Test
+	public void testRemovedRangesDropTheirBuckets() {
+		long width = 1L << TimeIndex.BUCKET_SHIFT;
+		for (int i = 0; i < 100; i++) {
+			index.add(new Event("Event-1", i * width));
+			index.add(new Event("Event-1", i * width + 1));
+		}
+		assertEquals(100, index.bucketCount());
+		assertEquals(180, index.removeRange(0, 90 * width));
+		assertEquals(10, index.bucketCount());
+		assertEquals(20, index.count(0, Long.MAX_VALUE));
+		//A bucket is kept while a snapshot can still see its removed entries
+		IndexIterator eventIterator = new IndexIterator(index, 0, Long.MAX_VALUE);
+		assertEquals(20, index.removeRange(0, Long.MAX_VALUE));
+		assertEquals(10, index.bucketCount());
+		eventIterator.close();
+		index.reclaim();
+		assertEquals(0, index.bucketCount());
+		index.add(new Event("Event-1", 5));
+		assertEquals(1, index.count(0, 2 * width));
+	}
+}
@@ -0,0 +1,195 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress tests that hammer a store with concurrent inserts, queries, iterations and removals.
+ * Readers keep running until the writers are done, and any exception thrown by a task fails the test.
+ */
+public class IndexedEventStoreConcurrencyTest {
+	static final int WRITERS = 4;
+	static final int READERS = 4;
+	static final int EVENTS_PER_WRITER = 50000;
+
+	ExecutorService pool = Executors.newFixedThreadPool(WRITERS + READERS + 1);
+	CountDownLatch start = new CountDownLatch(1);
+	AtomicBoolean writing = new AtomicBoolean(true);
+
+	void runAll(List<Callable<Void>> tasks) throws Exception {
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (Callable<Void> task : tasks) {
+			futures.add(pool.submit(task));
+		}
+		start.countDown();
+		try {
+			for (Future<Void> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testConcurrentInsertAndQuery() throws Exception {
+		EventStore eventStore = new IndexedEventStore();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		AtomicLong running = new AtomicLong(WRITERS);
+		for (int w = 0; w < WRITERS; w++) {
+			//Two writers per type, so that inserts both on distinct and on shared partitions are exercised
+			String type = "Event-" + (w % 2);
+			tasks.add(() -> {
+				start.await();
+				for (int i = 0; i < EVENTS_PER_WRITER; i++) {
+					eventStore.insert(new Event(type, i));
+				}
+				if (running.decrementAndGet() == 0) {
+					writing.set(false);
+				}
+				return null;
+			});
+		}
+		for (int r = 0; r < READERS; r++) {
+			String type = "Event-" + (r % 2);
+			tasks.add(() -> {
+				start.await();
+				do {
+					try (EventIterator eventIterator = eventStore.query(type, 1000, 2000)) {
+						long last = Long.MIN_VALUE;
+						while (eventIterator.moveNext()) {
+							long timestamp = eventIterator.current().timestamp();
+							assertTrue(timestamp >= last && timestamp >= 1000 && timestamp < 2000);
+							last = timestamp;
+						}
+					}
+				} while (writing.get());
+				return null;
+			});
+		}
+		runAll(tasks);
+
+		for (int t = 0; t < 2; t++) {
+			int count = 0;
+			try (EventIterator eventIterator = eventStore.query("Event-" + t, 0, Long.MAX_VALUE)) {
+				while (eventIterator.moveNext()) {
+					count++;
+				}
+			}
+			assertEquals(2 * EVENTS_PER_WRITER, count);
+		}
+	}
+
+	@Test
+	public void testConcurrentRemovalsThroughIterators() throws Exception {
+		EventStore eventStore = new IndexedEventStore();
+		for (int i = 0; i < EVENTS_PER_WRITER; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int r = 0; r < READERS; r++) {
+			//Every reader tries to remove the same odd events, but each one must be removed exactly once
+			tasks.add(() -> {
+				start.await();
+				try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+					while (eventIterator.moveNext()) {
+						if (eventIterator.current().timestamp() % 2 == 1) {
+							eventIterator.remove();
+						}
+					}
+				}
+				return null;
+			});
+		}
+		runAll(tasks);
+
+		int count = 0;
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				assertEquals(0, eventIterator.current().timestamp() % 2);
+				count++;
+			}
+		}
+		assertEquals(EVENTS_PER_WRITER / 2, count);
+	}
+
+	@Test
+	public void testInsertIsVisibleUnlessRemoveAllOverlaps() throws Exception {
+		EventStore eventStore = new IndexedEventStore();
+		AtomicLong removalsStarted = new AtomicLong();
+		AtomicLong removalsFinished = new AtomicLong();
+		AtomicLong running = new AtomicLong(WRITERS);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int w = 0; w < WRITERS; w++) {
+			long writer = w;
+			tasks.add(() -> {
+				start.await();
+				for (int i = 0; i < EVENTS_PER_WRITER / 10; i++) {
+					long timestamp = writer * EVENTS_PER_WRITER + i;
+					long finishedBefore = removalsFinished.get();
+					eventStore.insert(new Event("Event-1", timestamp));
+					boolean visible;
+					try (EventIterator eventIterator = eventStore.query("Event-1", timestamp, timestamp + 1)) {
+						visible = eventIterator.moveNext();
+					}
+					//An insert may only vanish if some removeAll was running at some point while we inserted and looked
+					assertTrue(visible || removalsStarted.get() > finishedBefore);
+				}
+				if (running.decrementAndGet() == 0) {
+					writing.set(false);
+				}
+				return null;
+			});
+		}
+		tasks.add(() -> {
+			start.await();
+			while (writing.get()) {
+				removalsStarted.incrementAndGet();
+				eventStore.removeAll("Event-1");
+				removalsFinished.incrementAndGet();
+				Thread.yield();
+			}
+			return null;
+		});
+		runAll(tasks);
+	}
+
+	@Test
+	public void testEventStoreImplQueryDuringInserts() throws Exception {
+		EventStore eventStore = new EventStoreImpl(new HashSet<Event>());
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		tasks.add(() -> {
+			start.await();
+			for (int i = 0; i < EVENTS_PER_WRITER; i++) {
+				eventStore.insert(new Event("Event-1", i));
+			}
+			writing.set(false);
+			return null;
+		});
+		tasks.add(() -> {
+			start.await();
+			do {
+				EventIterator eventIterator = eventStore.query("Event-1", 0, 100);
+				while (eventIterator.moveNext()) {
+					eventIterator.current();
+				}
+			} while (writing.get());
+			return null;
+		});
+		runAll(tasks);
+	}
+}
@@ -0,0 +1,110 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class IndexedEventStoreTest {
+	IndexedEventStore eventStore = new IndexedEventStore();
+
+	public List<Event> getTestData() {
+		List<Event> events = new ArrayList<Event>();
+		Random random = new Random(42);
+		for (int i = 0; i < 500; i++) {
+			events.add(new Event("Event-" + random.nextInt(3), random.nextInt(1000)));
+		}
+		return events;
+	}
+
+	public Set<Event> drain(EventIterator eventIterator) throws Exception {
+		Set<Event> result = new HashSet<Event>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				assertTrue(result.add(it.current()));
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testQueryUnknownType() throws Exception {
+		eventStore.insert(new Event("Event-1", 123L));
+
+		assertTrue(drain(eventStore.query("Event-2", 0, Long.MAX_VALUE)).isEmpty());
+		assertTrue(drain(eventStore.query(null, 0, Long.MAX_VALUE)).isEmpty());
+	}
+
+	@Test
+	public void testQuerySomeTimestamps() throws Exception {
+		List<Event> testData = getTestData();
+		Set<Event> projectedQueryResult = new HashSet<Event>();
+		for (Event event : testData) {
+			eventStore.insert(event);
+			if (event.type().equals("Event-1") && event.timestamp() >= 250 && event.timestamp() < 300) {
+				projectedQueryResult.add(event);
+			}
+		}
+
+		assertEquals(projectedQueryResult, drain(eventStore.query("Event-1", 250, 300)));
+	}
+
+	@Test
+	public void testQueryKeepsEventsWithSameTimestamp() throws Exception {
+		Event event = new Event("Event-1", 123L);
+		Event sameTimestamp = new Event("Event-1", 123L);
+		eventStore.insert(event);
+		eventStore.insert(sameTimestamp);
+
+		Set<Event> result = drain(eventStore.query("Event-1", 123L, 124L));
+		assertEquals(2, result.size());
+		assertTrue(result.contains(event));
+		assertTrue(result.contains(sameTimestamp));
+	}
+
+	@Test
+	public void testQueryBoundaries() throws Exception {
+		eventStore.insert(new Event("Event-1", 10L));
+		eventStore.insert(new Event("Event-1", 20L));
+
+		assertEquals(1, drain(eventStore.query("Event-1", 10L, 20L)).size());
+		assertTrue(drain(eventStore.query("Event-1", 11L, 20L)).isEmpty());
+		assertTrue(drain(eventStore.query("Event-1", 20L, 10L)).isEmpty());
+	}
+
+	@Test
+	public void testRemoveAll() throws Exception {
+		List<Event> testData = getTestData();
+		for (Event event : testData) {
+			eventStore.insert(event);
+		}
+		eventStore.removeAll("Event-1");
+
+		assertTrue(drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).isEmpty());
+		assertFalse(drain(eventStore.query("Event-2", 0, Long.MAX_VALUE)).isEmpty());
+		assertNull(eventStore.index("Event-1"));
+	}
+
+	@Test
+	public void testRemoveThroughIterator() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, 50)) {
+			while (eventIterator.moveNext()) {
+				eventIterator.remove();
+			}
+		}
+
+		assertTrue(drain(eventStore.query("Event-1", 0, 50)).isEmpty());
+		assertEquals(50, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).size());
+	}
+}
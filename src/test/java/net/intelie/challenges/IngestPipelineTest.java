@@ -0,0 +1,180 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class IngestPipelineTest {
+	static final int PRODUCERS = 4;
+	static final int EVENTS_PER_PRODUCER = 50000;
+
+	/**
+	 * A store whose batch inserts wait for a latch, to keep the ring buffer full
+	 */
+	static class BlockedStore extends ColumnarEventStore {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void insertAll(Event[] events, int offset, int length) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.insertAll(events, offset, length);
+		}
+	}
+
+	void produce(EventStore eventStore) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(PRODUCERS);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int p = 0; p < PRODUCERS; p++) {
+				String type = "Event-" + p;
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+						eventStore.insert(new Event(type, i));
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testConcurrentProducersWithBlockingPolicy() throws Exception {
+		ColumnarEventStore store = new ColumnarEventStore();
+		try (IngestPipeline pipeline = new IngestPipeline(store, 64, BackpressurePolicy.BLOCK, 16)) {
+			produce(pipeline);
+			pipeline.flush();
+			assertEquals(0, pipeline.pendingEvents());
+			assertEquals(0, pipeline.droppedEvents());
+		}
+		for (int p = 0; p < PRODUCERS; p++) {
+			assertEquals(EVENTS_PER_PRODUCER, store.count("Event-" + p, 0, Long.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void testConcurrentProducersWithSpinPolicy() throws Exception {
+		ColumnarEventStore store = new ColumnarEventStore();
+		IngestPipeline pipeline = new IngestPipeline(store, 1024, BackpressurePolicy.SPIN);
+		produce(pipeline);
+		pipeline.close();
+		for (int p = 0; p < PRODUCERS; p++) {
+			assertEquals(EVENTS_PER_PRODUCER, store.count("Event-" + p, 0, Long.MAX_VALUE));
+		}
+		assertThrows(IllegalStateException.class, () -> pipeline.insert(new Event("Event-1", 1L)));
+	}
+
+	@Test
+	public void testDropPolicyCountsDrops() throws Exception {
+		BlockedStore store = new BlockedStore();
+		try (IngestPipeline pipeline = new IngestPipeline(store, 8, BackpressurePolicy.DROP, 4)) {
+			int accepted = 0;
+			for (int i = 0; i < 100; i++) {
+				IngestHandle handle = pipeline.insertAsync(new Event("Event-1", i));
+				if (handle.isDropped()) {
+					assertSame(IngestHandle.DROPPED, handle);
+					assertTrue(handle.isDone());
+				} else {
+					accepted++;
+				}
+			}
+			//The writer holds at most one batch while it is blocked, and the ring buffer the rest
+			assertTrue(accepted >= 8 && accepted <= 12);
+			assertEquals(100 - accepted, pipeline.droppedEvents());
+			store.release.countDown();
+			pipeline.flush();
+			assertEquals(accepted, store.count("Event-1", 0, Long.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void testHandleCompletesWhenApplied() throws Exception {
+		BlockedStore store = new BlockedStore();
+		try (IngestPipeline pipeline = new IngestPipeline(store, 16, BackpressurePolicy.BLOCK)) {
+			IngestHandle handle = pipeline.insertAsync(new Event("Event-1", 42L));
+			assertFalse(handle.await(20, TimeUnit.MILLISECONDS));
+			assertFalse(handle.isDone());
+			assertEquals(0, pipeline.count("Event-1", 0, Long.MAX_VALUE));
+
+			store.release.countDown();
+			assertTrue(handle.await(10, TimeUnit.SECONDS));
+			assertEquals(1, pipeline.count("Event-1", 0, Long.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void testRemoveAllIncludesEventsInFlight() throws Exception {
+		ColumnarEventStore store = new ColumnarEventStore();
+		try (IngestPipeline pipeline = new IngestPipeline(store, 1024, BackpressurePolicy.BLOCK)) {
+			for (int i = 0; i < 500; i++) {
+				pipeline.insert(new Event("Event-1", i));
+			}
+			pipeline.removeAll("Event-1");
+			assertEquals(0, store.count("Event-1", 0, Long.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void testStoreFailuresOnlyLoseTheRejectedEvents() throws Exception {
+		ColumnarEventStore store = new ColumnarEventStore() {
+			@Override
+			public void insert(Event event) {
+				if (event.timestamp() == 13) {
+					throw new IllegalStateException("rejected");
+				}
+				super.insert(event);
+			}
+
+			@Override
+			public void insertAll(Event[] events, int offset, int length) {
+				for (int i = offset; i < offset + length; i++) {
+					if (events[i].timestamp() == 13) {
+						throw new IllegalStateException("rejected");
+					}
+				}
+				super.insertAll(events, offset, length);
+			}
+		};
+		try (IngestPipeline pipeline = new IngestPipeline(store, 64, BackpressurePolicy.BLOCK)) {
+			List<IngestHandle> handles = new ArrayList<IngestHandle>();
+			for (int i = 0; i < 100; i++) {
+				handles.add(pipeline.insertAsync(new Event("Event-1", i)));
+			}
+			pipeline.flush();
+			assertEquals(99, store.count("Event-1", 0, Long.MAX_VALUE));
+			assertEquals(1, pipeline.failedEvents());
+			assertEquals("rejected", pipeline.lastFailure().getMessage());
+			for (int i = 0; i < 100; i++) {
+				assertTrue(handles.get(i).isDone());
+				assertEquals(i == 13, handles.get(i).isFailed());
+			}
+		}
+	}
+
+	@Test
+	public void testRingBufferCapacity() {
+		assertEquals(2, new RingBuffer(1).capacity());
+		assertEquals(8, new RingBuffer(5).capacity());
+		assertEquals(8, new RingBuffer(8).capacity());
+		assertThrows(IllegalArgumentException.class, () -> new RingBuffer(0));
+	}
+}
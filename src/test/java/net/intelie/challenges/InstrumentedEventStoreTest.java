@@ -0,0 +1,143 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+public class InstrumentedEventStoreTest {
+	InstrumentedEventStore eventStore = new InstrumentedEventStore(new ColumnarEventStore());
+
+	@Test
+	public void testHistogramBucketsAreTight() throws Exception {
+		for (long value : new long[] {0, 1, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE}) {
+			int index = LatencyHistogram.indexOf(value);
+			assertTrue(index < LatencyHistogram.BUCKETS);
+			long highest = LatencyHistogram.highestValueOf(index);
+			assertTrue(highest >= value);
+			//Every bucket is at most 1/16th of the values it holds
+			assertTrue(highest - value <= value / 16);
+			if (index > 0) {
+				assertTrue(LatencyHistogram.highestValueOf(index - 1) < value);
+			}
+		}
+	}
+
+	@Test
+	public void testHistogramPercentiles() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+		assertEquals(1000, snapshot.count());
+		assertEquals(500500.0, snapshot.mean(), 0.001);
+		assertEquals(1000000, snapshot.max());
+		assertEquals(500000, snapshot.percentile(50), 500000 / 16);
+		assertEquals(990000, snapshot.percentile(99), 990000 / 16);
+		assertEquals(1000000, snapshot.percentile(100));
+		assertEquals(0, new LatencyHistogram().snapshot().percentile(99));
+	}
+
+	@Test
+	public void testCountsOperations() throws Exception {
+		eventStore.insert(new Event("Event-1", 10L));
+		eventStore.insertAll(Arrays.asList(new Event("Event-1", 20L), new Event("Event-2", 30L)));
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			assertEquals(1, eventStore.metrics().getOpenIterators());
+			while (eventIterator.moveNext()) {
+				if (eventIterator.current().timestamp() == 10L) {
+					eventIterator.remove();
+				}
+			}
+		}
+		assertEquals(1, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		eventStore.removeAll("Event-2");
+		eventStore.removeRange("Event-3", 0, 10);
+
+		MetricsSnapshot snapshot = eventStore.metrics().snapshot();
+		assertEquals(3, snapshot.inserts());
+		assertEquals(2, snapshot.queries());
+		assertEquals(1, snapshot.removeAlls());
+		assertEquals(1, snapshot.removeAllLatency().count());
+		assertEquals(1, snapshot.removeRanges());
+		assertEquals(1, snapshot.removeRangeLatency().count());
+		assertEquals(1, snapshot.iteratorRemoves());
+		assertEquals(2, snapshot.eventsVisited());
+		assertEquals(0, snapshot.openIterators());
+		assertEquals(2, snapshot.insertLatency().count());
+		assertEquals(2, snapshot.queryLatency().count());
+		assertEquals(1, snapshot.iteratorLifetime().count());
+		Map<String, Long> perType = new HashMap<String, Long>();
+		perType.put("Event-1", 1L);
+		assertEquals(perType, snapshot.eventsPerType());
+		assertTrue(snapshot.usedBytes() > 0);
+	}
+
+	@Test
+	public void testDisabledMetricsAreNotRecorded() throws Exception {
+		eventStore.metrics().setEnabled(false);
+		eventStore.insert(new Event("Event-1", 10L));
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			assertTrue(eventIterator.moveNext());
+		}
+
+		assertEquals(0, eventStore.metrics().getInsertCount());
+		assertEquals(0, eventStore.metrics().getQueryCount());
+		assertEquals(0, eventStore.metrics().getEventsVisited());
+		eventStore.metrics().setEnabled(true);
+		eventStore.insert(new Event("Event-1", 20L));
+		assertEquals(1, eventStore.metrics().getInsertCount());
+	}
+
+	@Test
+	public void testRatesBetweenSnapshots() throws Exception {
+		MetricsSnapshot before = eventStore.metrics().snapshot();
+		for (int i = 0; i < 100; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		Thread.sleep(5);
+		MetricsSnapshot after = eventStore.metrics().snapshot();
+
+		assertTrue(after.insertRate(before) > 0);
+		assertEquals(0, after.queryRate(before), 0);
+		assertEquals(0, after.insertRate(after), 0);
+	}
+
+	@Test
+	public void testUsedBytesFollowsTheStore() throws Exception {
+		assertEquals(-1, new InstrumentedEventStore(new IndexedEventStore()).metrics().getUsedBytes());
+		long empty = eventStore.metrics().getUsedBytes();
+		for (int i = 0; i < 10000; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		assertTrue(eventStore.metrics().getUsedBytes() >= empty + 8 * 10000);
+	}
+
+	@Test
+	public void testRegistersOnThePlatformMBeanServer() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = eventStore.registerMBean("test");
+		try {
+			eventStore.insert(new Event("Event-1", 10L));
+			assertEquals(1L, server.getAttribute(name, "InsertCount"));
+			CompositeData latency = (CompositeData) server.getAttribute(name, "InsertLatency");
+			assertEquals(1L, latency.get("count"));
+			server.setAttribute(name, new javax.management.Attribute("Enabled", false));
+			assertFalse(eventStore.metrics().isEnabled());
+		} finally {
+			eventStore.close();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,109 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+public class IteratorLifecycleTest {
+
+	EventStore populate(EventStore eventStore) {
+		for (int i = 0; i < 100; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		return eventStore;
+	}
+
+	int drain(EventIterator eventIterator) throws Exception {
+		int count = 0;
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				it.current();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testClosingTheAllEventsIteratorKeepsTheStore() throws Exception {
+		EventStore eventStore = populate(new EventStoreImpl(new HashSet<Event>()));
+		EventIterator eventIterator = eventStore.query(null, 0L, 0L);
+		assertTrue(eventIterator.moveNext());
+		eventIterator.close();
+
+		assertFalse(eventIterator.moveNext());
+		assertEquals(100, drain(eventStore.query(null, 0L, 0L)));
+		assertEquals(100, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)));
+	}
+
+	void assertPooled(EventStore eventStore) throws Exception {
+		populate(eventStore);
+		EventIterator first = eventStore.query("Event-1", 0, 10);
+		assertEquals(10, drain(first));
+		//A second close must not hand the iterator out twice
+		first.close();
+		EventIterator second = eventStore.query("Event-1", 10, 20);
+		EventIterator third = eventStore.query("Unknown", 0, Long.MAX_VALUE);
+		assertNotSame(first, second);
+		assertNotSame(second, third);
+		//Nor may a stale close reach the query that reuses the iterator
+		first.close();
+		assertFalse(first.moveNext());
+		assertFalse(third.moveNext());
+		assertEquals(10, drain(second));
+		third.close();
+		assertEquals(100, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testIndexedIteratorsArePooled() throws Exception {
+		IndexedEventStore eventStore = new IndexedEventStore();
+		assertPooled(eventStore);
+		assertEquals(0, eventStore.versions.pinned());
+	}
+
+	@Test
+	public void testColumnarIteratorsArePooled() throws Exception {
+		assertPooled(new ColumnarEventStore());
+	}
+
+	@Test
+	public void testOffHeapIteratorsArePooled() throws Exception {
+		try (OffHeapEventStore eventStore = new OffHeapEventStore(1 << 20)) {
+			assertPooled(eventStore);
+		}
+	}
+
+	@Test
+	public void testCompressedIteratorsArePooled() throws Exception {
+		assertPooled(new CompressedEventStore());
+	}
+
+	@Test
+	public void testIteratorsAreNotSharedAcrossThreads() throws Exception {
+		EventStore eventStore = populate(new ColumnarEventStore());
+		EventIterator mine = eventStore.query("Event-1", 0, 10);
+		mine.close();
+		EventIterator[] theirs = new EventIterator[1];
+		Thread thread = new Thread(() -> theirs[0] = eventStore.query("Event-1", 0, 10));
+		thread.start();
+		thread.join();
+
+		assertNotSame(mine, theirs[0]);
+		assertEquals(10, drain(theirs[0]));
+	}
+
+	@Test
+	public void testPoolKeepsABoundedNumberOfIterators() throws Exception {
+		IteratorPool<Object> pool = new IteratorPool<Object>(Object::new);
+		for (int i = 0; i < IteratorPool.MAX_IDLE; i++) {
+			assertTrue(pool.release(new Object()));
+		}
+		assertFalse(pool.release(new Object()));
+	}
+}
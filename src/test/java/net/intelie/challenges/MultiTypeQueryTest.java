@@ -0,0 +1,121 @@
+package net.intelie.challenges;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class MultiTypeQueryTest {
+	OffHeapEventStore offHeapStore = new OffHeapEventStore(1000 * OffHeapColumn.segmentBytes(64), 64);
+
+	@After
+	public void tearDown() {
+		offHeapStore.close();
+	}
+
+	List<EventStore> stores() {
+		List<EventStore> stores = new ArrayList<EventStore>();
+		stores.add(new EventStoreImpl(new HashSet<Event>()));
+		stores.add(new IndexedEventStore());
+		stores.add(new ColumnarEventStore());
+		stores.add(offHeapStore);
+		return stores;
+	}
+
+	List<Event> getTestData() {
+		List<Event> events = new ArrayList<Event>();
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			events.add(new Event("Event-" + random.nextInt(5), random.nextInt(10000)));
+		}
+		return events;
+	}
+
+	List<String> drain(EventIterator eventIterator) throws Exception {
+		List<String> result = new ArrayList<String>();
+		try (EventIterator it = eventIterator) {
+			long last = Long.MIN_VALUE;
+			while (it.moveNext()) {
+				Event event = it.current();
+				assertTrue(event.timestamp() >= last);
+				last = event.timestamp();
+				result.add(event.type() + "@" + event.timestamp());
+			}
+		}
+		return result;
+	}
+
+	List<String> expected(List<Event> events, Set<String> types, long startTime, long endTime) {
+		List<String> result = new ArrayList<String>();
+		for (Event event : events) {
+			if (types.contains(event.type()) && event.timestamp() >= startTime && event.timestamp() < endTime) {
+				result.add(event.type() + "@" + event.timestamp());
+			}
+		}
+		return result;
+	}
+
+	List<String> sorted(List<String> values) {
+		List<String> result = new ArrayList<String>(values);
+		Collections.sort(result);
+		return result;
+	}
+
+	@Test
+	public void testQueryTypesIsOrderedAndComplete() throws Exception {
+		List<Event> events = getTestData();
+		Set<String> types = new HashSet<String>(Arrays.asList("Event-1", "Event-3", "Event-9"));
+		for (EventStore eventStore : stores()) {
+			for (Event event : events) {
+				eventStore.insert(event);
+			}
+			assertEquals(sorted(expected(events, types, 2000, 7000)), sorted(drain(eventStore.queryTypes(types, 2000, 7000))));
+			assertTrue(drain(eventStore.queryTypes(Collections.<String>emptySet(), 0, Long.MAX_VALUE)).isEmpty());
+		}
+	}
+
+	@Test
+	public void testQueryAll() throws Exception {
+		List<Event> events = getTestData();
+		Set<String> all = new HashSet<String>();
+		for (Event event : events) {
+			all.add(event.type());
+		}
+		for (EventStore eventStore : stores()) {
+			for (Event event : events) {
+				eventStore.insert(event);
+			}
+			assertEquals(all, eventStore.types());
+			assertEquals(sorted(expected(events, all, 0, 5000)), sorted(drain(eventStore.queryAll(0, 5000))));
+		}
+	}
+
+	@Test
+	public void testRemoveThroughMergedIterator() throws Exception {
+		IndexedEventStore eventStore = new IndexedEventStore();
+		for (int i = 0; i < 100; i++) {
+			eventStore.insert(new Event("Event-" + (i % 2), i));
+		}
+		try (EventIterator eventIterator = eventStore.queryAll(0, 50)) {
+			while (eventIterator.moveNext()) {
+				eventIterator.remove();
+			}
+		}
+
+		assertTrue(drain(eventStore.queryAll(0, 50)).isEmpty());
+		assertEquals(25, eventStore.count("Event-0", 0, Long.MAX_VALUE));
+		assertEquals(25, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		eventStore.removeAll("Event-0");
+		assertFalse(eventStore.types().contains("Event-0"));
+	}
+}
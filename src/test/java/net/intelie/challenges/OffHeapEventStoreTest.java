@@ -0,0 +1,140 @@
+package net.intelie.challenges;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class OffHeapEventStoreTest {
+	static final int SEGMENT_CAPACITY = 8;
+	static final int SEGMENT_BYTES = OffHeapColumn.segmentBytes(SEGMENT_CAPACITY);
+
+	OffHeapEventStore eventStore = new OffHeapEventStore(1000 * SEGMENT_BYTES, SEGMENT_CAPACITY);
+
+	@After
+	public void tearDown() {
+		eventStore.close();
+	}
+
+	public List<Long> drain(EventIterator eventIterator) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				result.add(it.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testQueryUnknownType() throws Exception {
+		eventStore.insert(new Event("Event-1", 123L));
+
+		assertTrue(drain(eventStore.query("Event-2", 0, Long.MAX_VALUE)).isEmpty());
+		assertTrue(drain(eventStore.query(null, 0, Long.MAX_VALUE)).isEmpty());
+	}
+
+	@Test
+	public void testQueryRandomOrderInserts() throws Exception {
+		Random random = new Random(42);
+		List<Long> expected = new ArrayList<Long>();
+		for (int i = 0; i < 2000; i++) {
+			long timestamp = random.nextInt(500);
+			eventStore.insert(new Event("Event-1", timestamp));
+			if (timestamp >= 100 && timestamp < 300) {
+				expected.add(timestamp);
+			}
+		}
+		Collections.sort(expected);
+
+		assertEquals(expected, drain(eventStore.query("Event-1", 100, 300)));
+		assertEquals(2000, eventStore.column("Event-1").size());
+	}
+
+	@Test
+	public void testQueryManyDuplicatesAcrossBatches() throws Exception {
+		//More equal timestamps than fit in one batch of the iterator
+		for (int i = 0; i < 3 * OffHeapIterator.BATCH_SIZE; i++) {
+			eventStore.insert(new Event("Event-1", 7L));
+		}
+		eventStore.insert(new Event("Event-1", 8L));
+
+		assertEquals(3 * OffHeapIterator.BATCH_SIZE, drain(eventStore.query("Event-1", 7L, 8L)).size());
+		assertEquals(3 * OffHeapIterator.BATCH_SIZE + 1, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).size());
+	}
+
+	@Test
+	public void testCurrentIsCreatedOncePerPosition() throws Exception {
+		eventStore.insert(new Event("Event-1", 10L));
+		EventIterator eventIterator = eventStore.query("Event-1", 0, 100);
+		assertThrows(IllegalStateException.class, () -> {eventIterator.current();});
+		assertTrue(eventIterator.moveNext());
+		assertSame(eventIterator.current(), eventIterator.current());
+		assertEquals("Event-1", eventIterator.current().type());
+		assertFalse(eventIterator.moveNext());
+		assertThrows(IllegalStateException.class, () -> {eventIterator.remove();});
+	}
+
+	@Test
+	public void testRemoveThroughIterator() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			eventStore.insert(new Event("Event-1", i / 2));
+		}
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				if (eventIterator.current().timestamp() % 2 == 0) {
+					eventIterator.remove();
+				}
+			}
+		}
+
+		List<Long> remaining = drain(eventStore.query("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(500, remaining.size());
+		for (long timestamp : remaining) {
+			assertEquals(1, timestamp % 2);
+		}
+	}
+
+	@Test
+	public void testCapacityExhausted() throws Exception {
+		OffHeapEventStore smallStore = new OffHeapEventStore(2 * SEGMENT_BYTES, SEGMENT_CAPACITY);
+		for (int i = 0; i < 2 * SEGMENT_CAPACITY; i++) {
+			smallStore.insert(new Event("Event-1", i));
+		}
+		assertThrows(IllegalStateException.class, () -> {smallStore.insert(new Event("Event-1", 100L));});
+		assertEquals(2 * SEGMENT_CAPACITY, drain(smallStore.query("Event-1", 0, Long.MAX_VALUE)).size());
+		smallStore.close();
+	}
+
+	@Test
+	public void testRemoveAllReleasesSegments() throws Exception {
+		for (int i = 0; i < 10 * SEGMENT_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		long reserved = eventStore.reservedBytes();
+		assertEquals(10 * SEGMENT_BYTES, reserved);
+
+		eventStore.removeAll("Event-1");
+		assertTrue(drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).isEmpty());
+		assertEquals(10, eventStore.pool.freeSegments());
+
+		//Released segments are reused before any new memory is reserved
+		for (int i = 0; i < 10 * SEGMENT_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-2", i));
+		}
+		assertEquals(reserved, eventStore.reservedBytes());
+
+		eventStore.removeAll("Event-2");
+		eventStore.trim();
+		assertEquals(0, eventStore.reservedBytes());
+	}
+}
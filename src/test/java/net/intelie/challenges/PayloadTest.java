@@ -0,0 +1,165 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class PayloadTest {
+	static final PayloadSchema SCHEMA = PayloadSchema.empty().withLong("count").withDouble("value").withString("host");
+
+	ColumnarEventStore eventStore = new ColumnarEventStore();
+
+	static Payload reading(long count, double value, String host) {
+		return SCHEMA.newPayload().setLong("count", count).setDouble("value", value).setString("host", host).build();
+	}
+
+	/**
+	 * Every event of a query, as its timestamp and payload
+	 */
+	List<String> drain(EventStore eventStore, String type) throws Exception {
+		List<String> result = new ArrayList<String>();
+		try (EventIterator eventIterator = eventStore.query(type, Long.MIN_VALUE, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				result.add(eventIterator.current().timestamp() + " " + eventIterator.current().payload());
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testFieldsRoundTrip() {
+		Payload payload = reading(-123456789012L, -0.5, "host-\u00e9");
+		assertEquals(-123456789012L, payload.getLong("count"));
+		assertEquals(-0.5, payload.getDouble("value"), 0);
+		assertEquals("host-\u00e9", payload.getString("host"));
+		assertEquals(payload, reading(-123456789012L, -0.5, "host-\u00e9"));
+		assertFalse(payload.equals(reading(-123456789012L, -0.5, "host-e")));
+
+		//Fields left unset take no space, and skipping them does not shift the others
+		Payload partial = SCHEMA.newPayload().setString("host", "a").build();
+		assertTrue(partial.has("host"));
+		assertFalse(partial.has("count"));
+		assertFalse(partial.has("unknown"));
+		assertEquals("a", partial.getString("host"));
+		assertEquals(3, partial.length);
+		try {
+			partial.getLong("count");
+			fail();
+		} catch (NoSuchElementException e) {
+		}
+		try {
+			partial.getLong("host");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testEventsWithoutPayloadStayPlain() {
+		assertSame(Payload.EMPTY, new Event("Event-1", 1).payload());
+		assertSame(Event.class, Event.of("Event-1", 1, Payload.EMPTY).getClass());
+		assertEquals(7, Event.of("Event-1", 1, reading(7, 0, "a")).payload().getLong("count"));
+	}
+
+	@Test
+	public void testColumnsKeepPayloadsOfOutOfOrderEvents() throws Exception {
+		//Enough events, with and without payloads, to fill, split and grow the slabs of several chunks
+		Random random = new Random(42);
+		List<String> expected = new ArrayList<String>();
+		List<Event> events = new ArrayList<Event>();
+		for (int i = 0; i < 3 * TimestampColumn.CHUNK_CAPACITY; i++) {
+			long timestamp = random.nextInt(10000);
+			Payload payload = i % 5 == 0 ? Payload.EMPTY : reading(timestamp, timestamp / 2.0, "host-" + timestamp);
+			events.add(Event.of("Event-1", timestamp, payload));
+		}
+		for (Event event : events) {
+			eventStore.insert(event);
+		}
+		events.sort(EventBatch.BY_TIMESTAMP);
+		for (Event event : events) {
+			expected.add(event.timestamp() + " " + event.payload());
+		}
+
+		//Events with equal timestamps keep their insertion order
+		assertEquals(expected, drain(eventStore, "Event-1"));
+		for (Event event : eventStore.stream("Event-1", 0, Long.MAX_VALUE).collect(Collectors.toList())) {
+			if (event.payload() != Payload.EMPTY) {
+				assertEquals("host-" + event.timestamp(), event.payload().getString("host"));
+			}
+		}
+	}
+
+	@Test
+	public void testInsertAllMergesPayloads() throws Exception {
+		for (int i = 0; i < 2000; i += 2) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		Event[] batch = new Event[1000];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = Event.of("Event-1", 1999 - 2 * i, reading(i, 0, "batch"));
+		}
+		eventStore.insertAll(batch, 0, batch.length);
+
+		List<String> events = drain(eventStore, "Event-1");
+		assertEquals(2000, events.size());
+		for (int i = 0; i < 2000; i++) {
+			assertEquals(i % 2 == 0 ? i + " {}" : i + " {count=" + (1999 - i) / 2 + ", value=0.0, host=batch}", events.get(i));
+		}
+	}
+
+	@Test
+	public void testRemovalsMatchTimestampAndPayload() throws Exception {
+		eventStore.insert(Event.of("Event-1", 5, reading(1, 0, "a")));
+		eventStore.insert(new Event("Event-1", 5));
+		eventStore.insert(Event.of("Event-1", 5, reading(2, 0, "b")));
+		eventStore.insert(Event.of("Event-1", 6, reading(3, 0, "c")));
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, 10)) {
+			while (eventIterator.moveNext()) {
+				Payload payload = eventIterator.current().payload();
+				if (payload == Payload.EMPTY || payload.getString("host").equals("b")) {
+					eventIterator.remove();
+				}
+			}
+		}
+		assertEquals(2, eventStore.count("Event-1", 0, 10));
+		assertEquals(1, eventStore.removeRange("Event-1", 5, 6));
+		List<String> events = drain(eventStore, "Event-1");
+		assertEquals(1, events.size());
+		assertEquals("6 {count=3, value=0.0, host=c}", events.get(0));
+	}
+
+	@Test
+	public void testOtherStoresKeepOrRejectPayloads() throws Exception {
+		Event event = Event.of("Event-1", 5, reading(1, 0, "a"));
+		EventStore indexed = new IndexedEventStore();
+		indexed.insert(event);
+		try (EventIterator eventIterator = indexed.query("Event-1", 0, 10)) {
+			assertTrue(eventIterator.moveNext());
+			assertSame(event, eventIterator.current());
+		}
+
+		CompressedEventStore compressed = new CompressedEventStore();
+		try {
+			compressed.insertAll(new Event[] {new Event("Event-1", 1), event}, 0, 2);
+			fail();
+		} catch (IllegalArgumentException e) {
+			//Nothing of the batch is stored
+			assertTrue(compressed.types().isEmpty());
+		}
+		try (OffHeapEventStore offHeap = new OffHeapEventStore(1 << 20)) {
+			offHeap.insert(event);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
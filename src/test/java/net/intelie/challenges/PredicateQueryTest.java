@@ -0,0 +1,179 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class PredicateQueryTest {
+	static final PayloadSchema SCHEMA = PayloadSchema.empty().withLong("status").withDouble("value").withString("host");
+
+	ColumnarEventStore eventStore = new ColumnarEventStore();
+
+	static Payload reading(long status, double value, String host) {
+		return SCHEMA.newPayload().setLong("status", status).setDouble("value", value).setString("host", host).build();
+	}
+
+	/**
+	 * Every event of a query, as its timestamp and payload
+	 */
+	static List<String> drain(EventIterator eventIterator) throws Exception {
+		List<String> result = new ArrayList<String>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				result.add(it.current().timestamp() + " " + it.current().payload());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Inserts the same random events, a fifth of them without payload, in both stores
+	 */
+	static void fill(EventStore first, EventStore second, int count) {
+		Random random = new Random(42);
+		for (int i = 0; i < count; i++) {
+			long timestamp = random.nextInt(20000);
+			Payload payload = i % 5 == 0 ? Payload.EMPTY : reading(200 + random.nextInt(4), random.nextInt(100) / 4.0, "host-" + random.nextInt(10));
+			first.insert(Event.of("Event-1", timestamp, payload));
+			second.insert(Event.of("Event-1", timestamp, payload));
+		}
+	}
+
+	static FieldPredicate[][] predicates() {
+		return new FieldPredicate[][] {
+				{FieldPredicate.stringEquals("host", "host-3")},
+				{FieldPredicate.longEquals("status", 201), FieldPredicate.doubleBetween("value", 5, 10)},
+				{FieldPredicate.longBetween("status", 202, 1000)},
+				{FieldPredicate.doubleEquals("value", 12.25), FieldPredicate.stringEquals("host", "host-1")},
+				{FieldPredicate.stringEquals("host", "nowhere")},
+				{FieldPredicate.longBetween("status", 5, 5)},
+		};
+	}
+
+	@Test
+	public void testPredicatesOnPayloads() {
+		Payload payload = reading(404, -0.0, "a");
+		assertTrue(FieldPredicate.longEquals("status", 404).test(payload));
+		assertTrue(FieldPredicate.longBetween("status", 400, 405).test(payload));
+		assertFalse(FieldPredicate.longBetween("status", 400, 404).test(payload));
+		assertFalse(FieldPredicate.longBetween("status", Long.MAX_VALUE, Long.MIN_VALUE).test(payload));
+		assertTrue(FieldPredicate.doubleBetween("value", -1, 0).test(payload));
+		//As Double.compare, -0.0 is below 0.0
+		assertFalse(FieldPredicate.doubleEquals("value", 0.0).test(payload));
+		assertTrue(FieldPredicate.stringEquals("host", "a").test(payload));
+		assertFalse(FieldPredicate.stringEquals("host", "ab").test(payload));
+
+		//Only fields of the predicate's type that the payload sets match
+		assertFalse(FieldPredicate.doubleEquals("status", 404).test(payload));
+		assertFalse(FieldPredicate.longEquals("unknown", 404).test(payload));
+		assertFalse(FieldPredicate.stringEquals("host", "a").test(SCHEMA.newPayload().setLong("status", 1).build()));
+		assertFalse(FieldPredicate.longBetween("status", Long.MIN_VALUE, Long.MAX_VALUE).test(Payload.EMPTY));
+	}
+
+	@Test
+	public void testScanMatchesFilteredQuery() throws Exception {
+		EventStore reference = new IndexedEventStore();
+		fill(eventStore, reference, 5 * TimestampColumn.CHUNK_CAPACITY);
+		//Chunks of plain events, which the scan skips whole
+		for (int i = 0; i < 2 * TimestampColumn.CHUNK_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", 30000 + i));
+			reference.insert(new Event("Event-1", 30000 + i));
+		}
+
+		for (FieldPredicate[] predicates : predicates()) {
+			List<String> expected = drain(reference.query("Event-1", 1000, 40000, predicates));
+			assertEquals(expected, drain(eventStore.query("Event-1", 1000, 40000, predicates)));
+		}
+		assertTrue(drain(eventStore.query("Event-2", 0, 40000, FieldPredicate.stringEquals("host", "host-3"))).isEmpty());
+		assertEquals(drain(eventStore.query("Event-1", 0, 100)), drain(eventStore.query("Event-1", 0, 100, new FieldPredicate[0])));
+	}
+
+	@Test
+	public void testEmptyRangesMatchNothing() throws Exception {
+		Payload lowest = reading(Long.MIN_VALUE, 0, "a");
+		for (FieldPredicate empty : new FieldPredicate[] {FieldPredicate.longBetween("status", Long.MIN_VALUE, Long.MIN_VALUE),
+				FieldPredicate.longBetween("status", 0, Long.MIN_VALUE), FieldPredicate.doubleBetween("value", 0, 0)}) {
+			assertTrue(empty.isEmpty());
+			assertFalse(empty.test(lowest));
+		}
+		assertFalse(FieldPredicate.longBetween("status", Long.MIN_VALUE, Long.MIN_VALUE + 1).isEmpty());
+		assertTrue(FieldPredicate.longBetween("status", Long.MIN_VALUE, Long.MIN_VALUE + 1).test(lowest));
+
+		eventStore.createIndex("Event-1", "status", PayloadSchema.FieldType.LONG);
+		eventStore.insert(Event.of("Event-1", 1, lowest));
+		eventStore.insert(Event.of("Event-1", 2, reading(Long.MAX_VALUE, 0, "a")));
+		assertTrue(drain(eventStore.query("Event-1", 0, 10, FieldPredicate.longBetween("status", Long.MIN_VALUE, Long.MIN_VALUE))).isEmpty());
+		assertEquals(1, drain(eventStore.query("Event-1", 0, 10, FieldPredicate.longBetween("status", Long.MIN_VALUE, 0))).size());
+	}
+
+	@Test
+	public void testIndexedQueriesMatchScans() throws Exception {
+		ColumnarEventStore scanned = new ColumnarEventStore();
+		//One index is built from the events already stored, the others are kept up as events arrive
+		eventStore.createIndex("Event-1", "status", PayloadSchema.FieldType.LONG);
+		fill(eventStore, scanned, 5 * TimestampColumn.CHUNK_CAPACITY);
+		eventStore.createIndex("Event-1", "host", PayloadSchema.FieldType.STRING);
+		eventStore.createIndex("Event-1", "value", PayloadSchema.FieldType.DOUBLE);
+		Event[] batch = new Event[1000];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = Event.of("Event-1", 19999 - 7 * i, reading(201, 7.5, "host-3"));
+		}
+		eventStore.insertAll(batch, 0, batch.length);
+		scanned.insertAll(batch, 0, batch.length);
+
+		for (FieldPredicate[] predicates : predicates()) {
+			assertEquals(drain(scanned.query("Event-1", 1000, 15000, predicates)), drain(eventStore.query("Event-1", 1000, 15000, predicates)));
+		}
+	}
+
+	@Test
+	public void testIndexesFollowRemovals() throws Exception {
+		ColumnarEventStore scanned = new ColumnarEventStore();
+		eventStore.createIndex("Event-1", "host", PayloadSchema.FieldType.STRING);
+		fill(eventStore, scanned, 5 * TimestampColumn.CHUNK_CAPACITY);
+		FieldPredicate host = FieldPredicate.stringEquals("host", "host-3");
+
+		for (ColumnarEventStore store : new ColumnarEventStore[] {eventStore, scanned}) {
+			//Removing through a filtered query only removes the events it returns
+			try (EventIterator eventIterator = store.query("Event-1", 0, 20000, FieldPredicate.longEquals("status", 202))) {
+				while (eventIterator.moveNext()) {
+					eventIterator.remove();
+				}
+			}
+			store.removeRange("Event-1", 5000, 6000);
+			store.evict(RetentionPolicy.unlimited().withMaxAge(1, TimeUnit.MILLISECONDS), 3001);
+		}
+		assertTrue(drain(scanned.query("Event-1", 0, 20000, FieldPredicate.longEquals("status", 202))).isEmpty());
+		assertEquals(drain(scanned.query("Event-1", 0, 20000, host)), drain(eventStore.query("Event-1", 0, 20000, host)));
+		assertEquals(scanned.count("Event-1", 0, 20000), eventStore.count("Event-1", 0, 20000));
+		//Removed events leave the posting lists, rather than being filtered out by the scan
+		long[] candidates = eventStore.column("Event-1").indexFor("host", PayloadSchema.FieldType.STRING).candidates(host, 0, 20000);
+		assertEquals(scanned.stream("Event-1", 0, 20000).filter(event -> host.test(event.payload())).mapToLong(Event::timestamp).distinct().count(), candidates.length);
+
+		long withIndex = eventStore.usedBytes();
+		eventStore.removeAll("Event-1");
+		assertTrue(drain(eventStore.query("Event-1", 0, 20000, host)).isEmpty());
+		//The posting lists go with the events
+		assertTrue(eventStore.usedBytes() < 100 && withIndex > scanned.usedBytes());
+	}
+
+	@Test
+	public void testWrappersPassPredicatesOn() throws Exception {
+		EventStore reference = new IndexedEventStore();
+		ShardedEventStore sharded = new ShardedEventStore(4, ColumnarEventStore::new);
+		fill(sharded, reference, 2000);
+		FieldPredicate[] predicates = {FieldPredicate.stringEquals("host", "host-3"), FieldPredicate.longBetween("status", 200, 202)};
+
+		List<String> expected = drain(reference.query("Event-1", 0, 20000, predicates));
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, drain(sharded.query("Event-1", 0, 20000, predicates)));
+		assertEquals(expected, drain(new InstrumentedEventStore(sharded).query("Event-1", 0, 20000, predicates)));
+	}
+}
@@ -0,0 +1,218 @@
+package net.intelie.challenges;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class RangeRemovalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	List<Long> timestamps(EventStore eventStore, String type) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator eventIterator = eventStore.query(type, Long.MIN_VALUE, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				result.add(eventIterator.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	void populate(EventStore eventStore) {
+		for (int i = 0; i < 5000; i++) {
+			eventStore.insert(new Event("Event-1", i));
+			eventStore.insert(new Event("Event-2", i));
+		}
+	}
+
+	void assertRemovesRanges(EventStore eventStore) throws Exception {
+		populate(eventStore);
+		//Many whole chunks and segments, and a cut at both ends
+		assertEquals(2500, eventStore.removeRange("Event-1", 1000, 3500));
+		//Inside a single chunk or segment
+		assertEquals(10, eventStore.removeRange("Event-1", 10, 20));
+		assertEquals(0, eventStore.removeRange("Event-1", 1000, 3500));
+		assertEquals(0, eventStore.removeRange("Event-1", 30, 30));
+		assertEquals(0, eventStore.removeRange("Unknown", 0, Long.MAX_VALUE));
+
+		List<Long> expected = new ArrayList<Long>();
+		for (long i = 0; i < 5000; i++) {
+			if (i < 10 || i >= 20 && i < 1000 || i >= 3500) {
+				expected.add(i);
+			}
+		}
+		//EventStoreImpl does not return events in timestamp order
+		List<Long> actual = timestamps(eventStore, "Event-1");
+		Collections.sort(actual);
+		assertEquals(expected, actual);
+		assertEquals(expected.size(), eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(5000, eventStore.count("Event-2", 0, Long.MAX_VALUE));
+
+		assertEquals(expected.size(), eventStore.removeRange("Event-1", Long.MIN_VALUE, Long.MAX_VALUE));
+		assertTrue(timestamps(eventStore, "Event-1").isEmpty());
+	}
+
+	void assertBatchesIteratorRemovals(EventStore eventStore) throws Exception {
+		//Every timestamp twice, so that duplicates straddle chunk and batch boundaries
+		for (int i = 0; i < 3000; i++) {
+			eventStore.insert(new Event("Event-1", i / 2));
+		}
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			while (eventIterator.moveNext()) {
+				if (eventIterator.current().timestamp() % 3 == 0) {
+					eventIterator.remove();
+				}
+			}
+		}
+		List<Long> expected = new ArrayList<Long>();
+		for (int i = 0; i < 3000; i++) {
+			if ((i / 2) % 3 != 0) {
+				expected.add((long) (i / 2));
+			}
+		}
+		assertEquals(expected, timestamps(eventStore, "Event-1"));
+	}
+
+	@Test
+	public void testEventStoreImplRemovesRanges() throws Exception {
+		assertRemovesRanges(new EventStoreImpl(new HashSet<Event>()));
+	}
+
+	@Test
+	public void testIndexedRemovesRanges() throws Exception {
+		assertRemovesRanges(new IndexedEventStore());
+		assertBatchesIteratorRemovals(new IndexedEventStore());
+	}
+
+	@Test
+	public void testColumnarRemovesRanges() throws Exception {
+		assertRemovesRanges(new ColumnarEventStore());
+		assertBatchesIteratorRemovals(new ColumnarEventStore());
+	}
+
+	@Test
+	public void testOffHeapRemovesRanges() throws Exception {
+		try (OffHeapEventStore eventStore = new OffHeapEventStore(1 << 20, 64)) {
+			assertRemovesRanges(eventStore);
+		}
+		try (OffHeapEventStore eventStore = new OffHeapEventStore(1 << 20, 64)) {
+			assertBatchesIteratorRemovals(eventStore);
+		}
+	}
+
+	@Test
+	public void testOffHeapRangeGivesSegmentsBack() throws Exception {
+		try (OffHeapEventStore eventStore = new OffHeapEventStore(1 << 20, 64)) {
+			for (int i = 0; i < 6400; i++) {
+				eventStore.insert(new Event("Event-1", i));
+			}
+			assertEquals(100, eventStore.column("Event-1").segmentCount());
+			assertEquals(6400 - 64, eventStore.removeRange("Event-1", 32, 6368));
+			//Only the two cut segments are left
+			assertEquals(2, eventStore.column("Event-1").segmentCount());
+			assertEquals(64, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void testColumnarIteratorRemovalsApplyOnClose() throws Exception {
+		ColumnarEventStore eventStore = new ColumnarEventStore();
+		for (int i = 0; i < 10; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		EventIterator eventIterator = eventStore.query("Event-1", 0, 5);
+		while (eventIterator.moveNext()) {
+			eventIterator.remove();
+		}
+		eventIterator.close();
+		assertEquals(5, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+	}
+
+	/**
+	 * Splits a full chunk with a late event, so that the chunk before the tail has free slots
+	 */
+	TimestampColumn splitColumn() {
+		TimestampColumn column = new TimestampColumn("Event-1");
+		for (int i = 0; i < TimestampColumn.CHUNK_CAPACITY; i++) {
+			column.add(2 * i);
+		}
+		column.add(1);
+		assertEquals(2, column.chunks().length);
+		return column;
+	}
+
+	void assertOrderedAfterAppends(TimestampColumn column, TimestampColumn.Chunk[] published) {
+		for (int i = 0; i < TimestampColumn.CHUNK_CAPACITY; i++) {
+			column.add(1_000_000 + i);
+		}
+		long previous = Long.MIN_VALUE;
+		for (TimestampColumn.Chunk chunk : published) {
+			for (int position = 0; position < chunk.size; position++) {
+				assertTrue(chunk.timestamps[position] >= previous);
+				previous = chunk.timestamps[position];
+			}
+		}
+	}
+
+	@Test
+	public void testRemovingTheTailKeepsPublishedChunksInOrder() throws Exception {
+		TimestampColumn column = splitColumn();
+		TimestampColumn.Chunk[] published = column.chunks();
+		assertEquals(published[1].size, column.removeRange(published[1].first(), Long.MAX_VALUE));
+		assertOrderedAfterAppends(column, published);
+
+		column = splitColumn();
+		published = column.chunks();
+		long[] tail = Arrays.copyOf(published[1].timestamps, published[1].size);
+		assertEquals(tail.length, column.removeSorted(tail, tail.length));
+		assertOrderedAfterAppends(column, published);
+
+		column = new TimestampColumn("Event-1");
+		for (int i = 0; i <= TimestampColumn.CHUNK_CAPACITY; i++) {
+			column.add(i);
+		}
+		column.add(1);
+		published = column.chunks();
+		assertTrue(column.remove(TimestampColumn.CHUNK_CAPACITY));
+		assertOrderedAfterAppends(column, published);
+	}
+
+	@Test
+	public void testPipelineAndShardsRemoveRanges() throws Exception {
+		try (IngestPipeline eventStore = new IngestPipeline(new ColumnarEventStore(), 1024, BackpressurePolicy.BLOCK)) {
+			assertRemovesRanges(eventStore);
+		}
+		assertRemovesRanges(new ShardedEventStore(4, ColumnarEventStore::new));
+		assertRemovesRanges(new InstrumentedEventStore(new IndexedEventStore()));
+	}
+
+	@Test
+	public void testDurableReplaysRanges() throws Exception {
+		Path directory = folder.newFolder().toPath();
+		try (DurableEventStore eventStore = new DurableEventStore(new ColumnarEventStore(), directory, FsyncPolicy.NONE)) {
+			populate(eventStore);
+			assertEquals(1000, eventStore.removeRange("Event-1", 1000, 2000));
+			try (EventIterator eventIterator = eventStore.query("Event-2", 0, 600)) {
+				while (eventIterator.moveNext()) {
+					eventIterator.remove();
+				}
+			}
+		}
+		try (DurableEventStore eventStore = new DurableEventStore(new ColumnarEventStore(), directory, FsyncPolicy.NONE)) {
+			assertEquals(4000, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+			assertEquals(0, eventStore.count("Event-1", 1000, 2000));
+			assertEquals(4400, eventStore.count("Event-2", 0, Long.MAX_VALUE));
+			assertEquals(600L, (long) timestamps(eventStore, "Event-2").get(0));
+		}
+	}
+}
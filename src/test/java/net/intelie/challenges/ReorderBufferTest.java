@@ -0,0 +1,212 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that late events buffered by the columns of a {@link ColumnarEventStore} are seen by every read and
+ * write, in timestamp order.
+ */
+public class ReorderBufferTest {
+	ColumnarEventStore eventStore = new ColumnarEventStore();
+
+	static List<Long> timestamps(EventIterator eventIterator) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				result.add(it.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return how many events the chunks of a column hold, without merging its reorder buffer
+	 */
+	static long merged(TimestampColumn column) {
+		long size = 0;
+		for (TimestampColumn.Chunk chunk : column.chunks) {
+			size += chunk.size;
+		}
+		return size;
+	}
+
+	@Test
+	public void testQueriesSeeBufferedStragglers() throws Exception {
+		IndexedEventStore reference = new IndexedEventStore();
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			long timestamp = random.nextInt(10) == 0 ? Math.max(0, i - random.nextInt(2000)) : i;
+			eventStore.insert(new Event("Event-1", timestamp));
+			reference.insert(new Event("Event-1", timestamp));
+		}
+		TimestampColumn column = eventStore.column("Event-1");
+		TimestampColumn.Chunk[] chunks = column.chunks;
+		eventStore.insert(new Event("Event-1", 10));
+		reference.insert(new Event("Event-1", 10));
+		//The straggler waits in the buffer instead of copying a chunk
+		assertSame(chunks, column.chunks);
+		assertTrue(merged(column) < 5001);
+
+		assertEquals(timestamps(reference.query("Event-1", 0, Long.MAX_VALUE)), timestamps(eventStore.query("Event-1", 0, Long.MAX_VALUE)));
+		assertEquals(5001, merged(column));
+		eventStore.insert(new Event("Event-1", 20));
+		assertEquals(reference.count("Event-1", 0, 100) + 1, eventStore.count("Event-1", 0, 100));
+		eventStore.insert(new Event("Event-1", 5));
+		assertEquals(5, eventStore.firstTimestamp("Event-1", 5, 100).getAsLong());
+		eventStore.insert(new Event("Event-1", 4998));
+		assertEquals(reference.count("Event-1", 4998, 4999) + 1, eventStore.histogram("Event-1", 4998, 4999, 1)[0]);
+		eventStore.insert(new Event("Event-1", 30));
+		assertEquals(eventStore.count("Event-1", 0, Long.MAX_VALUE), eventStore.stream("Event-1", 0, Long.MAX_VALUE).count());
+	}
+
+	@Test
+	public void testFullBufferIsMerged() throws Exception {
+		for (int i = 0; i < 3 * TimestampColumn.CHUNK_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", 2L * i));
+		}
+		TimestampColumn column = eventStore.column("Event-1");
+		for (int i = 0; i < TimestampColumn.DEFAULT_REORDER_CAPACITY - 1; i++) {
+			eventStore.insert(new Event("Event-1", 4L * i + 1));
+		}
+		assertEquals(3 * TimestampColumn.CHUNK_CAPACITY, merged(column));
+		//In-order events still go straight to the chunks
+		eventStore.insert(new Event("Event-1", 6L * TimestampColumn.CHUNK_CAPACITY));
+		assertEquals(3 * TimestampColumn.CHUNK_CAPACITY + 1, merged(column));
+
+		eventStore.insert(new Event("Event-1", 3));
+		long size = 3 * TimestampColumn.CHUNK_CAPACITY + 1 + TimestampColumn.DEFAULT_REORDER_CAPACITY;
+		assertEquals(size, merged(column));
+		List<Long> all = timestamps(eventStore.query("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(size, all.size());
+		for (int i = 1; i < all.size(); i++) {
+			assertTrue(all.get(i - 1) <= all.get(i));
+		}
+	}
+
+	@Test
+	public void testMergeOnlyCopiesChunksItReaches() throws Exception {
+		for (int i = 0; i < 4 * TimestampColumn.CHUNK_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", 2L * i));
+		}
+		TimestampColumn column = eventStore.column("Event-1");
+		TimestampColumn.Chunk[] before = column.chunks();
+		assertEquals(4, before.length);
+		eventStore.insert(new Event("Event-1", 1));
+		eventStore.insert(new Event("Event-1", 4L * TimestampColumn.CHUNK_CAPACITY + 2));
+
+		TimestampColumn.Chunk[] after = column.chunks();
+		assertEquals(6, after.length);
+		assertSame(before[1], after[2]);
+		assertSame(before[3], after[5]);
+		//The full chunks each split evenly around their straggler
+		assertEquals(TimestampColumn.CHUNK_CAPACITY / 2, after[0].size);
+		assertEquals(TimestampColumn.CHUNK_CAPACITY / 2 + 1, after[1].size);
+		assertEquals(TimestampColumn.CHUNK_CAPACITY / 2, after[3].size);
+		assertEquals(TimestampColumn.CHUNK_CAPACITY / 2 + 1, after[4].size);
+
+		for (int i = 0; i < TimestampColumn.DEFAULT_REORDER_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", 4L * TimestampColumn.CHUNK_CAPACITY + 2));
+		}
+		assertSame(after[0], column.chunks[0]);
+		List<Long> all = timestamps(eventStore.query("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(4 * TimestampColumn.CHUNK_CAPACITY + 2 + TimestampColumn.DEFAULT_REORDER_CAPACITY, all.size());
+		for (int i = 1; i < all.size(); i++) {
+			assertTrue(all.get(i - 1) <= all.get(i));
+		}
+	}
+
+	@Test
+	public void testBufferedPayloadsKeepInsertOrder() throws Exception {
+		PayloadSchema schema = PayloadSchema.empty().withString("host");
+		eventStore.createIndex("Event-1", "host", PayloadSchema.FieldType.STRING);
+		for (int i = 0; i < 100; i++) {
+			eventStore.insert(Event.of("Event-1", i, schema.newPayload().setString("host", "a").build()));
+		}
+		for (String host : new String[] {"b", "c", "b"}) {
+			eventStore.insert(Event.of("Event-1", 50, schema.newPayload().setString("host", host).build()));
+		}
+
+		List<String> hosts = new ArrayList<String>();
+		try (EventIterator it = eventStore.query("Event-1", 50, 51)) {
+			while (it.moveNext()) {
+				hosts.add(it.current().payload().getString("host"));
+			}
+		}
+		assertEquals(4, hosts.size());
+		assertEquals("[a, b, c, b]", hosts.toString());
+		eventStore.insert(Event.of("Event-1", 60, schema.newPayload().setString("host", "b").build()));
+		//The index lists buffered events as soon as a query needs it
+		assertEquals(3, timestamps(eventStore.query("Event-1", 0, 100, FieldPredicate.stringEquals("host", "b"))).size());
+	}
+
+	@Test
+	public void testRemovalsSeeBufferedEvents() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		eventStore.insert(new Event("Event-1", 500));
+		eventStore.insert(new Event("Event-1", 700));
+		assertEquals(101, eventStore.removeRange("Event-1", 450, 550));
+
+		eventStore.insert(new Event("Event-1", 700));
+		try (EventIterator it = eventStore.query("Event-1", 700, 701)) {
+			while (it.moveNext()) {
+				it.remove();
+			}
+		}
+		assertEquals(0, eventStore.count("Event-1", 700, 701));
+
+		eventStore.insert(new Event("Event-1", 10));
+		eventStore.removeAll("Event-1");
+		assertTrue(eventStore.types().isEmpty());
+		//The buffer goes with the events
+		assertTrue(eventStore.usedBytes() < 100);
+	}
+
+	@Test
+	public void testRacingWritersAndReaders() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(5);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int w = 0; w < 4; w++) {
+				int writer = w;
+				futures.add(pool.submit(() -> {
+					//Stamped from a shared clock and inserted a little later, like Main.populateStore does
+					for (int i = 0; i < 20_000; i++) {
+						eventStore.insert(new Event("Event-1", 4L * i + writer - (i % 7 == 0 ? 40 : 0)));
+					}
+				}));
+			}
+			futures.add(pool.submit(() -> {
+				long seen = 0;
+				while (seen < 80_000) {
+					List<Long> found = timestamps(eventStore.query("Event-1", Long.MIN_VALUE, Long.MAX_VALUE));
+					for (int i = 1; i < found.size(); i++) {
+						assertTrue(found.get(i - 1) <= found.get(i));
+					}
+					assertTrue(found.size() >= seen);
+					seen = found.size();
+				}
+				return null;
+			}));
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(80_000, eventStore.count("Event-1", Long.MIN_VALUE, Long.MAX_VALUE));
+	}
+}
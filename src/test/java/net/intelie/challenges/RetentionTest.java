@@ -0,0 +1,152 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetentionTest {
+	static final int CHUNK = TimestampColumn.CHUNK_CAPACITY;
+
+	public List<Long> drain(EventIterator eventIterator) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				result.add(it.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	void fill(EventStore eventStore, String type, long count) {
+		for (long i = 0; i < count; i++) {
+			eventStore.insert(new Event(type, i));
+		}
+	}
+
+	@Test
+	public void testCutoff() {
+		RetentionPolicy policy = RetentionPolicy.unlimited()
+				.withMaxAge(10, TimeUnit.SECONDS)
+				.withMaxAge("Event-1", 1, TimeUnit.SECONDS);
+
+		assertEquals(90000L, policy.cutoff("Event-2", 100000L));
+		assertEquals(99000L, policy.cutoff("Event-1", 100000L));
+		assertEquals(Long.MIN_VALUE, RetentionPolicy.unlimited().cutoff("Event-1", 100000L));
+		assertEquals(Long.MIN_VALUE, policy.cutoff("Event-2", Long.MIN_VALUE + 5));
+		assertThrows(IllegalArgumentException.class, () -> policy.withMaxEventsPerType(0));
+	}
+
+	@Test
+	public void testColumnarEvictsWholeChunksOnly() throws Exception {
+		ColumnarEventStore eventStore = new ColumnarEventStore();
+		fill(eventStore, "Event-1", 3 * CHUNK);
+		RetentionPolicy policy = RetentionPolicy.unlimited().withMaxAge(CHUNK, TimeUnit.MILLISECONDS);
+
+		//The cutoff falls inside the second chunk, so only the first one can go
+		assertEquals(CHUNK, eventStore.evict(policy, 2 * CHUNK + CHUNK / 2));
+		List<Long> remaining = drain(eventStore.query("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(2 * CHUNK, remaining.size());
+		assertEquals(Long.valueOf(CHUNK), remaining.get(0));
+
+		assertEquals(0, eventStore.evict(policy, 2 * CHUNK + CHUNK / 2));
+		assertEquals(2 * CHUNK, eventStore.evict(policy, 10 * CHUNK));
+		assertTrue(drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).isEmpty());
+
+		//The column keeps accepting inserts after being emptied
+		eventStore.insert(new Event("Event-1", 5L));
+		assertEquals(1, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).size());
+	}
+
+	@Test
+	public void testPerTypeMaxAgeAndMaxEvents() throws Exception {
+		ColumnarEventStore eventStore = new ColumnarEventStore();
+		fill(eventStore, "Event-1", 4 * CHUNK);
+		fill(eventStore, "Event-2", 4 * CHUNK);
+		fill(eventStore, "Event-3", 4 * CHUNK);
+		RetentionPolicy policy = RetentionPolicy.unlimited()
+				.withMaxAge("Event-1", CHUNK, TimeUnit.MILLISECONDS)
+				.withMaxEventsPerType(2 * CHUNK + 1);
+
+		assertEquals(3 * CHUNK + CHUNK + CHUNK, eventStore.evict(policy, 4 * CHUNK));
+		assertEquals(CHUNK, eventStore.column("Event-1").size());
+		assertEquals(3 * CHUNK, eventStore.column("Event-2").size());
+		assertEquals(3 * CHUNK, eventStore.column("Event-3").size());
+	}
+
+	@Test
+	public void testIteratorKeepsEvictedChunks() throws Exception {
+		ColumnarEventStore eventStore = new ColumnarEventStore();
+		fill(eventStore, "Event-1", 2 * CHUNK);
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			eventStore.evict(RetentionPolicy.unlimited().withMaxAge(1, TimeUnit.MILLISECONDS), 10 * CHUNK);
+			int count = 0;
+			while (eventIterator.moveNext()) {
+				count++;
+			}
+			assertEquals(2 * CHUNK, count);
+		}
+	}
+
+	@Test
+	public void testOffHeapReleasesSegments() throws Exception {
+		int capacity = 8;
+		try (OffHeapEventStore eventStore = new OffHeapEventStore(100 * OffHeapColumn.segmentBytes(capacity), capacity)) {
+			fill(eventStore, "Event-1", 10 * capacity);
+			RetentionPolicy policy = RetentionPolicy.unlimited().withMaxAge(5 * capacity, TimeUnit.MILLISECONDS);
+
+			assertEquals(5 * capacity, eventStore.evict(policy, 10 * capacity));
+			assertEquals(5, eventStore.column("Event-1").segmentCount());
+			assertEquals(5, eventStore.pool.freeSegments());
+			List<Long> remaining = drain(eventStore.query("Event-1", 0, Long.MAX_VALUE));
+			assertEquals(Long.valueOf(5 * capacity), remaining.get(0));
+			assertEquals(5 * capacity, remaining.size());
+		}
+	}
+
+	@Test
+	public void testSweeperRunsInBackground() throws Exception {
+		ColumnarEventStore eventStore = new ColumnarEventStore();
+		fill(eventStore, "Event-1", 2 * CHUNK);
+		RetentionPolicy policy = RetentionPolicy.unlimited().withMaxAge(1, TimeUnit.MILLISECONDS);
+		try (RetentionSweeper sweeper = new RetentionSweeper(eventStore, policy, 1, TimeUnit.MILLISECONDS, () -> 10L * CHUNK)) {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (sweeper.evicted() < 2 * CHUNK && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals(2 * CHUNK, sweeper.evicted());
+			assertNull(sweeper.lastFailure());
+		}
+		assertTrue(drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).isEmpty());
+	}
+
+	@Test
+	public void testSweeperOutlivesAFailedPass() throws Exception {
+		ColumnarEventStore eventStore = new ColumnarEventStore();
+		fill(eventStore, "Event-1", 2 * CHUNK);
+		RetentionPolicy policy = RetentionPolicy.unlimited().withMaxAge(1, TimeUnit.MILLISECONDS);
+		IllegalStateException failure = new IllegalStateException("clock unavailable");
+		AtomicInteger passes = new AtomicInteger();
+		try (RetentionSweeper sweeper = new RetentionSweeper(eventStore, policy, 1, TimeUnit.MILLISECONDS, () -> {
+			if (passes.getAndIncrement() == 0) {
+				throw failure;
+			}
+			return 10L * CHUNK;
+		})) {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (sweeper.evicted() < 2 * CHUNK && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals(2 * CHUNK, sweeper.evicted());
+			assertSame(failure, sweeper.lastFailure());
+		}
+	}
+}
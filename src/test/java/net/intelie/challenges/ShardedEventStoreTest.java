@@ -0,0 +1,126 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ShardedEventStoreTest {
+	ShardedEventStore eventStore = new ShardedEventStore(4, IndexedEventStore::new);
+
+	List<Event> getTestData() {
+		List<Event> events = new ArrayList<Event>();
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			events.add(new Event("Event-" + random.nextInt(20), random.nextInt(10000)));
+		}
+		return events;
+	}
+
+	List<Long> drain(EventIterator eventIterator) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				result.add(it.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testTypesStayInOneShard() throws Exception {
+		List<Event> events = getTestData();
+		eventStore.insertAll(events);
+		for (int t = 0; t < 20; t++) {
+			String type = "Event-" + t;
+			int holding = 0;
+			for (EventStore shard : eventStore.shards) {
+				holding += shard.types().contains(type) ? 1 : 0;
+			}
+			assertEquals(1, holding);
+			long expected = events.stream().filter(event -> event.type().equals(type)).count();
+			assertEquals(expected, eventStore.count(type, 0, Long.MAX_VALUE));
+			assertEquals(expected, drain(eventStore.query(type, 0, Long.MAX_VALUE)).size());
+		}
+		assertEquals(20, eventStore.types().size());
+	}
+
+	@Test
+	public void testCrossShardQueriesAreMerged() throws Exception {
+		List<Event> events = getTestData();
+		for (Event event : events) {
+			eventStore.insert(event);
+		}
+		List<Long> expected = new ArrayList<Long>();
+		for (Event event : events) {
+			if (event.timestamp() >= 1000 && event.timestamp() < 9000) {
+				expected.add(event.timestamp());
+			}
+		}
+		expected.sort(null);
+		assertEquals(expected, drain(eventStore.queryAll(1000, 9000)));
+
+		List<Long> some = drain(eventStore.queryTypes(new HashSet<String>(Arrays.asList("Event-3", "Event-7", "Event-11")), 0, Long.MAX_VALUE));
+		long someCount = 0;
+		for (String type : Arrays.asList("Event-3", "Event-7", "Event-11")) {
+			someCount += eventStore.count(type, 0, Long.MAX_VALUE);
+		}
+		assertEquals(someCount, some.size());
+		for (int i = 1; i < some.size(); i++) {
+			assertTrue(some.get(i - 1) <= some.get(i));
+		}
+	}
+
+	@Test
+	public void testRemoveAll() throws Exception {
+		eventStore.insertAll(getTestData());
+		eventStore.removeAll("Event-5");
+
+		assertTrue(drain(eventStore.query("Event-5", 0, Long.MAX_VALUE)).isEmpty());
+		assertTrue(!eventStore.types().contains("Event-5"));
+		assertEquals(19, eventStore.types().size());
+	}
+
+	@Test
+	public void testConcurrentInserts() throws Exception {
+		ShardedEventStore sharded = new ShardedEventStore(4, ColumnarEventStore::new);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int w = 0; w < 8; w++) {
+				String type = "Event-" + w;
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 20000; i++) {
+						sharded.insert(new Event(type, i));
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		for (int w = 0; w < 8; w++) {
+			assertEquals(20000, sharded.count("Event-" + w, 0, Long.MAX_VALUE));
+		}
+		assertEquals(8 * 20000, drain(sharded.queryAll(0, Long.MAX_VALUE)).size());
+	}
+
+	@Test
+	public void testShardCountMustBePositive() {
+		assertThrows(IllegalArgumentException.class, () -> new ShardedEventStore(0, IndexedEventStore::new));
+		assertEquals(Runtime.getRuntime().availableProcessors(), new ShardedEventStore(IndexedEventStore::new).shards.length);
+	}
+}
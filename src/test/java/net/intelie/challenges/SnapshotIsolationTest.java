@@ -0,0 +1,144 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SnapshotIsolationTest {
+	IndexedEventStore eventStore = new IndexedEventStore();
+
+	List<Long> drain(EventIterator eventIterator) throws Exception {
+		List<Long> timestamps = new ArrayList<Long>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				timestamps.add(it.current().timestamp());
+			}
+		}
+		return timestamps;
+	}
+
+	@Test
+	public void testIteratorIgnoresLaterInserts() throws Exception {
+		eventStore.insert(new Event("Event-1", 10L));
+		EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE);
+		eventStore.insert(new Event("Event-1", 5L));
+		eventStore.insert(new Event("Event-1", 20L));
+
+		assertEquals(1, drain(eventIterator).size());
+		assertEquals(3, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).size());
+	}
+
+	@Test
+	public void testIteratorStillSeesLaterRemovals() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		EventIterator snapshot = eventStore.query("Event-1", 0, Long.MAX_VALUE);
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, 5)) {
+			while (eventIterator.moveNext()) {
+				eventIterator.remove();
+			}
+		}
+
+		assertEquals(10, drain(snapshot).size());
+		assertEquals(5, drain(eventStore.query("Event-1", 0, Long.MAX_VALUE)).size());
+		assertEquals(5, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testRemovedEntriesAreReclaimedWhenUnpinned() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		TimeIndex index = eventStore.index("Event-1");
+		EventIterator snapshot = eventStore.query("Event-1", 0, Long.MAX_VALUE);
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, 5)) {
+			while (eventIterator.moveNext()) {
+				eventIterator.remove();
+			}
+		}
+		//The older snapshot still needs the removed entries
+		assertEquals(10, index.entries.size());
+
+		snapshot.close();
+		assertEquals(0, eventStore.versions.pinned());
+		assertEquals(5, index.entries.size());
+	}
+
+	@Test
+	public void testRemoveOnlyOnceAcrossSnapshots() throws Exception {
+		eventStore.insert(new Event("Event-1", 10L));
+		EventIterator first = eventStore.query("Event-1", 0, Long.MAX_VALUE);
+		EventIterator second = eventStore.query("Event-1", 0, Long.MAX_VALUE);
+		assertTrue(first.moveNext());
+		assertTrue(second.moveNext());
+		first.remove();
+		second.remove();
+		first.close();
+		second.close();
+
+		assertEquals(0, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		assertTrue(eventStore.index("Event-1").entries.isEmpty());
+	}
+
+	@Test
+	public void testQueryAllSharesOneVersion() throws Exception {
+		eventStore.insert(new Event("Event-1", 10L));
+		eventStore.insert(new Event("Event-2", 20L));
+		EventIterator eventIterator = eventStore.queryAll(0, Long.MAX_VALUE);
+		eventStore.insert(new Event("Event-1", 15L));
+		eventStore.insert(new Event("Event-2", 5L));
+
+		List<Long> expected = new ArrayList<Long>();
+		expected.add(10L);
+		expected.add(20L);
+		assertEquals(expected, drain(eventIterator));
+		assertEquals(0, eventStore.versions.pinned());
+	}
+
+	@Test
+	public void testLongIterationDoesNotBlockWriters() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 5000; i++) {
+					eventStore.insert(new Event("Event-1", 1000 + i));
+					try (EventIterator eventIterator = eventStore.query("Event-1", 0, 1)) {
+						while (eventIterator.moveNext()) {
+							eventIterator.remove();
+						}
+					}
+					eventStore.insert(new Event("Event-1", 0));
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		try (EventIterator eventIterator = eventStore.query("Event-1", 0, Long.MAX_VALUE)) {
+			writer.start();
+			//The writer completes while the iteration is still open, and the iteration sees none of it
+			writer.join(60000);
+			assertFalse(writer.isAlive());
+			int count = 0;
+			long last = Long.MIN_VALUE;
+			while (eventIterator.moveNext()) {
+				assertTrue(eventIterator.current().timestamp() >= last);
+				last = eventIterator.current().timestamp();
+				count++;
+			}
+			assertEquals(1000, count);
+		}
+		assertNull(failure.get());
+		assertEquals(6000, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+	}
+}
@@ -0,0 +1,166 @@
+package net.intelie.challenges;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class StreamQueryTest {
+	OffHeapEventStore offHeapStore = new OffHeapEventStore(1000 * OffHeapColumn.segmentBytes(64), 64);
+
+	@After
+	public void tearDown() {
+		offHeapStore.close();
+	}
+
+	List<EventStore> stores() {
+		List<EventStore> stores = new ArrayList<EventStore>();
+		stores.add(new EventStoreImpl(new HashSet<Event>()));
+		stores.add(new IndexedEventStore());
+		stores.add(new ColumnarEventStore());
+		stores.add(offHeapStore);
+		return stores;
+	}
+
+	List<Long> getTestData() {
+		List<Long> timestamps = new ArrayList<Long>();
+		Random random = new Random(42);
+		for (int i = 0; i < 30000; i++) {
+			timestamps.add((long) random.nextInt(50000));
+		}
+		return timestamps;
+	}
+
+	List<Long> expected(List<Long> timestamps, long startTime, long endTime) {
+		List<Long> result = new ArrayList<Long>();
+		for (long timestamp : timestamps) {
+			if (timestamp >= startTime && timestamp < endTime) {
+				result.add(timestamp);
+			}
+		}
+		result.sort(null);
+		return result;
+	}
+
+	@Test
+	public void testParallelStreamMatchesQuery() {
+		List<Long> timestamps = getTestData();
+		for (EventStore eventStore : stores()) {
+			for (long timestamp : timestamps) {
+				eventStore.insert(new Event("Event-1", timestamp));
+			}
+			List<Long> serial = eventStore.stream("Event-1", 1000, 40000).map(Event::timestamp).collect(Collectors.toList());
+			List<Long> parallel = eventStore.stream("Event-1", 1000, 40000).parallel().map(Event::timestamp).sorted().collect(Collectors.toList());
+			List<Long> expected = expected(timestamps, 1000, 40000);
+			assertEquals(expected, serial);
+			assertEquals(expected, parallel);
+			assertEquals(0, eventStore.stream("Event-2", 0, Long.MAX_VALUE).count());
+			assertEquals(0, eventStore.stream("Event-1", 500, 500).parallel().count());
+		}
+	}
+
+	@Test
+	public void testParallelOrderedStreamKeepsOrder() {
+		List<Long> timestamps = getTestData();
+		for (EventStore eventStore : new EventStore[] {new EventStoreImpl(new HashSet<Event>()), new IndexedEventStore(), new ColumnarEventStore(), offHeapStore}) {
+			for (long timestamp : timestamps) {
+				eventStore.insert(new Event("Event-1", timestamp));
+			}
+			assertEquals(expected(timestamps, 0, Long.MAX_VALUE),
+					eventStore.stream("Event-1", 0, Long.MAX_VALUE).parallel().map(Event::timestamp).collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testClosingTheStreamClosesItsQueries() {
+		IndexedEventStore eventStore = new IndexedEventStore();
+		for (int i = 0; i < 1000; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		try (Stream<Event> stream = eventStore.stream("Event-1", 0, Long.MAX_VALUE)) {
+			assertTrue(stream.parallel().anyMatch(event -> event.timestamp() == 10));
+		}
+		try (Stream<Event> stream = eventStore.stream("Event-1", 0, Long.MAX_VALUE)) {
+			assertEquals(0L, (long) stream.findFirst().get().timestamp());
+			assertTrue(eventStore.versions.pinned() > 0);
+		}
+		assertEquals(0, eventStore.versions.pinned());
+		try {
+			eventStore.stream("Event-1", 0, Long.MAX_VALUE).forEach(event -> {
+				throw new IllegalStateException();
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			//A failed forEach closes its query without the stream being closed
+		}
+		assertEquals(0, eventStore.versions.pinned());
+	}
+
+	@Test
+	public void testChunkSpliteratorSplitsExactly() {
+		ColumnarEventStore eventStore = new ColumnarEventStore();
+		for (int i = 0; i < 10 * TimestampColumn.CHUNK_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		List<Spliterator<Event>> parts = new ArrayList<Spliterator<Event>>();
+		parts.add(ChunkSpliterator.of(eventStore.column("Event-1"), 100, 9000));
+		for (int round = 0; round < 6; round++) {
+			List<Spliterator<Event>> next = new ArrayList<Spliterator<Event>>();
+			for (Spliterator<Event> part : parts) {
+				Spliterator<Event> prefix = part.trySplit();
+				if (prefix != null) {
+					next.add(prefix);
+				}
+				next.add(part);
+			}
+			parts = next;
+		}
+		assertTrue(parts.size() > 16);
+		long expected = 100;
+		for (Spliterator<Event> part : parts) {
+			long size = part.estimateSize();
+			long[] count = new long[1];
+			long first = expected;
+			part.forEachRemaining(event -> assertEquals(first + count[0]++, event.timestamp()));
+			assertEquals(size, count[0]);
+			expected += size;
+		}
+		assertEquals(9000, expected);
+		assertNull(ChunkSpliterator.of(eventStore.column("Event-1"), 5, 5).trySplit());
+	}
+
+	@Test
+	public void testParallelScans() {
+		List<Long> timestamps = getTestData();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (EventStore eventStore : stores()) {
+				for (long timestamp : timestamps) {
+					eventStore.insert(new Event("Event-1", timestamp));
+				}
+				long even = 0;
+				for (long timestamp : expected(timestamps, 0, 50000)) {
+					even += timestamp % 2 == 0 ? 1 : 0;
+				}
+				assertEquals(even, ParallelScans.count(pool, eventStore, "Event-1", 0, 50000, event -> event.timestamp() % 2 == 0));
+				assertArrayEquals(eventStore.histogram("Event-1", 0, 50000, 1000),
+						ParallelScans.histogram(pool, eventStore, "Event-1", 0, 50000, 1000, event -> true));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package net.intelie.challenges;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class SubscriptionTest {
+	PublishingEventStore eventStore = new PublishingEventStore(new ColumnarEventStore());
+
+	@After
+	public void tearDown() {
+		eventStore.close();
+	}
+
+	/**
+	 * Polls a subscription until it delivered a number of events, or a few seconds went by
+	 */
+	static List<Long> pollTimestamps(Subscription subscription, int count) throws InterruptedException {
+		List<Long> timestamps = new ArrayList<Long>();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (timestamps.size() < count && System.nanoTime() < deadline) {
+			for (Event event : subscription.poll(count, 10, TimeUnit.MILLISECONDS)) {
+				timestamps.add(event.timestamp());
+			}
+		}
+		return timestamps;
+	}
+
+	static void awaitSize(List<?> list, int size) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (size(list) < size && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+
+	static int size(List<?> list) {
+		synchronized (list) {
+			return list.size();
+		}
+	}
+
+	@Test
+	public void testListenerGetsNewMatchingEvents() throws Exception {
+		eventStore.insert(new Event("Event-1", 1));
+		List<Event> received = Collections.synchronizedList(new ArrayList<Event>());
+		List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+		Subscription subscription = eventStore.subscribe("Event-1", 100, 200, events -> {
+			threads.add(Thread.currentThread().getName());
+			received.addAll(events);
+		});
+
+		for (int i = 0; i < 300; i++) {
+			eventStore.insert(new Event(i % 2 == 0 ? "Event-1" : "Event-2", i));
+		}
+		awaitSize(received, 50);
+		assertEquals(50, size(received));
+		for (int i = 0; i < 50; i++) {
+			assertEquals(100 + 2 * i, received.get(i).timestamp());
+		}
+		//Events are visible to queries before they are pushed, and never pushed from the insert thread
+		assertEquals(151, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		assertFalse(threads.contains(Thread.currentThread().getName()));
+		assertEquals(50, subscription.deliveredEvents());
+		assertEquals(0, subscription.droppedEvents());
+	}
+
+	@Test
+	public void testPollWithPredicates() throws Exception {
+		PayloadSchema schema = PayloadSchema.empty().withString("host");
+		Subscription subscription = eventStore.subscribe("Event-1", 0, Long.MAX_VALUE, FieldPredicate.stringEquals("host", "a"));
+		assertTrue(subscription.poll(10, 1, TimeUnit.MILLISECONDS).isEmpty());
+
+		Event[] batch = new Event[100];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = Event.of("Event-1", i, schema.newPayload().setString("host", i % 4 == 0 ? "a" : "b").build());
+		}
+		eventStore.insertAll(batch, 0, batch.length);
+		List<Long> timestamps = pollTimestamps(subscription, 25);
+		assertEquals(25, timestamps.size());
+		for (int i = 0; i < timestamps.size(); i++) {
+			assertEquals(4L * i, (long) timestamps.get(i));
+		}
+
+		subscription.close();
+		eventStore.insert(Event.of("Event-1", 1000, schema.newPayload().setString("host", "a").build()));
+		assertTrue(subscription.poll(10, 10, TimeUnit.MILLISECONDS).isEmpty());
+		assertThrows(IllegalStateException.class, () -> eventStore.subscribe("Event-1", events -> {
+		}).poll(1, 1, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testSlowSubscriberOnlyDropsItsOwnEvents() throws Exception {
+		PublishingEventStore dropping = new PublishingEventStore(new ColumnarEventStore(), 16, BackpressurePolicy.DROP, null);
+		try {
+			CountDownLatch release = new CountDownLatch(1);
+			Subscription slow = dropping.subscribe("Event-1", events -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			Subscription fast = dropping.subscribe("Event-1", Long.MIN_VALUE, Long.MAX_VALUE);
+
+			for (int i = 0; i < 1000; i++) {
+				dropping.insert(new Event("Event-1", i));
+				if (i % 10 == 9) {
+					//Keeps the fast subscriber within its own small buffer
+					assertEquals(10, pollTimestamps(fast, 10).size());
+				}
+			}
+			assertEquals(0, fast.droppedEvents());
+			assertEquals(1000, fast.deliveredEvents());
+			assertTrue(slow.droppedEvents() > 0);
+			release.countDown();
+		} finally {
+			dropping.close();
+		}
+	}
+
+	@Test
+	public void testBlockingSubscriberLosesNothing() throws Exception {
+		PublishingEventStore blocking = new PublishingEventStore(new ColumnarEventStore(), 8, BackpressurePolicy.BLOCK, null);
+		try {
+			Subscription subscription = blocking.subscribe("Event-1", Long.MIN_VALUE, Long.MAX_VALUE);
+			for (int i = 0; i < 5000; i++) {
+				blocking.insert(new Event("Event-1", i));
+			}
+			List<Long> timestamps = pollTimestamps(subscription, 5000);
+			assertEquals(5000, timestamps.size());
+			for (int i = 0; i < timestamps.size(); i++) {
+				assertEquals(i, (long) timestamps.get(i));
+			}
+			assertEquals(0, subscription.droppedEvents());
+		} finally {
+			blocking.close();
+		}
+	}
+
+	@Test
+	public void testRejectedDeliveryOnlyClosesItsSubscription() throws Exception {
+		RejectedExecutionException rejected = new RejectedExecutionException("full");
+		PublishingEventStore rejecting = new PublishingEventStore(new ColumnarEventStore(), 8, BackpressurePolicy.BLOCK, runnable -> {
+			throw rejected;
+		});
+		try {
+			Subscription failing = rejecting.subscribe("Event-1", events -> {
+			});
+			Subscription polled = rejecting.subscribe("Event-1", Long.MIN_VALUE, Long.MAX_VALUE);
+			for (int i = 0; i < 1000; i++) {
+				rejecting.insert(new Event("Event-1", i));
+			}
+			assertEquals(1000, pollTimestamps(polled, 1000).size());
+			assertTrue(failing.isClosed());
+			assertSame(rejected, failing.lastFailure());
+			assertFalse(polled.isClosed());
+		} finally {
+			rejecting.close();
+		}
+	}
+
+	@Test
+	public void testCloseDispatchesPublishedEvents() throws Exception {
+		List<Event> received = Collections.synchronizedList(new ArrayList<Event>());
+		eventStore.subscribe("Event-1", received::addAll);
+		Event event = new Event("Event-1", 5);
+		eventStore.insert(event);
+		eventStore.close();
+
+		awaitSize(received, 1);
+		assertEquals(1, size(received));
+		assertEquals(0, eventStore.pendingEvents());
+		//Subscribers get the inserted instance, even from a store that only keeps its value
+		assertSame(event, received.get(0));
+		assertThrows(IllegalStateException.class, () -> eventStore.insert(event));
+		assertThrows(IllegalStateException.class, () -> eventStore.subscribe("Event-1", received::addAll));
+	}
+}
@@ -0,0 +1,209 @@
+package net.intelie.challenges;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TieredStorageTest {
+	private static final long FILE_BYTES = 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	TieredEventStore eventStore;
+
+	@After
+	public void tearDown() throws Exception {
+		if (eventStore != null) {
+			eventStore.close();
+		}
+	}
+
+	/**
+	 * A store that only spills when told to, in small files
+	 */
+	TieredEventStore open(long maxHeapBytes, long maxMappedBytes) throws Exception {
+		eventStore = new TieredEventStore(folder.getRoot().toPath(), maxHeapBytes, maxMappedBytes, FILE_BYTES, 1, TimeUnit.HOURS);
+		return eventStore;
+	}
+
+	static List<Long> timestamps(EventIterator eventIterator) throws Exception {
+		List<Long> result = new ArrayList<Long>();
+		try (EventIterator it = eventIterator) {
+			while (it.moveNext()) {
+				result.add(it.current().timestamp());
+			}
+		}
+		return result;
+	}
+
+	int spillFiles() {
+		File[] files = folder.getRoot().listFiles((directory, name) -> name.startsWith(SegmentSpill.PREFIX));
+		return files == null ? 0 : files.length;
+	}
+
+	@Test
+	public void testSpilledSegmentsAnswerQueries() throws Exception {
+		open(0, TieredEventStore.DEFAULT_MAPPED_BYTES);
+		int size = 20 * CompressedColumn.SEGMENT_CAPACITY + 100;
+		for (int i = 0; i < size; i++) {
+			eventStore.insert(new Event(i % 2 == 0 ? "Event-1" : "Event-2", 3L * i + i % 7));
+		}
+		long before = eventStore.usedBytes();
+
+		assertTrue(eventStore.spill() > 0);
+		assertEquals(20, eventStore.spilledSegments());
+		assertTrue(eventStore.usedBytes() < before / 5);
+		assertTrue(eventStore.spilledBytes() > 0);
+		assertTrue(spillFiles() > 1);
+		for (SealedSegment segment : eventStore.column("Event-1").layout.sealed) {
+			assertTrue(segment.isSpilled());
+		}
+
+		List<Long> all = timestamps(eventStore.query("Event-1", 0, Long.MAX_VALUE));
+		assertEquals(size / 2, all.size());
+		for (int i = 0; i < all.size(); i++) {
+			assertEquals(6L * i + (2 * i) % 7, (long) all.get(i));
+		}
+		List<Long> range = new ArrayList<Long>();
+		for (long timestamp : all) {
+			if (timestamp >= 10_000 && timestamp < 20_000) {
+				range.add(timestamp);
+			}
+		}
+		assertEquals(range, timestamps(eventStore.query("Event-1", 10_000, 20_000)));
+		assertEquals(range.size(), eventStore.count("Event-1", 10_000, 20_000));
+		assertEquals((long) range.get(0), eventStore.firstTimestamp("Event-1", 10_000, 20_000).getAsLong());
+		assertEquals((long) range.get(range.size() - 1), eventStore.lastTimestamp("Event-1", 10_000, 20_000).getAsLong());
+		assertNull(eventStore.lastFailure());
+	}
+
+	@Test
+	public void testRewrittenSegmentsReleaseTheirFiles() throws Exception {
+		open(0, TieredEventStore.DEFAULT_MAPPED_BYTES);
+		int size = 20 * CompressedColumn.SEGMENT_CAPACITY;
+		for (int i = 0; i < size; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		eventStore.spill();
+		long spilled = eventStore.spilledBytes();
+
+		//A late event decodes its spilled segment and brings it back to the heap
+		eventStore.insert(new Event("Event-1", 100));
+		assertTrue(eventStore.spilledBytes() < spilled);
+		assertEquals(2, eventStore.count("Event-1", 100, 101));
+		assertEquals(size / 2 - 1000, eventStore.removeRange("Event-1", 1000, size / 2));
+		assertEquals(size / 2 + 1001, timestamps(eventStore.query("Event-1", 0, Long.MAX_VALUE)).size());
+
+		eventStore.removeAll("Event-1");
+		assertEquals(0, eventStore.spilledBytes());
+		//Only the file being appended to is kept
+		assertEquals(1, spillFiles());
+		assertTrue(eventStore.types().isEmpty());
+	}
+
+	@Test
+	public void testDeletedFilesStayReadableWhileIteratorsAreOpen() throws Exception {
+		open(0, FILE_BYTES);
+		int size = 20 * CompressedColumn.SEGMENT_CAPACITY;
+		for (int i = 0; i < size; i++) {
+			eventStore.insert(new Event("Event-1", 1000L * i + (i * 7919L) % 997));
+		}
+		eventStore.spill();
+		SegmentSpill.SpillFile first = eventStore.column("Event-1").layout.sealed[0].file;
+		EventIterator open = eventStore.query("Event-1", 0, Long.MAX_VALUE);
+		assertTrue(open.moveNext());
+
+		//Every segment leaves the column, and the files are deleted under the iterator
+		eventStore.removeAll("Event-1");
+		eventStore.spill();
+		assertEquals(1, spillFiles());
+		assertTrue(first.channel.isOpen());
+		//A small cache, so that the iterator maps the deleted files again
+		int found = 1;
+		while (open.moveNext()) {
+			found++;
+		}
+		assertEquals(size, found);
+
+		assertEquals(0, eventStore.count("Event-1", 0, Long.MAX_VALUE));
+		open.close();
+		eventStore.spill();
+		assertFalse(first.channel.isOpen());
+		assertEquals(0, eventStore.spill.deletedFileCount());
+	}
+
+	@Test
+	public void testMappingsStayWithinTheCache() throws Exception {
+		open(0, FILE_BYTES);
+		for (int i = 0; i < 50 * CompressedColumn.SEGMENT_CAPACITY; i++) {
+			//Irregular gaps, so that segments take a few bytes per event and many files
+			eventStore.insert(new Event("Event-1", 1000L * i + (i * 7919L) % 997));
+		}
+		eventStore.spill();
+		assertTrue(spillFiles() > 4);
+
+		for (int pass = 0; pass < 2; pass++) {
+			assertEquals(50 * CompressedColumn.SEGMENT_CAPACITY, timestamps(eventStore.query("Event-1", 0, Long.MAX_VALUE)).size());
+			assertTrue(eventStore.mappedBytes() <= FILE_BYTES);
+		}
+		assertTrue(eventStore.mappedBytes() > 0);
+	}
+
+	@Test
+	public void testBackgroundThreadKeepsHeapUnderLimit() throws Exception {
+		//Above the 10 heads, which always stay on the heap
+		long limit = 256 * 1024;
+		eventStore = new TieredEventStore(folder.getRoot().toPath(), limit, TieredEventStore.DEFAULT_MAPPED_BYTES, FILE_BYTES, 5, TimeUnit.MILLISECONDS);
+		int size = 200_000;
+		for (int i = 0; i < size; i++) {
+			eventStore.insert(new Event("Event-" + i % 10, 1000L * i + (i * 7919L) % 997));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (eventStore.usedBytes() > limit && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+
+		assertTrue(eventStore.usedBytes() <= limit);
+		assertTrue(eventStore.spilledSegments() > 0);
+		long count = 0;
+		for (int type = 0; type < 10; type++) {
+			List<Long> found = timestamps(eventStore.query("Event-" + type, 0, Long.MAX_VALUE));
+			for (int i = 1; i < found.size(); i++) {
+				assertTrue(found.get(i - 1) <= found.get(i));
+			}
+			count += found.size();
+		}
+		assertEquals(size, count);
+		assertNull(eventStore.lastFailure());
+	}
+
+	@Test
+	public void testCloseDeletesSpillFiles() throws Exception {
+		open(0, TieredEventStore.DEFAULT_MAPPED_BYTES);
+		for (int i = 0; i < 10 * CompressedColumn.SEGMENT_CAPACITY; i++) {
+			eventStore.insert(new Event("Event-1", i));
+		}
+		eventStore.spill();
+		assertTrue(spillFiles() > 0);
+
+		eventStore.close();
+		assertEquals(0, spillFiles());
+		eventStore = null;
+
+		//Files left behind by a store that did not close are deleted by the next one
+		assertTrue(new File(folder.getRoot(), SegmentSpill.path(folder.getRoot().toPath(), 7).getFileName().toString()).createNewFile());
+		open(0, TieredEventStore.DEFAULT_MAPPED_BYTES);
+		assertEquals(0, spillFiles());
+	}
+}